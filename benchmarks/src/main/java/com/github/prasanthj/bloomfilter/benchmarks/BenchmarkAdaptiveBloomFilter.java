@@ -0,0 +1,123 @@
+/**
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.LinuxPerfAsmProfiler;
+import org.openjdk.jmh.profile.LinuxPerfNormProfiler;
+import org.openjdk.jmh.profile.LinuxPerfProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.bloomfilter.AdaptiveBloomFilter;
+import com.github.prasanthj.bloomfilter.BloomKFilter;
+
+/**
+ * Probe cost of AdaptiveBloomFilter and BloomKFilter, both sized for maxNumEntries, holding
+ * numEntries distinct values. Small sets stay exact in AdaptiveBloomFilter (~32K entries for the
+ * default maxNumEntries), larger ones use the bloom filter. Half of the probes are present.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BenchmarkAdaptiveBloomFilter {
+  public static final int PROBE_COUNT = 1_000_000;
+
+  @Param({"1000000"})
+  private long maxNumEntries;
+
+  @Param({"100", "1000", "10000", "100000"})
+  private int numEntries;
+
+  private long[] probes;
+  private AdaptiveBloomFilter abf;
+  private BloomKFilter bf;
+
+  @Setup
+  public void setup() {
+    abf = new AdaptiveBloomFilter(maxNumEntries, 0.01);
+    bf = new BloomKFilter(maxNumEntries, 0.01);
+    Random random = new Random(123);
+    long[] values = new long[numEntries];
+    for (int i = 0; i < numEntries; i++) {
+      values[i] = random.nextLong();
+      abf.addHash(values[i]);
+      bf.addHash(values[i]);
+    }
+    probes = new long[PROBE_COUNT];
+    for (int i = 0; i < PROBE_COUNT; i++) {
+      probes[i] = random.nextBoolean() ? values[random.nextInt(numEntries)] : random.nextLong();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public int adaptiveBloomFilterTest() {
+    int found = 0;
+    for (long probe : probes) {
+      found += abf.testHash(probe) ? 1 : 0;
+    }
+    return found;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public int bloomKFilterTest() {
+    int found = 0;
+    for (long probe : probes) {
+      found += bf.testHash(probe) ? 1 : 0;
+    }
+    return found;
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar BenchmarkAdaptiveBloomFilter -prof perf     -f 1 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkAdaptiveBloomFilter -prof perfnorm -f 3 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkAdaptiveBloomFilter -prof perfasm  -f 1 (Linux)
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(BenchmarkAdaptiveBloomFilter.class.getSimpleName())
+      .addProfiler(LinuxPerfProfiler.class)
+      .addProfiler(LinuxPerfNormProfiler.class)
+      .addProfiler(LinuxPerfAsmProfiler.class)
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.LinuxPerfAsmProfiler;
+import org.openjdk.jmh.profile.LinuxPerfNormProfiler;
+import org.openjdk.jmh.profile.LinuxPerfProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.bloomfilter.AgePartitionedBloomFilter;
+import com.github.prasanthj.bloomfilter.TimeWindowBloomFilter;
+
+/**
+ * AgePartitionedBloomFilter vs TimeWindowBloomFilter for a sliding window of windowSize elements
+ * with the same false positive probability. The time window filter has 4 generations of
+ * windowSize / 3 elements and a window that does not expire during the run. Both filters are
+ * filled with a stream of 4 windows before measuring, adds keep streaming so the age-partitioned
+ * filter shifts while it is measured. Probes are pre-hashed so that only the filter is measured.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BenchmarkAgePartitionedBloomFilter {
+  public static final int PROBE_COUNT = 10_000_000;
+  private static final int NUM_GENERATIONS = 4;
+
+  @Param({"100000", "10000000"})
+  private int windowSize;
+
+  @Param({"0.01", "0.001"})
+  private double fpp;
+
+  private long[] probeArray;
+  private AgePartitionedBloomFilter apbf;
+  private TimeWindowBloomFilter twbf;
+
+  @Setup
+  public void setup() {
+    apbf = new AgePartitionedBloomFilter(windowSize, fpp);
+    twbf = new TimeWindowBloomFilter(windowSize / (NUM_GENERATIONS - 1), fpp, Long.MAX_VALUE / 2,
+        NUM_GENERATIONS, TimeWindowBloomFilter.SYSTEM_CLOCK);
+    Random random = new Random(123);
+    probeArray = new long[PROBE_COUNT];
+    for (int i = 0; i < PROBE_COUNT; i++) {
+      probeArray[i] = random.nextLong();
+    }
+    for (int i = 0; i < 4 * windowSize; i++) {
+      final long hash = random.nextLong();
+      apbf.addHash(hash);
+      twbf.addHash(hash);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public void agePartitionedBloomFilterProbe() {
+    for (long hash : probeArray) {
+      apbf.testHash(hash);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public void timeWindowBloomFilterProbe() {
+    for (long hash : probeArray) {
+      twbf.testHash(hash);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public void agePartitionedBloomFilterAdd() {
+    for (long hash : probeArray) {
+      apbf.addHash(hash);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public void timeWindowBloomFilterAdd() {
+    for (long hash : probeArray) {
+      twbf.addHash(hash);
+    }
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar BenchmarkAgePartitionedBloomFilter -prof perf     -f 1 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkAgePartitionedBloomFilter -prof perfnorm -f 3 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkAgePartitionedBloomFilter -prof perfasm  -f 1 (Linux)
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(BenchmarkAgePartitionedBloomFilter.class.getSimpleName())
+      .addProfiler(LinuxPerfProfiler.class)
+      .addProfiler(LinuxPerfNormProfiler.class)
+      .addProfiler(LinuxPerfAsmProfiler.class)
+      .build();
+
+    new Runner(opt).run();
+  }
+}
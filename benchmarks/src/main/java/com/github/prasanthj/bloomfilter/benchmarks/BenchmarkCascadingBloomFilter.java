@@ -0,0 +1,126 @@
+/**
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.LinuxPerfAsmProfiler;
+import org.openjdk.jmh.profile.LinuxPerfNormProfiler;
+import org.openjdk.jmh.profile.LinuxPerfProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.bloomfilter.BloomKFilter;
+import com.github.prasanthj.bloomfilter.CascadingBloomFilter;
+
+/**
+ * Cost of negative probes of CascadingBloomFilter and BloomKFilter for filters much larger than the
+ * last level cache. Both hold numEntries random hashcodes at 1% fpp, 12MB of bloom filter per 10M
+ * entries, and all probes are random hashcodes that were not added. The fraction of probes
+ * screened by the front filter is ~e^(-numEntries / frontBits), so small front filters screen few
+ * probes of large filters. frontSizeInBytes 0 uses the default front filter size, at least 1 bit
+ * per entry.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BenchmarkCascadingBloomFilter {
+  public static final int PROBE_COUNT = 1_000_000;
+
+  @Param({"10000000", "50000000"})
+  private long numEntries;
+
+  @Param({"0", "32768", "262144", "4194304"})
+  private int frontSizeInBytes;
+
+  private long[] probes;
+  private CascadingBloomFilter cbf;
+  private BloomKFilter bf;
+
+  @Setup
+  public void setup() {
+    cbf = frontSizeInBytes == 0 ? new CascadingBloomFilter(numEntries, 0.01) :
+        new CascadingBloomFilter(numEntries, 0.01, frontSizeInBytes);
+    bf = new BloomKFilter(numEntries, 0.01);
+    Random random = new Random(123);
+    for (long i = 0; i < numEntries; i++) {
+      long hash = random.nextLong();
+      cbf.addHash(hash);
+      bf.addHash(hash);
+    }
+    probes = new long[PROBE_COUNT];
+    for (int i = 0; i < PROBE_COUNT; i++) {
+      probes[i] = random.nextLong();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public int cascadingBloomFilterNegativeProbe() {
+    int found = 0;
+    for (long probe : probes) {
+      found += cbf.testHash(probe) ? 1 : 0;
+    }
+    return found;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public int bloomKFilterNegativeProbe() {
+    int found = 0;
+    for (long probe : probes) {
+      found += bf.testHash(probe) ? 1 : 0;
+    }
+    return found;
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar BenchmarkCascadingBloomFilter -prof perf     -f 1 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkCascadingBloomFilter -prof perfnorm -f 3 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkCascadingBloomFilter -prof perfasm  -f 1 (Linux)
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(BenchmarkCascadingBloomFilter.class.getSimpleName())
+      .addProfiler(LinuxPerfProfiler.class)
+      .addProfiler(LinuxPerfNormProfiler.class)
+      .addProfiler(LinuxPerfAsmProfiler.class)
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.LinuxPerfAsmProfiler;
+import org.openjdk.jmh.profile.LinuxPerfNormProfiler;
+import org.openjdk.jmh.profile.LinuxPerfProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.bloomfilter.CountMinSketch;
+
+/**
+ * CountMinSketch increments one at a time vs in batches, with and without conservative update, and
+ * estimates. epsilon 0.0001 (870KB) fits in L2 cache, epsilon 0.000001 (87MB) does not fit in any
+ * cache. Hashes are precomputed so that only the sketch is measured.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BenchmarkCountMinSketch {
+  public static final int PROBE_COUNT = 10_000_000;
+
+  @Param({"0.0001", "0.000001"})
+  private double epsilon;
+
+  @Param({"false", "true"})
+  private boolean conservative;
+
+  private long[] probeArray;
+  private CountMinSketch cms;
+
+  @Setup
+  public void setup() {
+    cms = new CountMinSketch(epsilon, 0.01, conservative);
+    Random random = new Random(123);
+    probeArray = new long[PROBE_COUNT];
+    for (int i = 0; i < PROBE_COUNT; i++) {
+      probeArray[i] = random.nextLong();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public void countMinSketchAdd() {
+    for (long hash : probeArray) {
+      cms.addHash(hash);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public void countMinSketchAddHashes() {
+    cms.addHashes(probeArray);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public void countMinSketchEstimate() {
+    for (long hash : probeArray) {
+      cms.estimateHash(hash);
+    }
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar BenchmarkCountMinSketch -prof perf     -f 1 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkCountMinSketch -prof perfnorm -f 3 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkCountMinSketch -prof perfasm  -f 1 (Linux)
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(BenchmarkCountMinSketch.class.getSimpleName())
+      .addProfiler(LinuxPerfProfiler.class)
+      .addProfiler(LinuxPerfNormProfiler.class)
+      .addProfiler(LinuxPerfAsmProfiler.class)
+      .build();
+
+    new Runner(opt).run();
+  }
+}
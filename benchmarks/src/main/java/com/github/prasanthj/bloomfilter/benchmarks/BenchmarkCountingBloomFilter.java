@@ -0,0 +1,154 @@
+/**
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter.benchmarks;
+
+import com.github.prasanthj.bloomfilter.CountingBloomFilter;
+import com.github.prasanthj.bloomfilter.CountingBloomKFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.LinuxPerfAsmProfiler;
+import org.openjdk.jmh.profile.LinuxPerfNormProfiler;
+import org.openjdk.jmh.profile.LinuxPerfProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Add, remove and test throughput of CountingBloomFilter and the blocked CountingBloomKFilter.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BenchmarkCountingBloomFilter {
+
+  @Param({"10000", "1000000"})
+  private int numEntries;
+  private CountingBloomFilter cbf;
+  private CountingBloomKFilter cbfk;
+  private int[] inp;
+
+  @Setup
+  public void setup() {
+    cbf = new CountingBloomFilter(numEntries);
+    cbfk = new CountingBloomKFilter(numEntries);
+    inp = new int[numEntries];
+    Random rand = new Random(123);
+    for (int i = 0; i < numEntries; i++) {
+      inp[i] = rand.nextInt(numEntries);
+    }
+  }
+
+  /**
+   * Filters refilled before every invocation, so that remove always decrements populated counters.
+   */
+  @State(Scope.Thread)
+  public static class FilledFilters {
+    private CountingBloomFilter cbf;
+    private CountingBloomKFilter cbfk;
+
+    @Setup(Level.Invocation)
+    public void setup(BenchmarkCountingBloomFilter benchmark) {
+      cbf = new CountingBloomFilter(benchmark.numEntries);
+      cbfk = new CountingBloomKFilter(benchmark.numEntries);
+      for (int i : benchmark.inp) {
+        cbf.addLong(i);
+        cbfk.addLong(i);
+      }
+    }
+  }
+
+  @Benchmark
+  public void countingBloomFilterAddLong() {
+    for (int i : inp) {
+      cbf.addLong(i);
+    }
+  }
+
+  @Benchmark
+  public void countingBloomFilterTestLong() {
+    for (int i : inp) {
+      cbf.testLong(i);
+    }
+  }
+
+  @Benchmark
+  public void countingBloomFilterRemoveLong(FilledFilters filled) {
+    for (int i : inp) {
+      filled.cbf.removeLong(i);
+    }
+  }
+
+  @Benchmark
+  public void countingBloomKFilterAddLong() {
+    for (int i : inp) {
+      cbfk.addLong(i);
+    }
+  }
+
+  @Benchmark
+  public void countingBloomKFilterTestLong() {
+    for (int i : inp) {
+      cbfk.testLong(i);
+    }
+  }
+
+  @Benchmark
+  public void countingBloomKFilterRemoveLong(FilledFilters filled) {
+    for (int i : inp) {
+      filled.cbfk.removeLong(i);
+    }
+  }
+
+   /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar BenchmarkCountingBloomFilter -prof perf     -f 1 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkCountingBloomFilter -prof perfnorm -f 3 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkCountingBloomFilter -prof perfasm  -f 1 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkCountingBloomFilter -prof gc  -f 1 (allocation counting via gc)
+   */
+
+  public static void main(String[] args) throws RunnerException {
+    Options options = new OptionsBuilder()
+      .include(BenchmarkCountingBloomFilter.class.getSimpleName())
+      .addProfiler(LinuxPerfProfiler.class)
+      .addProfiler(LinuxPerfNormProfiler.class)
+      .addProfiler(LinuxPerfAsmProfiler.class)
+      .forks(1)
+      .build();
+
+    new Runner(options).run();
+  }
+}
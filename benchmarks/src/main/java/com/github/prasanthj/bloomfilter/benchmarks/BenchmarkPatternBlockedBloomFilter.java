@@ -0,0 +1,168 @@
+/**
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.LinuxPerfAsmProfiler;
+import org.openjdk.jmh.profile.LinuxPerfNormProfiler;
+import org.openjdk.jmh.profile.LinuxPerfProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.bloomfilter.Bloom1Filter;
+import com.github.prasanthj.bloomfilter.BloomKFilter;
+import com.github.prasanthj.bloomfilter.PatternBlockedBloomFilter;
+
+/**
+ * PatternBlockedBloomFilter vs Bloom1Filter and BloomKFilter configured with the same false
+ * positive probability. Probes are pre-hashed so that only the filter is measured, the fpp values
+ * correspond to k = 4 and k = 6-8.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BenchmarkPatternBlockedBloomFilter {
+  public static final int PROBE_COUNT = 20_000_000;
+
+  @Param({"10000", "10000000"})
+  private int numEntries;
+
+  @Param({"0.05", "0.005"})
+  private double fpp;
+
+  private long[] probeArray;
+  private PatternBlockedBloomFilter pbf;
+  private Bloom1Filter b1f;
+  private BloomKFilter bkf;
+
+  @Setup
+  public void setup() {
+    pbf = new PatternBlockedBloomFilter(numEntries, fpp);
+    b1f = new Bloom1Filter(numEntries, fpp);
+    bkf = new BloomKFilter(numEntries, fpp);
+    Random random = new Random(123);
+    probeArray = new long[PROBE_COUNT];
+    for (int i = 0; i < PROBE_COUNT; i++) {
+      probeArray[i] = random.nextLong();
+    }
+    for (int i = 0; i < numEntries; i++) {
+      pbf.addHash(probeArray[i]);
+      b1f.addHash(probeArray[i]);
+      bkf.addHash(probeArray[i]);
+    }
+  }
+
+  /**
+   * Empty filters for measuring adds, recreated before every invocation.
+   */
+  @State(Scope.Thread)
+  public static class EmptyFilters {
+    private PatternBlockedBloomFilter pbf;
+    private Bloom1Filter b1f;
+    private BloomKFilter bkf;
+
+    @Setup(Level.Invocation)
+    public void setup(BenchmarkPatternBlockedBloomFilter benchmark) {
+      pbf = new PatternBlockedBloomFilter(benchmark.numEntries, benchmark.fpp);
+      b1f = new Bloom1Filter(benchmark.numEntries, benchmark.fpp);
+      bkf = new BloomKFilter(benchmark.numEntries, benchmark.fpp);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public void patternBlockedBloomFilterProbe() {
+    for (long hash : probeArray) {
+      pbf.testHash(hash);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public void bloom1FilterProbe() {
+    for (long hash : probeArray) {
+      b1f.testHash(hash);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public void bloomKFilterProbe() {
+    for (long hash : probeArray) {
+      bkf.testHash(hash);
+    }
+  }
+
+  @Benchmark
+  public void patternBlockedBloomFilterAdd(EmptyFilters empty) {
+    for (int i = 0; i < numEntries; i++) {
+      empty.pbf.addHash(probeArray[i]);
+    }
+  }
+
+  @Benchmark
+  public void bloom1FilterAdd(EmptyFilters empty) {
+    for (int i = 0; i < numEntries; i++) {
+      empty.b1f.addHash(probeArray[i]);
+    }
+  }
+
+  @Benchmark
+  public void bloomKFilterAdd(EmptyFilters empty) {
+    for (int i = 0; i < numEntries; i++) {
+      empty.bkf.addHash(probeArray[i]);
+    }
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar BenchmarkPatternBlockedBloomFilter -prof perf     -f 1 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkPatternBlockedBloomFilter -prof perfnorm -f 3 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkPatternBlockedBloomFilter -prof perfasm  -f 1 (Linux)
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(BenchmarkPatternBlockedBloomFilter.class.getSimpleName())
+      .addProfiler(LinuxPerfProfiler.class)
+      .addProfiler(LinuxPerfNormProfiler.class)
+      .addProfiler(LinuxPerfAsmProfiler.class)
+      .build();
+
+    new Runner(opt).run();
+  }
+}
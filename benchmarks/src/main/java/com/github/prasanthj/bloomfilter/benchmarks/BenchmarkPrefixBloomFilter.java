@@ -0,0 +1,123 @@
+/**
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.LinuxPerfAsmProfiler;
+import org.openjdk.jmh.profile.LinuxPerfNormProfiler;
+import org.openjdk.jmh.profile.LinuxPerfProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.bloomfilter.BloomKFilter;
+import com.github.prasanthj.bloomfilter.Murmur3;
+import com.github.prasanthj.bloomfilter.PrefixBloomFilter;
+
+/**
+ * Cost of adding keys with their prefixes at every boundary bytes up to the key length, hashing
+ * all prefixes in one pass (PrefixBloomFilter) vs hashing every prefix separately into a
+ * BloomKFilter, and cost of prefix probes.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BenchmarkPrefixBloomFilter {
+  public static final int KEY_COUNT = 100_000;
+  private static final int KEY_LENGTH = 64;
+
+  @Param({"4", "8", "16"})
+  private int boundary;
+
+  private byte[][] keys;
+  private PrefixBloomFilter pbf;
+  private BloomKFilter bf;
+
+  @Setup
+  public void setup() {
+    pbf = new PrefixBloomFilter(KEY_COUNT, 0.01, boundary, KEY_LENGTH - 1);
+    bf = new BloomKFilter((long) KEY_COUNT * (KEY_LENGTH / boundary), 0.01);
+    Random random = new Random(123);
+    keys = new byte[KEY_COUNT][KEY_LENGTH];
+    for (byte[] key : keys) {
+      random.nextBytes(key);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(KEY_COUNT)
+  public void prefixBloomFilterAdd() {
+    for (byte[] key : keys) {
+      pbf.add(key);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(KEY_COUNT)
+  public void bloomKFilterAddPrefixes() {
+    for (byte[] key : keys) {
+      for (int length = boundary; length < KEY_LENGTH; length += boundary) {
+        bf.addHash(Murmur3.hash64(key, 0, length, 0));
+      }
+      bf.addHash(Murmur3.hash64(key));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(KEY_COUNT)
+  public void prefixBloomFilterTestPrefix() {
+    for (byte[] key : keys) {
+      pbf.testPrefix(key, 0, KEY_LENGTH / 2);
+    }
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar BenchmarkPrefixBloomFilter -prof perf     -f 1 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkPrefixBloomFilter -prof perfnorm -f 3 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkPrefixBloomFilter -prof perfasm  -f 1 (Linux)
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(BenchmarkPrefixBloomFilter.class.getSimpleName())
+      .addProfiler(LinuxPerfProfiler.class)
+      .addProfiler(LinuxPerfNormProfiler.class)
+      .addProfiler(LinuxPerfAsmProfiler.class)
+      .build();
+
+    new Runner(opt).run();
+  }
+}
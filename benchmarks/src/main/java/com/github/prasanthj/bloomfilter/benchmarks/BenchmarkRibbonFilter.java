@@ -0,0 +1,141 @@
+/**
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.LinuxPerfAsmProfiler;
+import org.openjdk.jmh.profile.LinuxPerfNormProfiler;
+import org.openjdk.jmh.profile.LinuxPerfProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.bloomfilter.BinaryFuse8Filter;
+import com.github.prasanthj.bloomfilter.Murmur3;
+import com.github.prasanthj.bloomfilter.RibbonFilter;
+
+/**
+ * RibbonFilter with 8-bit fingerprints vs BinaryFuse8Filter (same false positive probability).
+ * Probes are pre-hashed, build is measured in the calling thread and on a ForkJoinPool.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BenchmarkRibbonFilter {
+  public static final int PROBE_COUNT = 20_000_000;
+
+  @Param({"10000", "10000000"})
+  private int numEntries;
+
+  private long[] hashes;
+  private long[] probeArray;
+  private RibbonFilter rf;
+  private BinaryFuse8Filter bff;
+  private ForkJoinPool pool;
+
+  @Setup
+  public void setup() {
+    hashes = new long[numEntries];
+    for (int i = 0; i < numEntries; i++) {
+      hashes[i] = Murmur3.hash64(("key " + i).getBytes());
+    }
+    rf = new RibbonFilter(hashes, 8);
+    bff = new BinaryFuse8Filter(hashes);
+    pool = new ForkJoinPool();
+
+    Random random = new Random(123);
+    probeArray = new long[PROBE_COUNT];
+    for (int i = 0; i < PROBE_COUNT; i++) {
+      // half of the probes are present
+      probeArray[i] = random.nextBoolean() ? hashes[random.nextInt(numEntries)] : random.nextLong();
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public void ribbonFilterProbe() {
+    for (long hash : probeArray) {
+      rf.testHash(hash);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PROBE_COUNT)
+  public void binaryFuse8FilterProbe() {
+    for (long hash : probeArray) {
+      bff.testHash(hash);
+    }
+  }
+
+  @Benchmark
+  public RibbonFilter ribbonFilterBuild() {
+    return new RibbonFilter(hashes, 8);
+  }
+
+  @Benchmark
+  public RibbonFilter ribbonFilterParallelBuild() {
+    return new RibbonFilter(hashes, 8, pool);
+  }
+
+  @Benchmark
+  public BinaryFuse8Filter binaryFuse8FilterBuild() {
+    return new BinaryFuse8Filter(hashes);
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar BenchmarkRibbonFilter -prof perf     -f 1 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkRibbonFilter -prof perfnorm -f 3 (Linux)
+   *    $ java -jar target/benchmarks.jar BenchmarkRibbonFilter -prof perfasm  -f 1 (Linux)
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(BenchmarkRibbonFilter.class.getSimpleName())
+      .addProfiler(LinuxPerfProfiler.class)
+      .addProfiler(LinuxPerfNormProfiler.class)
+      .addProfiler(LinuxPerfAsmProfiler.class)
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,414 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filter that starts as an exact set of 64-bit hashcodes and upgrades itself to a BloomKFilter when
+ * it grows. Filters sized for a worst case estimate often end up holding a few distinct values, in
+ * that case the exact set has no false positives (other than 64-bit hashcode collisions) and needs
+ * less memory than the bloom filter.
+ * <p/>
+ * The exact set is an open addressing long hash table with linear probing and a load factor of at
+ * most 0.5. When the number of distinct hashcodes exceeds maxExactEntries, all hashcodes are added
+ * to a BloomKFilter of maxNumEntries and fpp and the table is dropped. By default maxExactEntries is
+ * chosen so that the table never takes more memory than the bloom filter. Hashcodes are
+ * Murmur3.hash64() of the value bytes as in BloomKFilter, so the upgraded filter answers the same as
+ * a BloomKFilter with the same values added.
+ */
+public class AdaptiveBloomFilter {
+  private final byte[] BYTE_ARRAY_4 = new byte[4];
+  private final byte[] BYTE_ARRAY_8 = new byte[8];
+  private static final double DEFAULT_FPP = 0.05;
+  private static final int INITIAL_CAPACITY = 16;
+  // fibonacci hashing of the table slot, golden ratio
+  private static final long SLOT_MULTIPLIER = 0x9E3779B97F4A7C15L;
+  private final long n;
+  private final double fpp;
+  private final int maxExactEntries;
+  // exact set, 0 marks an empty slot and hashcode 0 is tracked separately
+  private long[] table;
+  private int tableShift;
+  private boolean hasZero;
+  private int size;
+  // non-null after the upgrade
+  private BloomKFilter bloom;
+
+  public AdaptiveBloomFilter(long maxNumEntries) {
+    this(maxNumEntries, DEFAULT_FPP);
+  }
+
+  public AdaptiveBloomFilter(long maxNumEntries, double fpp) {
+    this(maxNumEntries, fpp, defaultMaxExactEntries(maxNumEntries, fpp));
+  }
+
+  /**
+   * Creates an adaptive filter.
+   *
+   * @param maxNumEntries   - expected number of entries of the bloom filter
+   * @param fpp             - false positive probability of the bloom filter
+   * @param maxExactEntries - number of distinct hashcodes kept in the exact set before the upgrade
+   */
+  public AdaptiveBloomFilter(long maxNumEntries, double fpp, int maxExactEntries) {
+    assert maxNumEntries > 0 : "maxNumEntries should be > 0";
+    assert fpp > 0.0 && fpp < 1.0 : "False positive percentage should be > 0.0 & < 1.0";
+    assert maxExactEntries >= 0 && maxExactEntries <= (1 << 29) : "maxExactEntries should be >= 0 & <= 2^29";
+    this.n = maxNumEntries;
+    this.fpp = fpp;
+    this.maxExactEntries = maxExactEntries;
+    if (maxExactEntries == 0) {
+      this.bloom = new BloomKFilter(maxNumEntries, fpp);
+    } else {
+      allocateTable(Math.min(INITIAL_CAPACITY, tableCapacity(maxExactEntries)));
+    }
+  }
+
+  // deserialize adaptive filter. see serialize() for the format.
+  public AdaptiveBloomFilter(List<Long> serializedFilter) {
+    this(serializedFilter.get(0), Double.longBitsToDouble(serializedFilter.get(1)),
+        serializedFilter.get(2).intValue());
+    final int numExactEntries = serializedFilter.get(3).intValue();
+    if (numExactEntries >= 0) {
+      for (int i = 0; i < numExactEntries; i++) {
+        addHash(serializedFilter.get(4 + i));
+      }
+    } else {
+      this.table = null;
+      this.bloom = new BloomKFilter(serializedFilter.subList(4, serializedFilter.size()));
+    }
+  }
+
+  // half of the largest power of 2 number of longs that fit in the bloom filter
+  private static int defaultMaxExactEntries(long maxNumEntries, double fpp) {
+    final long numBits = BloomKFilter.optimalNumOfBits(maxNumEntries, fpp);
+    final long numLongs = (numBits + Long.SIZE - 1) / Long.SIZE + BloomKFilter.DEFAULT_BLOCK_SIZE;
+    return (int) (Long.highestOneBit(Math.min(numLongs, 1L << 30)) / 2);
+  }
+
+  // smallest power of 2 that holds the entries at load factor 0.5
+  private static int tableCapacity(int entries) {
+    return Math.max(2, Integer.highestOneBit(2 * entries - 1) << 1);
+  }
+
+  private void allocateTable(int capacity) {
+    table = new long[capacity];
+    tableShift = Long.SIZE - Integer.numberOfTrailingZeros(capacity);
+  }
+
+  private int slot(long hash64) {
+    return (int) ((hash64 * SLOT_MULTIPLIER) >>> tableShift);
+  }
+
+  public long sizeInBytes() {
+    return bloom != null ? bloom.sizeInBytes() : (long) table.length * 8;
+  }
+
+  public void add(byte[] val) {
+    addBytes(val);
+  }
+
+  public void addBytes(byte[] val) {
+    addHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Adds an already hashed value, see BloomKFilter.addHash().
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   */
+  public void addHash(long hash64) {
+    if (bloom != null) {
+      bloom.addHash(hash64);
+      return;
+    }
+    int i = slot(hash64);
+    if (hash64 == 0) {
+      if (hasZero) {
+        return;
+      }
+    } else {
+      final int mask = table.length - 1;
+      while (table[i] != 0) {
+        if (table[i] == hash64) {
+          return;
+        }
+        i = (i + 1) & mask;
+      }
+    }
+
+    // new distinct hashcode
+    if (size == maxExactEntries) {
+      upgrade();
+      bloom.addHash(hash64);
+      return;
+    }
+    if (hash64 == 0) {
+      hasZero = true;
+    } else {
+      table[i] = hash64;
+    }
+    size++;
+    if (2 * size > table.length) {
+      resize();
+    }
+  }
+
+  private void resize() {
+    final long[] old = table;
+    allocateTable(old.length * 2);
+    final int mask = table.length - 1;
+    for (long hash : old) {
+      if (hash != 0) {
+        int i = slot(hash);
+        while (table[i] != 0) {
+          i = (i + 1) & mask;
+        }
+        table[i] = hash;
+      }
+    }
+  }
+
+  private void upgrade() {
+    final BloomKFilter upgraded = new BloomKFilter(n, fpp);
+    addExactEntries(upgraded);
+    bloom = upgraded;
+    table = null;
+  }
+
+  private void addExactEntries(BloomKFilter filter) {
+    for (long hash : table) {
+      if (hash != 0) {
+        filter.addHash(hash);
+      }
+    }
+    if (hasZero) {
+      filter.addHash(0);
+    }
+  }
+
+  public void addString(String val) {
+    addBytes(val.getBytes());
+  }
+
+  public void addByte(byte val) {
+    addBytes(new byte[]{val});
+  }
+
+  public void addInt(int val) {
+    // puts int in little endian order
+    addBytes(intToByteArrayLE(val));
+  }
+
+  public void addLong(long val) {
+    // puts long in little endian order
+    addBytes(longToByteArrayLE(val));
+  }
+
+  public void addFloat(float val) {
+    addInt(Float.floatToIntBits(val));
+  }
+
+  public void addDouble(double val) {
+    addLong(Double.doubleToLongBits(val));
+  }
+
+  public boolean test(byte[] val) {
+    return testBytes(val);
+  }
+
+  public boolean testBytes(byte[] val) {
+    return testHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Tests an already hashed value. See addHash().
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return true if the value may be present, false otherwise
+   */
+  public boolean testHash(long hash64) {
+    if (bloom != null) {
+      return bloom.testHash(hash64);
+    }
+    if (hash64 == 0) {
+      return hasZero;
+    }
+    final int mask = table.length - 1;
+    int i = slot(hash64);
+    while (table[i] != 0) {
+      if (table[i] == hash64) {
+        return true;
+      }
+      i = (i + 1) & mask;
+    }
+    return false;
+  }
+
+  public boolean testString(String val) {
+    return testBytes(val.getBytes());
+  }
+
+  public boolean testByte(byte val) {
+    return testBytes(new byte[]{val});
+  }
+
+  public boolean testInt(int val) {
+    return testBytes(intToByteArrayLE(val));
+  }
+
+  public boolean testLong(long val) {
+    return testBytes(longToByteArrayLE(val));
+  }
+
+  public boolean testFloat(float val) {
+    return testInt(Float.floatToIntBits(val));
+  }
+
+  public boolean testDouble(double val) {
+    return testLong(Double.doubleToLongBits(val));
+  }
+
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+
+  /**
+   * True while the filter is an exact set, false after the upgrade to a bloom filter
+   */
+  public boolean isExact() {
+    return bloom == null;
+  }
+
+  /**
+   * Number of distinct hashcodes in the exact set, the number at the upgrade after the upgrade
+   */
+  public int getNumExactEntries() {
+    return size;
+  }
+
+  public int getMaxExactEntries() {
+    return maxExactEntries;
+  }
+
+  public long getExpectedNumEntries() {
+    return n;
+  }
+
+  /**
+   * False positive probability, 0 while the filter is exact
+   */
+  public double getFalsePositivePercent() {
+    return bloom == null ? 0 : fpp;
+  }
+
+  /**
+   * Bloom filter with the values of this filter. After the upgrade this is the filter backing this
+   * filter, while exact it is a new bloom filter with the exact entries.
+   *
+   * @return bloom filter of maxNumEntries and fpp
+   */
+  public BloomKFilter toBloomKFilter() {
+    if (bloom != null) {
+      return bloom;
+    }
+    final BloomKFilter filter = new BloomKFilter(n, fpp);
+    addExactEntries(filter);
+    return filter;
+  }
+
+  /**
+   * Check if the specified adaptive filter is compatible with the current adaptive filter.
+   *
+   * @param that - adaptive filter to check compatibility
+   * @return true if compatible false otherwise
+   */
+  public boolean isCompatible(AdaptiveBloomFilter that) {
+    return this != that && this.n == that.n && this.fpp == that.fpp;
+  }
+
+  /**
+   * Merge the specified adaptive filter with current adaptive filter. The result is exact only if
+   * both filters are exact and the union fits in the exact set.
+   * NOTE: Merge does not check for incompatibility. Use isCompatible() before calling merge().
+   *
+   * @param that - adaptive filter to merge
+   */
+  public void merge(AdaptiveBloomFilter that) {
+    if (that.bloom == null) {
+      for (long hash : that.table) {
+        if (hash != 0) {
+          addHash(hash);
+        }
+      }
+      if (that.hasZero) {
+        addHash(0);
+      }
+    } else {
+      if (bloom == null) {
+        upgrade();
+      }
+      bloom.merge(that.bloom);
+    }
+  }
+
+  /**
+   * First 4 entries are expected entries (n), false positive percentage (fpp) serialized as long,
+   * maxExactEntries and the number of exact entries, -1 after the upgrade. The entries following
+   * first 4 entries are the exact hashcodes, or the serialized BloomKFilter after the upgrade (see
+   * BloomKFilter.serialize()).
+   *
+   * @return adaptive filter as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add(n);
+    serialized.add(Double.doubleToLongBits(fpp));
+    serialized.add((long) maxExactEntries);
+    if (bloom == null) {
+      serialized.add((long) size);
+      for (long hash : table) {
+        if (hash != 0) {
+          serialized.add(hash);
+        }
+      }
+      if (hasZero) {
+        serialized.add(0L);
+      }
+    } else {
+      serialized.add(-1L);
+      serialized.addAll(bloom.serialize());
+    }
+    return serialized;
+  }
+}
@@ -0,0 +1,384 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Age-partitioned bloom filter as described in "Age-Partitioned Bloom Filters" by Shtul et.al.
+ * <p/>
+ * The filter is made of k + l slices of m bits in a single long array. An element sets one bit in
+ * each of the k newest slices. After every g (generation size) additions the filter shifts: the
+ * oldest slice is cleared and becomes the newest one, so the bits of an element move one slice
+ * towards the old end per generation. An element tests true if k consecutive slices have its bit
+ * set, which is the case for l generations after it was added. The filter is a sliding window over
+ * the last l * g additions (plus the current generation).
+ * <p/>
+ * Slices are a ring, shifting only moves the index of the newest slice and clears one slice. Each
+ * physical slice has its own hash function (Kirsch-Mitzenmacher double hashing of a single 64-bit
+ * hashcode), so the bits of an element stay valid as the slices age. Lookups check candidate runs
+ * of k slices from the newest end and skip past a slice that misses, a miss in the last slice of a
+ * run rules out all runs containing it. Compared to rotating whole filters, the window is sliced
+ * more finely and old bits are dropped one slice at a time, which gives a lower false positive
+ * probability for the same number of bits.
+ * <p/>
+ * Slices have m = k * g / ln(2) bits so that a slice that received k generations is half full. k
+ * and l are chosen to minimize bits per element for the configured false positive probability.
+ */
+public class AgePartitionedBloomFilter {
+  private byte[] BYTE_ARRAY_4 = new byte[4];
+  private byte[] BYTE_ARRAY_8 = new byte[8];
+  private static final double DEFAULT_FPP = 0.05;
+  private static final int MAX_K = 32;
+  private static final int MAX_L = 256;
+  private final int k;
+  private final int l;
+  private final int numSlices;
+  private final long generationSize;
+  private final long sliceBits;
+  private final int sliceWords;
+  private final long[] data;
+  // physical index of the newest slice and number of additions to the current generation
+  private int newest;
+  private long generationCount;
+
+  public AgePartitionedBloomFilter(long windowSize) {
+    this(windowSize, DEFAULT_FPP);
+  }
+
+  /**
+   * Creates an age-partitioned bloom filter for a sliding window of the last windowSize additions.
+   *
+   * @param windowSize - number of most recent additions that always test true
+   * @param fpp        - false positive probability
+   */
+  public AgePartitionedBloomFilter(long windowSize, double fpp) {
+    this(optimalParameters(windowSize, fpp), windowSize);
+  }
+
+  private AgePartitionedBloomFilter(int[] kl, long windowSize) {
+    this(kl[0], kl[1], Math.max(1, (windowSize + kl[1] - 1) / kl[1]));
+  }
+
+  /**
+   * Creates an age-partitioned bloom filter with explicit parameters.
+   *
+   * @param k              - number of slices an element is added to
+   * @param l              - number of generations an element is remembered for
+   * @param generationSize - number of additions per generation
+   */
+  public AgePartitionedBloomFilter(int k, int l, long generationSize) {
+    assert k > 0 && l > 0 : "k and l should be > 0";
+    assert generationSize > 0 : "generationSize should be > 0";
+    this.k = k;
+    this.l = l;
+    this.numSlices = k + l;
+    this.generationSize = generationSize;
+    long bits = (long) Math.ceil(k * generationSize / Math.log(2));
+    this.sliceWords = (int) ((bits + Long.SIZE - 1) / Long.SIZE);
+    this.sliceBits = (long) sliceWords * Long.SIZE;
+    assert sliceBits <= (1L << 32) : "generationSize is too large";
+    assert (long) sliceWords * numSlices <= Integer.MAX_VALUE : "Filter is too large";
+    this.data = new long[sliceWords * numSlices];
+    this.newest = 0;
+    this.generationCount = 0;
+  }
+
+  // deserialize age-partitioned bloom filter. see serialize() for the format.
+  public AgePartitionedBloomFilter(List<Long> serializedBloom) {
+    this(serializedBloom.get(0).intValue(), serializedBloom.get(1).intValue(), serializedBloom.get(2));
+    this.newest = serializedBloom.get(3).intValue();
+    this.generationCount = serializedBloom.get(4);
+    List<Long> data = serializedBloom.subList(5, serializedBloom.size());
+    assert data.size() == this.data.length : "Number of words does not match";
+    for (int i = 0; i < data.size(); i++) {
+      this.data[i] = data.get(i);
+    }
+  }
+
+  /**
+   * Chooses k and l with the fewest bits per element, k * (k + l) / (l * ln(2)), whose false
+   * positive probability (see falsePositiveProbability()) is at most fpp.
+   *
+   * @return {k, l}
+   */
+  static int[] optimalParameters(long windowSize, double fpp) {
+    assert windowSize > 0 : "windowSize should be > 0";
+    assert fpp > 0.0 && fpp < 1.0 : "False positive percentage should be > 0.0 & < 1.0";
+    int[] best = null;
+    double bestBits = Double.MAX_VALUE;
+    for (int k = 1; k <= MAX_K; k++) {
+      // fpp grows with l, find the largest l that meets fpp
+      int l = 0;
+      while (l < MAX_L && l + 1 <= windowSize && falsePositiveProbability(k, l + 1) <= fpp) {
+        l++;
+      }
+      if (l > 0) {
+        double bits = (double) k * (k + l) / (l * Math.log(2));
+        if (bits < bestBits) {
+          bestBits = bits;
+          best = new int[]{k, l};
+        }
+      }
+    }
+    assert best != null : "False positive percentage is too small";
+    return best;
+  }
+
+  /**
+   * False positive probability of a full filter, the probability that k consecutive slices of the
+   * k + l slices have the bit of an element that is not present set. Slices that received j < k
+   * generations have a fraction 1 - 2^(-j / k) of bits set, older slices are half full.
+   */
+  static double falsePositiveProbability(int k, int l) {
+    // run[r] = probability that the current run of set slices has length r and no run of k yet
+    double[] run = new double[k];
+    run[0] = 1.0;
+    double found = 0;
+    for (int slice = 0; slice < k + l; slice++) {
+      final double fill = 1.0 - Math.pow(2, -Math.min(slice + 1, k) / (double) k);
+      double[] next = new double[k];
+      for (int r = 0; r < k; r++) {
+        next[0] += run[r] * (1 - fill);
+        if (r + 1 == k) {
+          found += run[r] * fill;
+        } else {
+          next[r + 1] += run[r] * fill;
+        }
+      }
+      run = next;
+    }
+    return found;
+  }
+
+  public long sizeInBytes() {
+    return (long) data.length * 8;
+  }
+
+  public void add(byte[] val) {
+    addBytes(val);
+  }
+
+  public void addBytes(byte[] val) {
+    addHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Adds an already hashed value to the k newest slices and shifts once the generation is full.
+   * The hash is expected to be Murmur3.hash64() of the value bytes so that addHash() and
+   * addBytes() are interchangeable.
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   */
+  public void addHash(long hash64) {
+    if (generationCount == generationSize) {
+      shift();
+    }
+    final int hash1 = (int) hash64;
+    final int hash2 = (int) (hash64 >>> 32);
+    int slice = newest;
+    for (int i = 0; i < k; i++) {
+      final long bit = bitIndex(hash1, hash2, slice);
+      data[(int) (bit >>> 6)] |= 1L << bit;
+      slice = slice == numSlices - 1 ? 0 : slice + 1;
+    }
+    generationCount++;
+  }
+
+  /**
+   * Starts a new generation: the oldest slice is cleared and becomes the newest slice. Called
+   * automatically every generationSize additions, can also be called to age the filter by time.
+   */
+  public void shift() {
+    newest = newest == 0 ? numSlices - 1 : newest - 1;
+    Arrays.fill(data, newest * sliceWords, (newest + 1) * sliceWords, 0);
+    generationCount = 0;
+  }
+
+  // absolute bit index in data of the hashcode in the physical slice
+  private long bitIndex(int hash1, int hash2, int slice) {
+    final int combinedHash = hash1 + ((slice + 1) * hash2);
+    // unsigned 32-bit hash is mapped to [0, sliceBits) by multiply and shift instead of modulo
+    return (long) slice * sliceBits + (((combinedHash & 0xFFFFFFFFL) * sliceBits) >>> 32);
+  }
+
+  public void addString(String val) {
+    addBytes(val.getBytes());
+  }
+
+  public void addByte(byte val) {
+    addBytes(new byte[]{val});
+  }
+
+  public void addInt(int val) {
+    // puts int in little endian order
+    addBytes(intToByteArrayLE(val));
+  }
+
+  public void addLong(long val) {
+    // puts long in little endian order
+    addBytes(longToByteArrayLE(val));
+  }
+
+  public void addFloat(float val) {
+    addInt(Float.floatToIntBits(val));
+  }
+
+  public void addDouble(double val) {
+    addLong(Double.doubleToLongBits(val));
+  }
+
+  public boolean test(byte[] val) {
+    return testBytes(val);
+  }
+
+  public boolean testBytes(byte[] val) {
+    return testHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Tests an already hashed value. See addHash().
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return true if the value may be present in the window, false otherwise
+   */
+  public boolean testHash(long hash64) {
+    final int hash1 = (int) hash64;
+    final int hash2 = (int) (hash64 >>> 32);
+    // candidate runs start at logical slices 0 (newest) to l. A run is checked from its oldest
+    // slice, a miss at slice p rules out all runs containing p, the next candidate starts at p + 1
+    int start = 0;
+    while (start <= l) {
+      int p = start + k - 1;
+      while (p >= start && isSet(hash1, hash2, p)) {
+        p--;
+      }
+      if (p < start) {
+        return true;
+      }
+      start = p + 1;
+    }
+    return false;
+  }
+
+  // tests the bit of the hashcode in the logical slice (0 is the newest)
+  private boolean isSet(int hash1, int hash2, int logicalSlice) {
+    int slice = newest + logicalSlice;
+    if (slice >= numSlices) {
+      slice -= numSlices;
+    }
+    final long bit = bitIndex(hash1, hash2, slice);
+    return (data[(int) (bit >>> 6)] & (1L << bit)) != 0;
+  }
+
+  public boolean testString(String val) {
+    return testBytes(val.getBytes());
+  }
+
+  public boolean testByte(byte val) {
+    return testBytes(new byte[]{val});
+  }
+
+  public boolean testInt(int val) {
+    return testBytes(intToByteArrayLE(val));
+  }
+
+  public boolean testLong(long val) {
+    return testBytes(longToByteArrayLE(val));
+  }
+
+  public boolean testFloat(float val) {
+    return testInt(Float.floatToIntBits(val));
+  }
+
+  public boolean testDouble(double val) {
+    return testLong(Double.doubleToLongBits(val));
+  }
+
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+
+  public int getNumHashFunctions() {
+    return k;
+  }
+
+  /**
+   * Number of generations an element is remembered for
+   */
+  public int getNumGenerations() {
+    return l;
+  }
+
+  public long getGenerationSize() {
+    return generationSize;
+  }
+
+  /**
+   * Number of most recent additions that always test true
+   */
+  public long getWindowSize() {
+    return l * generationSize;
+  }
+
+  public long getSliceBits() {
+    return sliceBits;
+  }
+
+  /**
+   * False positive probability of the filter once it is full. See falsePositiveProbability().
+   */
+  public double getFalsePositivePercent() {
+    return falsePositiveProbability(k, l);
+  }
+
+  /**
+   * First 5 entries are k, l, generation size, index of the newest slice and number of additions
+   * to the current generation. The entries following first 5 entries are the slices.
+   *
+   * @return age-partitioned bloom filter as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add((long) k);
+    serialized.add((long) l);
+    serialized.add(generationSize);
+    serialized.add((long) newest);
+    serialized.add(generationCount);
+    for (long word : data) {
+      serialized.add(word);
+    }
+    return serialized;
+  }
+}
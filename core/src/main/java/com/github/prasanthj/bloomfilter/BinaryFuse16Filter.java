@@ -0,0 +1,207 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Immutable binary fuse filter with 16-bit fingerprints as described in "Binary Fuse Filters: Fast
+ * and Smaller Than Xor Filters" by Graf and Lemire. Same as BinaryFuse8Filter but with twice the
+ * space (~18 bits per key) for false positive probability of 1/65536 (~0.0015%).
+ * <p/>
+ * The filter is built once from the complete set of keys and cannot be added to later. Every key
+ * maps to 3 slots of a fingerprint array and the slots are assigned (see BinaryFuseBuilder) such
+ * that the xor of the 3 slots is the fingerprint of the key. A lookup reads 3 shorts and compares
+ * their xor with the fingerprint. Construction time is linear in the number of keys.
+ * <p/>
+ * Keys are the Murmur3 64-bit hashcodes of the values, so the filter can be built from the same
+ * hashes as addHash() of the other filters or from an iterator of value bytes.
+ */
+public class BinaryFuse16Filter {
+  private final byte[] BYTE_ARRAY_4 = new byte[4];
+  private final byte[] BYTE_ARRAY_8 = new byte[8];
+  private final long seed;
+  private final int segmentLength;
+  private final int segmentLengthMask;
+  private final int segmentCount;
+  private final int segmentCountLength;
+  private final long numEntries;
+  private final short[] fingerprints;
+
+  /**
+   * Builds the filter from the specified hashcodes. Hashcodes are expected to be Murmur3.hash64()
+   * of the value bytes so that testHash() and testBytes() are interchangeable.
+   *
+   * @param hashes - 64-bit hashcodes of the keys
+   */
+  public BinaryFuse16Filter(long[] hashes) {
+    BinaryFuseBuilder builder = new BinaryFuseBuilder(hashes.length);
+    builder.build(hashes);
+    this.seed = builder.seed;
+    this.segmentLength = builder.segmentLength;
+    this.segmentLengthMask = builder.segmentLengthMask;
+    this.segmentCount = builder.segmentCount;
+    this.segmentCountLength = builder.segmentCountLength;
+    this.numEntries = builder.hashes.length;
+    this.fingerprints = new short[builder.arrayLength];
+
+    // assign in reverse peeling order, every key gets a slot that no key assigned later maps to
+    for (int i = builder.size - 1; i >= 0; i--) {
+      final long hash = builder.reverseOrder[i];
+      final int found = builder.reverseH[i];
+      final int h = builder.slot(hash, found);
+      final int h1 = builder.slot(hash, BinaryFuseBuilder.mod3(found + 1));
+      final int h2 = builder.slot(hash, BinaryFuseBuilder.mod3(found + 2));
+      fingerprints[h] = (short) (fingerprint(hash) ^ fingerprints[h1] ^ fingerprints[h2]);
+    }
+  }
+
+  /**
+   * Builds the filter from the specified values.
+   *
+   * @param keys - value bytes
+   */
+  public BinaryFuse16Filter(Iterator<byte[]> keys) {
+    this(BinaryFuseBuilder.hashAll(keys));
+  }
+
+  // deserialize binary fuse filter. see serialize() for the format.
+  public BinaryFuse16Filter(List<Long> serializedFilter) {
+    this.numEntries = serializedFilter.get(0);
+    this.seed = serializedFilter.get(1);
+    this.segmentLength = serializedFilter.get(2).intValue();
+    this.segmentLengthMask = segmentLength - 1;
+    this.segmentCount = serializedFilter.get(3).intValue();
+    this.segmentCountLength = segmentCount * segmentLength;
+    this.fingerprints = new short[(segmentCount + 2) * segmentLength];
+    for (int i = 0; i < fingerprints.length; i++) {
+      fingerprints[i] = (short) (serializedFilter.get(4 + (i >>> 2)) >>> ((i & 3) << 4));
+    }
+  }
+
+  public long sizeInBytes() {
+    return (long) fingerprints.length * 2;
+  }
+
+  public boolean test(byte[] val) {
+    return testBytes(val);
+  }
+
+  public boolean testBytes(byte[] val) {
+    return testHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Tests an already hashed value.
+   *
+   * @param hash64 - 64-bit hashcode of the value, see BinaryFuse16Filter(long[])
+   * @return true if the value may be present, false otherwise
+   */
+  public boolean testHash(long hash64) {
+    final long hash = BinaryFuseBuilder.mix(hash64, seed);
+    final int h0 = (int) (((hash >>> 32) * segmentCountLength) >>> 32);
+    final int h1 = (h0 + segmentLength) ^ ((int) (hash >>> 18) & segmentLengthMask);
+    final int h2 = (h0 + 2 * segmentLength) ^ ((int) hash & segmentLengthMask);
+    return (short) (fingerprint(hash) ^ fingerprints[h0] ^ fingerprints[h1] ^ fingerprints[h2]) == 0;
+  }
+
+  public boolean testString(String val) {
+    return testBytes(val.getBytes());
+  }
+
+  public boolean testByte(byte val) {
+    return testBytes(new byte[]{val});
+  }
+
+  public boolean testInt(int val) {
+    return testBytes(intToByteArrayLE(val));
+  }
+
+  public boolean testLong(long val) {
+    return testBytes(longToByteArrayLE(val));
+  }
+
+  public boolean testFloat(float val) {
+    return testInt(Float.floatToIntBits(val));
+  }
+
+  public boolean testDouble(double val) {
+    return testLong(Double.doubleToLongBits(val));
+  }
+
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+
+  private static int fingerprint(long hash) {
+    return (int) (hash ^ (hash >>> 32));
+  }
+
+  /**
+   * Number of distinct keys in the filter
+   */
+  public long getNumEntries() {
+    return numEntries;
+  }
+
+  public double getFalsePositivePercent() {
+    return 1.0 / 65536;
+  }
+
+  public double getBitsPerEntry() {
+    return numEntries == 0 ? 0 : (double) fingerprints.length * Short.SIZE / numEntries;
+  }
+
+  /**
+   * First 4 entries are number of entries, seed, segment length and segment count. The entries
+   * following first 4 entries are the fingerprints, 4 per long in little endian order.
+   *
+   * @return binary fuse filter as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add(numEntries);
+    serialized.add(seed);
+    serialized.add((long) segmentLength);
+    serialized.add((long) segmentCount);
+    for (int i = 0; i < fingerprints.length; i += 4) {
+      long word = 0;
+      for (int j = 0; j < 4 && i + j < fingerprints.length; j++) {
+        word |= (fingerprints[i + j] & 0xFFFFL) << (j << 4);
+      }
+      serialized.add(word);
+    }
+    return serialized;
+  }
+}
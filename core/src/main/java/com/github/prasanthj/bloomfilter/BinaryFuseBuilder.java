@@ -0,0 +1,245 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Construction of 3-wise binary fuse filters as described in "Binary Fuse Filters: Fast and
+ * Smaller Than Xor Filters" by Graf and Lemire. Shared by BinaryFuse8Filter, BinaryFuse16Filter
+ * and other static structures that store a value per key in 3 array slots (value = slot0 ^ slot1 ^
+ * slot2).
+ * <p/>
+ * The array is divided into segments. Every key maps to 3 slots in 3 consecutive segments, the
+ * first segment is derived from the MSB 32 bits of the (seeded) hash and the slot within the
+ * segments from the LSB bits. The keys are peeled: a slot that is mapped by a single key is
+ * removed along with the key, which may leave other slots with a single key and so on. When all
+ * the keys are peeled, the values can be assigned in reverse peeling order, each key gets a slot
+ * that is not used by any of the keys assigned after it. Construction is retried with a new seed
+ * if peeling fails, which is rare for the array sizes used here. Keys are sorted by segment before
+ * peeling so that construction accesses memory mostly sequentially.
+ * <p/>
+ * Input is 64-bit hashcodes of the keys (Murmur3.hash64()). Duplicate hashcodes can never be
+ * peeled, if peeling fails the hashcodes are deduplicated before retrying.
+ */
+final class BinaryFuseBuilder {
+  private static final int ARITY = 3;
+  private static final int MAX_SEGMENT_LENGTH = 1 << 18;
+  private static final int MAX_ITERATIONS = 100;
+  private static final long INITIAL_SEED = 0x9E3779B97F4A7C15L;
+
+  final int segmentLength;
+  final int segmentLengthMask;
+  final int segmentCount;
+  final int segmentCountLength;
+  final int arrayLength;
+  long seed;
+
+  // distinct input hashcodes, keyIndex of peeled keys refer to this array
+  long[] hashes;
+  // result of peeling, in peeling order
+  int size;
+  long[] reverseOrder;
+  byte[] reverseH;
+  int[] reverseKey;
+
+  BinaryFuseBuilder(int size) {
+    assert size >= 0 : "size should be >= 0";
+    int segmentLength = size <= 1 ? 4 : 1 << (int) Math.floor(Math.log(size) / Math.log(3.33) + 2.25);
+    segmentLength = Math.min(segmentLength, MAX_SEGMENT_LENGTH);
+    double sizeFactor = size <= 1 ? 0 : Math.max(1.125, 0.875 + 0.25 * Math.log(1_000_000) / Math.log(size));
+    int capacity = (int) Math.round(size * sizeFactor);
+    int segmentCount = (capacity + segmentLength - 1) / segmentLength - (ARITY - 1);
+    int arrayLength = (segmentCount + ARITY - 1) * segmentLength;
+    segmentCount = (arrayLength + segmentLength - 1) / segmentLength;
+    segmentCount = segmentCount <= ARITY - 1 ? 1 : segmentCount - (ARITY - 1);
+    this.segmentLength = segmentLength;
+    this.segmentLengthMask = segmentLength - 1;
+    this.segmentCount = segmentCount;
+    this.segmentCountLength = segmentCount * segmentLength;
+    this.arrayLength = (segmentCount + ARITY - 1) * segmentLength;
+  }
+
+  /**
+   * Peels the specified hashcodes. On return, reverseOrder, reverseH and reverseKey hold the
+   * seeded hashcode, the slot (0, 1 or 2) that is assigned and the index in hashes of every key in
+   * peeling order.
+   *
+   * @param keyHashes - 64-bit hashcodes of the keys
+   * @throws IllegalStateException if the keys could not be peeled
+   */
+  void build(long[] keyHashes) {
+    this.hashes = keyHashes;
+    this.seed = INITIAL_SEED;
+    boolean deduplicated = false;
+    for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+      if (peel()) {
+        return;
+      }
+      if (!deduplicated) {
+        hashes = deduplicate(hashes);
+        deduplicated = true;
+      }
+      seed = mix(seed, INITIAL_SEED);
+    }
+    throw new IllegalStateException("Unable to construct binary fuse filter for " + hashes.length + " keys");
+  }
+
+  private boolean peel() {
+    final int n = hashes.length;
+    reverseOrder = new long[n];
+    reverseH = new byte[n];
+    reverseKey = new int[n];
+
+    // counting sort of keys by segment, MSB bits of the seeded hash determine the segment
+    int blockBits = 1;
+    while ((1 << blockBits) < segmentCount) {
+      blockBits++;
+    }
+    final int block = 1 << blockBits;
+    final int[] startPos = new int[block + 1];
+    final long[] mixed = new long[n];
+    for (int i = 0; i < n; i++) {
+      mixed[i] = mix(hashes[i], seed);
+      startPos[(int) (mixed[i] >>> (Long.SIZE - blockBits)) + 1]++;
+    }
+    for (int i = 1; i <= block; i++) {
+      startPos[i] += startPos[i - 1];
+    }
+    final long[] sortedHash = new long[n];
+    final int[] sortedKey = new int[n];
+    for (int i = 0; i < n; i++) {
+      int pos = startPos[(int) (mixed[i] >>> (Long.SIZE - blockBits))]++;
+      sortedHash[pos] = mixed[i];
+      sortedKey[pos] = i;
+    }
+
+    // the lowest 2 bits of the count are the xor of the slot numbers (0, 1 or 2) of the keys
+    final byte[] t2count = new byte[arrayLength];
+    final long[] t2hash = new long[arrayLength];
+    final int[] t2key = new int[arrayLength];
+    byte countMask = 0;
+    for (int i = 0; i < n; i++) {
+      final long hash = sortedHash[i];
+      for (int hi = 0; hi < ARITY; hi++) {
+        final int index = slot(hash, hi);
+        t2count[index] += 4;
+        t2count[index] ^= hi;
+        t2hash[index] ^= hash;
+        t2key[index] ^= sortedKey[i];
+        countMask |= t2count[index];
+      }
+    }
+    if (countMask < 0) {
+      // more than 31 keys in a slot, counter overflow
+      return false;
+    }
+
+    final int[] alone = new int[arrayLength];
+    int alonePos = 0;
+    for (int i = 0; i < arrayLength; i++) {
+      alone[alonePos] = i;
+      alonePos += (t2count[i] >> 2) == 1 ? 1 : 0;
+    }
+
+    int reverseOrderPos = 0;
+    while (alonePos > 0) {
+      alonePos--;
+      final int index = alone[alonePos];
+      if ((t2count[index] >> 2) == 1) {
+        // single key left in this slot
+        final long hash = t2hash[index];
+        final int found = t2count[index] & 3;
+        reverseOrder[reverseOrderPos] = hash;
+        reverseH[reverseOrderPos] = (byte) found;
+        reverseKey[reverseOrderPos] = t2key[index];
+        reverseOrderPos++;
+
+        for (int other = 1; other < ARITY; other++) {
+          final int hi = mod3(found + other);
+          final int otherIndex = slot(hash, hi);
+          alone[alonePos] = otherIndex;
+          alonePos += (t2count[otherIndex] >> 2) == 2 ? 1 : 0;
+          t2count[otherIndex] -= 4;
+          t2count[otherIndex] ^= hi;
+          t2hash[otherIndex] ^= hash;
+          t2key[otherIndex] ^= t2key[index];
+        }
+        t2count[index] = 0;
+      }
+    }
+    size = reverseOrderPos;
+    return reverseOrderPos == n;
+  }
+
+  /**
+   * Slot of the seeded hashcode in the hi-th (0, 1 or 2) segment.
+   */
+  int slot(long hash, int hi) {
+    int h = (int) (((hash >>> 32) * segmentCountLength) >>> 32) + hi * segmentLength;
+    if (hi == 1) {
+      h ^= (int) (hash >>> 18) & segmentLengthMask;
+    } else if (hi == 2) {
+      h ^= (int) hash & segmentLengthMask;
+    }
+    return h;
+  }
+
+  static int mod3(int x) {
+    return x > 2 ? x - 3 : x;
+  }
+
+  // fmix64 of Murmur3 over seeded hashcode
+  static long mix(long hash, long seed) {
+    long h = hash + seed;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  // distinct hashcodes in sorted order, or the hashcodes as is if they are distinct so that key
+  // indices keep referring to the input
+  private static long[] deduplicate(long[] hashes) {
+    long[] sorted = hashes.clone();
+    Arrays.sort(sorted);
+    int distinct = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        sorted[distinct++] = sorted[i];
+      }
+    }
+    return distinct == hashes.length ? hashes : Arrays.copyOf(sorted, distinct);
+  }
+
+  /**
+   * Hashes the keys with Murmur3.hash64().
+   */
+  static long[] hashAll(Iterator<byte[]> keys) {
+    long[] hashes = new long[16];
+    int size = 0;
+    while (keys.hasNext()) {
+      if (size == hashes.length) {
+        hashes = Arrays.copyOf(hashes, size * 2);
+      }
+      hashes[size++] = Murmur3.hash64(keys.next());
+    }
+    return Arrays.copyOf(hashes, size);
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Bitwise OR of many source word arrays into a destination word array. Backs merge() and mergeAll()
+ * of the bloom filters.
+ * <p/>
+ * All sources are OR'ed in a single pass over the destination. The word range is walked in chunks
+ * that are small enough to stay in L1 cache, each source is OR'ed into the chunk before moving to
+ * the next chunk. So every destination cache line is read from and written back to memory once
+ * irrespective of the number of sources. For parallel merge, the word range is recursively split
+ * across the fork-join pool and each task does the same chunked merge on its sub-range.
+ */
+final class BitSetMerger extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+  // 4KB of destination words per chunk
+  private static final int CHUNK_WORDS = 512;
+  // 512KB of destination words per task, ranges smaller than this are merged sequentially
+  private static final int TASK_WORDS = 1 << 16;
+
+  private final long[] dest;
+  private final long[][] sources;
+  private final int from;
+  private final int to;
+
+  private BitSetMerger(long[] dest, long[][] sources, int from, int to) {
+    this.dest = dest;
+    this.sources = sources;
+    this.from = from;
+    this.to = to;
+  }
+
+  static void merge(long[] dest, long[][] sources) {
+    checkLengths(dest, sources);
+    merge(dest, sources, 0, dest.length);
+  }
+
+  static void merge(long[] dest, long[][] sources, ForkJoinPool pool) {
+    checkLengths(dest, sources);
+    pool.invoke(new BitSetMerger(dest, sources, 0, dest.length));
+  }
+
+  @Override
+  protected void compute() {
+    if (to - from <= TASK_WORDS) {
+      merge(dest, sources, from, to);
+    } else {
+      // split at chunk boundary
+      final int mid = from + (((to - from) >>> 1) & ~(CHUNK_WORDS - 1));
+      invokeAll(new BitSetMerger(dest, sources, from, mid), new BitSetMerger(dest, sources, mid, to));
+    }
+  }
+
+  private static void merge(long[] dest, long[][] sources, int from, int to) {
+    for (int chunkStart = from; chunkStart < to; chunkStart += CHUNK_WORDS) {
+      final int chunkEnd = Math.min(chunkStart + CHUNK_WORDS, to);
+      for (long[] source : sources) {
+        for (int i = chunkStart; i < chunkEnd; i++) {
+          dest[i] |= source[i];
+        }
+      }
+    }
+  }
+
+  private static void checkLengths(long[] dest, long[][] sources) {
+    for (long[] source : sources) {
+      assert dest.length == source.length :
+          "BitArrays must be of equal length (" + dest.length + "!= " + source.length + ")";
+    }
+  }
+}
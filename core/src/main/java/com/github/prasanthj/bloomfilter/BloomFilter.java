@@ -16,7 +16,9 @@
 package com.github.prasanthj.bloomfilter;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * BloomFilter is a probabilistic data structure for set membership check. BloomFilters are
@@ -69,6 +71,15 @@ public class BloomFilter {
     this.bitSet = new BitSet(data);
   }
 
+  // bloom filter of the specified expected entries and fpp over an existing bitset
+  BloomFilter(long maxNumEntries, double fpp, long[] data) {
+    this.fpp = fpp;
+    this.n = maxNumEntries;
+    this.m = optimalNumOfBits(maxNumEntries, fpp);
+    this.k = optimalNumOfHashFunctions(maxNumEntries, m);
+    this.bitSet = new BitSet(data);
+  }
+
   static int optimalNumOfHashFunctions(long n, long m) {
     return Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
   }
@@ -89,13 +100,22 @@ public class BloomFilter {
   }
 
   public void addBytes(byte[] val) {
+    addHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Adds an already hashed value. The hash is expected to be Murmur3.hash64() of the value bytes
+   * so that addHash() and addBytes() are interchangeable.
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   */
+  public void addHash(long hash64) {
     // We use the trick mentioned in "Less Hashing, Same Performance: Building a Better Bloom Filter"
     // by Kirsch et.al. From abstract 'only two hash functions are necessary to effectively
     // implement a Bloom filter without any loss in the asymptotic false positive probability'
 
     // Lets split up 64-bit hashcode into two 32-bit hashcodes and employ the technique mentioned
     // in the above paper
-    long hash64 = Murmur3.hash64(val);
     int hash1 = (int) hash64;
     int hash2 = (int) (hash64 >>> 32);
 
@@ -142,7 +162,16 @@ public class BloomFilter {
   }
 
   public boolean testBytes(byte[] val) {
-    long hash64 = Murmur3.hash64(val);
+    return testHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Tests an already hashed value. See addHash().
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return true if the value may be present, false otherwise
+   */
+  public boolean testHash(long hash64) {
     int hash1 = (int) hash64;
     int hash2 = (int) (hash64 >>> 32);
 
@@ -218,6 +247,10 @@ public class BloomFilter {
     return n;
   }
 
+  long[] getBitSet() {
+    return bitSet.getData();
+  }
+
   /**
    * First 2 entries are expected entries (n) and false positive percentage (fpp). fpp which is a
    * double is serialized as long. The entries following first 2 entries are the actual bit set.
@@ -256,6 +289,162 @@ public class BloomFilter {
     this.bitSet.putAll(that.bitSet);
   }
 
+  /**
+   * Merge the specified bloom filter with current bloom filter. The bitset is split into ranges
+   * which are merged in parallel on the specified fork-join pool.
+   * NOTE: Merge does not check for incompatibility. Use isCompatible() before calling merge().
+   *
+   * @param that - bloom filter to merge
+   * @param pool - fork-join pool to run the merge on
+   */
+  public void merge(BloomFilter that, ForkJoinPool pool) {
+    mergeAll(Collections.singletonList(that), pool);
+  }
+
+  /**
+   * Merge all the specified bloom filters with current bloom filter. All filters are merged in a
+   * single pass over the current bitset, which is cheaper than merging the filters one by one.
+   * NOTE: Merge does not check for incompatibility. Use isCompatible() before calling mergeAll().
+   *
+   * @param filters - bloom filters to merge
+   */
+  public void mergeAll(List<BloomFilter> filters) {
+    BitSetMerger.merge(bitSet.data, getBitSets(filters));
+  }
+
+  /**
+   * Same as mergeAll(List) but the bitset is split into ranges which are merged in parallel on the
+   * specified fork-join pool.
+   *
+   * @param filters - bloom filters to merge
+   * @param pool    - fork-join pool to run the merge on
+   */
+  public void mergeAll(List<BloomFilter> filters, ForkJoinPool pool) {
+    BitSetMerger.merge(bitSet.data, getBitSets(filters), pool);
+  }
+
+  /**
+   * Intersect the specified bloom filter with current bloom filter. Elements present in both the
+   * filters will test true after intersection (no false negatives). Elements present in only one
+   * of the filters may still test true, use estimateIntersectionFpp() to get the false positive
+   * probability of the intersected filter.
+   * NOTE: Intersect does not check for incompatibility. Use isCompatible() before calling intersect().
+   *
+   * @param that - bloom filter to intersect
+   */
+  public void intersect(BloomFilter that) {
+    this.bitSet.retainAll(that.bitSet);
+  }
+
+  /**
+   * Estimates the number of elements present in both current and the specified bloom filter
+   * without modifying either of them. The cardinality of each filter and of their union is
+   * estimated from the number of set bits, the intersection is then derived by inclusion-exclusion
+   * |A & B| = |A| + |B| - |A | B|.
+   * NOTE: Does not check for incompatibility. Use isCompatible() before calling this method.
+   *
+   * @param that - bloom filter to intersect
+   * @return estimated number of common elements
+   */
+  public long estimateIntersectionCardinality(BloomFilter that) {
+    double intersection = cardinalityFromFillRatio((double) this.bitSet.cardinality() / m)
+        + cardinalityFromFillRatio((double) that.bitSet.cardinality() / m)
+        - cardinalityFromFillRatio((double) this.bitSet.unionCardinality(that.bitSet) / m);
+    return Math.max(0, Math.round(intersection));
+  }
+
+  /**
+   * Estimates the false positive probability of the bloom filter that intersect() would produce,
+   * without modifying either of the filters. This is the probability that k bits of an element
+   * not present in either of the filters are all set in the intersected bitset. Elements present
+   * in only one of the filters have higher probability of testing true as all of their bits are
+   * already set in one of the bitsets.
+   * NOTE: Does not check for incompatibility. Use isCompatible() before calling this method.
+   *
+   * @param that - bloom filter to intersect
+   * @return estimated false positive probability after intersection
+   */
+  public double estimateIntersectionFpp(BloomFilter that) {
+    double fillRatio = (double) this.bitSet.intersectionCardinality(that.bitSet) / m;
+    return Math.pow(fillRatio, k);
+  }
+
+  /**
+   * Fraction of bits that are set in the bitset.
+   *
+   * @return fill ratio between 0.0 and 1.0
+   */
+  public double fillRatio() {
+    return (double) bitSet.cardinality() / m;
+  }
+
+  /**
+   * Same as fillRatio() but only a sample of the bitset is read. The bitset is divided into cache
+   * line sized blocks of words and every (1 / sampleRatio)-th block is read. Cheap way to monitor
+   * saturation of very large filters.
+   *
+   * @param sampleRatio - fraction of blocks to read, > 0.0 and <= 1.0
+   * @return estimated fill ratio between 0.0 and 1.0
+   */
+  public double fillRatio(double sampleRatio) {
+    assert sampleRatio > 0.0 && sampleRatio <= 1.0 : "Sample ratio should be > 0.0 & <= 1.0";
+    return bitSet.sampledFillRatio(Math.round(1.0 / sampleRatio));
+  }
+
+  /**
+   * Estimates the number of distinct elements added to the bloom filter from the number of set bits.
+   *
+   * @return estimated number of elements
+   */
+  public long estimateCardinality() {
+    return Math.round(cardinalityFromFillRatio(fillRatio()));
+  }
+
+  /**
+   * Same as estimateCardinality() but only a sample of the bitset is read. See fillRatio(double).
+   *
+   * @param sampleRatio - fraction of blocks to read, > 0.0 and <= 1.0
+   * @return estimated number of elements
+   */
+  public long estimateCardinality(double sampleRatio) {
+    return Math.round(cardinalityFromFillRatio(fillRatio(sampleRatio)));
+  }
+
+  /**
+   * Estimates the actual false positive probability from the number of set bits. Unlike
+   * getFalsePositivePercent() which is the configured value, this grows as elements are added and
+   * exceeds the configured value once more than expected number of entries are added.
+   *
+   * @return estimated false positive probability
+   */
+  public double currentFpp() {
+    return Math.pow(fillRatio(), k);
+  }
+
+  /**
+   * Same as currentFpp() but only a sample of the bitset is read. See fillRatio(double).
+   *
+   * @param sampleRatio - fraction of blocks to read, > 0.0 and <= 1.0
+   * @return estimated false positive probability
+   */
+  public double currentFpp(double sampleRatio) {
+    return Math.pow(fillRatio(sampleRatio), k);
+  }
+
+  // Estimates number of elements from fraction of set bits as described in "Estimating the size of
+  // the union and intersection of sets" by Swamidass et.al. n = -(m / k) * ln(1 - X / m)
+  private double cardinalityFromFillRatio(double fillRatio) {
+    return -((double) m / k) * Math.log1p(-fillRatio);
+  }
+
+  private static long[][] getBitSets(List<BloomFilter> filters) {
+    long[][] bitSets = new long[filters.size()][];
+    for (int i = 0; i < bitSets.length; i++) {
+      bitSets[i] = filters.get(i).bitSet.data;
+    }
+    return bitSets;
+  }
+
   /**
    * Bare metal bitset implementation. For performance reasons, this implementation does not check
    * for index bounds nor expand the bitset size if the specified index is greater than the size.
@@ -317,5 +506,73 @@ public class BloomFilter {
         data[i] |= array.data[i];
       }
     }
+
+    /**
+     * Combines the two BitArrays using bitwise AND.
+     */
+    void retainAll(BitSet array) {
+      assert data.length == array.data.length :
+          "BitArrays must be of equal length (" + data.length + "!= " + array.data.length + ")";
+      for (int i = 0; i < data.length; i++) {
+        data[i] &= array.data[i];
+      }
+    }
+
+    /**
+     * Number of set bits
+     */
+    long cardinality() {
+      long count = 0;
+      for (int i = 0; i < data.length; i++) {
+        count += Long.bitCount(data[i]);
+      }
+      return count;
+    }
+
+    /**
+     * Fraction of set bits in every stride-th block of words. Blocks are 8 words (64 bytes) so
+     * that each sampled block is a single cache line.
+     */
+    double sampledFillRatio(long stride) {
+      final int blockWords = 8;
+      // at least the first block is read, a huge stride must not overflow the index
+      final long step = Math.max(1, Math.min(stride, data.length / blockWords)) * blockWords;
+      long count = 0;
+      long words = 0;
+      for (long start = 0; start < data.length; start += step) {
+        final int end = (int) Math.min(start + blockWords, data.length);
+        for (int i = (int) start; i < end; i++) {
+          count += Long.bitCount(data[i]);
+        }
+        words += end - start;
+      }
+      return (double) count / (words * Long.SIZE);
+    }
+
+    /**
+     * Number of set bits in the bitwise OR of the two BitArrays
+     */
+    long unionCardinality(BitSet array) {
+      assert data.length == array.data.length :
+          "BitArrays must be of equal length (" + data.length + "!= " + array.data.length + ")";
+      long count = 0;
+      for (int i = 0; i < data.length; i++) {
+        count += Long.bitCount(data[i] | array.data[i]);
+      }
+      return count;
+    }
+
+    /**
+     * Number of set bits in the bitwise AND of the two BitArrays
+     */
+    long intersectionCardinality(BitSet array) {
+      assert data.length == array.data.length :
+          "BitArrays must be of equal length (" + data.length + "!= " + array.data.length + ")";
+      long count = 0;
+      for (int i = 0; i < data.length; i++) {
+        count += Long.bitCount(data[i] & array.data[i]);
+      }
+      return count;
+    }
   }
 }
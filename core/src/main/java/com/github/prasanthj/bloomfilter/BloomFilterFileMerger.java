@@ -0,0 +1,205 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges serialized bloom filter files without loading them into heap. A bloom filter file is the
+ * output of serialize() written as big endian longs, i.e, expected entries (n), false positive
+ * percentage (fpp) as long bits followed by the bitset. This is the same format for BloomFilter,
+ * Bloom1Filter and BloomKFilter, all input files are expected to be of the same variant.
+ * <p/>
+ * The bitsets are read chunk by chunk from all input files, OR'ed and written to the output file,
+ * so memory usage is bounded by the chunk size and not by the size of the filters. Like
+ * isCompatible(), input files are compatible if they have the same bit size and the same number of
+ * hash functions (derived from n and fpp in the header).
+ */
+public class BloomFilterFileMerger {
+  public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+  private static final int HEADER_SIZE = 2 * 8;
+
+  private BloomFilterFileMerger() {
+  }
+
+  /**
+   * Writes the serialized bloom filter (see serialize()) to the specified file.
+   *
+   * @param serializedBloom - serialized bloom filter
+   * @param file            - output file
+   */
+  public static void write(List<Long> serializedBloom, Path file) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(DEFAULT_CHUNK_SIZE);
+    try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      for (long l : serializedBloom) {
+        if (!buffer.hasRemaining()) {
+          buffer.flip();
+          writeFully(out, buffer);
+          buffer.clear();
+        }
+        buffer.putLong(l);
+      }
+      buffer.flip();
+      writeFully(out, buffer);
+    }
+  }
+
+  /**
+   * Reads the serialized bloom filter from the specified file. The returned list can be passed to
+   * the deserializing constructor of the bloom filter.
+   *
+   * @param file - input file
+   * @return bloom filter as list of long
+   */
+  public static List<Long> read(Path file) throws IOException {
+    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = in.size();
+      List<Long> serialized = new ArrayList<Long>((int) (size / 8));
+      ByteBuffer buffer = ByteBuffer.allocate(DEFAULT_CHUNK_SIZE);
+      while (in.read(buffer) >= 0) {
+        buffer.flip();
+        while (buffer.remaining() >= 8) {
+          serialized.add(buffer.getLong());
+        }
+        buffer.compact();
+      }
+      return serialized;
+    }
+  }
+
+  public static void merge(List<Path> inputs, Path output) throws IOException {
+    merge(inputs, output, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Merges the specified bloom filter files and writes the merged bloom filter to output file. The
+   * header of the output file is copied from the first input file.
+   *
+   * @param inputs    - bloom filter files to merge
+   * @param output    - output file
+   * @param chunkSize - number of bytes read from each input at a time
+   * @throws IllegalArgumentException if the input files are not compatible, are truncated or the
+   *                                  output file is one of the input files
+   */
+  public static void merge(List<Path> inputs, Path output, int chunkSize) throws IOException {
+    assert !inputs.isEmpty() : "inputs should not be empty";
+    assert chunkSize > 0 && chunkSize % 8 == 0 : "chunkSize should be a positive multiple of 8";
+    // opening the output truncates it, an input would be gone before it is read
+    if (Files.exists(output)) {
+      for (Path input : inputs) {
+        if (Files.isSameFile(input, output)) {
+          throw new IllegalArgumentException("Output " + output + " is the same file as input " +
+              input);
+        }
+      }
+    }
+    List<FileChannel> channels = new ArrayList<FileChannel>(inputs.size());
+    try {
+      for (Path input : inputs) {
+        FileChannel channel = FileChannel.open(input, StandardOpenOption.READ);
+        channels.add(channel);
+        checkSize(input, channel.size());
+      }
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      readFully(channels.get(0), header, 0);
+      final long size = channels.get(0).size();
+      final int numHashFunctions = numHashFunctions(header);
+      for (int i = 1; i < channels.size(); i++) {
+        ByteBuffer thatHeader = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channels.get(i), thatHeader, 0);
+        if (channels.get(i).size() != size || numHashFunctions(thatHeader) != numHashFunctions) {
+          throw new IllegalArgumentException(inputs.get(i) + " is not compatible with " + inputs.get(0));
+        }
+      }
+
+      try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        header.rewind();
+        writeFully(out, header);
+
+        ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+        long[] merged = new long[chunkSize / 8];
+        long[] chunk = new long[chunkSize / 8];
+        for (long position = HEADER_SIZE; position < size; position += chunkSize) {
+          final int len = (int) Math.min(chunkSize, size - position);
+          final int nLongs = len / 8;
+          buffer.clear();
+          buffer.limit(len);
+          readFully(channels.get(0), buffer, position);
+          buffer.asLongBuffer().get(merged, 0, nLongs);
+          for (int c = 1; c < channels.size(); c++) {
+            buffer.clear();
+            buffer.limit(len);
+            readFully(channels.get(c), buffer, position);
+            buffer.asLongBuffer().get(chunk, 0, nLongs);
+            for (int i = 0; i < nLongs; i++) {
+              merged[i] |= chunk[i];
+            }
+          }
+          buffer.clear();
+          buffer.asLongBuffer().put(merged, 0, nLongs);
+          buffer.limit(len);
+          writeFully(out, buffer);
+        }
+      }
+    } finally {
+      for (FileChannel channel : channels) {
+        channel.close();
+      }
+    }
+  }
+
+  // header followed by whole longs, anything else is a truncated or corrupt file
+  private static void checkSize(Path file, long size) {
+    if (size < HEADER_SIZE || (size - HEADER_SIZE) % 8 != 0) {
+      throw new IllegalArgumentException(file + " is not a bloom filter file of whole longs (" +
+          size + " bytes)");
+    }
+  }
+
+  private static int numHashFunctions(ByteBuffer header) {
+    long n = header.getLong(0);
+    double fpp = Double.longBitsToDouble(header.getLong(8));
+    return BloomKFilter.optimalNumOfHashFunctions(n, BloomKFilter.optimalNumOfBits(n, fpp));
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new IOException("Unexpected end of bloom filter file");
+      }
+      position += read;
+    }
+    buffer.flip();
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+}
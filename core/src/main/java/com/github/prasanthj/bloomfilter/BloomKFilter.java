@@ -17,7 +17,9 @@ package com.github.prasanthj.bloomfilter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * BloomFilter is a probabilistic data structure for set membership check. BloomFilters are
@@ -41,12 +43,13 @@ public class BloomKFilter {
   private byte[] BYTE_ARRAY_4 = new byte[4];
   private byte[] BYTE_ARRAY_8 = new byte[8];
   private static final double DEFAULT_FPP = 0.05;
-  private static final int DEFAULT_BLOCK_SIZE = 8;
+  static final int DEFAULT_BLOCK_SIZE = 8;
   private static final int DEFAULT_BLOCK_SIZE_BITS = (int) (Math.log(DEFAULT_BLOCK_SIZE) / Math.log(2));
   private static final int DEFAULT_BLOCK_OFFSET_MASK = DEFAULT_BLOCK_SIZE - 1;
   private static final int DEFAULT_BIT_OFFSET_MASK = Long.SIZE - 1;
   private BitSet bitSet;
-  private final long m;
+  // bit size and block count change when the filter is folded, see fold()
+  private long m;
   private final int k;
   private final double fpp;
   private final long n;
@@ -54,13 +57,26 @@ public class BloomKFilter {
   // spread k-1 bits to adjacent longs, default is 8
   // spreading hash bits within blockSize * longs will make bloom filter L1 cache friendly
   // default block size is set to 8 as most cache line sizes are 64 bytes and also AVX512 friendly
-  private final int totalBlockCount;
+  private int totalBlockCount;
 
   public BloomKFilter(long maxNumEntries) {
     this(maxNumEntries, DEFAULT_FPP);
   }
 
   public BloomKFilter(long maxNumEntries, double fpp) {
+    this(maxNumEntries, fpp, false);
+  }
+
+  /**
+   * Creates a bloom filter. With power of 2 size the number of blocks is rounded up to a power of 2,
+   * which takes up to 2x the memory but the filter can be folded by any power of 2 factor and
+   * merged with power of 2 sized filters of other expected entries, see fold() and merge().
+   *
+   * @param maxNumEntries  - expected number of entries
+   * @param fpp            - false positive probability
+   * @param powerOfTwoSize - round the number of blocks up to a power of 2
+   */
+  public BloomKFilter(long maxNumEntries, double fpp, boolean powerOfTwoSize) {
     assert maxNumEntries > 0 : "maxNumEntries should be > 0";
     assert fpp > 0.0 && fpp < 1.0 : "False positive percentage should be > 0.0 & < 1.0";
     this.fpp = fpp;
@@ -70,21 +86,44 @@ public class BloomKFilter {
     int nLongs = (int) Math.ceil((double) numBits / (double) Long.SIZE);
     // additional bits to pad long array to block size
     int padLongs = DEFAULT_BLOCK_SIZE - nLongs % DEFAULT_BLOCK_SIZE;
-    this.m = (nLongs + padLongs) * Long.SIZE;
-    this.bitSet = new BitSet(m);
-    assert (bitSet.data.length % DEFAULT_BLOCK_SIZE) == 0 : "bitSet has to be block aligned";
-    this.totalBlockCount = bitSet.data.length / DEFAULT_BLOCK_SIZE;
+    int blockCount = (nLongs + padLongs) / DEFAULT_BLOCK_SIZE;
+    if (powerOfTwoSize && blockCount > 1) {
+      blockCount = Integer.highestOneBit(blockCount - 1) << 1;
+    }
+    setBitSet(new long[blockCount * DEFAULT_BLOCK_SIZE]);
   }
 
-  // deserialize bloomfilter. see serialize() for the format.
+  // deserialize bloomfilter. see serialize() for the format. bit size is the size of the bitset,
+  // which is smaller than the bit size of expected entries and fpp if the filter was folded.
   public BloomKFilter(List<Long> serializedBloom) {
-    this(serializedBloom.get(0), Double.longBitsToDouble(serializedBloom.get(1)));
-    List<Long> bitSet = serializedBloom.subList(2, serializedBloom.size());
+    this(serializedBloom.get(0), Double.longBitsToDouble(serializedBloom.get(1)),
+        toArray(serializedBloom.subList(2, serializedBloom.size())));
+  }
+
+  /**
+   * Creates a bloom filter of the specified expected entries and fpp over an existing bitset. Number
+   * of hash functions is derived from expected entries and fpp, bit size from the bitset.
+   */
+  BloomKFilter(long maxNumEntries, double fpp, long[] data) {
+    this.fpp = fpp;
+    this.n = maxNumEntries;
+    this.k = optimalNumOfHashFunctions(maxNumEntries, optimalNumOfBits(maxNumEntries, fpp));
+    setBitSet(data);
+  }
+
+  private static long[] toArray(List<Long> bitSet) {
     long[] data = new long[bitSet.size()];
     for (int i = 0; i < bitSet.size(); i++) {
       data[i] = bitSet.get(i);
     }
+    return data;
+  }
+
+  private void setBitSet(long[] data) {
+    assert (data.length % DEFAULT_BLOCK_SIZE) == 0 : "bitSet has to be block aligned";
     this.bitSet = new BitSet(data);
+    this.m = (long) data.length * Long.SIZE;
+    this.totalBlockCount = data.length / DEFAULT_BLOCK_SIZE;
   }
 
   static int optimalNumOfHashFunctions(long n, long m) {
@@ -107,27 +146,28 @@ public class BloomKFilter {
   }
 
   public void addBytes(byte[] val) {
+    addHash(Murmur3.hash64(val));
+  }
 
+  /**
+   * Adds an already hashed value. The hash is expected to be Murmur3.hash64() of the value bytes
+   * so that addHash() and addBytes() are interchangeable.
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   */
+  public void addHash(long hash64) {
     // We use the trick mentioned in "Less Hashing, Same Performance: Building a Better Bloom Filter"
     // by Kirsch et.al. From abstract 'only two hash functions are necessary to effectively
     // implement a Bloom filter without any loss in the asymptotic false positive probability'
 
     // Lets split up 64-bit hashcode into two 32-bit hashcodes and employ the technique mentioned
     // in the above paper
-    long hash64 = Murmur3.hash64(val);
     int hash1 = (int) hash64;
     int hash2 = (int) (hash64 >>> 32);
 
-    int firstHash = hash1 + hash2;
-    // hashcode should be positive, flip all the bits if it's negative
-    if (firstHash < 0) {
-      firstHash = ~firstHash;
-    }
-
     // first hash is used to locate start of the block (blockBaseOffset)
     // subsequent K hashes are used to generate K bits within a block of words
-    final int blockIdx = firstHash % totalBlockCount;
-    final int blockBaseOffset = blockIdx << DEFAULT_BLOCK_SIZE_BITS;
+    final int blockBaseOffset = blockBaseOffset(hash64);
     for (int i = 1; i <= k; i++) {
       int combinedHash = hash1 + ((i + 1) * hash2);
       // hashcode should be positive, flip all the bits if it's negative
@@ -174,7 +214,31 @@ public class BloomKFilter {
   }
 
   public boolean testBytes(byte[] val) {
-    long hash64 = Murmur3.hash64(val);
+    return testHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Tests an already hashed value. See addHash().
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return true if the value may be present, false otherwise
+   */
+  public boolean testHash(long hash64) {
+    final int blockBaseOffset = blockBaseOffset(hash64);
+    setMasks(hash64, masks);
+    final boolean result = testMasks(blockBaseOffset, masks);
+
+    // clear the mask for array reuse (this is to avoid masks array allocation in inner loop)
+    Arrays.fill(masks, 0);
+    return result;
+  }
+
+  /**
+   * Offset of the first word of the block of the specified hashcode. The block is the hashcode
+   * modulo the number of blocks, which is what makes folding possible: a value stays in its block
+   * modulo any divisor of the number of blocks.
+   */
+  int blockBaseOffset(long hash64) {
     int hash1 = (int) hash64;
     int hash2 = (int) (hash64 >>> 32);
 
@@ -185,13 +249,22 @@ public class BloomKFilter {
     }
 
     // first hash is used to locate start of the block (blockBaseOffset)
-    // subsequent K hashes are used to generate K bits within a block of words
-    // To avoid branches during probe, a separate masks array is used for each longs/words within a block.
-    // data array and masks array are then traversed together and checked for corresponding set bits.
     final int blockIdx = firstHash % totalBlockCount;
-    final int blockBaseOffset = blockIdx << DEFAULT_BLOCK_SIZE_BITS;
+    return blockIdx << DEFAULT_BLOCK_SIZE_BITS;
+  }
+
+  /**
+   * Sets the K bits of the specified hashcode in masks, one mask per word of the block. The masks
+   * depend only on the hashcode and K, so they can be tested against any filter with the same K.
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @param masks  - array of block size, bits are OR-ed into it
+   */
+  void setMasks(long hash64, long[] masks) {
+    int hash1 = (int) hash64;
+    int hash2 = (int) (hash64 >>> 32);
 
-    // iterate and update masks array
+    // subsequent K hashes are used to generate K bits within a block of words
     for (int i = 1; i <= k; i++) {
       int combinedHash = hash1 + ((i + 1)  * hash2);
       // hashcode should be positive, flip all the bits if it's negative
@@ -204,7 +277,14 @@ public class BloomKFilter {
       final int bitPos = (combinedHash >>> DEFAULT_BLOCK_SIZE_BITS) & DEFAULT_BIT_OFFSET_MASK;
       masks[wordOffset] |= (1L << bitPos);
     }
+  }
 
+  /**
+   * Tests if all the bits of masks (see setMasks()) are set in the block at blockBaseOffset.
+   * To avoid branches during probe, a separate masks array is used for each longs/words within a
+   * block. data array and masks array are traversed together and checked for corresponding set bits.
+   */
+  boolean testMasks(int blockBaseOffset, long[] masks) {
     // traverse data and masks array together, check for set bits
     long expected = 0;
     for (int i = 0; i < DEFAULT_BLOCK_SIZE; i++) {
@@ -212,9 +292,6 @@ public class BloomKFilter {
       expected |= (bitSet.data[blockBaseOffset + i] & mask) ^ mask;
     }
 
-    // clear the mask for array reuse (this is to avoid masks array allocation in inner loop)
-    Arrays.fill(masks, 0);
-
     // if all bits are set, expected should be 0
     return expected == 0;
   }
@@ -296,25 +373,308 @@ public class BloomKFilter {
   }
 
   /**
-   * Check if the specified bloom filter is compatible with the current bloom filter.
+   * Check if the specified bloom filter is compatible with the current bloom filter. Filters are
+   * compatible if they have the same number of hash functions and the bit size of one is the bit
+   * size of the other times a power of 2, the larger filter is folded on merge().
    *
    * @param that - bloom filter to check compatibility
    * @return true if compatible false otherwise
    */
   public boolean isCompatible(BloomKFilter that) {
+    final long larger = Math.max(this.getBitSize(), that.getBitSize());
+    final long smaller = Math.min(this.getBitSize(), that.getBitSize());
     return this != that &&
-        this.getBitSize() == that.getBitSize() &&
+        larger % smaller == 0 && Long.bitCount(larger / smaller) == 1 &&
         this.getNumHashFunctions() == that.getNumHashFunctions();
   }
 
   /**
-   * Merge the specified bloom filter with current bloom filter.
+   * Merge the specified bloom filter with current bloom filter. If the current filter is larger, it
+   * is folded to the size of the specified filter first. If the specified filter is larger, it is
+   * folded into the current bitset while merging and is not modified.
    * NOTE: Merge does not check for incompatibility. Use isCompatible() before calling merge().
    *
    * @param that - bloom filter to merge
    */
   public void merge(BloomKFilter that) {
-    this.bitSet.putAll(that.bitSet);
+    if (this.m > that.m) {
+      fold((int) (this.m / that.m));
+    }
+    if (this.m == that.m) {
+      this.bitSet.putAll(that.bitSet);
+    } else {
+      this.bitSet.putAllFolded(that.bitSet);
+    }
+  }
+
+  /**
+   * Merge the specified bloom filter with current bloom filter. The bitset is split into ranges
+   * which are merged in parallel on the specified fork-join pool.
+   * NOTE: Merge does not check for incompatibility. Use isCompatible() before calling merge().
+   *
+   * @param that - bloom filter to merge
+   * @param pool - fork-join pool to run the merge on
+   */
+  public void merge(BloomKFilter that, ForkJoinPool pool) {
+    mergeAll(Collections.singletonList(that), pool);
+  }
+
+  /**
+   * Merge all the specified bloom filters with current bloom filter. All filters are merged in a
+   * single pass over the current bitset, which is cheaper than merging the filters one by one.
+   * NOTE: Merge does not check for incompatibility. Use isCompatible() before calling mergeAll().
+   *
+   * @param filters - bloom filters to merge
+   */
+  public void mergeAll(List<BloomKFilter> filters) {
+    final long[][] bitSets = getBitSets(mergeLarger(filters));
+    BitSetMerger.merge(bitSet.data, bitSets);
+  }
+
+  /**
+   * Same as mergeAll(List) but the bitset is split into ranges which are merged in parallel on the
+   * specified fork-join pool.
+   *
+   * @param filters - bloom filters to merge
+   * @param pool    - fork-join pool to run the merge on
+   */
+  public void mergeAll(List<BloomKFilter> filters, ForkJoinPool pool) {
+    final long[][] bitSets = getBitSets(mergeLarger(filters));
+    BitSetMerger.merge(bitSet.data, bitSets, pool);
+  }
+
+  // folds the current filter to the smallest of the filters and merges the filters that are larger
+  // than it, returns the filters of the same size as the current filter
+  private List<BloomKFilter> mergeLarger(List<BloomKFilter> filters) {
+    long minBits = m;
+    for (BloomKFilter filter : filters) {
+      minBits = Math.min(minBits, filter.m);
+    }
+    if (minBits < m) {
+      fold((int) (m / minBits));
+    }
+    List<BloomKFilter> sameSize = filters;
+    for (int i = 0; i < filters.size(); i++) {
+      final BloomKFilter filter = filters.get(i);
+      if (filter.m != m) {
+        if (sameSize == filters) {
+          sameSize = new ArrayList<BloomKFilter>(filters.subList(0, i));
+        }
+        bitSet.putAllFolded(filter.bitSet);
+      } else if (sameSize != filters) {
+        sameSize.add(filter);
+      }
+    }
+    return sameSize;
+  }
+
+  /**
+   * Intersect the specified bloom filter with current bloom filter. Elements present in both the
+   * filters will test true after intersection (no false negatives). Elements present in only one
+   * of the filters may still test true, use estimateIntersectionFpp() to get the false positive
+   * probability of the intersected filter. Filters of different sizes are folded like in merge().
+   * NOTE: Intersect does not check for incompatibility. Use isCompatible() before calling intersect().
+   *
+   * @param that - bloom filter to intersect
+   */
+  public void intersect(BloomKFilter that) {
+    if (this.m > that.m) {
+      fold((int) (this.m / that.m));
+    }
+    if (this.m == that.m) {
+      this.bitSet.retainAll(that.bitSet);
+    } else {
+      this.bitSet.retainAllFolded(that.bitSet);
+    }
+  }
+
+  /**
+   * Estimates the number of elements present in both current and the specified bloom filter
+   * without modifying either of them. The cardinality of each filter and of their union is
+   * estimated from the number of set bits, the intersection is then derived by inclusion-exclusion
+   * |A & B| = |A| + |B| - |A | B|. Filters of different sizes are compared as if the larger one
+   * was folded to the size of the smaller one, see intersect().
+   * NOTE: Does not check for incompatibility. Use isCompatible() before calling this method.
+   *
+   * @param that - bloom filter to intersect
+   * @return estimated number of common elements
+   */
+  public long estimateIntersectionCardinality(BloomKFilter that) {
+    final long bits = Math.min(this.m, that.m);
+    double intersection =
+        cardinalityFromFillRatio((double) this.bitSet.foldedCardinality(that.bitSet) / bits, bits)
+        + cardinalityFromFillRatio((double) that.bitSet.foldedCardinality(this.bitSet) / bits, bits)
+        - cardinalityFromFillRatio((double) this.bitSet.unionCardinality(that.bitSet) / bits, bits);
+    return Math.max(0, Math.round(intersection));
+  }
+
+  /**
+   * Estimates the false positive probability of the bloom filter that intersect() would produce,
+   * without modifying either of the filters. This is the probability that k bits of an element
+   * not present in either of the filters are all set in the intersected bitset. Elements present
+   * in only one of the filters have higher probability of testing true as all of their bits are
+   * already set in one of the bitsets. Filters of different sizes are folded like in intersect().
+   * NOTE: Does not check for incompatibility. Use isCompatible() before calling this method.
+   *
+   * @param that - bloom filter to intersect
+   * @return estimated false positive probability after intersection
+   */
+  public double estimateIntersectionFpp(BloomKFilter that) {
+    double fillRatio =
+        (double) this.bitSet.intersectionCardinality(that.bitSet) / Math.min(this.m, that.m);
+    return Math.pow(fillRatio, k);
+  }
+
+  /**
+   * Fraction of bits that are set in the bitset.
+   *
+   * @return fill ratio between 0.0 and 1.0
+   */
+  public double fillRatio() {
+    return (double) bitSet.cardinality() / m;
+  }
+
+  /**
+   * Same as fillRatio() but only a sample of the bitset is read. The bitset is divided into cache
+   * line sized blocks of words and every (1 / sampleRatio)-th block is read. Cheap way to monitor
+   * saturation of very large filters.
+   *
+   * @param sampleRatio - fraction of blocks to read, > 0.0 and <= 1.0
+   * @return estimated fill ratio between 0.0 and 1.0
+   */
+  public double fillRatio(double sampleRatio) {
+    assert sampleRatio > 0.0 && sampleRatio <= 1.0 : "Sample ratio should be > 0.0 & <= 1.0";
+    return bitSet.sampledFillRatio(Math.round(1.0 / sampleRatio));
+  }
+
+  /**
+   * Estimates the number of distinct elements added to the bloom filter from the number of set bits.
+   *
+   * @return estimated number of elements
+   */
+  public long estimateCardinality() {
+    return Math.round(cardinalityFromFillRatio(fillRatio()));
+  }
+
+  /**
+   * Same as estimateCardinality() but only a sample of the bitset is read. See fillRatio(double).
+   *
+   * @param sampleRatio - fraction of blocks to read, > 0.0 and <= 1.0
+   * @return estimated number of elements
+   */
+  public long estimateCardinality(double sampleRatio) {
+    return Math.round(cardinalityFromFillRatio(fillRatio(sampleRatio)));
+  }
+
+  /**
+   * Estimates the actual false positive probability from the number of set bits. Unlike
+   * getFalsePositivePercent() which is the configured value, this grows as elements are added and
+   * exceeds the configured value once more than expected number of entries are added.
+   *
+   * @return estimated false positive probability
+   */
+  public double currentFpp() {
+    return Math.pow(fillRatio(), k);
+  }
+
+  /**
+   * Same as currentFpp() but only a sample of the bitset is read. See fillRatio(double).
+   *
+   * @param sampleRatio - fraction of blocks to read, > 0.0 and <= 1.0
+   * @return estimated false positive probability
+   */
+  public double currentFpp(double sampleRatio) {
+    return Math.pow(fillRatio(sampleRatio), k);
+  }
+
+  // Estimates number of elements from fraction of set bits as described in "Estimating the size of
+  // the union and intersection of sets" by Swamidass et.al. n = -(m / k) * ln(1 - X / m)
+  private double cardinalityFromFillRatio(double fillRatio) {
+    return cardinalityFromFillRatio(fillRatio, m);
+  }
+
+  private double cardinalityFromFillRatio(double fillRatio, long bits) {
+    return -((double) bits / k) * Math.log1p(-fillRatio);
+  }
+
+  private static long[][] getBitSets(List<BloomKFilter> filters) {
+    long[][] bitSets = new long[filters.size()][];
+    for (int i = 0; i < bitSets.length; i++) {
+      bitSets[i] = filters.get(i).bitSet.data;
+    }
+    return bitSets;
+  }
+
+  /**
+   * Folds the bitset by the specified factor to reduce memory. The bitset is split into factor equal
+   * parts which are OR-ed together, so every value stays in its block (see blockBaseOffset()) with
+   * the same bits. Number of hash functions is unchanged and the false positive probability
+   * increases, see estimateFoldedFpp(). Useful for filters that ended up with far fewer entries
+   * than expected. Filters created with power of 2 size can be folded by any power of 2 factor up
+   * to the number of blocks.
+   *
+   * @param factor - power of 2 that divides the number of blocks
+   */
+  public void fold(int factor) {
+    assert isFoldable(factor) : "factor should be a power of 2 that divides " + totalBlockCount + " blocks";
+    final long[] data = bitSet.data;
+    final int length = data.length / factor;
+    final long[] folded = Arrays.copyOf(data, length);
+    for (int start = length; start < data.length; start += length) {
+      for (int i = 0; i < length; i++) {
+        folded[i] |= data[start + i];
+      }
+    }
+    setBitSet(folded);
+  }
+
+  /**
+   * Estimates the false positive probability after fold(factor) from the number of bits that would
+   * be set in the folded bitset, without modifying the filter.
+   *
+   * @param factor - power of 2 that divides the number of blocks
+   * @return estimated false positive probability after folding
+   */
+  public double estimateFoldedFpp(int factor) {
+    assert isFoldable(factor) : "factor should be a power of 2 that divides " + totalBlockCount + " blocks";
+    final long[] data = bitSet.data;
+    final int length = data.length / factor;
+    long setBits = 0;
+    for (int i = 0; i < length; i++) {
+      long word = data[i];
+      for (int j = i + length; j < data.length; j += length) {
+        word |= data[j];
+      }
+      setBits += Long.bitCount(word);
+    }
+    return Math.pow((double) setBits / ((long) length * Long.SIZE), k);
+  }
+
+  /**
+   * Largest fold factor that keeps the estimated false positive probability at or below the
+   * specified fpp, 1 if the filter cannot be folded without exceeding it.
+   *
+   * @param maxFpp - largest acceptable false positive probability after folding
+   * @return fold factor for fold()
+   */
+  public int maxFoldFactor(double maxFpp) {
+    int factor = 1;
+    while (isFoldable(factor * 2) && estimateFoldedFpp(factor * 2) <= maxFpp) {
+      factor *= 2;
+    }
+    return factor;
+  }
+
+  private boolean isFoldable(int factor) {
+    return factor > 0 && Integer.bitCount(factor) == 1 && totalBlockCount % factor == 0;
+  }
+
+  /**
+   * Clears all the bits, the filter is empty afterwards. Reuses the bitset instead of allocating a
+   * new filter.
+   */
+  public void clear() {
+    Arrays.fill(bitSet.data, 0);
   }
 
   public long getNumBits() {
@@ -385,5 +745,134 @@ public class BloomKFilter {
         data[i] |= array.data[i];
       }
     }
+
+    /**
+     * Combines the two BitArrays using bitwise OR, where the specified BitArray is a multiple of the
+     * length of this one and is folded into it.
+     */
+    void putAllFolded(BitSet array) {
+      assert array.data.length % data.length == 0 :
+          "BitArray length must be a multiple of " + data.length + " (" + array.data.length + ")";
+      for (int start = 0; start < array.data.length; start += data.length) {
+        for (int i = 0; i < data.length; i++) {
+          data[i] |= array.data[start + i];
+        }
+      }
+    }
+
+    /**
+     * Combines the two BitArrays using bitwise AND, where the specified BitArray is a multiple of
+     * the length of this one and is folded into it before the AND.
+     */
+    void retainAllFolded(BitSet array) {
+      assert array.data.length % data.length == 0 :
+          "BitArray length must be a multiple of " + data.length + " (" + array.data.length + ")";
+      for (int i = 0; i < data.length; i++) {
+        long word = array.data[i];
+        for (int j = i + data.length; j < array.data.length; j += data.length) {
+          word |= array.data[j];
+        }
+        data[i] &= word;
+      }
+    }
+
+    /**
+     * Combines the two BitArrays using bitwise AND.
+     */
+    void retainAll(BitSet array) {
+      assert data.length == array.data.length :
+          "BitArrays must be of equal length (" + data.length + "!= " + array.data.length + ")";
+      for (int i = 0; i < data.length; i++) {
+        data[i] &= array.data[i];
+      }
+    }
+
+    /**
+     * Number of set bits
+     */
+    long cardinality() {
+      long count = 0;
+      for (int i = 0; i < data.length; i++) {
+        count += Long.bitCount(data[i]);
+      }
+      return count;
+    }
+
+    /**
+     * Fraction of set bits in every stride-th block of words. Blocks are 8 words (64 bytes) so
+     * that each sampled block is a single cache line.
+     */
+    double sampledFillRatio(long stride) {
+      final int blockWords = 8;
+      // at least the first block is read, a huge stride must not overflow the index
+      final long step = Math.max(1, Math.min(stride, data.length / blockWords)) * blockWords;
+      long count = 0;
+      long words = 0;
+      for (long start = 0; start < data.length; start += step) {
+        final int end = (int) Math.min(start + blockWords, data.length);
+        for (int i = (int) start; i < end; i++) {
+          count += Long.bitCount(data[i]);
+        }
+        words += end - start;
+      }
+      return (double) count / (words * Long.SIZE);
+    }
+
+    // word i of this BitArray folded to the specified length, i.e, OR of the words at i,
+    // i + length, i + 2 * length, ...
+    private long foldedWord(int i, int length) {
+      long word = data[i];
+      for (int j = i + length; j < data.length; j += length) {
+        word |= data[j];
+      }
+      return word;
+    }
+
+    // length of the smaller of the two BitArrays, the larger one is folded to this length
+    private int foldedLength(BitSet array) {
+      final int length = Math.min(data.length, array.data.length);
+      assert Math.max(data.length, array.data.length) % length == 0 :
+          "BitArray lengths must be multiples (" + data.length + ", " + array.data.length + ")";
+      return length;
+    }
+
+    /**
+     * Number of set bits in this BitArray, folded to the length of the specified BitArray if it is
+     * smaller.
+     */
+    long foldedCardinality(BitSet array) {
+      final int length = foldedLength(array);
+      long count = 0;
+      for (int i = 0; i < length; i++) {
+        count += Long.bitCount(foldedWord(i, length));
+      }
+      return count;
+    }
+
+    /**
+     * Number of set bits in the bitwise OR of the two BitArrays. The larger BitArray is folded to
+     * the length of the smaller one.
+     */
+    long unionCardinality(BitSet array) {
+      final int length = foldedLength(array);
+      long count = 0;
+      for (int i = 0; i < length; i++) {
+        count += Long.bitCount(foldedWord(i, length) | array.foldedWord(i, length));
+      }
+      return count;
+    }
+
+    /**
+     * Number of set bits in the bitwise AND of the two BitArrays. The larger BitArray is folded to
+     * the length of the smaller one.
+     */
+    long intersectionCardinality(BitSet array) {
+      final int length = foldedLength(array);
+      long count = 0;
+      for (int i = 0; i < length; i++) {
+        count += Long.bitCount(foldedWord(i, length) & array.foldedWord(i, length));
+      }
+      return count;
+    }
   }
 }
@@ -0,0 +1,281 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable retrieval structure (Bloomier filter) that maps keys to small values, as described in
+ * "The Bloomier Filter: An Efficient Data Structure for Static Support Lookup Tables" by Chazelle
+ * et.al., built with binary fuse filter construction (see BinaryFuseBuilder).
+ * <p/>
+ * Every key maps to 3 slots of an array of r-bit values and the slots are assigned such that the
+ * xor of the 3 slots is the value of the key. A lookup reads 3 slots. The structure does not store
+ * the keys, looking up a key that was not in the build set returns an arbitrary value, so it is
+ * meant to be used next to a membership filter or for keys that are known to be present. Space is
+ * ~1.125 * r bits per key for large key sets (4.5 bits per key for 4-bit values) irrespective of
+ * the key size.
+ * <p/>
+ * Keys are the Murmur3 64-bit hashcodes of the values, as in addHash() of the filters. Keys that
+ * appear more than once must map to the same value, a key with two different values (or two keys
+ * with the same 64-bit hashcode and different values) is rejected. Values are packed in a long
+ * array, r bits per slot, and may span two longs.
+ */
+public class BloomierFilter {
+  private final byte[] BYTE_ARRAY_4 = new byte[4];
+  private final byte[] BYTE_ARRAY_8 = new byte[8];
+  public static final int MAX_VALUE_BITS = 8;
+  private final long seed;
+  private final int segmentLength;
+  private final int segmentLengthMask;
+  private final int segmentCount;
+  private final int segmentCountLength;
+  private final long numEntries;
+  private final int valueBits;
+  private final long valueMask;
+  private final long[] data;
+
+  /**
+   * Builds the retrieval structure from the specified hashcodes and values. Hashcodes are expected
+   * to be Murmur3.hash64() of the key bytes so that getHash() and getBytes() are interchangeable.
+   *
+   * @param hashes    - 64-bit hashcodes of the keys
+   * @param values    - value of every key, 0 to 2^valueBits - 1
+   * @param valueBits - bits per value (r), 1 to 8
+   * @throws IllegalArgumentException if a hashcode has more than one value
+   */
+  public BloomierFilter(long[] hashes, byte[] values, int valueBits) {
+    assert hashes.length == values.length : "Number of hashes and values does not match";
+    assert valueBits > 0 && valueBits <= MAX_VALUE_BITS : "valueBits should be > 0 & <= " + MAX_VALUE_BITS;
+    this.valueBits = valueBits;
+    this.valueMask = (1L << valueBits) - 1;
+    for (byte value : values) {
+      assert (value & 0xFF & ~valueMask) == 0 : "Value " + (value & 0xFF) + " does not fit in " + valueBits + " bits";
+    }
+
+    // builder deduplicates and sorts hashcodes if there are duplicates, remove them upfront so
+    // that key indices of the builder refer to values
+    final long[] sorted = hashes.clone();
+    Arrays.sort(sorted);
+    boolean hasDuplicates = false;
+    for (int i = 1; i < sorted.length && !hasDuplicates; i++) {
+      hasDuplicates = sorted[i] == sorted[i - 1];
+    }
+    long[] keys = hashes;
+    byte[] keyValues = values;
+    if (hasDuplicates) {
+      keys = new long[hashes.length];
+      keyValues = new byte[values.length];
+      int distinct = 0;
+      final Map<Long, Byte> seen = duplicates(sorted);
+      for (int i = 0; i < hashes.length; i++) {
+        if (seen.containsKey(hashes[i])) {
+          final Byte value = seen.get(hashes[i]);
+          if (value != null) {
+            if (value != values[i]) {
+              throw new IllegalArgumentException("Hashcode " + hashes[i] + " has values " + value + " and " + values[i]);
+            }
+            continue;
+          }
+          seen.put(hashes[i], values[i]);
+        }
+        keys[distinct] = hashes[i];
+        keyValues[distinct] = values[i];
+        distinct++;
+      }
+      keys = Arrays.copyOf(keys, distinct);
+      keyValues = Arrays.copyOf(keyValues, distinct);
+    }
+
+    BinaryFuseBuilder builder = new BinaryFuseBuilder(keys.length);
+    builder.build(keys);
+    this.seed = builder.seed;
+    this.segmentLength = builder.segmentLength;
+    this.segmentLengthMask = builder.segmentLengthMask;
+    this.segmentCount = builder.segmentCount;
+    this.segmentCountLength = builder.segmentCountLength;
+    this.numEntries = keys.length;
+    // one extra word for the last value spanning two longs
+    this.data = new long[(int) (((long) builder.arrayLength * valueBits + Long.SIZE - 1) / Long.SIZE) + 1];
+
+    // assign in reverse peeling order, every key gets a slot that no key assigned later maps to
+    for (int i = builder.size - 1; i >= 0; i--) {
+      final long hash = builder.reverseOrder[i];
+      final int found = builder.reverseH[i];
+      final int h = builder.slot(hash, found);
+      final int h1 = builder.slot(hash, BinaryFuseBuilder.mod3(found + 1));
+      final int h2 = builder.slot(hash, BinaryFuseBuilder.mod3(found + 2));
+      set(h, (keyValues[builder.reverseKey[i]] & 0xFF) ^ get(h1) ^ get(h2));
+    }
+  }
+
+  // hashcodes that appear more than once in the sorted array, mapped to null
+  private static Map<Long, Byte> duplicates(long[] sorted) {
+    final Map<Long, Byte> duplicates = new HashMap<Long, Byte>();
+    for (int i = 1; i < sorted.length; i++) {
+      if (sorted[i] == sorted[i - 1]) {
+        duplicates.put(sorted[i], null);
+      }
+    }
+    return duplicates;
+  }
+
+  // deserialize bloomier filter. see serialize() for the format.
+  public BloomierFilter(List<Long> serializedFilter) {
+    this.numEntries = serializedFilter.get(0);
+    this.valueBits = serializedFilter.get(1).intValue();
+    this.valueMask = (1L << valueBits) - 1;
+    this.seed = serializedFilter.get(2);
+    this.segmentLength = serializedFilter.get(3).intValue();
+    this.segmentLengthMask = segmentLength - 1;
+    this.segmentCount = serializedFilter.get(4).intValue();
+    this.segmentCountLength = segmentCount * segmentLength;
+    List<Long> data = serializedFilter.subList(5, serializedFilter.size());
+    this.data = new long[data.size()];
+    for (int i = 0; i < data.size(); i++) {
+      this.data[i] = data.get(i);
+    }
+  }
+
+  private int get(int slot) {
+    final long bitPos = (long) slot * valueBits;
+    final int word = (int) (bitPos >>> 6);
+    final int shift = (int) (bitPos & 63);
+    long value = data[word] >>> shift;
+    if (shift + valueBits > Long.SIZE) {
+      value |= data[word + 1] << (Long.SIZE - shift);
+    }
+    return (int) (value & valueMask);
+  }
+
+  private void set(int slot, int value) {
+    final long bitPos = (long) slot * valueBits;
+    final int word = (int) (bitPos >>> 6);
+    final int shift = (int) (bitPos & 63);
+    data[word] |= (long) value << shift;
+    if (shift + valueBits > Long.SIZE) {
+      data[word + 1] |= (long) value >>> (Long.SIZE - shift);
+    }
+  }
+
+  public long sizeInBytes() {
+    return (long) data.length * 8;
+  }
+
+  public int get(byte[] val) {
+    return getBytes(val);
+  }
+
+  public int getBytes(byte[] val) {
+    return getHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Value of an already hashed key.
+   *
+   * @param hash64 - 64-bit hashcode of the key, see BloomierFilter(long[], byte[], int)
+   * @return value of the key if it was in the build set, an arbitrary value otherwise
+   */
+  public int getHash(long hash64) {
+    final long hash = BinaryFuseBuilder.mix(hash64, seed);
+    final int h0 = (int) (((hash >>> 32) * segmentCountLength) >>> 32);
+    final int h1 = (h0 + segmentLength) ^ ((int) (hash >>> 18) & segmentLengthMask);
+    final int h2 = (h0 + 2 * segmentLength) ^ ((int) hash & segmentLengthMask);
+    return get(h0) ^ get(h1) ^ get(h2);
+  }
+
+  public int getString(String val) {
+    return getBytes(val.getBytes());
+  }
+
+  public int getByte(byte val) {
+    return getBytes(new byte[]{val});
+  }
+
+  public int getInt(int val) {
+    return getBytes(intToByteArrayLE(val));
+  }
+
+  public int getLong(long val) {
+    return getBytes(longToByteArrayLE(val));
+  }
+
+  public int getFloat(float val) {
+    return getInt(Float.floatToIntBits(val));
+  }
+
+  public int getDouble(double val) {
+    return getLong(Double.doubleToLongBits(val));
+  }
+
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+
+  /**
+   * Number of distinct keys in the structure
+   */
+  public long getNumEntries() {
+    return numEntries;
+  }
+
+  public int getValueBits() {
+    return valueBits;
+  }
+
+  public double getBitsPerEntry() {
+    return numEntries == 0 ? 0 : (double) data.length * Long.SIZE / numEntries;
+  }
+
+  /**
+   * First 5 entries are number of entries, value bits, seed, segment length and segment count. The
+   * entries following first 5 entries are the values, packed valueBits per slot from the LSB bits.
+   *
+   * @return bloomier filter as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add(numEntries);
+    serialized.add((long) valueBits);
+    serialized.add(seed);
+    serialized.add((long) segmentLength);
+    serialized.add((long) segmentCount);
+    for (long word : data) {
+      serialized.add(word);
+    }
+    return serialized;
+  }
+}
@@ -0,0 +1,299 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Two level filter with a small front filter that fits in L1/L2 cache in front of a large
+ * BloomKFilter. A probe tests the front filter first and only probes that pass it test the back
+ * filter, so negative probes rejected by the front filter do not miss the cache.
+ * <p/>
+ * Both levels use the same Murmur3 64-bit hashcode. The back filter is a BloomKFilter of
+ * maxNumEntries and fpp, the front filter is a power of 2 number of words where a value sets K bits
+ * in one word. The front word and bits come from the hashcode multiplied by the golden ratio, which
+ * remixes the hashcode without hashing the value again. False positive probability is the one of the
+ * back filter.
+ * <p/>
+ * The fraction of negative probes screened by the front filter depends on its bits per entry. With
+ * fewer than ~1.5 bits per entry the front filter uses K = 1 and screens e^(-n/m) of the negative
+ * probes, for example ~37% when the front filter has one bit per entry and ~1% with 0.2 bits per
+ * entry, so the front filter should be sized for the number of entries rather than for the cache
+ * alone. Unless specified, the front filter gets at least 1 bit per entry (see
+ * defaultFrontSizeInBytes()) and screens at least ~37% of the negative probes.
+ */
+public class CascadingBloomFilter {
+  private final byte[] BYTE_ARRAY_4 = new byte[4];
+  private final byte[] BYTE_ARRAY_8 = new byte[8];
+  private static final double DEFAULT_FPP = 0.05;
+  static final int MAX_FRONT_SIZE_IN_BYTES = 1 << 24;
+  // 6 bits per hash function in the LSB bits, the front word index in the MSB bits
+  private static final int MAX_FRONT_HASH_FUNCTIONS = 7;
+  private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+  private final long[] front;
+  private final int frontShift;
+  private final int frontK;
+  private final BloomKFilter back;
+
+  public CascadingBloomFilter(long maxNumEntries) {
+    this(maxNumEntries, DEFAULT_FPP);
+  }
+
+  public CascadingBloomFilter(long maxNumEntries, double fpp) {
+    this(maxNumEntries, fpp, defaultFrontSizeInBytes(maxNumEntries));
+  }
+
+  /**
+   * Front filter size with at least 1 bit per entry, the smallest power of 2 number of bytes
+   * >= maxNumEntries / 8, 8 to 2^24 bytes. Capped front filters (> 134M entries) have fewer bits
+   * per entry and screen fewer probes.
+   *
+   * @param maxNumEntries - expected number of entries
+   * @return front filter size in bytes
+   */
+  static int defaultFrontSizeInBytes(long maxNumEntries) {
+    final long bytes = Math.max(8, (maxNumEntries + 7) / 8);
+    if (bytes >= MAX_FRONT_SIZE_IN_BYTES) {
+      return MAX_FRONT_SIZE_IN_BYTES;
+    }
+    return (int) Long.highestOneBit(bytes - 1) << 1;
+  }
+
+  /**
+   * Creates a cascading filter.
+   *
+   * @param maxNumEntries    - expected number of entries
+   * @param fpp              - false positive probability of the back filter
+   * @param frontSizeInBytes - size of the front filter, rounded down to a power of 2, 8 to 2^24
+   */
+  public CascadingBloomFilter(long maxNumEntries, double fpp, int frontSizeInBytes) {
+    assert frontSizeInBytes >= 8 && frontSizeInBytes <= MAX_FRONT_SIZE_IN_BYTES :
+        "frontSizeInBytes should be >= 8 & <= " + MAX_FRONT_SIZE_IN_BYTES;
+    this.back = new BloomKFilter(maxNumEntries, fpp);
+    this.front = new long[Integer.highestOneBit(frontSizeInBytes) / 8];
+    this.frontShift = Long.SIZE - Integer.numberOfTrailingZeros(front.length);
+    this.frontK = Math.min(MAX_FRONT_HASH_FUNCTIONS,
+        BloomKFilter.optimalNumOfHashFunctions(maxNumEntries, (long) front.length * Long.SIZE));
+  }
+
+  // deserialize cascading filter. see serialize() for the format.
+  public CascadingBloomFilter(List<Long> serializedFilter) {
+    final int frontLength = serializedFilter.get(0).intValue();
+    this.front = new long[frontLength];
+    for (int i = 0; i < frontLength; i++) {
+      front[i] = serializedFilter.get(i + 1);
+    }
+    this.frontShift = Long.SIZE - Integer.numberOfTrailingZeros(frontLength);
+    this.back = new BloomKFilter(serializedFilter.subList(frontLength + 1, serializedFilter.size()));
+    this.frontK = Math.min(MAX_FRONT_HASH_FUNCTIONS,
+        BloomKFilter.optimalNumOfHashFunctions(back.getExpectedNumEntries(), (long) frontLength * Long.SIZE));
+  }
+
+  public long sizeInBytes() {
+    return (long) front.length * 8 + back.sizeInBytes();
+  }
+
+  // K bits of the front filter word
+  private long frontMask(long remixed) {
+    long mask = 0;
+    for (int i = 0; i < frontK; i++) {
+      mask |= 1L << (remixed >>> (i * 6));
+    }
+    return mask;
+  }
+
+  public void add(byte[] val) {
+    addBytes(val);
+  }
+
+  public void addBytes(byte[] val) {
+    addHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Adds an already hashed value, see BloomKFilter.addHash().
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   */
+  public void addHash(long hash64) {
+    final long remixed = hash64 * GOLDEN_RATIO;
+    front[(int) (remixed >>> frontShift)] |= frontMask(remixed);
+    back.addHash(hash64);
+  }
+
+  public void addString(String val) {
+    addBytes(val.getBytes());
+  }
+
+  public void addByte(byte val) {
+    addBytes(new byte[]{val});
+  }
+
+  public void addInt(int val) {
+    // puts int in little endian order
+    addBytes(intToByteArrayLE(val));
+  }
+
+  public void addLong(long val) {
+    // puts long in little endian order
+    addBytes(longToByteArrayLE(val));
+  }
+
+  public void addFloat(float val) {
+    addInt(Float.floatToIntBits(val));
+  }
+
+  public void addDouble(double val) {
+    addLong(Double.doubleToLongBits(val));
+  }
+
+  public boolean test(byte[] val) {
+    return testBytes(val);
+  }
+
+  public boolean testBytes(byte[] val) {
+    return testHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Tests an already hashed value. See addHash().
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return true if the value may be present, false otherwise
+   */
+  public boolean testHash(long hash64) {
+    final long remixed = hash64 * GOLDEN_RATIO;
+    final long mask = frontMask(remixed);
+    if ((front[(int) (remixed >>> frontShift)] & mask) != mask) {
+      return false;
+    }
+    return back.testHash(hash64);
+  }
+
+  public boolean testString(String val) {
+    return testBytes(val.getBytes());
+  }
+
+  public boolean testByte(byte val) {
+    return testBytes(new byte[]{val});
+  }
+
+  public boolean testInt(int val) {
+    return testBytes(intToByteArrayLE(val));
+  }
+
+  public boolean testLong(long val) {
+    return testBytes(longToByteArrayLE(val));
+  }
+
+  public boolean testFloat(float val) {
+    return testInt(Float.floatToIntBits(val));
+  }
+
+  public boolean testDouble(double val) {
+    return testLong(Double.doubleToLongBits(val));
+  }
+
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+
+  public long getFrontSizeInBytes() {
+    return (long) front.length * 8;
+  }
+
+  public int getFrontNumHashFunctions() {
+    return frontK;
+  }
+
+  /**
+   * Fraction of set bits in the front filter. A negative probe passes the front filter with
+   * probability ~fillRatio^K.
+   */
+  public double getFrontFillRatio() {
+    long setBits = 0;
+    for (long word : front) {
+      setBits += Long.bitCount(word);
+    }
+    return (double) setBits / ((long) front.length * Long.SIZE);
+  }
+
+  public double getFalsePositivePercent() {
+    return back.getFalsePositivePercent();
+  }
+
+  public long getExpectedNumEntries() {
+    return back.getExpectedNumEntries();
+  }
+
+  /**
+   * Check if the specified cascading filter is compatible with the current cascading filter.
+   *
+   * @param that - cascading filter to check compatibility
+   * @return true if compatible false otherwise
+   */
+  public boolean isCompatible(CascadingBloomFilter that) {
+    return this != that && this.front.length == that.front.length && this.frontK == that.frontK &&
+        back.isCompatible(that.back);
+  }
+
+  /**
+   * Merge the specified cascading filter with current cascading filter.
+   * NOTE: Merge does not check for incompatibility. Use isCompatible() before calling merge().
+   *
+   * @param that - cascading filter to merge
+   */
+  public void merge(CascadingBloomFilter that) {
+    for (int i = 0; i < front.length; i++) {
+      front[i] |= that.front[i];
+    }
+    back.merge(that.back);
+  }
+
+  /**
+   * First entry is the number of words in the front filter followed by the words of the front
+   * filter. The entries following the front filter are the serialized back filter, see
+   * BloomKFilter.serialize().
+   *
+   * @return cascading filter as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add((long) front.length);
+    for (long word : front) {
+      serialized.add(word);
+    }
+    serialized.addAll(back.serialize());
+    return serialized;
+  }
+}
@@ -0,0 +1,403 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Count-Min sketch as described in "An Improved Data Stream Summary: The Count-Min Sketch and its
+ * Applications" by Cormode et.al.
+ * <p/>
+ * The sketch estimates the frequency of an element with d rows of w counters. An element increments
+ * one counter in every row and its estimate is the minimum of its d counters, which never
+ * underestimates. Rows are sized as in the paper, w = e / epsilon and d = ln(1 / delta), so the
+ * expected overestimation of a single row is at most epsilon * (total count) / e. With conservative
+ * update only the counters that are at the minimum are raised, which never overestimates more than
+ * the standard update and considerably reduces the overestimation of infrequent elements.
+ * Increments are never negative, counters saturate at Integer.MAX_VALUE.
+ * <p/>
+ * Like BloomKFilter, the counters of an element are in a single block of 16 int counters (64 bytes,
+ * one cache line). The 64-bit Murmur3 hashcode is split into hash1 and hash2 and the block is
+ * picked by hash1 + hash2 as in BloomKFilter. Every row has 16 / d counters in a block, so d is
+ * rounded up to a power of 2, and the counter of row i is picked by the i-th bit field of hash2.
+ * The bit fields replace the Kirsch-Mitzenmacher derivation hash1 + i * hash2 of BloomFilter: with
+ * as few as 2 counters per row in a block (d = 8 for the default delta), counters derived from
+ * hash1 + i * hash2 would make elements that collide in one row collide in the other rows too.
+ * <p/>
+ * Every row has ~e / epsilon counters in total, so the expected error of a row is the same as in a
+ * sketch with independent rows. The tail guarantee is weaker: all rows of an element share one
+ * block, so elements in the same block collide in several rows at once and row failures are
+ * correlated. Unlike in the paper, the probability that the overestimation exceeds
+ * epsilon * (total count) is not bounded by delta.
+ * <p/>
+ * addHashes() increments a batch of hashcodes, computing all block offsets of the batch before
+ * touching the counters so that the cache misses of different elements overlap.
+ */
+public class CountMinSketch {
+  private byte[] BYTE_ARRAY_4 = new byte[4];
+  private byte[] BYTE_ARRAY_8 = new byte[8];
+  public static final double DEFAULT_EPSILON = 0.001;
+  public static final double DEFAULT_DELTA = 0.01;
+  static final int BLOCK_SIZE = 16;
+  static final int BLOCK_SIZE_BITS = 4;
+  private static final int BATCH_SIZE = 64;
+  private final int[] counters;
+  private final int totalBlockCount;
+  private final int depth;
+  // counters of a row in a block
+  private final int rowWidth;
+  private final int rowWidthBits;
+  private final int rowWidthMask;
+  private final double epsilon;
+  private final double delta;
+  private final boolean conservative;
+  private final int[] batchOffsets = new int[BATCH_SIZE];
+  private long totalCount;
+
+  public CountMinSketch() {
+    this(DEFAULT_EPSILON, DEFAULT_DELTA);
+  }
+
+  public CountMinSketch(double epsilon, double delta) {
+    this(epsilon, delta, false);
+  }
+
+  /**
+   * Creates a count-min sketch.
+   *
+   * @param epsilon      - overestimation as a fraction of the total count
+   * @param delta        - sizes the number of rows, d = ln(1 / delta) (see class javadoc)
+   * @param conservative - increment only the counters at the minimum
+   */
+  public CountMinSketch(double epsilon, double delta, boolean conservative) {
+    assert epsilon > 0.0 && epsilon < 1.0 : "epsilon should be > 0.0 & < 1.0";
+    assert delta > 0.0 && delta < 1.0 : "delta should be > 0.0 & < 1.0";
+    this.epsilon = epsilon;
+    this.delta = delta;
+    this.conservative = conservative;
+    this.depth = optimalDepth(delta);
+    this.rowWidth = BLOCK_SIZE / depth;
+    this.rowWidthBits = Integer.numberOfTrailingZeros(rowWidth);
+    this.rowWidthMask = rowWidth - 1;
+    long width = (long) Math.ceil(Math.E / epsilon);
+    long numBlocks = (width + rowWidth - 1) / rowWidth;
+    assert numBlocks * BLOCK_SIZE <= Integer.MAX_VALUE : "epsilon is too small";
+    this.totalBlockCount = (int) numBlocks;
+    this.counters = new int[totalBlockCount * BLOCK_SIZE];
+  }
+
+  // deserialize count-min sketch. see serialize() for the format.
+  public CountMinSketch(List<Long> serializedSketch) {
+    this(Double.longBitsToDouble(serializedSketch.get(0)), Double.longBitsToDouble(serializedSketch.get(1)),
+        serializedSketch.get(2) != 0);
+    this.totalCount = serializedSketch.get(3);
+    List<Long> data = serializedSketch.subList(4, serializedSketch.size());
+    assert data.size() * 2 == this.counters.length : "Number of counters does not match";
+    for (int i = 0; i < data.size(); i++) {
+      final long word = data.get(i);
+      this.counters[2 * i] = (int) word;
+      this.counters[2 * i + 1] = (int) (word >>> 32);
+    }
+  }
+
+  /**
+   * Number of rows for the specified delta, ln(1 / delta) rounded up to a power of 2. A row needs
+   * at least 2 counters in a block, so there are at most 8 rows.
+   */
+  static int optimalDepth(double delta) {
+    final int depth = (int) Math.ceil(Math.log(1 / delta));
+    int pow2 = 1;
+    while (pow2 < depth && pow2 < BLOCK_SIZE / 2) {
+      pow2 <<= 1;
+    }
+    return pow2;
+  }
+
+  public long sizeInBytes() {
+    return (long) counters.length * 4;
+  }
+
+  public void add(byte[] val) {
+    addBytes(val);
+  }
+
+  public void addBytes(byte[] val) {
+    addHash(Murmur3.hash64(val));
+  }
+
+  public void addBytes(byte[] val, int count) {
+    addHash(Murmur3.hash64(val), count);
+  }
+
+  /**
+   * Increments the count of an already hashed value by 1. The hash is expected to be
+   * Murmur3.hash64() of the value bytes so that addHash() and addBytes() are interchangeable.
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   */
+  public void addHash(long hash64) {
+    addHash(hash64, 1);
+  }
+
+  /**
+   * Increments the count of an already hashed value. See addHash(long).
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @param count  - increment, >= 0
+   */
+  public void addHash(long hash64, int count) {
+    assert count >= 0 : "count should be >= 0";
+    increment(blockBaseOffset(hash64), hash64, count);
+  }
+
+  /**
+   * Increments the counts of a batch of already hashed values by 1. See addHash(long).
+   *
+   * @param hashes - 64-bit hashcodes of the values
+   */
+  public void addHashes(long[] hashes) {
+    for (int start = 0; start < hashes.length; start += BATCH_SIZE) {
+      final int end = Math.min(start + BATCH_SIZE, hashes.length);
+      for (int i = start; i < end; i++) {
+        batchOffsets[i - start] = blockBaseOffset(hashes[i]);
+      }
+      for (int i = start; i < end; i++) {
+        increment(batchOffsets[i - start], hashes[i], 1);
+      }
+    }
+  }
+
+  private void increment(int blockBaseOffset, long hash64, int count) {
+    final int hash2 = (int) (hash64 >>> 32);
+    totalCount += count;
+    if (conservative) {
+      // counters below the new minimum are raised to it, others are left alone
+      final long target = (long) estimate(blockBaseOffset, hash2) + count;
+      final int value = target > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) target;
+      for (int i = 0; i < depth; i++) {
+        final int offset = counterOffset(blockBaseOffset, hash2, i);
+        if (counters[offset] < value) {
+          counters[offset] = value;
+        }
+      }
+    } else {
+      for (int i = 0; i < depth; i++) {
+        final int offset = counterOffset(blockBaseOffset, hash2, i);
+        final long value = (long) counters[offset] + count;
+        counters[offset] = value > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) value;
+      }
+    }
+  }
+
+  /**
+   * Offset of the first counter of the block of the specified hashcode.
+   */
+  private int blockBaseOffset(long hash64) {
+    int hash1 = (int) hash64;
+    int hash2 = (int) (hash64 >>> 32);
+
+    int firstHash = hash1 + hash2;
+    // hashcode should be positive, flip all the bits if it's negative
+    if (firstHash < 0) {
+      firstHash = ~firstHash;
+    }
+
+    // first hash is used to locate start of the block (blockBaseOffset)
+    final int blockIdx = firstHash % totalBlockCount;
+    return blockIdx << BLOCK_SIZE_BITS;
+  }
+
+  // offset of the counter of the row in the block. Rows take consecutive bit fields of hash2,
+  // which is independent of the block index hash1 + hash2. Double hashing into as few as 2
+  // counters per row would make elements that collide in one row collide in all rows
+  private int counterOffset(int blockBaseOffset, int hash2, int row) {
+    return blockBaseOffset + row * rowWidth + ((hash2 >>> (row * rowWidthBits)) & rowWidthMask);
+  }
+
+  private int estimate(int blockBaseOffset, int hash2) {
+    int min = Integer.MAX_VALUE;
+    for (int i = 0; i < depth; i++) {
+      min = Math.min(min, counters[counterOffset(blockBaseOffset, hash2, i)]);
+    }
+    return min;
+  }
+
+  public void addString(String val) {
+    addBytes(val.getBytes());
+  }
+
+  public void addByte(byte val) {
+    addBytes(new byte[]{val});
+  }
+
+  public void addInt(int val) {
+    // puts int in little endian order
+    addBytes(intToByteArrayLE(val));
+  }
+
+  public void addLong(long val) {
+    // puts long in little endian order
+    addBytes(longToByteArrayLE(val));
+  }
+
+  public void addFloat(float val) {
+    addInt(Float.floatToIntBits(val));
+  }
+
+  public void addDouble(double val) {
+    addLong(Double.doubleToLongBits(val));
+  }
+
+  public int estimate(byte[] val) {
+    return estimateBytes(val);
+  }
+
+  public int estimateBytes(byte[] val) {
+    return estimateHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Estimates the count of an already hashed value. See addHash(long).
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return estimated count, never less than the actual count
+   */
+  public int estimateHash(long hash64) {
+    return estimate(blockBaseOffset(hash64), (int) (hash64 >>> 32));
+  }
+
+  public int estimateString(String val) {
+    return estimateBytes(val.getBytes());
+  }
+
+  public int estimateByte(byte val) {
+    return estimateBytes(new byte[]{val});
+  }
+
+  public int estimateInt(int val) {
+    return estimateBytes(intToByteArrayLE(val));
+  }
+
+  public int estimateLong(long val) {
+    return estimateBytes(longToByteArrayLE(val));
+  }
+
+  public int estimateFloat(float val) {
+    return estimateInt(Float.floatToIntBits(val));
+  }
+
+  public int estimateDouble(double val) {
+    return estimateLong(Double.doubleToLongBits(val));
+  }
+
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Number of counters per row
+   */
+  public int getWidth() {
+    return totalBlockCount * rowWidth;
+  }
+
+  public double getEpsilon() {
+    return epsilon;
+  }
+
+  public double getDelta() {
+    return delta;
+  }
+
+  public boolean isConservative() {
+    return conservative;
+  }
+
+  /**
+   * Sum of all increments
+   */
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  /**
+   * First 4 entries are epsilon, delta, conservative update (1 or 0) and the total count. epsilon
+   * and delta which are doubles are serialized as long. The entries following first 4 entries are
+   * the counters, 2 counters per long with the first counter in the LSB 32 bits.
+   *
+   * @return count-min sketch as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add(Double.doubleToLongBits(epsilon));
+    serialized.add(Double.doubleToLongBits(delta));
+    serialized.add(conservative ? 1L : 0L);
+    serialized.add(totalCount);
+    for (int i = 0; i < counters.length; i += 2) {
+      serialized.add((counters[i] & 0xFFFFFFFFL) | ((long) counters[i + 1] << 32));
+    }
+    return serialized;
+  }
+
+  /**
+   * Check if the specified count-min sketch is compatible with the current count-min sketch.
+   *
+   * @param that - count-min sketch to check compatibility
+   * @return true if compatible false otherwise
+   */
+  public boolean isCompatible(CountMinSketch that) {
+    return this != that &&
+        this.counters.length == that.counters.length &&
+        this.depth == that.depth;
+  }
+
+  /**
+   * Merge the specified count-min sketch with current count-min sketch by adding the counters. The
+   * estimates of the merged sketch are upper bounds of the counts of both streams, also for
+   * conservative update sketches.
+   * NOTE: Merge does not check for incompatibility. Use isCompatible() before calling merge().
+   *
+   * @param that - count-min sketch to merge
+   */
+  public void merge(CountMinSketch that) {
+    for (int i = 0; i < counters.length; i++) {
+      final long value = (long) counters[i] + that.counters[i];
+      counters[i] = value > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) value;
+    }
+    totalCount += that.totalCount;
+  }
+}
@@ -0,0 +1,323 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counting bloom filter as described in "Summary Cache: A Scalable Wide-Area Web Cache Sharing
+ * Protocol" by Fan et.al. Every bit of the standard bloom filter is replaced by a 4-bit counter,
+ * which makes removal of elements possible. Counters are packed 16 to a long.
+ * <p/>
+ * Counter positions are derived exactly the same way as BloomFilter (Kirsch-Mitzenmacher double
+ * hashing of Murmur3 64-bit hashcode), so a counter is non-zero iff the corresponding bit in a
+ * BloomFilter of the same expected entries and fpp would be set.
+ * <p/>
+ * Counters saturate at 15. A saturated counter is never decremented as the actual count is no
+ * longer known, decrementing it could lead to false negatives. Removing an element that was never
+ * added can also lead to false negatives, so remove() should only be called for added elements.
+ * <p/>
+ * Counting bloom filter needs 4 times the space of BloomFilter. See CountingBloomKFilter for the
+ * cache friendly blocked variant.
+ */
+public class CountingBloomFilter {
+  public static final double DEFAULT_FPP = 0.05;
+  static final int COUNTER_BITS = 4;
+  static final int COUNTERS_PER_LONG = Long.SIZE / COUNTER_BITS;
+  static final long COUNTER_MASK = (1L << COUNTER_BITS) - 1;
+  static final long MAX_COUNT = COUNTER_MASK;
+  private final byte[] BYTE_ARRAY_4 = new byte[4];
+  private final byte[] BYTE_ARRAY_8 = new byte[8];
+  private long[] counters;
+  private final int m;
+  private final int k;
+  private final double fpp;
+  private final long n;
+
+  public CountingBloomFilter(long maxNumEntries) {
+    this(maxNumEntries, DEFAULT_FPP);
+  }
+
+  public CountingBloomFilter(long maxNumEntries, double fpp) {
+    assert maxNumEntries > 0 : "maxNumEntries should be > 0";
+    assert fpp > 0.0 && fpp < 1.0 : "False positive percentage should be > 0.0 & < 1.0";
+    this.fpp = fpp;
+    this.n = maxNumEntries;
+    this.m = BloomFilter.optimalNumOfBits(maxNumEntries, fpp);
+    this.k = BloomFilter.optimalNumOfHashFunctions(maxNumEntries, m);
+    this.counters = new long[(int) Math.ceil((double) m / COUNTERS_PER_LONG)];
+  }
+
+  // deserialize counting bloomfilter. see serialize() for the format.
+  public CountingBloomFilter(List<Long> serializedBloom) {
+    this(serializedBloom.get(0), Double.longBitsToDouble(serializedBloom.get(1)));
+    List<Long> counters = serializedBloom.subList(2, serializedBloom.size());
+    long[] data = new long[counters.size()];
+    for (int i = 0; i < counters.size(); i++) {
+      data[i] = counters.get(i);
+    }
+    this.counters = data;
+  }
+
+  public long sizeInBytes() {
+    return (long) counters.length * 8;
+  }
+
+  public void add(byte[] val) {
+    addBytes(val);
+  }
+
+  public void addBytes(byte[] val) {
+    addHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Adds an already hashed value. The hash is expected to be Murmur3.hash64() of the value bytes
+   * so that addHash() and addBytes() are interchangeable.
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   */
+  public void addHash(long hash64) {
+    int hash1 = (int) hash64;
+    int hash2 = (int) (hash64 >>> 32);
+
+    for (int i = 1; i <= k; i++) {
+      int combinedHash = hash1 + (i * hash2);
+      // hashcode should be positive, flip all the bits if it's negative
+      if (combinedHash < 0) {
+        combinedHash = ~combinedHash;
+      }
+      increment(counters, combinedHash % m);
+    }
+  }
+
+  public void addString(String val) {
+    addBytes(val.getBytes());
+  }
+
+  public void addByte(byte val) {
+    addBytes(new byte[]{val});
+  }
+
+  public void addInt(int val) {
+    // puts int in little endian order
+    addBytes(intToByteArrayLE(val));
+  }
+
+  public void addLong(long val) {
+    // puts long in little endian order
+    addBytes(longToByteArrayLE(val));
+  }
+
+  public void addFloat(float val) {
+    addInt(Float.floatToIntBits(val));
+  }
+
+  public void addDouble(double val) {
+    addLong(Double.doubleToLongBits(val));
+  }
+
+  public void remove(byte[] val) {
+    removeBytes(val);
+  }
+
+  public void removeBytes(byte[] val) {
+    removeHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Removes an already hashed value. See addHash().
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   */
+  public void removeHash(long hash64) {
+    int hash1 = (int) hash64;
+    int hash2 = (int) (hash64 >>> 32);
+
+    for (int i = 1; i <= k; i++) {
+      int combinedHash = hash1 + (i * hash2);
+      // hashcode should be positive, flip all the bits if it's negative
+      if (combinedHash < 0) {
+        combinedHash = ~combinedHash;
+      }
+      decrement(counters, combinedHash % m);
+    }
+  }
+
+  public void removeString(String val) {
+    removeBytes(val.getBytes());
+  }
+
+  public void removeByte(byte val) {
+    removeBytes(new byte[]{val});
+  }
+
+  public void removeInt(int val) {
+    removeBytes(intToByteArrayLE(val));
+  }
+
+  public void removeLong(long val) {
+    removeBytes(longToByteArrayLE(val));
+  }
+
+  public void removeFloat(float val) {
+    removeInt(Float.floatToIntBits(val));
+  }
+
+  public void removeDouble(double val) {
+    removeLong(Double.doubleToLongBits(val));
+  }
+
+  public boolean test(byte[] val) {
+    return testBytes(val);
+  }
+
+  public boolean testBytes(byte[] val) {
+    return testHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Tests an already hashed value. See addHash().
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return true if the value may be present, false otherwise
+   */
+  public boolean testHash(long hash64) {
+    int hash1 = (int) hash64;
+    int hash2 = (int) (hash64 >>> 32);
+
+    for (int i = 1; i <= k; i++) {
+      int combinedHash = hash1 + (i * hash2);
+      // hashcode should be positive, flip all the bits if it's negative
+      if (combinedHash < 0) {
+        combinedHash = ~combinedHash;
+      }
+      if (get(counters, combinedHash % m) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public boolean testString(String val) {
+    return testBytes(val.getBytes());
+  }
+
+  public boolean testByte(byte val) {
+    return testBytes(new byte[]{val});
+  }
+
+  public boolean testInt(int val) {
+    return testBytes(intToByteArrayLE(val));
+  }
+
+  public boolean testLong(long val) {
+    return testBytes(longToByteArrayLE(val));
+  }
+
+  public boolean testFloat(float val) {
+    return testInt(Float.floatToIntBits(val));
+  }
+
+  public boolean testDouble(double val) {
+    return testLong(Double.doubleToLongBits(val));
+  }
+
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+
+  // counter at index is stored in bits [4 * (index % 16), 4 * (index % 16) + 3] of long index / 16
+  static long get(long[] counters, int index) {
+    return (counters[index >>> 4] >>> ((index & 15) << 2)) & COUNTER_MASK;
+  }
+
+  // saturating increment, counters stick at MAX_COUNT
+  static void increment(long[] counters, int index) {
+    final int shift = (index & 15) << 2;
+    final long word = counters[index >>> 4];
+    if (((word >>> shift) & COUNTER_MASK) != MAX_COUNT) {
+      counters[index >>> 4] = word + (1L << shift);
+    }
+  }
+
+  // saturating decrement, zero and saturated counters are left as is
+  static void decrement(long[] counters, int index) {
+    final int shift = (index & 15) << 2;
+    final long word = counters[index >>> 4];
+    final long count = (word >>> shift) & COUNTER_MASK;
+    if (count != 0 && count != MAX_COUNT) {
+      counters[index >>> 4] = word - (1L << shift);
+    }
+  }
+
+  /**
+   * Number of counters
+   */
+  public int getNumCounters() {
+    return m;
+  }
+
+  public int getNumHashFunctions() {
+    return k;
+  }
+
+  public double getFalsePositivePercent() {
+    return fpp;
+  }
+
+  public long getExpectedNumEntries() {
+    return n;
+  }
+
+  /**
+   * First 2 entries are expected entries (n) and false positive percentage (fpp). fpp which is a
+   * double is serialized as long. The entries following first 2 entries are the counters, 16 per
+   * long.
+   *
+   * @return counting bloom filter as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add(n);
+    serialized.add(Double.doubleToLongBits(fpp));
+    for (long l : counters) {
+      serialized.add(l);
+    }
+    return serialized;
+  }
+
+  public long[] getCounters() {
+    return counters;
+  }
+}
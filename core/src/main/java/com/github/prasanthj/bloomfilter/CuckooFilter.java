@@ -0,0 +1,418 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuckoo filter as described in "Cuckoo Filter: Practically Better Than Bloom" by Fan et.al.
+ * <p/>
+ * A cuckoo filter stores a small fingerprint of every element in one of two candidate buckets
+ * (partial-key cuckoo hashing). The second bucket is derived from the first bucket and the
+ * fingerprint alone (i2 = i1 ^ hash(fingerprint)), so fingerprints can be relocated between their
+ * buckets without the original element. Unlike bloom filters, elements can be removed and at low
+ * false positive probabilities (below ~3%) a cuckoo filter needs fewer bits per element.
+ * <p/>
+ * This implementation uses 16-bit fingerprints and 4-way buckets. A bucket is packed in a single
+ * long, so a lookup reads at most 2 words. Bucket index and fingerprint are taken from different
+ * bits of the Murmur3 64-bit hashcode. With 4-way buckets the table can be filled up to ~95%, the
+ * number of buckets is the next power of 2 of expected entries / (4 * 0.95). The false positive
+ * probability is bounded by 2 * 4 / 2^16 (~0.012%) irrespective of the number of elements.
+ * <p/>
+ * When an element cannot be placed after MAX_KICKS relocations, the homeless fingerprint is kept
+ * in a single victim slot. Once the victim slot is taken the filter is full and add() returns
+ * false. Adding the same element more than 8 times fills both of its buckets, and removing an
+ * element that was never added can remove the fingerprint of another element (false negatives),
+ * so remove() should only be called for added elements.
+ */
+public class CuckooFilter {
+  public static final int BUCKET_SIZE = 4;
+  public static final int FINGERPRINT_BITS = 16;
+  public static final int MAX_KICKS = 500;
+  private static final double MAX_LOAD_FACTOR = 0.95;
+  private static final long FINGERPRINT_MASK = (1L << FINGERPRINT_BITS) - 1;
+  // fingerprint replicated in all 4 slots of a bucket
+  private static final long LOW_SLOT_BITS = 0x0001000100010001L;
+  private static final long HIGH_SLOT_BITS = 0x8000800080008000L;
+  private static final long NO_VICTIM = -1;
+  private final byte[] BYTE_ARRAY_4 = new byte[4];
+  private final byte[] BYTE_ARRAY_8 = new byte[8];
+  private final long[] buckets;
+  private final int bucketMask;
+  private final long n;
+  private long numItems;
+  // bucket index << 16 | fingerprint of the element that could not be placed, NO_VICTIM if none
+  private long victim = NO_VICTIM;
+  // xorshift state for picking the slot to kick out
+  private int kickSeed = 0x2545F491;
+
+  public CuckooFilter(long maxNumEntries) {
+    assert maxNumEntries > 0 : "maxNumEntries should be > 0";
+    this.n = maxNumEntries;
+    long numBuckets = (long) Math.ceil(maxNumEntries / (BUCKET_SIZE * MAX_LOAD_FACTOR));
+    assert numBuckets <= (1 << 30) : "maxNumEntries is too large";
+    this.buckets = new long[nextPowerOfTwo((int) numBuckets)];
+    this.bucketMask = buckets.length - 1;
+  }
+
+  // deserialize cuckoo filter. see serialize() for the format.
+  public CuckooFilter(List<Long> serializedFilter) {
+    this(serializedFilter.get(0));
+    this.numItems = serializedFilter.get(1);
+    this.victim = serializedFilter.get(2);
+    List<Long> buckets = serializedFilter.subList(3, serializedFilter.size());
+    assert buckets.size() == this.buckets.length : "Number of buckets does not match";
+    for (int i = 0; i < buckets.size(); i++) {
+      this.buckets[i] = buckets.get(i);
+    }
+  }
+
+  static int nextPowerOfTwo(int v) {
+    return v <= 1 ? 1 : Integer.highestOneBit(v - 1) << 1;
+  }
+
+  public long sizeInBytes() {
+    return (long) buckets.length * 8;
+  }
+
+  public boolean add(byte[] val) {
+    return addBytes(val);
+  }
+
+  public boolean addBytes(byte[] val) {
+    return addHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Adds an already hashed value. The hash is expected to be Murmur3.hash64() of the value bytes
+   * so that addHash() and addBytes() are interchangeable.
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return false if the filter is full, true otherwise
+   */
+  public boolean addHash(long hash64) {
+    if (victim != NO_VICTIM) {
+      return false;
+    }
+
+    numItems++;
+    relocate(index(hash64), fingerprint(hash64));
+    return true;
+  }
+
+  // Places the fingerprint in one of its buckets. When both buckets are full, a random fingerprint
+  // is kicked out and relocated to its alternate bucket, up to MAX_KICKS times. The fingerprint
+  // that could not be placed at the end is kept in the victim slot.
+  private void relocate(int index, int fingerprint) {
+    if (insert(index, fingerprint) || insert(altIndex(index, fingerprint), fingerprint)) {
+      return;
+    }
+
+    if ((kickSeed & 1) != 0) {
+      index = altIndex(index, fingerprint);
+    }
+    for (int kick = 0; kick < MAX_KICKS; kick++) {
+      final int shift = nextKickSlot() * FINGERPRINT_BITS;
+      final long bucket = buckets[index];
+      final int evicted = (int) ((bucket >>> shift) & FINGERPRINT_MASK);
+      buckets[index] = (bucket & ~(FINGERPRINT_MASK << shift)) | ((long) fingerprint << shift);
+      fingerprint = evicted;
+      index = altIndex(index, fingerprint);
+      if (insert(index, fingerprint)) {
+        return;
+      }
+    }
+
+    victim = ((long) index << FINGERPRINT_BITS) | fingerprint;
+  }
+
+  public boolean addString(String val) {
+    return addBytes(val.getBytes());
+  }
+
+  public boolean addByte(byte val) {
+    return addBytes(new byte[]{val});
+  }
+
+  public boolean addInt(int val) {
+    // puts int in little endian order
+    return addBytes(intToByteArrayLE(val));
+  }
+
+  public boolean addLong(long val) {
+    // puts long in little endian order
+    return addBytes(longToByteArrayLE(val));
+  }
+
+  public boolean addFloat(float val) {
+    return addInt(Float.floatToIntBits(val));
+  }
+
+  public boolean addDouble(double val) {
+    return addLong(Double.doubleToLongBits(val));
+  }
+
+  public boolean test(byte[] val) {
+    return testBytes(val);
+  }
+
+  public boolean testBytes(byte[] val) {
+    return testHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Tests an already hashed value. See addHash().
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return true if the value may be present, false otherwise
+   */
+  public boolean testHash(long hash64) {
+    final int fingerprint = fingerprint(hash64);
+    final int i1 = index(hash64);
+    final int i2 = altIndex(i1, fingerprint);
+    final long replicated = fingerprint * LOW_SLOT_BITS;
+    return hasZeroSlot(buckets[i1] ^ replicated) || hasZeroSlot(buckets[i2] ^ replicated)
+        || isVictim(i1, i2, fingerprint);
+  }
+
+  public boolean testString(String val) {
+    return testBytes(val.getBytes());
+  }
+
+  public boolean testByte(byte val) {
+    return testBytes(new byte[]{val});
+  }
+
+  public boolean testInt(int val) {
+    return testBytes(intToByteArrayLE(val));
+  }
+
+  public boolean testLong(long val) {
+    return testBytes(longToByteArrayLE(val));
+  }
+
+  public boolean testFloat(float val) {
+    return testInt(Float.floatToIntBits(val));
+  }
+
+  public boolean testDouble(double val) {
+    return testLong(Double.doubleToLongBits(val));
+  }
+
+  public boolean remove(byte[] val) {
+    return removeBytes(val);
+  }
+
+  public boolean removeBytes(byte[] val) {
+    return removeHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Removes an already hashed value. See addHash().
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return true if a fingerprint of the value was found and removed, false otherwise
+   */
+  public boolean removeHash(long hash64) {
+    final int fingerprint = fingerprint(hash64);
+    final int i1 = index(hash64);
+    final int i2 = altIndex(i1, fingerprint);
+    if (delete(i1, fingerprint) || delete(i2, fingerprint)) {
+      numItems--;
+      // there is room now, try to move the victim back to the table
+      if (victim != NO_VICTIM) {
+        final long homeless = victim;
+        victim = NO_VICTIM;
+        relocate((int) (homeless >>> FINGERPRINT_BITS), (int) (homeless & FINGERPRINT_MASK));
+      }
+      return true;
+    }
+    if (isVictim(i1, i2, fingerprint)) {
+      victim = NO_VICTIM;
+      numItems--;
+      return true;
+    }
+    return false;
+  }
+
+  public boolean removeString(String val) {
+    return removeBytes(val.getBytes());
+  }
+
+  public boolean removeByte(byte val) {
+    return removeBytes(new byte[]{val});
+  }
+
+  public boolean removeInt(int val) {
+    return removeBytes(intToByteArrayLE(val));
+  }
+
+  public boolean removeLong(long val) {
+    return removeBytes(longToByteArrayLE(val));
+  }
+
+  public boolean removeFloat(float val) {
+    return removeInt(Float.floatToIntBits(val));
+  }
+
+  public boolean removeDouble(double val) {
+    return removeLong(Double.doubleToLongBits(val));
+  }
+
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+
+  // MSB 16 bits of the hashcode, 0 is reserved for empty slots
+  private static int fingerprint(long hash64) {
+    int fingerprint = (int) (hash64 >>> (Long.SIZE - FINGERPRINT_BITS));
+    return fingerprint == 0 ? 1 : fingerprint;
+  }
+
+  // LSB bits of the hashcode
+  private int index(long hash64) {
+    return (int) hash64 & bucketMask;
+  }
+
+  // i2 = i1 ^ hash(fingerprint), symmetric so that altIndex(altIndex(i, f), f) == i
+  private int altIndex(int index, int fingerprint) {
+    return (index ^ (fingerprint * 0x5bd1e995)) & bucketMask;
+  }
+
+  // true if any of the 16-bit slots of the word is zero
+  private static boolean hasZeroSlot(long word) {
+    return ((word - LOW_SLOT_BITS) & ~word & HIGH_SLOT_BITS) != 0;
+  }
+
+  private boolean isVictim(int i1, int i2, int fingerprint) {
+    if (victim == NO_VICTIM || (victim & FINGERPRINT_MASK) != fingerprint) {
+      return false;
+    }
+    final int victimIndex = (int) (victim >>> FINGERPRINT_BITS);
+    return victimIndex == i1 || victimIndex == i2;
+  }
+
+  private boolean insert(int index, int fingerprint) {
+    final long bucket = buckets[index];
+    for (int slot = 0; slot < BUCKET_SIZE; slot++) {
+      final int shift = slot * FINGERPRINT_BITS;
+      if (((bucket >>> shift) & FINGERPRINT_MASK) == 0) {
+        buckets[index] = bucket | ((long) fingerprint << shift);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean delete(int index, int fingerprint) {
+    final long bucket = buckets[index];
+    for (int slot = 0; slot < BUCKET_SIZE; slot++) {
+      final int shift = slot * FINGERPRINT_BITS;
+      if (((bucket >>> shift) & FINGERPRINT_MASK) == fingerprint) {
+        buckets[index] = bucket & ~(FINGERPRINT_MASK << shift);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int nextKickSlot() {
+    kickSeed ^= kickSeed << 13;
+    kickSeed ^= kickSeed >>> 17;
+    kickSeed ^= kickSeed << 5;
+    return kickSeed & (BUCKET_SIZE - 1);
+  }
+
+  public int getNumBuckets() {
+    return buckets.length;
+  }
+
+  public long getExpectedNumEntries() {
+    return n;
+  }
+
+  /**
+   * Number of elements in the filter.
+   */
+  public long getNumItems() {
+    return numItems;
+  }
+
+  /**
+   * Fraction of slots that are occupied.
+   *
+   * @return load factor between 0.0 and 1.0
+   */
+  public double loadFactor() {
+    return (double) numItems / ((long) buckets.length * BUCKET_SIZE);
+  }
+
+  /**
+   * Upper bound of the false positive probability, 2 * bucket size / 2^fingerprint bits. A lookup
+   * compares the fingerprint against 8 slots of 2 buckets.
+   */
+  public double getFalsePositivePercent() {
+    return 2.0 * BUCKET_SIZE / (1 << FINGERPRINT_BITS);
+  }
+
+  /**
+   * Estimates the actual false positive probability from the load factor. Only occupied slots can
+   * match the fingerprint of an element that is not present.
+   *
+   * @return estimated false positive probability
+   */
+  public double currentFpp() {
+    return 1.0 - Math.pow(1.0 - 1.0 / ((1 << FINGERPRINT_BITS) - 1), 2.0 * BUCKET_SIZE * loadFactor());
+  }
+
+  /**
+   * First 3 entries are expected entries (n), number of elements and the victim slot. The entries
+   * following first 3 entries are the buckets, 4 16-bit fingerprints per long.
+   *
+   * @return cuckoo filter as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add(n);
+    serialized.add(numItems);
+    serialized.add(victim);
+    for (long l : buckets) {
+      serialized.add(l);
+    }
+    return serialized;
+  }
+
+  public long[] getBuckets() {
+    return buckets;
+  }
+}
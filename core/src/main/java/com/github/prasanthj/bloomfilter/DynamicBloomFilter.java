@@ -12,6 +12,10 @@
  */
 package com.github.prasanthj.bloomfilter;
 
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Derived from Apache Hadoop's implementation of DynamicBloomFilter with underlying
  * BLoomFilter replaced with faster implementation.
@@ -39,12 +43,73 @@ package com.github.prasanthj.bloomfilter;
  * this new Bloom filter is set to one.  A given key is said to belong to the
  * DBF if the <code>k</code> positions are set to one in one of the matrix rows.
  * <p>
+ * The type of the rows is configurable (see {@link RowType}). A standard bloom filter row touches
+ * <code>k</code> random cache lines per probe, so probing a DBF with many rows costs
+ * <code>k * rows</code> cache misses. BloomKFilter rows cost one cache line per row and
+ * Bloom1Filter rows a single word per row. Values are hashed once and the same hash is probed
+ * against all the rows.
+ * <p>
  * Originally created by
  * <a href="http://www.one-lab.org">European Commission One-Lab Project 034819</a>.
  *
  * @see <a href="http://www.cse.fau.edu/~jie/research/publications/Publication_files/infocom2006.pdf">Theory and Network Applications of Dynamic Bloom Filters</a>
  */
 public class DynamicBloomFilter {
+  /**
+   * Type of bloom filter used for the rows of the matrix.
+   */
+  public enum RowType {
+    /**
+     * BloomFilter rows, k random cache lines per probe.
+     */
+    STANDARD {
+      @Override
+      Row newRow(long maxNumEntries, double fpp) {
+        return new StandardRow(new BloomFilter(maxNumEntries, fpp));
+      }
+
+      @Override
+      Row deserialize(List<Long> serializedRow) {
+        return new StandardRow(new BloomFilter(serializedRow));
+      }
+    },
+    /**
+     * Bloom1Filter rows, a single word per probe.
+     */
+    BLOOM_1 {
+      @Override
+      Row newRow(long maxNumEntries, double fpp) {
+        return new Bloom1Row(new Bloom1Filter(maxNumEntries, fpp));
+      }
+
+      @Override
+      Row deserialize(List<Long> serializedRow) {
+        return new Bloom1Row(new Bloom1Filter(serializedRow));
+      }
+    },
+    /**
+     * BloomKFilter rows, a single cache line per probe.
+     */
+    BLOOM_K {
+      @Override
+      Row newRow(long maxNumEntries, double fpp) {
+        return new BloomKRow(new BloomKFilter(maxNumEntries, fpp));
+      }
+
+      @Override
+      Row deserialize(List<Long> serializedRow) {
+        return new BloomKRow(new BloomKFilter(serializedRow));
+      }
+    };
+
+    abstract Row newRow(long maxNumEntries, double fpp);
+
+    abstract Row deserialize(List<Long> serializedRow);
+  }
+
+  private final byte[] BYTE_ARRAY_4 = new byte[4];
+  private final byte[] BYTE_ARRAY_8 = new byte[8];
+
   /**
    * Threshold for the maximum number of key to record in a dynamic Bloom filter row.
    */
@@ -58,108 +123,80 @@ public class DynamicBloomFilter {
   /**
    * The matrix of Bloom filter.
    */
-  private BloomFilter[] matrix;
-  private double falsePositivePercent;
+  private Row[] matrix;
+  private final double fpp;
+  private final RowType rowType;
 
   public DynamicBloomFilter(long maxNumEntries) {
     this(maxNumEntries, BloomFilter.DEFAULT_FPP);
   }
 
   public DynamicBloomFilter(long maxNumEntries, double fpp) {
+    this(maxNumEntries, fpp, RowType.STANDARD);
+  }
+
+  public DynamicBloomFilter(long maxNumEntries, double fpp, RowType rowType) {
 
     this.nr = maxNumEntries;
+    this.fpp = fpp;
+    this.rowType = rowType;
     this.currentNbRecord = 0;
 
-    matrix = new BloomFilter[1];
-    matrix[0] = new BloomFilter(nr, fpp);
+    matrix = new Row[1];
+    matrix[0] = rowType.newRow(nr, fpp);
   }
 
-  public void addByte(byte val) {
-    BloomFilter bf = getActiveStandardBF();
-
-    if (bf == null) {
-      addRow();
-      bf = matrix[matrix.length - 1];
-      currentNbRecord = 0;
+  // deserialize dynamic bloomfilter. see serialize() for the format.
+  public DynamicBloomFilter(List<Long> serializedBloom) {
+    this.rowType = RowType.values()[serializedBloom.get(0).intValue()];
+    this.nr = serializedBloom.get(1);
+    this.fpp = Double.longBitsToDouble(serializedBloom.get(2));
+    this.currentNbRecord = serializedBloom.get(3).intValue();
+    final int numRows = serializedBloom.get(4).intValue();
+    final int rowLength = (serializedBloom.size() - 5) / numRows;
+    this.matrix = new Row[numRows];
+    for (int i = 0; i < numRows; i++) {
+      int offset = 5 + i * rowLength;
+      matrix[i] = rowType.deserialize(serializedBloom.subList(offset, offset + rowLength));
     }
+  }
 
-    bf.addByte(val);
+  public void add(byte[] val) {
+    addBytes(val);
+  }
 
-    currentNbRecord++;
+  public void addByte(byte val) {
+    addBytes(new byte[]{val});
   }
 
   public void addInt(int val) {
-    BloomFilter bf = getActiveStandardBF();
-
-    if (bf == null) {
-      addRow();
-      bf = matrix[matrix.length - 1];
-      currentNbRecord = 0;
-    }
-
-    bf.addInt(val);
-
-    currentNbRecord++;
+    // puts int in little endian order
+    addBytes(intToByteArrayLE(val));
   }
 
   public void addLong(long val) {
-    BloomFilter bf = getActiveStandardBF();
-
-    if (bf == null) {
-      addRow();
-      bf = matrix[matrix.length - 1];
-      currentNbRecord = 0;
-    }
-
-    bf.addLong(val);
-
-    currentNbRecord++;
+    // puts long in little endian order
+    addBytes(longToByteArrayLE(val));
   }
 
   public void addFloat(float val) {
-    BloomFilter bf = getActiveStandardBF();
-
-    if (bf == null) {
-      addRow();
-      bf = matrix[matrix.length - 1];
-      currentNbRecord = 0;
-    }
-
-    bf.addFloat(val);
-
-    currentNbRecord++;
+    addInt(Float.floatToIntBits(val));
   }
 
   public void addDouble(double val) {
-    BloomFilter bf = getActiveStandardBF();
-
-    if (bf == null) {
-      addRow();
-      bf = matrix[matrix.length - 1];
-      currentNbRecord = 0;
-    }
-
-    bf.addDouble(val);
-
-    currentNbRecord++;
+    addLong(Double.doubleToLongBits(val));
   }
 
   public void addString(String val) {
-    BloomFilter bf = getActiveStandardBF();
-
-    if (bf == null) {
-      addRow();
-      bf = matrix[matrix.length - 1];
-      currentNbRecord = 0;
-    }
-
-    bf.addString(val);
-
-    currentNbRecord++;
+    addBytes(val.getBytes());
   }
 
   public void addBytes(byte[] val) {
-    BloomFilter bf = getActiveStandardBF();
+    addHash(Murmur3.hash64(val));
+  }
+
+  public void addHash(long hash64) {
+    Row bf = getActiveStandardBF();
 
     if (bf == null) {
       addRow();
@@ -167,70 +204,47 @@ public class DynamicBloomFilter {
       currentNbRecord = 0;
     }
 
-    bf.addBytes(val);
+    bf.addHash(hash64);
 
     currentNbRecord++;
   }
 
-  public boolean testByte(byte val) {
-
-    for (int i = 0; i < matrix.length; i++) {
-      if (matrix[i].testByte(val)) {
-        return true;
-      }
-    }
+  public boolean test(byte[] val) {
+    return testBytes(val);
+  }
 
-    return false;
+  public boolean testByte(byte val) {
+    return testBytes(new byte[]{val});
   }
 
   public boolean testInt(int val) {
-
-    for (int i = 0; i < matrix.length; i++) {
-      if (matrix[i].testInt(val)) {
-        return true;
-      }
-    }
-
-    return false;
+    return testBytes(intToByteArrayLE(val));
   }
 
   public boolean testLong(long val) {
-
-    for (int i = 0; i < matrix.length; i++) {
-      if (matrix[i].testLong(val)) {
-        return true;
-      }
-    }
-
-    return false;
+    return testBytes(longToByteArrayLE(val));
   }
 
   public boolean testFloat(float val) {
-
-    for (int i = 0; i < matrix.length; i++) {
-      if (matrix[i].testFloat(val)) {
-        return true;
-      }
-    }
-
-    return false;
+    return testInt(Float.floatToIntBits(val));
   }
 
   public boolean testDouble(double val) {
+    return testLong(Double.doubleToLongBits(val));
+  }
 
-    for (int i = 0; i < matrix.length; i++) {
-      if (matrix[i].testDouble(val)) {
-        return true;
-      }
-    }
+  public boolean testString(String val) {
+    return testBytes(val.getBytes());
+  }
 
-    return false;
+  public boolean testBytes(byte[] val) {
+    return testHash(Murmur3.hash64(val));
   }
 
-  public boolean testString(String val) {
+  public boolean testHash(long hash64) {
 
     for (int i = 0; i < matrix.length; i++) {
-      if (matrix[i].testString(val)) {
+      if (matrix[i].testHash(hash64)) {
         return true;
       }
     }
@@ -238,28 +252,37 @@ public class DynamicBloomFilter {
     return false;
   }
 
-  public boolean testBytes(byte[] val) {
-
-    for (int i = 0; i < matrix.length; i++) {
-      if (matrix[i].testBytes(val)) {
-        return true;
-      }
-    }
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
 
-    return false;
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
   }
 
   /**
    * Adds a new row to <i>this</i> dynamic Bloom filter.
    */
   private void addRow() {
-    BloomFilter[] tmp = new BloomFilter[matrix.length + 1];
+    Row[] tmp = new Row[matrix.length + 1];
 
     for (int i = 0; i < matrix.length; i++) {
       tmp[i] = matrix[i];
     }
 
-    tmp[tmp.length-1] = new BloomFilter(nr);
+    tmp[tmp.length-1] = rowType.newRow(nr, fpp);
 
     matrix = tmp;
   }
@@ -269,7 +292,7 @@ public class DynamicBloomFilter {
    * @return BloomFilter The active standard Bloom filter.
    * 			 <code>Null</code> otherwise.
    */
-  private BloomFilter getActiveStandardBF() {
+  private Row getActiveStandardBF() {
     if (currentNbRecord >= nr) {
       return null;
     }
@@ -279,18 +302,429 @@ public class DynamicBloomFilter {
 
   public long getBitsetSize() {
     long result = 0;
-    for (BloomFilter bf : matrix) {
+    for (Row bf : matrix) {
       result += bf.getBitSize();
     }
     return result;
   }
 
-  // this is configured value, not actual value
+  // this is configured value, see currentFpp() for actual value
   public double getFalsePositivePercent() {
-    return matrix[0].getFalsePositivePercent();
+    return fpp;
   }
 
+  /**
+   * Fraction of bits that are set across all the rows.
+   *
+   * @return fill ratio between 0.0 and 1.0
+   */
+  public double fillRatio() {
+    double setBits = 0;
+    for (Row bf : matrix) {
+      setBits += bf.fillRatio() * bf.getBitSize();
+    }
+    return setBits / getBitsetSize();
+  }
+
+  /**
+   * Same as fillRatio() but only a sample of each row is read. See BloomFilter.fillRatio(double).
+   *
+   * @param sampleRatio - fraction of blocks to read, > 0.0 and <= 1.0
+   * @return estimated fill ratio between 0.0 and 1.0
+   */
+  public double fillRatio(double sampleRatio) {
+    double setBits = 0;
+    for (Row bf : matrix) {
+      setBits += bf.fillRatio(sampleRatio) * bf.getBitSize();
+    }
+    return setBits / getBitsetSize();
+  }
+
+  /**
+   * Estimates the number of distinct elements added as sum of the estimates of all rows.
+   *
+   * @return estimated number of elements
+   */
+  public long estimateCardinality() {
+    long result = 0;
+    for (Row bf : matrix) {
+      result += bf.estimateCardinality();
+    }
+    return result;
+  }
+
+  /**
+   * Same as estimateCardinality() but only a sample of each row is read.
+   *
+   * @param sampleRatio - fraction of blocks to read, > 0.0 and <= 1.0
+   * @return estimated number of elements
+   */
+  public long estimateCardinality(double sampleRatio) {
+    long result = 0;
+    for (Row bf : matrix) {
+      result += bf.estimateCardinality(sampleRatio);
+    }
+    return result;
+  }
+
+  /**
+   * Estimates the actual false positive probability. An element tests true if it tests true in
+   * any of the rows, so the compound probability is 1 - (1 - fpp(row1)) * (1 - fpp(row2)) ...
+   *
+   * @return estimated false positive probability
+   */
+  public double currentFpp() {
+    double trueNegative = 1.0;
+    for (Row bf : matrix) {
+      trueNegative *= 1.0 - bf.currentFpp();
+    }
+    return 1.0 - trueNegative;
+  }
+
+  /**
+   * Same as currentFpp() but only a sample of each row is read.
+   *
+   * @param sampleRatio - fraction of blocks to read, > 0.0 and <= 1.0
+   * @return estimated false positive probability
+   */
+  public double currentFpp(double sampleRatio) {
+    double trueNegative = 1.0;
+    for (Row bf : matrix) {
+      trueNegative *= 1.0 - bf.currentFpp(sampleRatio);
+    }
+    return 1.0 - trueNegative;
+  }
+
+  /**
+   * First 5 entries are row type, expected entries per row (n<sub>r</sub>), false positive
+   * percentage (fpp) as long bits, number of keys recorded in the active row and number of rows.
+   * The entries following first 5 entries are the rows in matrix order, each row in the format of
+   * serialize() of the row type. All rows are of the same length.
+   *
+   * @return dynamic bloom filter as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add((long) rowType.ordinal());
+    serialized.add(nr);
+    serialized.add(Double.doubleToLongBits(fpp));
+    serialized.add((long) currentNbRecord);
+    serialized.add((long) matrix.length);
+    for (Row bf : matrix) {
+      serialized.addAll(bf.serialize());
+    }
+    return serialized;
+  }
+
+  /**
+   * Check if the specified dynamic bloom filter is compatible with the current dynamic bloom
+   * filter. Dynamic bloom filters are compatible if the rows are of the same type and shape.
+   *
+   * @param that - dynamic bloom filter to check compatibility
+   * @return true if compatible false otherwise
+   */
+  public boolean isCompatible(DynamicBloomFilter that) {
+    return this != that &&
+        this.rowType == that.rowType &&
+        this.nr == that.nr &&
+        this.fpp == that.fpp;
+  }
+
+  /**
+   * Merge the specified dynamic bloom filter with current dynamic bloom filter. Rows of the
+   * specified filter are copied in ahead of the active row, so the active row of the current filter
+   * remains active. Use compact() after merge to fold sparse rows together.
+   * NOTE: Merge does not check for incompatibility. Use isCompatible() before calling merge().
+   *
+   * @param that - dynamic bloom filter to merge
+   */
+  public void merge(DynamicBloomFilter that) {
+    Row[] tmp = new Row[matrix.length + that.matrix.length];
+    System.arraycopy(matrix, 0, tmp, 0, matrix.length - 1);
+    for (int i = 0; i < that.matrix.length; i++) {
+      tmp[matrix.length - 1 + i] = that.matrix[i].copy();
+    }
+    tmp[tmp.length - 1] = matrix[matrix.length - 1];
+    matrix = tmp;
+  }
+
+  /**
+   * Reduces the number of rows by OR'ing trailing rows together as long as the estimated false
+   * positive probability (see currentFpp()) of the combined row stays within the configured false
+   * positive probability. Full rows are at the configured false positive probability already, so
+   * only sparse rows (partially filled active row, rows copied in by merge()) get combined. Every
+   * row removed saves a probe per lookup.
+   * <p/>
+   * The combined row becomes the active row, with the number of recorded keys set to its estimated
+   * cardinality.
+   */
+  public void compact() {
+    Row combined = matrix[matrix.length - 1];
+    int first = matrix.length - 1;
+    for (int i = matrix.length - 2; i >= 0; i--) {
+      Row candidate = combined.copy();
+      candidate.merge(matrix[i]);
+      if (candidate.currentFpp() > fpp) {
+        break;
+      }
+      combined = candidate;
+      first = i;
+    }
+
+    if (first == matrix.length - 1) {
+      return;
+    }
+
+    Row[] tmp = new Row[first + 1];
+    System.arraycopy(matrix, 0, tmp, 0, first);
+    tmp[first] = combined;
+    matrix = tmp;
+    currentNbRecord = (int) Math.min(nr, combined.estimateCardinality());
+  }
+
+  public RowType getRowType() {
+    return rowType;
+  }
+
+  /**
+   * Returns the rows of a STANDARD row type filter. Use getMatrix(Class) for other row types.
+   *
+   * @return bloom filter rows
+   */
   public BloomFilter[] getMatrix() {
-    return matrix;
+    return getMatrix(BloomFilter.class);
+  }
+
+  /**
+   * Returns the rows of the matrix. Rows are BloomFilter, Bloom1Filter or BloomKFilter depending on
+   * the row type.
+   *
+   * @param filterClass - class of the rows, Object.class for any row type
+   * @return bloom filter rows
+   * @throws ClassCastException if the rows are not instances of filterClass
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T[] getMatrix(Class<T> filterClass) {
+    T[] result = (T[]) Array.newInstance(filterClass, matrix.length);
+    for (int i = 0; i < matrix.length; i++) {
+      result[i] = filterClass.cast(matrix[i].getFilter());
+    }
+    return result;
+  }
+
+  /**
+   * A row of the matrix. Adapts the different bloom filter variants to a common interface.
+   */
+  abstract static class Row {
+    abstract Object getFilter();
+
+    abstract void addHash(long hash64);
+
+    abstract boolean testHash(long hash64);
+
+    abstract long getBitSize();
+
+    abstract double fillRatio();
+
+    abstract double fillRatio(double sampleRatio);
+
+    abstract long estimateCardinality();
+
+    abstract long estimateCardinality(double sampleRatio);
+
+    abstract double currentFpp();
+
+    abstract double currentFpp(double sampleRatio);
+
+    abstract List<Long> serialize();
+
+    // rows are of the same type, see RowType
+    abstract void merge(Row that);
+
+    // deep copy of the row
+    abstract Row copy();
+  }
+
+  private static final class StandardRow extends Row {
+    private final BloomFilter bf;
+
+    StandardRow(BloomFilter bf) {
+      this.bf = bf;
+    }
+
+    Object getFilter() {
+      return bf;
+    }
+
+    void addHash(long hash64) {
+      bf.addHash(hash64);
+    }
+
+    boolean testHash(long hash64) {
+      return bf.testHash(hash64);
+    }
+
+    long getBitSize() {
+      return bf.getBitSize();
+    }
+
+    double fillRatio() {
+      return bf.fillRatio();
+    }
+
+    double fillRatio(double sampleRatio) {
+      return bf.fillRatio(sampleRatio);
+    }
+
+    long estimateCardinality() {
+      return bf.estimateCardinality();
+    }
+
+    long estimateCardinality(double sampleRatio) {
+      return bf.estimateCardinality(sampleRatio);
+    }
+
+    double currentFpp() {
+      return bf.currentFpp();
+    }
+
+    double currentFpp(double sampleRatio) {
+      return bf.currentFpp(sampleRatio);
+    }
+
+    List<Long> serialize() {
+      return bf.serialize();
+    }
+
+    void merge(Row that) {
+      bf.merge(((StandardRow) that).bf);
+    }
+
+    Row copy() {
+      return new StandardRow(new BloomFilter(bf.getExpectedNumEntries(), bf.getFalsePositivePercent(),
+          bf.getBitSet().clone()));
+    }
+  }
+
+  private static final class Bloom1Row extends Row {
+    private final Bloom1Filter bf;
+
+    Bloom1Row(Bloom1Filter bf) {
+      this.bf = bf;
+    }
+
+    Object getFilter() {
+      return bf;
+    }
+
+    void addHash(long hash64) {
+      bf.addHash(hash64);
+    }
+
+    boolean testHash(long hash64) {
+      return bf.testHash(hash64);
+    }
+
+    long getBitSize() {
+      return bf.getBitSize();
+    }
+
+    double fillRatio() {
+      return bf.fillRatio();
+    }
+
+    double fillRatio(double sampleRatio) {
+      return bf.fillRatio(sampleRatio);
+    }
+
+    long estimateCardinality() {
+      return bf.estimateCardinality();
+    }
+
+    long estimateCardinality(double sampleRatio) {
+      return bf.estimateCardinality(sampleRatio);
+    }
+
+    double currentFpp() {
+      return bf.currentFpp();
+    }
+
+    double currentFpp(double sampleRatio) {
+      return bf.currentFpp(sampleRatio);
+    }
+
+    List<Long> serialize() {
+      return bf.serialize();
+    }
+
+    void merge(Row that) {
+      bf.merge(((Bloom1Row) that).bf);
+    }
+
+    Row copy() {
+      return new Bloom1Row(new Bloom1Filter(bf.getExpectedNumEntries(), bf.getFalsePositivePercent(),
+          bf.getBitSet().clone()));
+    }
+  }
+
+  private static final class BloomKRow extends Row {
+    private final BloomKFilter bf;
+
+    BloomKRow(BloomKFilter bf) {
+      this.bf = bf;
+    }
+
+    Object getFilter() {
+      return bf;
+    }
+
+    void addHash(long hash64) {
+      bf.addHash(hash64);
+    }
+
+    boolean testHash(long hash64) {
+      return bf.testHash(hash64);
+    }
+
+    long getBitSize() {
+      return bf.getBitSize();
+    }
+
+    double fillRatio() {
+      return bf.fillRatio();
+    }
+
+    double fillRatio(double sampleRatio) {
+      return bf.fillRatio(sampleRatio);
+    }
+
+    long estimateCardinality() {
+      return bf.estimateCardinality();
+    }
+
+    long estimateCardinality(double sampleRatio) {
+      return bf.estimateCardinality(sampleRatio);
+    }
+
+    double currentFpp() {
+      return bf.currentFpp();
+    }
+
+    double currentFpp(double sampleRatio) {
+      return bf.currentFpp(sampleRatio);
+    }
+
+    List<Long> serialize() {
+      return bf.serialize();
+    }
+
+    void merge(Row that) {
+      bf.merge(((BloomKRow) that).bf);
+    }
+
+    Row copy() {
+      return new BloomKRow(new BloomKFilter(bf.getExpectedNumEntries(), bf.getFalsePositivePercent(),
+          bf.getBitSet().clone()));
+    }
   }
 }
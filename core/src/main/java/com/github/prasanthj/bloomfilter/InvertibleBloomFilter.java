@@ -0,0 +1,356 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Invertible bloom lookup table (IBLT) for set reconciliation as described in "What's the
+ * Difference? Efficient Set Reconciliation without Prior Context" by Eppstein et.al.
+ * <p/>
+ * Every cell has a count, the XOR of the keys in the cell (keySum) and the XOR of a checksum of
+ * the keys in the cell (hashSum). A key is added to (or removed from) one cell in each of the 3
+ * subtables, the cells are picked by the Murmur3 hash of the key. Two replicas build tables of the
+ * same size over their key sets, one table is sent over and subtracted from the other. Keys present
+ * in both sets cancel out, so the difference has only the keys of the symmetric difference and can
+ * be decoded by peeling: a cell with count 1 or -1 whose hashSum is the checksum of its keySum holds
+ * a single key, which is removed from its other cells to expose more such cells. The size of the
+ * table depends only on the expected size of the difference, not on the size of the sets.
+ * <p/>
+ * Keys are 64-bit values. The typed add and remove methods add the Murmur3 64-bit hashcode of the
+ * value, addHash() and removeHash() add the key as is (numeric ids for example), decode() returns
+ * the keys that were added. Decoding succeeds with high probability when the table has at least
+ * ~1.5 cells per key of the difference, the default sizing is 1.5 * maxDifference + 60 cells. For
+ * differences of a few hundred keys about 1 in 100 decodes still fails, decode() reports it and
+ * the reconciliation can be retried with a larger table.
+ * <p/>
+ * Cells are interleaved in a single long array, 3 longs per cell.
+ */
+public class InvertibleBloomFilter {
+  private byte[] BYTE_ARRAY_4 = new byte[4];
+  private byte[] BYTE_ARRAY_8 = new byte[8];
+  public static final int NUM_HASH_FUNCTIONS = 3;
+  private static final double CELLS_PER_KEY = 1.5;
+  private static final int MIN_CELLS = 60;
+  private static final int CHECKSUM_SEED = 0x7f4a7c15;
+  private static final int CELL_WIDTH = 3;
+  private static final int COUNT = 0;
+  private static final int KEY_SUM = 1;
+  private static final int HASH_SUM = 2;
+  private final byte[] keyBytes = new byte[8];
+  private final long maxDifference;
+  private final int cellsPerTable;
+  private final int numCells;
+  private final long[] cells;
+
+  /**
+   * Creates an invertible bloom filter that can decode a difference of up to maxDifference keys.
+   *
+   * @param maxDifference - expected size of the symmetric difference of the reconciled sets
+   */
+  public InvertibleBloomFilter(long maxDifference) {
+    assert maxDifference > 0 : "maxDifference should be > 0";
+    long cellsPerTable = (long) Math.ceil((CELLS_PER_KEY * maxDifference + MIN_CELLS) / NUM_HASH_FUNCTIONS);
+    assert cellsPerTable * NUM_HASH_FUNCTIONS * CELL_WIDTH <= Integer.MAX_VALUE : "maxDifference is too large";
+    this.maxDifference = maxDifference;
+    this.cellsPerTable = (int) cellsPerTable;
+    this.numCells = this.cellsPerTable * NUM_HASH_FUNCTIONS;
+    this.cells = new long[numCells * CELL_WIDTH];
+  }
+
+  // deserialize invertible bloom filter. see serialize() for the format.
+  public InvertibleBloomFilter(List<Long> serializedFilter) {
+    this(serializedFilter.get(0));
+    List<Long> cells = serializedFilter.subList(1, serializedFilter.size());
+    assert cells.size() == this.cells.length : "Number of cells does not match";
+    for (int i = 0; i < cells.size(); i++) {
+      this.cells[i] = cells.get(i);
+    }
+  }
+
+  public long sizeInBytes() {
+    return (long) cells.length * 8;
+  }
+
+  public void add(byte[] val) {
+    addBytes(val);
+  }
+
+  public void addBytes(byte[] val) {
+    addHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Adds a key. Any 64-bit value can be used as key, the cells are picked by the Murmur3 hash of
+   * the key. addBytes() adds Murmur3.hash64() of the value bytes.
+   *
+   * @param key - 64-bit key
+   */
+  public void addHash(long key) {
+    update(key, 1);
+  }
+
+  public void addString(String val) {
+    addBytes(val.getBytes());
+  }
+
+  public void addByte(byte val) {
+    addBytes(new byte[]{val});
+  }
+
+  public void addInt(int val) {
+    // puts int in little endian order
+    addBytes(intToByteArrayLE(val));
+  }
+
+  public void addLong(long val) {
+    // puts long in little endian order
+    addBytes(longToByteArrayLE(val));
+  }
+
+  public void addFloat(float val) {
+    addInt(Float.floatToIntBits(val));
+  }
+
+  public void addDouble(double val) {
+    addLong(Double.doubleToLongBits(val));
+  }
+
+  public void remove(byte[] val) {
+    removeBytes(val);
+  }
+
+  public void removeBytes(byte[] val) {
+    removeHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Removes a key. Removing a key that was not added is allowed, it shows up as a removed key in
+   * decode(). See addHash().
+   *
+   * @param key - 64-bit key
+   */
+  public void removeHash(long key) {
+    update(key, -1);
+  }
+
+  public void removeString(String val) {
+    removeBytes(val.getBytes());
+  }
+
+  public void removeByte(byte val) {
+    removeBytes(new byte[]{val});
+  }
+
+  public void removeInt(int val) {
+    removeBytes(intToByteArrayLE(val));
+  }
+
+  public void removeLong(long val) {
+    removeBytes(longToByteArrayLE(val));
+  }
+
+  public void removeFloat(float val) {
+    removeInt(Float.floatToIntBits(val));
+  }
+
+  public void removeDouble(double val) {
+    removeLong(Double.doubleToLongBits(val));
+  }
+
+  private void update(long key, long count) {
+    final long cellHash = Murmur3.hash64(keyToByteArrayLE(key));
+    final long checksum = checksum(key);
+    for (int i = 0; i < NUM_HASH_FUNCTIONS; i++) {
+      final int offset = cellOffset(cellHash, i);
+      cells[offset + COUNT] += count;
+      cells[offset + KEY_SUM] ^= key;
+      cells[offset + HASH_SUM] ^= checksum;
+    }
+  }
+
+  // offset of the cell of the key in the subtable, the subtables are disjoint so that the 3 cells
+  // of a key are always distinct. Every subtable remixes the hashcode, double hashing would make
+  // keys that share two cells likely to share the third one too and such pairs cannot be peeled
+  private int cellOffset(long cellHash, int table) {
+    final long hash = BinaryFuseBuilder.mix(cellHash, table);
+    final int cell = table * cellsPerTable + (int) (((hash >>> 32) * cellsPerTable) >>> 32);
+    return cell * CELL_WIDTH;
+  }
+
+  private long checksum(long key) {
+    return Murmur3.hash64(keyToByteArrayLE(key), 8, CHECKSUM_SEED);
+  }
+
+  /**
+   * Check if the specified invertible bloom filter is compatible with the current one.
+   *
+   * @param that - invertible bloom filter to check compatibility
+   * @return true if compatible false otherwise
+   */
+  public boolean isCompatible(InvertibleBloomFilter that) {
+    return this != that && this.numCells == that.numCells;
+  }
+
+  /**
+   * Subtracts the specified invertible bloom filter from the current one. Afterwards the current
+   * filter holds the keys that are only in this set as added keys and the keys that are only in
+   * that set as removed keys, see decode().
+   * NOTE: Subtract does not check for incompatibility. Use isCompatible() before calling subtract().
+   *
+   * @param that - invertible bloom filter to subtract
+   */
+  public void subtract(InvertibleBloomFilter that) {
+    for (int i = 0; i < cells.length; i += CELL_WIDTH) {
+      cells[i + COUNT] -= that.cells[i + COUNT];
+      cells[i + KEY_SUM] ^= that.cells[i + KEY_SUM];
+      cells[i + HASH_SUM] ^= that.cells[i + HASH_SUM];
+    }
+  }
+
+  /**
+   * Lists the keys in the filter by peeling, usually after subtract(). The filter is not modified.
+   * Keys with a positive count are added to added, keys with a negative count to removed.
+   *
+   * @param added   - list to add the keys with a positive count to
+   * @param removed - list to add the keys with a negative count to
+   * @return true if all keys were listed, false if the difference is too large for the filter to
+   * decode, in which case the lists have the keys that could be peeled
+   */
+  public boolean decode(List<Long> added, List<Long> removed) {
+    final long[] peeled = cells.clone();
+    // stack of cells that may hold a single key
+    int[] pure = new int[numCells];
+    int top = 0;
+    for (int offset = 0; offset < peeled.length; offset += CELL_WIDTH) {
+      if (isPure(peeled, offset)) {
+        pure[top++] = offset;
+      }
+    }
+    while (top > 0) {
+      final int offset = pure[--top];
+      if (!isPure(peeled, offset)) {
+        // emptied by an earlier key
+        continue;
+      }
+      final long key = peeled[offset + KEY_SUM];
+      final long count = peeled[offset + COUNT];
+      if (count > 0) {
+        added.add(key);
+      } else {
+        removed.add(key);
+      }
+      final long cellHash = Murmur3.hash64(keyToByteArrayLE(key));
+      final long checksum = checksum(key);
+      for (int i = 0; i < NUM_HASH_FUNCTIONS; i++) {
+        final int other = cellOffset(cellHash, i);
+        peeled[other + COUNT] -= count;
+        peeled[other + KEY_SUM] ^= key;
+        peeled[other + HASH_SUM] ^= checksum;
+        if (other != offset && isPure(peeled, other)) {
+          if (top == pure.length) {
+            pure = Arrays.copyOf(pure, top * 2);
+          }
+          pure[top++] = other;
+        }
+      }
+    }
+    for (long word : peeled) {
+      if (word != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean isPure(long[] cells, int offset) {
+    final long count = cells[offset + COUNT];
+    return (count == 1 || count == -1) && cells[offset + HASH_SUM] == checksum(cells[offset + KEY_SUM]);
+  }
+
+  /**
+   * True if no key is left, for example after subtracting the table of an identical set.
+   */
+  public boolean isEmpty() {
+    for (long word : cells) {
+      if (word != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private byte[] keyToByteArrayLE(long key) {
+    keyBytes[0] = (byte) (key >> 0);
+    keyBytes[1] = (byte) (key >> 8);
+    keyBytes[2] = (byte) (key >> 16);
+    keyBytes[3] = (byte) (key >> 24);
+    keyBytes[4] = (byte) (key >> 32);
+    keyBytes[5] = (byte) (key >> 40);
+    keyBytes[6] = (byte) (key >> 48);
+    keyBytes[7] = (byte) (key >> 56);
+    return keyBytes;
+  }
+
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+
+  public long getMaxDifference() {
+    return maxDifference;
+  }
+
+  public int getNumCells() {
+    return numCells;
+  }
+
+  public int getNumHashFunctions() {
+    return NUM_HASH_FUNCTIONS;
+  }
+
+  /**
+   * First entry is the expected difference (maxDifference). The entries following the first entry are the
+   * cells, count, keySum and hashSum of every cell.
+   *
+   * @return invertible bloom filter as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add(maxDifference);
+    for (long l : cells) {
+      serialized.add(l);
+    }
+    return serialized;
+  }
+}
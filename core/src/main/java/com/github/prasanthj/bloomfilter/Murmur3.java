@@ -127,33 +127,79 @@ public class Murmur3 {
    * @return - hashcode
    */
   public static long hash64(byte[] data, int length, int seed) {
+    return hash64(data, 0, length, seed);
+  }
+
+  /**
+   * Murmur3 64-bit variant of a range of the byte array.
+   *
+   * @param data   - input byte array
+   * @param offset - offset of the first byte
+   * @param length - number of bytes from offset
+   * @param seed   - seed. (default is 0)
+   * @return - hashcode
+   */
+  public static long hash64(byte[] data, int offset, int length, int seed) {
     long hash = seed;
     final int nblocks = length >> 3;
 
     // body
     for (int i = 0; i < nblocks; i++) {
-      final int i8 = i << 3;
-      long k = ((long) data[i8] & 0xff)
-          | (((long) data[i8 + 1] & 0xff) << 8)
-          | (((long) data[i8 + 2] & 0xff) << 16)
-          | (((long) data[i8 + 3] & 0xff) << 24)
-          | (((long) data[i8 + 4] & 0xff) << 32)
-          | (((long) data[i8 + 5] & 0xff) << 40)
-          | (((long) data[i8 + 6] & 0xff) << 48)
-          | (((long) data[i8 + 7] & 0xff) << 56);
+      hash = mixBlock64(hash, data, offset + (i << 3));
+    }
 
-      // mix functions
-      k *= C1;
-      k = Long.rotateLeft(k, R1);
-      k *= C2;
-      hash ^= k;
-      hash = Long.rotateLeft(hash, R2) * M + N1;
+    return finalize64(hash, data, offset + (nblocks << 3), length);
+  }
+
+  /**
+   * Murmur3 64-bit variant of several prefixes of the byte array in a single pass. The body of the
+   * hash does not depend on the length, so the blocks are mixed once and every prefix only adds the
+   * tail and the finalization. hashes[i] is the same as hash64(data, offset, prefixLengths[i], seed).
+   *
+   * @param data          - input byte array
+   * @param offset        - offset of the first byte
+   * @param prefixLengths - lengths of the prefixes in ascending order
+   * @param numPrefixes   - number of prefix lengths to hash
+   * @param seed          - seed. (default is 0)
+   * @param hashes        - output hashcodes, one per prefix length
+   */
+  public static void hash64Prefixes(byte[] data, int offset, int[] prefixLengths, int numPrefixes,
+      int seed, long[] hashes) {
+    long hash = seed;
+    int block = 0;
+    for (int p = 0; p < numPrefixes; p++) {
+      final int length = prefixLengths[p];
+      assert p == 0 || length >= prefixLengths[p - 1] : "prefixLengths should be in ascending order";
+      final int nblocks = length >> 3;
+      for (; block < nblocks; block++) {
+        hash = mixBlock64(hash, data, offset + (block << 3));
+      }
+      hashes[p] = finalize64(hash, data, offset + (nblocks << 3), length);
     }
+  }
 
-    // tail
+  private static long mixBlock64(long hash, byte[] data, int i8) {
+    long k = ((long) data[i8] & 0xff)
+        | (((long) data[i8 + 1] & 0xff) << 8)
+        | (((long) data[i8 + 2] & 0xff) << 16)
+        | (((long) data[i8 + 3] & 0xff) << 24)
+        | (((long) data[i8 + 4] & 0xff) << 32)
+        | (((long) data[i8 + 5] & 0xff) << 40)
+        | (((long) data[i8 + 6] & 0xff) << 48)
+        | (((long) data[i8 + 7] & 0xff) << 56);
+
+    // mix functions
+    k *= C1;
+    k = Long.rotateLeft(k, R1);
+    k *= C2;
+    hash ^= k;
+    return Long.rotateLeft(hash, R2) * M + N1;
+  }
+
+  // tail starting at tailStart and finalization of a hash over length bytes
+  private static long finalize64(long hash, byte[] data, int tailStart, int length) {
     long k1 = 0;
-    int tailStart = nblocks << 3;
-    switch (length - tailStart) {
+    switch (length & 7) {
       case 7:
         k1 ^= ((long) data[tailStart + 6] & 0xff) << 48;
       case 6:
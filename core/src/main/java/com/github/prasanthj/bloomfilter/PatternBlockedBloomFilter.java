@@ -0,0 +1,361 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Pattern blocked bloom filter as described in "Cache-, Hash- and Space-Efficient Bloom Filters"
+ * by Putze et.al.
+ * <p/>
+ * Like Bloom1Filter, all k bits of an element are in a single 64-bit word (block). Instead of
+ * generating the k bit positions one by one, the word mask of an element is a precomputed pattern
+ * with k bits set, picked from a small table by the hash. Adding an element is a single OR and
+ * testing an element is a single AND and compare, there is no loop over the k bits.
+ * <p/>
+ * The pattern table has PATTERN_COUNT random patterns per k (8KB, fits in L1 cache) and is shared
+ * by all filters with the same k. Patterns are additionally rotated by 0-63 bits, so there are
+ * 64 * PATTERN_COUNT distinct masks which keeps the false positive probability contribution of
+ * elements with the same mask negligible. Since all bits of an element are in one word, the filter
+ * needs more bits than BloomFilter for the same false positive probability. The number of bits and
+ * k are chosen from the false positive probability of one word blocked bloom filters, so the
+ * configured false positive probability holds for the expected number of entries.
+ */
+public class PatternBlockedBloomFilter {
+  private byte[] BYTE_ARRAY_4 = new byte[4];
+  private byte[] BYTE_ARRAY_8 = new byte[8];
+  private static final double DEFAULT_FPP = 0.05;
+  static final int MAX_K = 16;
+  static final int PATTERN_COUNT = 1024;
+  private static final int PATTERN_BITS = 10;
+  private static final int PATTERN_MASK = PATTERN_COUNT - 1;
+  // patterns for every k, built on first use with a fixed seed so that serialized filters can be
+  // read by any instance
+  private static final long[][] PATTERNS = new long[MAX_K + 1][];
+  private final long[] data;
+  private final long[] patterns;
+  private final long m;
+  private final int k;
+  private final double fpp;
+  private final long n;
+
+  public PatternBlockedBloomFilter(long maxNumEntries) {
+    this(maxNumEntries, DEFAULT_FPP);
+  }
+
+  public PatternBlockedBloomFilter(long maxNumEntries, double fpp) {
+    assert maxNumEntries > 0 : "maxNumEntries should be > 0";
+    assert fpp > 0.0 && fpp < 1.0 : "False positive percentage should be > 0.0 & < 1.0";
+    this.fpp = fpp;
+    this.n = maxNumEntries;
+
+    // smallest number of bits per entry (and k for it) for which one word blocks meet fpp
+    double bitsPerEntry = Math.max(1.0, BloomKFilter.optimalNumOfBits(maxNumEntries, fpp) / (double) maxNumEntries);
+    int k = optimalNumOfHashFunctions(bitsPerEntry);
+    while (blockedFpp(bitsPerEntry, k) > fpp) {
+      bitsPerEntry *= 1.01;
+      k = optimalNumOfHashFunctions(bitsPerEntry);
+    }
+    this.k = k;
+    long nLongs = (long) Math.ceil(maxNumEntries * bitsPerEntry / Long.SIZE);
+    assert nLongs <= Integer.MAX_VALUE : "Too many entries";
+    this.data = new long[(int) nLongs];
+    this.m = nLongs * Long.SIZE;
+    this.patterns = patterns(k);
+  }
+
+  // deserialize bloomfilter. see serialize() for the format.
+  public PatternBlockedBloomFilter(List<Long> serializedBloom) {
+    this(serializedBloom.get(0), Double.longBitsToDouble(serializedBloom.get(1)));
+    List<Long> data = serializedBloom.subList(2, serializedBloom.size());
+    assert data.size() == this.data.length : "Number of words does not match";
+    for (int i = 0; i < data.size(); i++) {
+      this.data[i] = data.get(i);
+    }
+  }
+
+  // k with the lowest blocked false positive probability for the specified bits per entry
+  static int optimalNumOfHashFunctions(double bitsPerEntry) {
+    int best = 1;
+    for (int k = 2; k <= MAX_K; k++) {
+      if (blockedFpp(bitsPerEntry, k) < blockedFpp(bitsPerEntry, best)) {
+        best = k;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * False positive probability of a bloom filter with one word blocks. The number of elements in
+   * a word is Poisson distributed with mean 64 / bitsPerEntry, a word with x elements has a
+   * fraction 1 - (1 - k / 64)^x of the bits set.
+   */
+  static double blockedFpp(double bitsPerEntry, int k) {
+    final double lambda = Long.SIZE / bitsPerEntry;
+    final double notSet = 1.0 - (double) k / Long.SIZE;
+    final int max = (int) (lambda + 10 * Math.sqrt(lambda) + 10);
+    double poisson = Math.exp(-lambda);
+    double fpp = 0;
+    for (int x = 0; x <= max; x++) {
+      fpp += poisson * Math.pow(1.0 - Math.pow(notSet, x), k);
+      poisson *= lambda / (x + 1);
+    }
+    return fpp;
+  }
+
+  /**
+   * Table of PATTERN_COUNT words with k random bits set.
+   */
+  static long[] patterns(int k) {
+    assert k > 0 && k <= MAX_K : "k should be > 0 & <= " + MAX_K;
+    synchronized (PATTERNS) {
+      if (PATTERNS[k] == null) {
+        Random random = new Random(k);
+        long[] patterns = new long[PATTERN_COUNT];
+        for (int i = 0; i < PATTERN_COUNT; i++) {
+          long pattern = 0;
+          while (Long.bitCount(pattern) < k) {
+            pattern |= 1L << random.nextInt(Long.SIZE);
+          }
+          patterns[i] = pattern;
+        }
+        PATTERNS[k] = patterns;
+      }
+      return PATTERNS[k];
+    }
+  }
+
+  public long sizeInBytes() {
+    return m / 8;
+  }
+
+  public void add(byte[] val) {
+    addBytes(val);
+  }
+
+  public void addBytes(byte[] val) {
+    addHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Adds an already hashed value. The hash is expected to be Murmur3.hash64() of the value bytes
+   * so that addHash() and addBytes() are interchangeable.
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   */
+  public void addHash(long hash64) {
+    data[wordIndex(hash64)] |= mask(hash64);
+  }
+
+  public void addString(String val) {
+    addBytes(val.getBytes());
+  }
+
+  public void addByte(byte val) {
+    addBytes(new byte[]{val});
+  }
+
+  public void addInt(int val) {
+    // puts int in little endian order
+    addBytes(intToByteArrayLE(val));
+  }
+
+  public void addLong(long val) {
+    // puts long in little endian order
+    addBytes(longToByteArrayLE(val));
+  }
+
+  public void addFloat(float val) {
+    addInt(Float.floatToIntBits(val));
+  }
+
+  public void addDouble(double val) {
+    addLong(Double.doubleToLongBits(val));
+  }
+
+  public boolean test(byte[] val) {
+    return testBytes(val);
+  }
+
+  public boolean testBytes(byte[] val) {
+    return testHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Tests an already hashed value. See addHash().
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return true if the value may be present, false otherwise
+   */
+  public boolean testHash(long hash64) {
+    final long mask = mask(hash64);
+    return (data[wordIndex(hash64)] & mask) == mask;
+  }
+
+  public boolean testString(String val) {
+    return testBytes(val.getBytes());
+  }
+
+  public boolean testByte(byte val) {
+    return testBytes(new byte[]{val});
+  }
+
+  public boolean testInt(int val) {
+    return testBytes(intToByteArrayLE(val));
+  }
+
+  public boolean testLong(long val) {
+    return testBytes(longToByteArrayLE(val));
+  }
+
+  public boolean testFloat(float val) {
+    return testInt(Float.floatToIntBits(val));
+  }
+
+  public boolean testDouble(double val) {
+    return testLong(Double.doubleToLongBits(val));
+  }
+
+  // MSB 32 bits of the hashcode select the word
+  private int wordIndex(long hash64) {
+    return (int) (((hash64 >>> 32) * data.length) >>> 32);
+  }
+
+  // LSB 10 bits select the pattern, next 6 bits the rotation
+  private long mask(long hash64) {
+    final int hash = (int) hash64;
+    return Long.rotateLeft(patterns[hash & PATTERN_MASK], hash >>> PATTERN_BITS);
+  }
+
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+
+  public long getBitSize() {
+    return m;
+  }
+
+  public int getNumHashFunctions() {
+    return k;
+  }
+
+  public double getFalsePositivePercent() {
+    return fpp;
+  }
+
+  public long getExpectedNumEntries() {
+    return n;
+  }
+
+  public long[] getBitSet() {
+    return data;
+  }
+
+  /**
+   * Fraction of bits that are set in the bitset.
+   *
+   * @return fill ratio between 0.0 and 1.0
+   */
+  public double fillRatio() {
+    long count = 0;
+    for (long word : data) {
+      count += Long.bitCount(word);
+    }
+    return (double) count / m;
+  }
+
+  /**
+   * Estimates the actual false positive probability from the number of set bits in every word. An
+   * element that is not present tests true if all k bits of its pattern are set in its word, for a
+   * word with c bits set that is C(c, k) / C(64, k).
+   *
+   * @return estimated false positive probability
+   */
+  public double currentFpp() {
+    // probability for every possible number of set bits in a word
+    final double[] wordFpp = new double[Long.SIZE + 1];
+    wordFpp[k] = 1.0;
+    for (int c = k + 1; c <= Long.SIZE; c++) {
+      wordFpp[c] = wordFpp[c - 1] * c / (c - k);
+    }
+    for (int c = k; c <= Long.SIZE; c++) {
+      wordFpp[c] /= wordFpp[Long.SIZE];
+    }
+    double fpp = 0;
+    for (long word : data) {
+      fpp += wordFpp[Long.bitCount(word)];
+    }
+    return fpp / data.length;
+  }
+
+  /**
+   * First 2 entries are expected entries (n) and false positive percentage (fpp). fpp which is a
+   * double is serialized as long. The entries following first 2 entries are the actual bit set.
+   *
+   * @return bloom filter as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add(n);
+    serialized.add(Double.doubleToLongBits(fpp));
+    for (long l : data) {
+      serialized.add(l);
+    }
+    return serialized;
+  }
+
+  /**
+   * Check if the specified bloom filter is compatible with the current bloom filter.
+   *
+   * @param that - bloom filter to check compatibility
+   * @return true if compatible false otherwise
+   */
+  public boolean isCompatible(PatternBlockedBloomFilter that) {
+    return this != that &&
+        this.getBitSize() == that.getBitSize() &&
+        this.getNumHashFunctions() == that.getNumHashFunctions();
+  }
+
+  /**
+   * Merge the specified bloom filter with current bloom filter.
+   * NOTE: Merge does not check for incompatibility. Use isCompatible() before calling merge().
+   *
+   * @param that - bloom filter to merge
+   */
+  public void merge(PatternBlockedBloomFilter that) {
+    for (int i = 0; i < data.length; i++) {
+      data[i] |= that.data[i];
+    }
+  }
+}
@@ -0,0 +1,399 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crash recoverable wrapper around BloomKFilter. Every insert is applied to the in-memory filter
+ * and its 64-bit Murmur3 hash is appended to a write-ahead log. Log writes are group committed,
+ * hashes are buffered and written to the log once the buffer fills up (or on sync()), so the
+ * overhead of add() is a buffer put in the common case. Inserts that are still in the buffer are
+ * lost on crash, call sync() to make them durable.
+ * <p/>
+ * Snapshots of the bit array can be taken explicitly via snapshot() or periodically in the
+ * background via scheduleSnapshots(). Taking a snapshot rolls the log over to a new generation,
+ * snapshot records the generation from which replay has to start and older log generations are
+ * deleted once the snapshot is durable. On open, the latest snapshot is memory mapped into the
+ * filter and only the log generations written after it are replayed. Since bloom filter inserts
+ * are idempotent, replaying a hash that is already present in the snapshot is harmless.
+ * <p/>
+ * Directory layout:
+ * <pre>
+ *   snapshot      - n, fpp (as long bits), first log generation to replay, followed by bitset
+ *   wal.[gen]     - sequence of 64-bit hashes
+ * </pre>
+ * The bit size of the restored filter is the size of the snapshot bitset, so a filter that was
+ * folded (see BloomKFilter.fold()) before the snapshot is restored folded.
+ * NOTE: add() and sync() must be called from a single writer thread. snapshot() may be called
+ * concurrently with the writer.
+ */
+public class PersistentBloomKFilter implements Closeable {
+  public static final int DEFAULT_GROUP_COMMIT_SIZE = 4096;
+  private static final String SNAPSHOT_FILE = "snapshot";
+  private static final String SNAPSHOT_TMP_FILE = "snapshot.tmp";
+  private static final String LOG_FILE_PREFIX = "wal.";
+  private static final int SNAPSHOT_HEADER_LONGS = 3;
+  // snapshots are mapped in regions, MappedByteBuffer cannot address more than 2GB
+  private static final int IO_REGION_SIZE = 1 << 30;
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;
+  private static final int REPLAY_BUFFER_SIZE = 1 << 16;
+
+  private final byte[] BYTE_ARRAY_8 = new byte[8];
+  private final Path dir;
+  private final BloomKFilter bloomKFilter;
+  private final ByteBuffer logBuffer;
+  // guards log channel and log generation, shared between writer and snapshot threads
+  private final Object logLock = new Object();
+  private final Object snapshotLock = new Object();
+  private FileChannel logChannel;
+  private long logGeneration;
+  private ScheduledExecutorService snapshotExecutor;
+  private volatile IOException snapshotError;
+
+  public PersistentBloomKFilter(Path dir, long maxNumEntries, double fpp) throws IOException {
+    this(dir, maxNumEntries, fpp, DEFAULT_GROUP_COMMIT_SIZE);
+  }
+
+  /**
+   * Opens the persistent filter in the specified directory. If the directory contains a snapshot,
+   * the filter is restored from the snapshot and the log tail. Otherwise a new empty filter is
+   * created with the specified expected entries and fpp.
+   *
+   * @param dir             - directory for snapshot and log files
+   * @param maxNumEntries   - expected number of entries (ignored when restoring from snapshot)
+   * @param fpp             - false positive probability (ignored when restoring from snapshot)
+   * @param groupCommitSize - number of hashes buffered before writing to the log
+   */
+  public PersistentBloomKFilter(Path dir, long maxNumEntries, double fpp, int groupCommitSize)
+      throws IOException {
+    this(dir, maxNumEntries, fpp, groupCommitSize, false);
+  }
+
+  /**
+   * Same as PersistentBloomKFilter(Path, long, double, int). With powerOfTwoSize a new filter is
+   * created with power of 2 size so that it can be folded, see BloomKFilter(long, double, boolean).
+   */
+  public PersistentBloomKFilter(Path dir, long maxNumEntries, double fpp, int groupCommitSize,
+      boolean powerOfTwoSize) throws IOException {
+    assert groupCommitSize > 0 : "groupCommitSize should be > 0";
+    this.dir = dir;
+    Files.createDirectories(dir);
+    Files.deleteIfExists(dir.resolve(SNAPSHOT_TMP_FILE));
+
+    Path snapshot = dir.resolve(SNAPSHOT_FILE);
+    long replayFrom = 0;
+    if (Files.exists(snapshot)) {
+      try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+            SNAPSHOT_HEADER_LONGS * 8);
+        // bitset size is taken from the snapshot, the filter may have been folded
+        long[] data = new long[(int) ((channel.size() - SNAPSHOT_HEADER_LONGS * 8) / 8)];
+        long n = header.getLong();
+        double snapshotFpp = Double.longBitsToDouble(header.getLong());
+        replayFrom = header.getLong();
+        readSnapshot(channel, data);
+        this.bloomKFilter = new BloomKFilter(n, snapshotFpp, data);
+      }
+    } else {
+      this.bloomKFilter = new BloomKFilter(maxNumEntries, fpp, powerOfTwoSize);
+    }
+
+    long lastGeneration = replayFrom - 1;
+    for (long generation : listLogGenerations()) {
+      if (generation < replayFrom) {
+        Files.delete(logFile(generation));
+      } else {
+        replayLog(logFile(generation));
+        lastGeneration = generation;
+      }
+    }
+
+    this.logBuffer = ByteBuffer.allocateDirect(groupCommitSize * 8);
+    this.logGeneration = lastGeneration + 1;
+    this.logChannel = openLog(logGeneration);
+  }
+
+  public void add(byte[] val) {
+    addBytes(val);
+  }
+
+  public void addBytes(byte[] val) {
+    addHash(Murmur3.hash64(val));
+  }
+
+  public void addString(String val) {
+    addBytes(val.getBytes());
+  }
+
+  public void addLong(long val) {
+    // puts long in little endian order
+    addBytes(longToByteArrayLE(val));
+  }
+
+  public void addHash(long hash64) {
+    bloomKFilter.addHash(hash64);
+    logBuffer.putLong(hash64);
+    if (!logBuffer.hasRemaining()) {
+      try {
+        writeLog(false);
+      } catch (IOException e) {
+        throw new RuntimeException("Unable to write to log " + logFile(logGeneration), e);
+      }
+    }
+  }
+
+  public boolean test(byte[] val) {
+    return testBytes(val);
+  }
+
+  public boolean testBytes(byte[] val) {
+    return bloomKFilter.testHash(Murmur3.hash64(val));
+  }
+
+  public boolean testString(String val) {
+    return testBytes(val.getBytes());
+  }
+
+  public boolean testLong(long val) {
+    return testBytes(longToByteArrayLE(val));
+  }
+
+  public boolean testHash(long hash64) {
+    return bloomKFilter.testHash(hash64);
+  }
+
+  /**
+   * Writes all buffered inserts to the log and forces them to the storage device.
+   */
+  public void sync() throws IOException {
+    checkSnapshotError();
+    writeLog(true);
+  }
+
+  /**
+   * Writes a snapshot of the bit array and deletes the log generations covered by it.
+   */
+  public void snapshot() throws IOException {
+    synchronized (snapshotLock) {
+      long replayFrom;
+      synchronized (logLock) {
+        // Every hash written to the current log so far has been applied to the bit array before
+        // it was written, acquiring logLock makes those updates visible to this thread. Hashes
+        // that are still buffered will be written to the new log generation.
+        FileChannel oldChannel = logChannel;
+        replayFrom = logGeneration + 1;
+        logChannel = openLog(replayFrom);
+        logGeneration = replayFrom;
+        oldChannel.force(true);
+        oldChannel.close();
+      }
+
+      Path tmp = dir.resolve(SNAPSHOT_TMP_FILE);
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_LONGS * 8);
+        header.putLong(bloomKFilter.getExpectedNumEntries());
+        header.putLong(Double.doubleToLongBits(bloomKFilter.getFalsePositivePercent()));
+        header.putLong(replayFrom);
+        header.flip();
+        writeFully(channel, header);
+        writeSnapshot(channel, bloomKFilter.getBitSet());
+        channel.force(true);
+      }
+      Files.move(tmp, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+
+      for (long generation : listLogGenerations()) {
+        if (generation < replayFrom) {
+          Files.delete(logFile(generation));
+        }
+      }
+    }
+  }
+
+  /**
+   * Takes snapshots periodically in a background thread. Failures are reported by the next call
+   * to sync() or close().
+   *
+   * @param period - time between snapshots
+   * @param unit   - time unit of period
+   */
+  public synchronized void scheduleSnapshots(long period, TimeUnit unit) {
+    assert snapshotExecutor == null : "Snapshots are already scheduled";
+    snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "bloomkfilter-snapshot-" + dir.getFileName());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          snapshot();
+        } catch (IOException e) {
+          snapshotError = e;
+        }
+      }
+    }, period, period, unit);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (snapshotExecutor != null) {
+      snapshotExecutor.shutdown();
+      try {
+        snapshotExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      snapshotExecutor = null;
+    }
+    synchronized (logLock) {
+      writeLog(true);
+      logChannel.close();
+    }
+    checkSnapshotError();
+  }
+
+  public BloomKFilter getBloomKFilter() {
+    return bloomKFilter;
+  }
+
+  long getLogGeneration() {
+    synchronized (logLock) {
+      return logGeneration;
+    }
+  }
+
+  private void checkSnapshotError() throws IOException {
+    IOException e = snapshotError;
+    if (e != null) {
+      snapshotError = null;
+      throw new IOException("Background snapshot failed", e);
+    }
+  }
+
+  private void writeLog(boolean force) throws IOException {
+    synchronized (logLock) {
+      logBuffer.flip();
+      writeFully(logChannel, logBuffer);
+      logBuffer.clear();
+      if (force) {
+        logChannel.force(false);
+      }
+    }
+  }
+
+  private FileChannel openLog(long generation) throws IOException {
+    return FileChannel.open(logFile(generation), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  private Path logFile(long generation) {
+    return dir.resolve(LOG_FILE_PREFIX + generation);
+  }
+
+  private List<Long> listLogGenerations() throws IOException {
+    List<Long> generations = new ArrayList<Long>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, LOG_FILE_PREFIX + "*")) {
+      for (Path path : stream) {
+        generations.add(Long.parseLong(path.getFileName().toString().substring(LOG_FILE_PREFIX.length())));
+      }
+    }
+    Collections.sort(generations);
+    return generations;
+  }
+
+  private void replayLog(Path log) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(REPLAY_BUFFER_SIZE);
+    try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+      while (channel.read(buffer) >= 0) {
+        buffer.flip();
+        while (buffer.remaining() >= 8) {
+          bloomKFilter.addHash(buffer.getLong());
+        }
+        buffer.compact();
+      }
+    }
+    // a partially written hash at the tail of the log (crash during write) is ignored
+  }
+
+  private static void readSnapshot(FileChannel channel, long[] data) throws IOException {
+    long position = SNAPSHOT_HEADER_LONGS * 8;
+    int offset = 0;
+    while (offset < data.length) {
+      int len = Math.min(data.length - offset, IO_REGION_SIZE / 8);
+      MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) len * 8);
+      region.asLongBuffer().get(data, offset, len);
+      position += (long) len * 8;
+      offset += len;
+    }
+  }
+
+  private static void writeSnapshot(FileChannel channel, long[] data) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    LongBuffer longs = buffer.asLongBuffer();
+    int offset = 0;
+    while (offset < data.length) {
+      int len = Math.min(data.length - offset, longs.capacity());
+      longs.clear();
+      longs.put(data, offset, len);
+      buffer.clear();
+      buffer.limit(len * 8);
+      writeFully(channel, buffer);
+      offset += len;
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+}
@@ -0,0 +1,226 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prefix filter for byte and string keys answering "is there any key that starts with this
+ * prefix?", for example a tenant id followed by a path prefix.
+ * <p/>
+ * Every key is added with its prefixes of the configured lengths (or of every multiple of a fixed
+ * boundary) and the whole key, all in one BloomKFilter so that a prefix probe costs one hash and one
+ * cache line. Prefix hashes are Murmur3 64-bit hashes computed in a single pass over the key (see
+ * Murmur3.hash64Prefixes()), the whole key hash is the same as Murmur3.hash64() of the key.
+ * <p/>
+ * A prefix whose length is not configured is tested with its longest configured prefix, which has
+ * to be present if any key starts with the prefix. The test is less selective in that case and a
+ * prefix shorter than the smallest configured length always tests true.
+ * <p/>
+ * NOTE: Not thread-safe, the scratch arrays for prefix hashes are shared by all adds.
+ */
+public class PrefixBloomFilter {
+  private static final double DEFAULT_FPP = 0.05;
+  private final BloomKFilter bloom;
+  private final int[] prefixLengths;
+  // prefix lengths of the key being added followed by the key length, and their hashcodes
+  private final int[] lengths;
+  private final long[] hashes;
+
+  public PrefixBloomFilter(long maxNumEntries, int[] prefixLengths) {
+    this(maxNumEntries, DEFAULT_FPP, prefixLengths);
+  }
+
+  /**
+   * Creates a prefix filter for prefixes of the specified lengths.
+   *
+   * @param maxNumEntries - expected number of keys
+   * @param fpp           - false positive probability of a single probe
+   * @param prefixLengths - lengths of the prefixes in bytes, ascending
+   */
+  public PrefixBloomFilter(long maxNumEntries, double fpp, int[] prefixLengths) {
+    assert maxNumEntries > 0 : "maxNumEntries should be > 0";
+    assert prefixLengths.length > 0 : "prefixLengths should not be empty";
+    for (int i = 0; i < prefixLengths.length; i++) {
+      assert prefixLengths[i] > 0 : "prefixLengths should be > 0";
+      assert i == 0 || prefixLengths[i] > prefixLengths[i - 1] : "prefixLengths should be ascending";
+    }
+    this.prefixLengths = prefixLengths.clone();
+    this.lengths = new int[prefixLengths.length + 1];
+    this.hashes = new long[prefixLengths.length + 1];
+    this.bloom = new BloomKFilter(maxNumEntries * (prefixLengths.length + 1), fpp);
+  }
+
+  /**
+   * Creates a prefix filter for prefixes at every multiple of boundary up to maxPrefixLength.
+   *
+   * @param maxNumEntries   - expected number of keys
+   * @param fpp             - false positive probability of a single probe
+   * @param boundary        - prefix length step in bytes
+   * @param maxPrefixLength - longest prefix in bytes
+   */
+  public PrefixBloomFilter(long maxNumEntries, double fpp, int boundary, int maxPrefixLength) {
+    this(maxNumEntries, fpp, boundaries(boundary, maxPrefixLength));
+  }
+
+  private static int[] boundaries(int boundary, int maxPrefixLength) {
+    assert boundary > 0 : "boundary should be > 0";
+    assert maxPrefixLength >= boundary : "maxPrefixLength should be >= boundary";
+    int[] prefixLengths = new int[maxPrefixLength / boundary];
+    for (int i = 0; i < prefixLengths.length; i++) {
+      prefixLengths[i] = (i + 1) * boundary;
+    }
+    return prefixLengths;
+  }
+
+  // deserialize prefix filter. see serialize() for the format.
+  public PrefixBloomFilter(List<Long> serializedFilter) {
+    final int numPrefixLengths = serializedFilter.get(0).intValue();
+    this.prefixLengths = new int[numPrefixLengths];
+    for (int i = 0; i < numPrefixLengths; i++) {
+      prefixLengths[i] = serializedFilter.get(i + 1).intValue();
+    }
+    this.lengths = new int[numPrefixLengths + 1];
+    this.hashes = new long[numPrefixLengths + 1];
+    this.bloom = new BloomKFilter(serializedFilter.subList(numPrefixLengths + 1, serializedFilter.size()));
+  }
+
+  public long sizeInBytes() {
+    return bloom.sizeInBytes();
+  }
+
+  public void add(byte[] val) {
+    addBytes(val, 0, val.length);
+  }
+
+  /**
+   * Adds the key and its prefixes of the configured lengths.
+   *
+   * @param val    - byte array holding the key
+   * @param offset - offset of the key
+   * @param length - length of the key
+   */
+  public void addBytes(byte[] val, int offset, int length) {
+    int numLengths = 0;
+    for (int prefixLength : prefixLengths) {
+      if (prefixLength >= length) {
+        break;
+      }
+      lengths[numLengths++] = prefixLength;
+    }
+    lengths[numLengths++] = length;
+    Murmur3.hash64Prefixes(val, offset, lengths, numLengths, 0, hashes);
+    for (int i = 0; i < numLengths; i++) {
+      bloom.addHash(hashes[i]);
+    }
+  }
+
+  public void addString(String val) {
+    add(val.getBytes());
+  }
+
+  public boolean test(byte[] val) {
+    return testBytes(val, 0, val.length);
+  }
+
+  /**
+   * Tests if the key may have been added.
+   */
+  public boolean testBytes(byte[] val, int offset, int length) {
+    return bloom.testHash(Murmur3.hash64(val, offset, length, 0));
+  }
+
+  public boolean testString(String val) {
+    return test(val.getBytes());
+  }
+
+  public boolean testPrefix(byte[] prefix) {
+    return testPrefix(prefix, 0, prefix.length);
+  }
+
+  /**
+   * Tests if a key starting with the prefix may have been added.
+   *
+   * @param prefix - byte array holding the prefix
+   * @param offset - offset of the prefix
+   * @param length - length of the prefix
+   * @return true if a key with the prefix may be present, false if no key with the prefix was added
+   */
+  public boolean testPrefix(byte[] prefix, int offset, int length) {
+    // longest configured prefix length that is not longer than the prefix
+    int i = Arrays.binarySearch(prefixLengths, length);
+    if (i < 0) {
+      i = -i - 2;
+      if (i < 0) {
+        return true;
+      }
+    }
+    return bloom.testHash(Murmur3.hash64(prefix, offset, prefixLengths[i], 0));
+  }
+
+  public boolean testPrefixString(String prefix) {
+    return testPrefix(prefix.getBytes());
+  }
+
+  public int[] getPrefixLengths() {
+    return prefixLengths.clone();
+  }
+
+  /**
+   * False positive probability of a single probe
+   */
+  public double getFalsePositivePercent() {
+    return bloom.getFalsePositivePercent();
+  }
+
+  /**
+   * Check if the specified prefix filter is compatible with the current prefix filter.
+   *
+   * @param that - prefix filter to check compatibility
+   * @return true if compatible false otherwise
+   */
+  public boolean isCompatible(PrefixBloomFilter that) {
+    return this != that && Arrays.equals(this.prefixLengths, that.prefixLengths) && bloom.isCompatible(that.bloom);
+  }
+
+  /**
+   * Merge the specified prefix filter with current prefix filter.
+   * NOTE: Merge does not check for incompatibility. Use isCompatible() before calling merge().
+   *
+   * @param that - prefix filter to merge
+   */
+  public void merge(PrefixBloomFilter that) {
+    bloom.merge(that.bloom);
+  }
+
+  /**
+   * First entry is the number of prefix lengths followed by the prefix lengths. The entries
+   * following the prefix lengths are the serialized BloomKFilter, see BloomKFilter.serialize().
+   *
+   * @return prefix filter as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add((long) prefixLengths.length);
+    for (int prefixLength : prefixLengths) {
+      serialized.add((long) prefixLength);
+    }
+    serialized.addAll(bloom.serialize());
+    return serialized;
+  }
+}
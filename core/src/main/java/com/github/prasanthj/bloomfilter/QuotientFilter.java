@@ -0,0 +1,678 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Quotient filter as described in "Don't Thrash: How to Cache Your Hash on Flash" by Bender et.al.
+ * <p/>
+ * A p-bit fingerprint of the Murmur3 64-bit hashcode is split into a q-bit quotient and an r-bit
+ * remainder (p = q + r). The remainder is stored in a table of 2^q slots, at the slot given by the
+ * quotient (canonical slot) or, linear probing style, shifted to the right of it. Remainders with
+ * the same quotient are kept sorted in a contiguous run and runs are kept in quotient order, 3
+ * metadata bits per slot (is_occupied, is_continuation, is_shifted) are enough to find the run of a
+ * quotient. Since a run is found by scanning adjacent slots, inserts, lookups and deletes touch a
+ * small contiguous region of the table.
+ * <p/>
+ * The filter stores fingerprints exactly, so elements can be removed and the fingerprints can be
+ * enumerated in sorted order. Fingerprints are kept as a multiset, adding an element twice stores
+ * its fingerprint twice and elements with the same fingerprint are removed one copy at a time, so
+ * removal never causes false negatives for elements that were added. That allows:
+ * <ul>
+ * <li>resize: doubling the table moves one bit from the remainder to the quotient, fingerprints and
+ * hence false positive probability are unchanged. The filter is resized automatically when the
+ * load factor exceeds MAX_LOAD_FACTOR and as long as there are remainder bits left.</li>
+ * <li>merge: fingerprints of two filters are merged in sorted order into a new table.</li>
+ * </ul>
+ * Unlike DynamicBloomFilter, a grown quotient filter is still a single table and a lookup probes a
+ * single run. Slots are r + 3 bits wide and bit packed in a long array. False positive probability
+ * is ~ n / 2^p.
+ */
+public class QuotientFilter {
+  public static final double DEFAULT_FPP = 0.05;
+  public static final double MAX_LOAD_FACTOR = 0.75;
+  private static final int METADATA_BITS = 3;
+  private static final long OCCUPIED = 1;
+  private static final long CONTINUATION = 2;
+  private static final long SHIFTED = 4;
+  private final byte[] BYTE_ARRAY_4 = new byte[4];
+  private final byte[] BYTE_ARRAY_8 = new byte[8];
+  private final double fpp;
+  private int q;
+  private int r;
+  private int slotBits;
+  private long slotMask;
+  private long indexMask;
+  private long remainderMask;
+  private long numEntries;
+  private long[] data;
+
+  public QuotientFilter(long maxNumEntries) {
+    this(maxNumEntries, DEFAULT_FPP);
+  }
+
+  public QuotientFilter(long maxNumEntries, double fpp) {
+    assert maxNumEntries > 0 : "maxNumEntries should be > 0";
+    assert fpp > 0.0 && fpp < 1.0 : "False positive percentage should be > 0.0 & < 1.0";
+    this.fpp = fpp;
+    int q = Math.max(1, (int) Math.ceil(Math.log(maxNumEntries / MAX_LOAD_FACTOR) / Math.log(2)));
+    int r = Math.max(1, (int) Math.ceil(-Math.log(fpp) / Math.log(2)));
+    assert q + r <= Long.SIZE : "Fingerprint should be <= 64 bits";
+    init(q, r);
+  }
+
+  // deserialize quotient filter. see serialize() for the format.
+  public QuotientFilter(List<Long> serializedFilter) {
+    this.fpp = Double.longBitsToDouble(serializedFilter.get(0));
+    init(serializedFilter.get(1).intValue(), serializedFilter.get(2).intValue());
+    this.numEntries = serializedFilter.get(3);
+    List<Long> data = serializedFilter.subList(4, serializedFilter.size());
+    assert data.size() == this.data.length : "Number of slots does not match";
+    for (int i = 0; i < data.size(); i++) {
+      this.data[i] = data.get(i);
+    }
+  }
+
+  private void init(int q, int r) {
+    assert q < 40 : "Number of slots is too large";
+    this.q = q;
+    this.r = r;
+    this.slotBits = r + METADATA_BITS;
+    this.slotMask = (1L << slotBits) - 1;
+    this.indexMask = (1L << q) - 1;
+    this.remainderMask = (1L << r) - 1;
+    this.numEntries = 0;
+    // one additional word so that reading a slot never goes out of bounds
+    long numBits = (1L << q) * slotBits;
+    this.data = new long[(int) ((numBits + Long.SIZE - 1) >>> 6) + 1];
+  }
+
+  public long sizeInBytes() {
+    return (long) data.length * 8;
+  }
+
+  public void add(byte[] val) {
+    addBytes(val);
+  }
+
+  public void addBytes(byte[] val) {
+    addHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Adds an already hashed value. The hash is expected to be Murmur3.hash64() of the value bytes
+   * so that addHash() and addBytes() are interchangeable.
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @throws IllegalStateException if the filter is full and there are no remainder bits left to
+   *                               resize
+   */
+  public void addHash(long hash64) {
+    if (numEntries >= (long) (MAX_LOAD_FACTOR * (1L << q)) && r > 1) {
+      resize();
+    }
+    insert(fingerprint(hash64));
+  }
+
+  public void addString(String val) {
+    addBytes(val.getBytes());
+  }
+
+  public void addByte(byte val) {
+    addBytes(new byte[]{val});
+  }
+
+  public void addInt(int val) {
+    // puts int in little endian order
+    addBytes(intToByteArrayLE(val));
+  }
+
+  public void addLong(long val) {
+    // puts long in little endian order
+    addBytes(longToByteArrayLE(val));
+  }
+
+  public void addFloat(float val) {
+    addInt(Float.floatToIntBits(val));
+  }
+
+  public void addDouble(double val) {
+    addLong(Double.doubleToLongBits(val));
+  }
+
+  public boolean test(byte[] val) {
+    return testBytes(val);
+  }
+
+  public boolean testBytes(byte[] val) {
+    return testHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Tests an already hashed value. See addHash().
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return true if the value may be present, false otherwise
+   */
+  public boolean testHash(long hash64) {
+    final long fingerprint = fingerprint(hash64);
+    final long fq = fingerprint >>> r;
+    final long fr = fingerprint & remainderMask;
+    if (!isOccupied(getSlot(fq))) {
+      return false;
+    }
+
+    long s = findRunIndex(fq);
+    long slot;
+    do {
+      slot = getSlot(s);
+      final long rem = slot >>> METADATA_BITS;
+      if (rem == fr) {
+        return true;
+      } else if (rem > fr) {
+        return false;
+      }
+      s = incr(s);
+    } while (isContinuation(getSlot(s)));
+    return false;
+  }
+
+  public boolean testString(String val) {
+    return testBytes(val.getBytes());
+  }
+
+  public boolean testByte(byte val) {
+    return testBytes(new byte[]{val});
+  }
+
+  public boolean testInt(int val) {
+    return testBytes(intToByteArrayLE(val));
+  }
+
+  public boolean testLong(long val) {
+    return testBytes(longToByteArrayLE(val));
+  }
+
+  public boolean testFloat(float val) {
+    return testInt(Float.floatToIntBits(val));
+  }
+
+  public boolean testDouble(double val) {
+    return testLong(Double.doubleToLongBits(val));
+  }
+
+  public boolean remove(byte[] val) {
+    return removeBytes(val);
+  }
+
+  public boolean removeBytes(byte[] val) {
+    return removeHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Removes an already hashed value in place. See addHash(). Removing a value that was never added
+   * removes the value with the same fingerprint (if any), which leads to false negatives for that
+   * value.
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return true if the fingerprint of the value was found and removed, false otherwise
+   */
+  public boolean removeHash(long hash64) {
+    final long fingerprint = fingerprint(hash64);
+    final long fq = fingerprint >>> r;
+    final long fr = fingerprint & remainderMask;
+    long tfq = getSlot(fq);
+    if (!isOccupied(tfq) || numEntries == 0) {
+      return false;
+    }
+
+    // find the slot of the remainder in the run of the quotient
+    long s = findRunIndex(fq);
+    long rem;
+    do {
+      rem = getSlot(s) >>> METADATA_BITS;
+      if (rem >= fr) {
+        break;
+      }
+      s = incr(s);
+    } while (isContinuation(getSlot(s)));
+    if (rem != fr) {
+      return false;
+    }
+
+    final long kill = s == fq ? tfq : getSlot(s);
+    final boolean replaceRunStart = isRunStart(kill);
+
+    // deleting the only entry of the run, the quotient is no longer occupied
+    if (replaceRunStart && !isContinuation(getSlot(incr(s)))) {
+      tfq &= ~OCCUPIED;
+      setSlot(fq, tfq);
+    }
+
+    deleteEntry(s, fq);
+
+    if (replaceRunStart) {
+      final long next = getSlot(s);
+      long updatedNext = next;
+      if (isContinuation(next)) {
+        // the new start of run is no longer a continuation
+        updatedNext &= ~CONTINUATION;
+      }
+      if (s == fq && isRunStart(updatedNext)) {
+        // the new start of run is in its canonical slot
+        updatedNext &= ~SHIFTED;
+      }
+      if (updatedNext != next) {
+        setSlot(s, updatedNext);
+      }
+    }
+    numEntries--;
+    return true;
+  }
+
+  public boolean removeString(String val) {
+    return removeBytes(val.getBytes());
+  }
+
+  public boolean removeByte(byte val) {
+    return removeBytes(new byte[]{val});
+  }
+
+  public boolean removeInt(int val) {
+    return removeBytes(intToByteArrayLE(val));
+  }
+
+  public boolean removeLong(long val) {
+    return removeBytes(longToByteArrayLE(val));
+  }
+
+  public boolean removeFloat(float val) {
+    return removeInt(Float.floatToIntBits(val));
+  }
+
+  public boolean removeDouble(double val) {
+    return removeLong(Double.doubleToLongBits(val));
+  }
+
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+
+  /**
+   * Doubles the number of slots. One bit of the remainder becomes part of the quotient, so the
+   * fingerprints and the false positive probability are unchanged.
+   */
+  public void resize() {
+    assert r > 1 : "No remainder bits left to resize";
+    long[] fingerprints = getFingerprints();
+    init(q + 1, r - 1);
+    for (long fingerprint : fingerprints) {
+      insert(fingerprint);
+    }
+  }
+
+  /**
+   * Check if the specified quotient filter is compatible with the current quotient filter. Filters
+   * are compatible if the fingerprints are of the same length, the number of slots can differ.
+   *
+   * @param that - quotient filter to check compatibility
+   * @return true if compatible false otherwise
+   */
+  public boolean isCompatible(QuotientFilter that) {
+    return this != that && this.q + this.r == that.q + that.r;
+  }
+
+  /**
+   * Merge the specified quotient filter with current quotient filter. The sorted fingerprints of
+   * both filters are merged into a table large enough to hold all of them. Like add(), fingerprints
+   * present in both filters are stored twice.
+   * NOTE: Merge does not check for incompatibility. Use isCompatible() before calling merge().
+   *
+   * @param that - quotient filter to merge
+   * @throws IllegalStateException if the fingerprints of both filters do not fit in the largest
+   *                               table (1 bit remainders), the current filter is not modified
+   */
+  public void merge(QuotientFilter that) {
+    final long[] these = this.getFingerprints();
+    final long[] those = that.getFingerprints();
+    final int p = q + r;
+    int newQ = Math.max(this.q, that.q);
+    while (newQ < p - 1 && these.length + those.length > (long) (MAX_LOAD_FACTOR * (1L << newQ))) {
+      newQ++;
+    }
+    // same as insert(), at least one slot stays empty. checked before init() clears this filter
+    if (these.length + those.length >= (1L << newQ)) {
+      throw new IllegalStateException("Quotient filter is full");
+    }
+    init(newQ, p - newQ);
+
+    int i = 0;
+    int j = 0;
+    while (i < these.length || j < those.length) {
+      // unsigned compare, flipping the sign bit keeps the core module on Java 7
+      if (j == those.length ||
+          (i < these.length && (these[i] ^ Long.MIN_VALUE) <= (those[j] ^ Long.MIN_VALUE))) {
+        insert(these[i++]);
+      } else {
+        insert(those[j++]);
+      }
+    }
+  }
+
+  /**
+   * Fingerprints of the elements in ascending (unsigned) order.
+   *
+   * @return p-bit fingerprints
+   */
+  long[] getFingerprints() {
+    final long[] fingerprints = new long[(int) numEntries];
+    if (numEntries == 0) {
+      return fingerprints;
+    }
+
+    // start at a cluster start, everything before it belongs to the cluster that wraps around the
+    // end of the table and has the largest quotients
+    long start = 0;
+    while (!isClusterStart(getSlot(start))) {
+      start++;
+    }
+
+    long index = start;
+    long quotient = start;
+    int visited = 0;
+    while (visited < numEntries) {
+      final long slot = getSlot(index);
+      if (isClusterStart(slot)) {
+        quotient = index;
+      } else if (isRunStart(slot)) {
+        do {
+          quotient = incr(quotient);
+        } while (!isOccupied(getSlot(quotient)));
+      }
+      if (!isEmpty(slot)) {
+        fingerprints[visited++] = (quotient << r) | (slot >>> METADATA_BITS);
+      }
+      index = incr(index);
+    }
+
+    // the cluster that wraps around the end of the table can continue with the smallest quotients,
+    // rotate them to the front
+    for (int i = 1; i < fingerprints.length; i++) {
+      if ((fingerprints[i] ^ Long.MIN_VALUE) < (fingerprints[i - 1] ^ Long.MIN_VALUE)) {
+        final long[] rotated = new long[fingerprints.length];
+        System.arraycopy(fingerprints, i, rotated, 0, fingerprints.length - i);
+        System.arraycopy(fingerprints, 0, rotated, fingerprints.length - i, i);
+        return rotated;
+      }
+    }
+    return fingerprints;
+  }
+
+  private long fingerprint(long hash64) {
+    final int p = q + r;
+    return p == Long.SIZE ? hash64 : hash64 & ((1L << p) - 1);
+  }
+
+  private void insert(long fingerprint) {
+    // at least one empty slot is needed to shift entries into
+    if (numEntries >= (1L << q) - 1) {
+      throw new IllegalStateException("Quotient filter is full");
+    }
+    final long fq = fingerprint >>> r;
+    final long fr = fingerprint & remainderMask;
+    final long tfq = getSlot(fq);
+    long entry = fr << METADATA_BITS;
+
+    // canonical slot is empty
+    if (isEmpty(tfq)) {
+      setSlot(fq, entry | OCCUPIED);
+      numEntries++;
+      return;
+    }
+
+    if (!isOccupied(tfq)) {
+      setSlot(fq, tfq | OCCUPIED);
+    }
+
+    final long start = findRunIndex(fq);
+    long s = start;
+
+    if (isOccupied(tfq)) {
+      // move to the insert position in the sorted run of the quotient
+      do {
+        final long rem = getSlot(s) >>> METADATA_BITS;
+        if (rem > fr) {
+          break;
+        }
+        s = incr(s);
+      } while (isContinuation(getSlot(s)));
+
+      if (s == start) {
+        // the old start of run becomes a continuation
+        setSlot(start, getSlot(start) | CONTINUATION);
+      } else {
+        // the new entry becomes a continuation
+        entry |= CONTINUATION;
+      }
+    }
+
+    if (s != fq) {
+      entry |= SHIFTED;
+    }
+
+    insertInto(s, entry);
+    numEntries++;
+  }
+
+  // inserts the entry at slot s and shifts the following entries of the cluster to the right
+  private void insertInto(long s, long entry) {
+    long curr = entry;
+    boolean empty;
+    do {
+      long prev = getSlot(s);
+      empty = isEmpty(prev);
+      if (!empty) {
+        // occupied bit belongs to the slot, not to the entry
+        prev |= SHIFTED;
+        if (isOccupied(prev)) {
+          curr |= OCCUPIED;
+          prev &= ~OCCUPIED;
+        }
+      }
+      setSlot(s, curr);
+      curr = prev;
+      s = incr(s);
+    } while (!empty);
+  }
+
+  // removes the entry at slot s and shifts the following entries of the cluster to the left
+  private void deleteEntry(long s, long quotient) {
+    long curr = getSlot(s);
+    long sp = incr(s);
+    final long orig = s;
+    while (true) {
+      final long next = getSlot(sp);
+      final boolean currOccupied = isOccupied(curr);
+      if (isEmpty(next) || isClusterStart(next) || sp == orig) {
+        setSlot(s, currOccupied ? OCCUPIED : 0);
+        return;
+      }
+
+      // fix entries which slide into their canonical slots
+      long updatedNext = next;
+      if (isRunStart(next)) {
+        do {
+          quotient = incr(quotient);
+        } while (!isOccupied(getSlot(quotient)));
+        if (currOccupied && quotient == s) {
+          updatedNext &= ~SHIFTED;
+        }
+      }
+      setSlot(s, currOccupied ? updatedNext | OCCUPIED : updatedNext & ~OCCUPIED);
+      s = sp;
+      sp = incr(sp);
+      curr = next;
+    }
+  }
+
+  // slot index of the start of the run of quotient fq
+  private long findRunIndex(long fq) {
+    // find the start of the cluster
+    long b = fq;
+    while (isShifted(getSlot(b))) {
+      b = decr(b);
+    }
+
+    // walk the runs of the cluster, one run per occupied quotient
+    long s = b;
+    while (b != fq) {
+      do {
+        s = incr(s);
+      } while (isContinuation(getSlot(s)));
+      do {
+        b = incr(b);
+      } while (!isOccupied(getSlot(b)));
+    }
+    return s;
+  }
+
+  private long getSlot(long index) {
+    final long bitPos = index * slotBits;
+    final int word = (int) (bitPos >>> 6);
+    final int offset = (int) (bitPos & 63);
+    long value = data[word] >>> offset;
+    if (offset + slotBits > Long.SIZE) {
+      value |= data[word + 1] << (Long.SIZE - offset);
+    }
+    return value & slotMask;
+  }
+
+  private void setSlot(long index, long value) {
+    final long bitPos = index * slotBits;
+    final int word = (int) (bitPos >>> 6);
+    final int offset = (int) (bitPos & 63);
+    data[word] = (data[word] & ~(slotMask << offset)) | (value << offset);
+    if (offset + slotBits > Long.SIZE) {
+      final int shift = Long.SIZE - offset;
+      data[word + 1] = (data[word + 1] & ~(slotMask >>> shift)) | (value >>> shift);
+    }
+  }
+
+  private long incr(long index) {
+    return (index + 1) & indexMask;
+  }
+
+  private long decr(long index) {
+    return (index - 1) & indexMask;
+  }
+
+  private static boolean isOccupied(long slot) {
+    return (slot & OCCUPIED) != 0;
+  }
+
+  private static boolean isContinuation(long slot) {
+    return (slot & CONTINUATION) != 0;
+  }
+
+  private static boolean isShifted(long slot) {
+    return (slot & SHIFTED) != 0;
+  }
+
+  private static boolean isEmpty(long slot) {
+    return (slot & (OCCUPIED | CONTINUATION | SHIFTED)) == 0;
+  }
+
+  private static boolean isClusterStart(long slot) {
+    return isOccupied(slot) && !isContinuation(slot) && !isShifted(slot);
+  }
+
+  private static boolean isRunStart(long slot) {
+    return !isContinuation(slot) && (isOccupied(slot) || isShifted(slot));
+  }
+
+  /**
+   * Number of fingerprints in the filter
+   */
+  public long getNumEntries() {
+    return numEntries;
+  }
+
+  public int getQuotientBits() {
+    return q;
+  }
+
+  public int getRemainderBits() {
+    return r;
+  }
+
+  public long getNumSlots() {
+    return 1L << q;
+  }
+
+  public double loadFactor() {
+    return (double) numEntries / (1L << q);
+  }
+
+  public double getFalsePositivePercent() {
+    return fpp;
+  }
+
+  /**
+   * Estimates the actual false positive probability, the probability that the fingerprint of an
+   * element that is not present matches one of the n fingerprints, 1 - e^(-n / 2^p).
+   *
+   * @return estimated false positive probability
+   */
+  public double currentFpp() {
+    return -Math.expm1(-numEntries / Math.pow(2, q + r));
+  }
+
+  /**
+   * First 4 entries are false positive percentage (fpp) as long bits, quotient bits, remainder bits
+   * and number of entries. The entries following first 4 entries are the bit packed slots.
+   *
+   * @return quotient filter as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add(Double.doubleToLongBits(fpp));
+    serialized.add((long) q);
+    serialized.add((long) r);
+    serialized.add(numEntries);
+    for (long l : data) {
+      serialized.add(l);
+    }
+    return serialized;
+  }
+}
@@ -0,0 +1,186 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Range filter for long keys answering "is there any key in [low, high]?", using dyadic intervals
+ * as described in "Rosetta: A Robust Space-Time Optimized Range Filter for Key-Value Stores" by
+ * Luo et.al.
+ * <p/>
+ * Level l holds the dyadic intervals of size 2^l, the interval of a key at level l is key >>> l. A
+ * key is added to levels 0 to maxRangeBits, all levels share one BloomKFilter and every level hashes
+ * the interval with its own seed, so a key costs one hash and one cache line per level. A range is
+ * decomposed into at most 2 * maxRangeBits maximal dyadic intervals. An interval is probed at its
+ * level, a positive probe is confirmed by probing its two halves one level down and so on until
+ * level 0, like a binary search on a segment tree. A false positive at a higher level is only
+ * reported if it survives all lower levels, which keeps the false positive probability of a range
+ * close to the fpp of a single probe while an empty range typically costs O(log range) probes.
+ * <p/>
+ * Keys are compared as signed longs. Ranges that need more than MAX_TOP_LEVEL_INTERVALS intervals of
+ * size 2^maxRangeBits are not probed and always test true.
+ */
+public class RangeBloomFilter {
+  public static final int DEFAULT_MAX_RANGE_BITS = 16;
+  // power of 2
+  static final int MAX_TOP_LEVEL_INTERVALS = 64;
+  private static final double DEFAULT_FPP = 0.01;
+  private static final long LEVEL_SEED = 0x9E3779B97F4A7C15L;
+  private final BloomKFilter bloom;
+  private final int maxRangeBits;
+
+  public RangeBloomFilter(long maxNumEntries) {
+    this(maxNumEntries, DEFAULT_FPP, DEFAULT_MAX_RANGE_BITS);
+  }
+
+  /**
+   * Creates a range filter.
+   *
+   * @param maxNumEntries - expected number of keys
+   * @param fpp           - false positive probability of a single probe
+   * @param maxRangeBits  - log2 of the largest dyadic interval, 0 to 63
+   */
+  public RangeBloomFilter(long maxNumEntries, double fpp, int maxRangeBits) {
+    assert maxNumEntries > 0 : "maxNumEntries should be > 0";
+    assert maxRangeBits >= 0 && maxRangeBits < Long.SIZE : "maxRangeBits should be >= 0 & < 64";
+    this.maxRangeBits = maxRangeBits;
+    this.bloom = new BloomKFilter(maxNumEntries * (maxRangeBits + 1), fpp);
+  }
+
+  // deserialize range filter. see serialize() for the format.
+  public RangeBloomFilter(List<Long> serializedFilter) {
+    this.maxRangeBits = serializedFilter.get(0).intValue();
+    this.bloom = new BloomKFilter(serializedFilter.subList(1, serializedFilter.size()));
+  }
+
+  public long sizeInBytes() {
+    return bloom.sizeInBytes();
+  }
+
+  // hashcode of the interval at the level
+  private static long hash(long interval, int level) {
+    return BinaryFuseBuilder.mix(interval, LEVEL_SEED * (level + 1));
+  }
+
+  public void addInt(int val) {
+    addLong(val);
+  }
+
+  public void addLong(long val) {
+    // flip the sign bit so that signed order is unsigned order
+    final long key = val ^ Long.MIN_VALUE;
+    for (int level = 0; level <= maxRangeBits; level++) {
+      bloom.addHash(hash(key >>> level, level));
+    }
+  }
+
+  public boolean testInt(int val) {
+    return testLong(val);
+  }
+
+  public boolean testLong(long val) {
+    return bloom.testHash(hash(val ^ Long.MIN_VALUE, 0));
+  }
+
+  /**
+   * Tests if a key in the range may have been added.
+   *
+   * @param low  - smallest key of the range, inclusive
+   * @param high - largest key of the range, inclusive
+   * @return true if a key in the range may be present, false if no key in the range was added
+   */
+  public boolean testRange(long low, long high) {
+    assert low <= high : "low should be <= high";
+    long lo = low ^ Long.MIN_VALUE;
+    final long hi = high ^ Long.MIN_VALUE;
+    // lo and hi are unsigned, compared by flipping the sign bit back for Java 7
+    // too wide to probe, at most 2^64 / 2^maxRangeBits top level intervals
+    final int topLevelBits = maxRangeBits + Long.numberOfTrailingZeros(MAX_TOP_LEVEL_INTERVALS);
+    if (topLevelBits < Long.SIZE &&
+        ((hi - lo) ^ Long.MIN_VALUE) >= ((1L << topLevelBits) ^ Long.MIN_VALUE)) {
+      return true;
+    }
+    // maximal dyadic intervals from lo, each is aligned to its size and ends at or before hi
+    while (true) {
+      int level = Math.min(maxRangeBits, Long.numberOfTrailingZeros(lo));
+      while (level > 0 && ((lo + ((1L << level) - 1)) ^ Long.MIN_VALUE) > (hi ^ Long.MIN_VALUE)) {
+        level--;
+      }
+      if (probe(lo >>> level, level)) {
+        return true;
+      }
+      final long next = lo + (1L << level);
+      if (next == 0 || (next ^ Long.MIN_VALUE) > (hi ^ Long.MIN_VALUE)) {
+        return false;
+      }
+      lo = next;
+    }
+  }
+
+  // probes the interval and confirms a positive probe in its halves down to level 0
+  private boolean probe(long interval, int level) {
+    if (!bloom.testHash(hash(interval, level))) {
+      return false;
+    }
+    return level == 0 || probe(interval << 1, level - 1) || probe((interval << 1) | 1, level - 1);
+  }
+
+  public int getMaxRangeBits() {
+    return maxRangeBits;
+  }
+
+  /**
+   * False positive probability of a single probe
+   */
+  public double getFalsePositivePercent() {
+    return bloom.getFalsePositivePercent();
+  }
+
+  /**
+   * Check if the specified range filter is compatible with the current range filter.
+   *
+   * @param that - range filter to check compatibility
+   * @return true if compatible false otherwise
+   */
+  public boolean isCompatible(RangeBloomFilter that) {
+    return this != that && this.maxRangeBits == that.maxRangeBits && bloom.isCompatible(that.bloom);
+  }
+
+  /**
+   * Merge the specified range filter with current range filter.
+   * NOTE: Merge does not check for incompatibility. Use isCompatible() before calling merge().
+   *
+   * @param that - range filter to merge
+   */
+  public void merge(RangeBloomFilter that) {
+    bloom.merge(that.bloom);
+  }
+
+  /**
+   * First entry is maxRangeBits. The entries following the first entry are the serialized
+   * BloomKFilter of all levels, see BloomKFilter.serialize().
+   *
+   * @return range filter as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add((long) maxRangeBits);
+    serialized.addAll(bloom.serialize());
+    return serialized;
+  }
+}
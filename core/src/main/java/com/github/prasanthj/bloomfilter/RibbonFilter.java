@@ -0,0 +1,395 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Immutable standard Ribbon filter as described in "Ribbon filter: practically smaller than Bloom
+ * and Xor" by Dillinger and Walzer.
+ * <p/>
+ * Every key maps to a 64-bit coefficient row starting at a slot of the filter and to an r-bit
+ * fingerprint. The filter is the solution of the linear system (over GF(2)) where the dot product
+ * of the coefficient row of every key with the 64 slots following its start slot is its
+ * fingerprint. Since the coefficients of a key are confined to a band of 64 slots, the system is
+ * solved by on-the-fly banded Gaussian elimination followed by back substitution, both linear in
+ * the number of keys. The fingerprint width r is configurable from 1 to 32 bits, false positive
+ * probability is 2^-r with ~(r * 1.08) bits per key, close to the r bits lower bound.
+ * <p/>
+ * The solution is stored interleaved: for every block of 64 slots there are r longs, the i-th long
+ * holds the i-th fingerprint bit of the 64 slots. A lookup reads 2 adjacent longs per fingerprint
+ * bit from the same region of memory and stops at the first mismatching bit, so a lookup of a
+ * value that is not present reads 2 longs on average.
+ * <p/>
+ * Keys are split by hash into independent shards of ~SHARD_SIZE keys which can be built in
+ * parallel on a ForkJoinPool. The layout of the filter does not depend on the parallelism. Keys
+ * are the Murmur3 64-bit hashcodes of the values, like BinaryFuse8Filter.
+ */
+public class RibbonFilter {
+  public static final int DEFAULT_FINGERPRINT_BITS = 8;
+  // number of keys per shard, larger shards are more likely to need another seed to be solved
+  static final int SHARD_SIZE = 1 << 16;
+  private static final int WIDTH = Long.SIZE;
+  private static final double SPACE_OVERHEAD = 0.07;
+  private static final int MAX_ITERATIONS = 100;
+  private static final long INITIAL_SEED = 0x9E3779B97F4A7C15L;
+  private static final long COEFFICIENT_SEED = 0xC2B2AE3D27D4EB4FL;
+  private final byte[] BYTE_ARRAY_4 = new byte[4];
+  private final byte[] BYTE_ARRAY_8 = new byte[8];
+  private final long numEntries;
+  private final int fingerprintBits;
+  private final int numShards;
+  private final int slotsPerShard;
+  private final int blocksPerShard;
+  private final int numStarts;
+  private final long[] seeds;
+  private final long[] data;
+
+  public RibbonFilter(long[] hashes) {
+    this(hashes, DEFAULT_FINGERPRINT_BITS);
+  }
+
+  /**
+   * Builds the filter from the specified hashcodes in the calling thread.
+   *
+   * @param hashes          - 64-bit hashcodes (Murmur3.hash64()) of the keys
+   * @param fingerprintBits - bits per fingerprint, false positive probability is 2^-fingerprintBits
+   */
+  public RibbonFilter(long[] hashes, int fingerprintBits) {
+    this(hashes, fingerprintBits, null);
+  }
+
+  /**
+   * Builds the filter from the specified hashcodes, the shards are built in parallel on the
+   * specified pool.
+   *
+   * @param hashes          - 64-bit hashcodes (Murmur3.hash64()) of the keys
+   * @param fingerprintBits - bits per fingerprint, false positive probability is 2^-fingerprintBits
+   * @param pool            - pool to build the shards on, null to build in the calling thread
+   * @throws IllegalStateException if a shard could not be solved
+   */
+  public RibbonFilter(long[] hashes, int fingerprintBits, ForkJoinPool pool) {
+    assert fingerprintBits > 0 && fingerprintBits <= Integer.SIZE : "fingerprintBits should be > 0 & <= 32";
+    this.numEntries = hashes.length;
+    this.fingerprintBits = fingerprintBits;
+    this.numShards = Math.max(1, (hashes.length + SHARD_SIZE - 1) / SHARD_SIZE);
+
+    // counting sort of keys by shard
+    final int[] shardStart = new int[numShards + 1];
+    for (long hash : hashes) {
+      shardStart[shard(hash) + 1]++;
+    }
+    int maxShardKeys = 0;
+    for (int i = 1; i <= numShards; i++) {
+      maxShardKeys = Math.max(maxShardKeys, shardStart[i]);
+      shardStart[i] += shardStart[i - 1];
+    }
+    final long[] sorted = new long[hashes.length];
+    final int[] pos = shardStart.clone();
+    for (long hash : hashes) {
+      sorted[pos[shard(hash)]++] = hash;
+    }
+
+    // all shards are of the same size so that the shard offset is a multiplication
+    long slots = (long) Math.ceil(maxShardKeys * (1 + SPACE_OVERHEAD)) + 2 * WIDTH;
+    this.blocksPerShard = (int) (slots / WIDTH);
+    this.slotsPerShard = blocksPerShard * WIDTH;
+    this.numStarts = slotsPerShard - WIDTH + 1;
+    // one additional block so that reading the block after the start block never goes out of bounds
+    long numWords = ((long) numShards * blocksPerShard + 1) * fingerprintBits;
+    assert numWords <= Integer.MAX_VALUE : "Too many keys";
+    this.data = new long[(int) numWords];
+    this.seeds = new long[numShards];
+
+    if (pool == null) {
+      for (int shard = 0; shard < numShards; shard++) {
+        buildShard(shard, sorted, shardStart[shard], shardStart[shard + 1]);
+      }
+    } else {
+      pool.invoke(new BuildTask(sorted, shardStart, 0, numShards));
+    }
+  }
+
+  /**
+   * Builds the filter from the specified values.
+   *
+   * @param keys            - value bytes
+   * @param fingerprintBits - bits per fingerprint, false positive probability is 2^-fingerprintBits
+   */
+  public RibbonFilter(Iterator<byte[]> keys, int fingerprintBits) {
+    this(BinaryFuseBuilder.hashAll(keys), fingerprintBits);
+  }
+
+  // deserialize ribbon filter. see serialize() for the format.
+  public RibbonFilter(List<Long> serializedFilter) {
+    this.numEntries = serializedFilter.get(0);
+    this.fingerprintBits = serializedFilter.get(1).intValue();
+    this.numShards = serializedFilter.get(2).intValue();
+    this.slotsPerShard = serializedFilter.get(3).intValue();
+    this.blocksPerShard = slotsPerShard / WIDTH;
+    this.numStarts = slotsPerShard - WIDTH + 1;
+    this.seeds = new long[numShards];
+    for (int i = 0; i < numShards; i++) {
+      seeds[i] = serializedFilter.get(4 + i);
+    }
+    List<Long> data = serializedFilter.subList(4 + numShards, serializedFilter.size());
+    this.data = new long[data.size()];
+    for (int i = 0; i < data.size(); i++) {
+      this.data[i] = data.get(i);
+    }
+  }
+
+  private class BuildTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final long[] sorted;
+    private final int[] shardStart;
+    private final int from;
+    private final int to;
+
+    BuildTask(long[] sorted, int[] shardStart, int from, int to) {
+      this.sorted = sorted;
+      this.shardStart = shardStart;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        buildShard(from, sorted, shardStart[from], shardStart[from + 1]);
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(new BuildTask(sorted, shardStart, from, mid), new BuildTask(sorted, shardStart, mid, to));
+      }
+    }
+  }
+
+  private void buildShard(int shard, long[] hashes, int from, int to) {
+    final long[] coefficients = new long[slotsPerShard];
+    final int[] results = new int[slotsPerShard];
+    long seed = INITIAL_SEED;
+    for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+      if (band(hashes, from, to, seed, coefficients, results)) {
+        seeds[shard] = seed;
+        backSubstitute(shard, coefficients, results);
+        return;
+      }
+      Arrays.fill(coefficients, 0);
+      Arrays.fill(results, 0);
+      seed = BinaryFuseBuilder.mix(seed, INITIAL_SEED);
+    }
+    throw new IllegalStateException("Unable to construct ribbon filter for " + (to - from) + " keys");
+  }
+
+  // banded gaussian elimination, the row of every key is reduced until it has a leading one in a
+  // slot that has no row yet
+  private boolean band(long[] hashes, int from, int to, long seed, long[] coefficients, int[] results) {
+    final int resultMask = fingerprintMask();
+    for (int i = from; i < to; i++) {
+      final long hash = BinaryFuseBuilder.mix(hashes[i], seed);
+      int start = start(hash);
+      long coefficient = coefficient(hash);
+      int result = (int) hash & resultMask;
+      while (true) {
+        final long existing = coefficients[start];
+        if (existing == 0) {
+          coefficients[start] = coefficient;
+          results[start] = result;
+          break;
+        }
+        coefficient ^= existing;
+        result ^= results[start];
+        if (coefficient == 0) {
+          if (result != 0) {
+            // linearly dependent with a different fingerprint
+            return false;
+          }
+          // same key twice
+          break;
+        }
+        final int shift = Long.numberOfTrailingZeros(coefficient);
+        start += shift;
+        coefficient >>>= shift;
+      }
+    }
+    return true;
+  }
+
+  // solves the slots from last to first. state holds the solution of the 64 slots following the
+  // current slot, one long per fingerprint bit, and is stored at every block boundary
+  private void backSubstitute(int shard, long[] coefficients, int[] results) {
+    final long[] state = new long[fingerprintBits];
+    final int base = shard * blocksPerShard;
+    for (int i = slotsPerShard - 1; i >= 0; i--) {
+      final long coefficient = coefficients[i];
+      final int result = results[i];
+      for (int b = 0; b < fingerprintBits; b++) {
+        final long s = state[b] << 1;
+        state[b] = s | ((result >>> b ^ Long.bitCount(s & coefficient)) & 1);
+      }
+      if ((i & (WIDTH - 1)) == 0) {
+        System.arraycopy(state, 0, data, (base + i / WIDTH) * fingerprintBits, fingerprintBits);
+      }
+    }
+  }
+
+  private int shard(long hash64) {
+    return (int) (((hash64 >>> 32) * numShards) >>> 32);
+  }
+
+  private int start(long hash) {
+    return (int) (((hash >>> 32) * numStarts) >>> 32);
+  }
+
+  private static long coefficient(long hash) {
+    // the first coefficient is always one, so that the row starts at the start slot
+    return BinaryFuseBuilder.mix(hash, COEFFICIENT_SEED) | 1;
+  }
+
+  private int fingerprintMask() {
+    return fingerprintBits == Integer.SIZE ? -1 : (1 << fingerprintBits) - 1;
+  }
+
+  public long sizeInBytes() {
+    return (long) data.length * 8;
+  }
+
+  public boolean test(byte[] val) {
+    return testBytes(val);
+  }
+
+  public boolean testBytes(byte[] val) {
+    return testHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Tests an already hashed value.
+   *
+   * @param hash64 - 64-bit hashcode of the value, see RibbonFilter(long[])
+   * @return true if the value may be present, false otherwise
+   */
+  public boolean testHash(long hash64) {
+    final int shard = shard(hash64);
+    final long hash = BinaryFuseBuilder.mix(hash64, seeds[shard]);
+    final int start = start(hash);
+    final long coefficient = coefficient(hash);
+    final int result = (int) hash;
+    final int offset = start & (WIDTH - 1);
+    int index = (shard * blocksPerShard + start / WIDTH) * fingerprintBits;
+    for (int b = 0; b < fingerprintBits; b++, index++) {
+      // 64 slots from the start slot, the second shift avoids a shift by 64 for offset 0
+      final long slots = (data[index] >>> offset) | ((data[index + fingerprintBits] << 1) << (63 - offset));
+      if (((result >>> b ^ Long.bitCount(slots & coefficient)) & 1) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public boolean testString(String val) {
+    return testBytes(val.getBytes());
+  }
+
+  public boolean testByte(byte val) {
+    return testBytes(new byte[]{val});
+  }
+
+  public boolean testInt(int val) {
+    return testBytes(intToByteArrayLE(val));
+  }
+
+  public boolean testLong(long val) {
+    return testBytes(longToByteArrayLE(val));
+  }
+
+  public boolean testFloat(float val) {
+    return testInt(Float.floatToIntBits(val));
+  }
+
+  public boolean testDouble(double val) {
+    return testLong(Double.doubleToLongBits(val));
+  }
+
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+
+  /**
+   * Number of keys the filter was built from
+   */
+  public long getNumEntries() {
+    return numEntries;
+  }
+
+  public int getFingerprintBits() {
+    return fingerprintBits;
+  }
+
+  public int getNumShards() {
+    return numShards;
+  }
+
+  public double getFalsePositivePercent() {
+    return Math.pow(2, -fingerprintBits);
+  }
+
+  public double getBitsPerEntry() {
+    return numEntries == 0 ? 0 : (double) data.length * Long.SIZE / numEntries;
+  }
+
+  /**
+   * First 4 entries are number of entries, fingerprint bits, number of shards and slots per shard.
+   * The next entries are the seeds of the shards followed by the interleaved solution, fingerprint
+   * bits longs per 64 slots.
+   *
+   * @return ribbon filter as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add(numEntries);
+    serialized.add((long) fingerprintBits);
+    serialized.add((long) numShards);
+    serialized.add((long) slotsPerShard);
+    for (long seed : seeds) {
+      serialized.add(seed);
+    }
+    for (long l : data) {
+      serialized.add(l);
+    }
+    return serialized;
+  }
+}
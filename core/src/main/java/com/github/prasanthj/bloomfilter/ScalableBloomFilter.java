@@ -0,0 +1,273 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+/**
+ * Implements a <i>scalable Bloom filter</i> as described in "Scalable Bloom Filters" by
+ * Almeida et.al.
+ * <p/>
+ * Like DynamicBloomFilter, a scalable bloom filter grows by adding a new bloom filter (slice) when
+ * the current slice has recorded its expected number of entries. Unlike DynamicBloomFilter where
+ * every row has the same capacity and false positive probability, the compound false positive
+ * probability of which grows with every row, each new slice here has
+ * <code>growthFactor</code> times the capacity of the previous slice and a false positive
+ * probability tightened by <code>tighteningRatio</code>. Slice i has capacity
+ * <code>n * s^i</code> and false positive probability <code>P * (1 - r) * r^i</code>, the sum
+ * of which is bounded by the configured false positive probability <code>P</code> no matter how
+ * many slices are added. Geometric growth keeps the number of slices (and so the number of probes
+ * per lookup) logarithmic in the number of elements.
+ * <p/>
+ * Slices are BloomKFilter, so each slice costs a single cache line per probe. Values are hashed
+ * once and the same hash is probed against all slices.
+ */
+public class ScalableBloomFilter {
+  public static final int DEFAULT_GROWTH_FACTOR = 2;
+  public static final double DEFAULT_TIGHTENING_RATIO = 0.85;
+  private static final double DEFAULT_FPP = 0.05;
+  private final byte[] BYTE_ARRAY_4 = new byte[4];
+  private final byte[] BYTE_ARRAY_8 = new byte[8];
+  private final long initialCapacity;
+  private final double fpp;
+  private final int growthFactor;
+  private final double tighteningRatio;
+
+  /**
+   * The slices, last slice is the active slice.
+   */
+  private BloomKFilter[] slices;
+
+  /**
+   * Capacity of the active slice.
+   */
+  private long activeCapacity;
+
+  /**
+   * The number of keys recorded in the active slice.
+   */
+  private long activeNumRecords;
+
+  public ScalableBloomFilter(long initialCapacity) {
+    this(initialCapacity, DEFAULT_FPP);
+  }
+
+  public ScalableBloomFilter(long initialCapacity, double fpp) {
+    this(initialCapacity, fpp, DEFAULT_GROWTH_FACTOR, DEFAULT_TIGHTENING_RATIO);
+  }
+
+  /**
+   * @param initialCapacity - expected number of entries of the first slice
+   * @param fpp             - bound for the compound false positive probability
+   * @param growthFactor    - capacity of every new slice is growthFactor times the previous one
+   * @param tighteningRatio - false positive probability of every new slice is tighteningRatio
+   *                        times the previous one
+   */
+  public ScalableBloomFilter(long initialCapacity, double fpp, int growthFactor,
+      double tighteningRatio) {
+    assert initialCapacity > 0 : "initialCapacity should be > 0";
+    assert fpp > 0.0 && fpp < 1.0 : "False positive percentage should be > 0.0 & < 1.0";
+    assert growthFactor >= 1 : "growthFactor should be >= 1";
+    assert tighteningRatio > 0.0 && tighteningRatio < 1.0 : "tighteningRatio should be > 0.0 & < 1.0";
+    this.initialCapacity = initialCapacity;
+    this.fpp = fpp;
+    this.growthFactor = growthFactor;
+    this.tighteningRatio = tighteningRatio;
+    this.slices = new BloomKFilter[0];
+    addSlice();
+  }
+
+  public void add(byte[] val) {
+    addBytes(val);
+  }
+
+  public void addBytes(byte[] val) {
+    addHash(Murmur3.hash64(val));
+  }
+
+  public void addHash(long hash64) {
+    if (activeNumRecords >= activeCapacity) {
+      addSlice();
+    }
+    slices[slices.length - 1].addHash(hash64);
+    activeNumRecords++;
+  }
+
+  public void addString(String val) {
+    addBytes(val.getBytes());
+  }
+
+  public void addByte(byte val) {
+    addBytes(new byte[]{val});
+  }
+
+  public void addInt(int val) {
+    // puts int in little endian order
+    addBytes(intToByteArrayLE(val));
+  }
+
+  public void addLong(long val) {
+    // puts long in little endian order
+    addBytes(longToByteArrayLE(val));
+  }
+
+  public void addFloat(float val) {
+    addInt(Float.floatToIntBits(val));
+  }
+
+  public void addDouble(double val) {
+    addLong(Double.doubleToLongBits(val));
+  }
+
+  public boolean test(byte[] val) {
+    return testBytes(val);
+  }
+
+  public boolean testBytes(byte[] val) {
+    return testHash(Murmur3.hash64(val));
+  }
+
+  public boolean testHash(long hash64) {
+    // most of the elements are in the later (larger) slices, probe them first
+    for (int i = slices.length - 1; i >= 0; i--) {
+      if (slices[i].testHash(hash64)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public boolean testString(String val) {
+    return testBytes(val.getBytes());
+  }
+
+  public boolean testByte(byte val) {
+    return testBytes(new byte[]{val});
+  }
+
+  public boolean testInt(int val) {
+    return testBytes(intToByteArrayLE(val));
+  }
+
+  public boolean testLong(long val) {
+    return testBytes(longToByteArrayLE(val));
+  }
+
+  public boolean testFloat(float val) {
+    return testInt(Float.floatToIntBits(val));
+  }
+
+  public boolean testDouble(double val) {
+    return testLong(Double.doubleToLongBits(val));
+  }
+
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+
+  /**
+   * Adds a new slice with geometrically grown capacity and tightened false positive probability.
+   */
+  private void addSlice() {
+    final int i = slices.length;
+    activeCapacity = i == 0 ? initialCapacity : activeCapacity * growthFactor;
+    final double sliceFpp = fpp * (1 - tighteningRatio) * Math.pow(tighteningRatio, i);
+
+    BloomKFilter[] tmp = new BloomKFilter[i + 1];
+    System.arraycopy(slices, 0, tmp, 0, i);
+    tmp[i] = new BloomKFilter(activeCapacity, sliceFpp);
+    slices = tmp;
+    activeNumRecords = 0;
+  }
+
+  public long sizeInBytes() {
+    long result = 0;
+    for (BloomKFilter bf : slices) {
+      result += bf.sizeInBytes();
+    }
+    return result;
+  }
+
+  public long getBitSize() {
+    long result = 0;
+    for (BloomKFilter bf : slices) {
+      result += bf.getBitSize();
+    }
+    return result;
+  }
+
+  // this is the configured bound, see currentFpp() for actual value
+  public double getFalsePositivePercent() {
+    return fpp;
+  }
+
+  public long getInitialCapacity() {
+    return initialCapacity;
+  }
+
+  public int getGrowthFactor() {
+    return growthFactor;
+  }
+
+  public double getTighteningRatio() {
+    return tighteningRatio;
+  }
+
+  /**
+   * Estimates the number of distinct elements added as sum of the estimates of all slices.
+   *
+   * @return estimated number of elements
+   */
+  public long estimateCardinality() {
+    long result = 0;
+    for (BloomKFilter bf : slices) {
+      result += bf.estimateCardinality();
+    }
+    return result;
+  }
+
+  /**
+   * Estimates the actual false positive probability. An element tests true if it tests true in
+   * any of the slices, so the compound probability is 1 - (1 - fpp(slice1)) * (1 - fpp(slice2)) ...
+   *
+   * @return estimated false positive probability
+   */
+  public double currentFpp() {
+    double trueNegative = 1.0;
+    for (BloomKFilter bf : slices) {
+      trueNegative *= 1.0 - bf.currentFpp();
+    }
+    return 1.0 - trueNegative;
+  }
+
+  public BloomKFilter[] getSlices() {
+    return slices;
+  }
+}
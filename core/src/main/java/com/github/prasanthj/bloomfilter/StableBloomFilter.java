@@ -0,0 +1,414 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stable bloom filter as described in "Approximately Detecting Duplicates for Streaming Data using
+ * Stable Bloom Filters" by Deng et.al.
+ * <p/>
+ * Every add() first decrements P cells chosen at random and then sets the k cells of the element
+ * to maxCount. Old elements are gradually evicted, so the fraction of zero cells and hence the
+ * false positive probability converge to a stable value no matter how long the stream is, in fixed
+ * memory. The price is false negatives: an element added a long time ago (relative to the number
+ * of cells) may test false. P is derived from the configured false positive probability, the
+ * stable false positive probability is (1 - (1 / (1 + 1 / (P * (1 / k - 1 / m))))^maxCount)^k.
+ * <p/>
+ * Cells are 4-bit counters in the blocked layout of CountingBloomKFilter: the k cells of an element
+ * are within a block of 128 cells (one cache line) and the P decremented cells are consecutive
+ * cells, starting at a random cell, of the same block. Since every block receives decrements in
+ * proportion to the elements added to it, each block is a stable bloom filter of its own with
+ * m = 128 and an add() touches a single cache line. Like BloomKFilter, blocking makes the actual
+ * false positive probability slightly higher than the configured one, as the fill of the blocks
+ * varies.
+ * <p/>
+ * Maximum count is configurable from 1 to 15. Larger values remember elements for longer but need
+ * more decrements per add(), P is capped at the 128 cells of a block.
+ */
+public class StableBloomFilter {
+  private final byte[] BYTE_ARRAY_4 = new byte[4];
+  private final byte[] BYTE_ARRAY_8 = new byte[8];
+  private static final double DEFAULT_FPP = 0.05;
+  public static final int DEFAULT_MAX_COUNT = 3;
+  private static final int DEFAULT_BLOCK_SIZE = 8;
+  private static final int DEFAULT_BLOCK_SIZE_BITS = (int) (Math.log(DEFAULT_BLOCK_SIZE) / Math.log(2));
+  private static final int DEFAULT_BLOCK_OFFSET_MASK = DEFAULT_BLOCK_SIZE - 1;
+  private static final int DEFAULT_COUNTER_OFFSET_MASK = CountingBloomFilter.COUNTERS_PER_LONG - 1;
+  private static final int CELLS_PER_BLOCK = DEFAULT_BLOCK_SIZE * CountingBloomFilter.COUNTERS_PER_LONG;
+  private static final long COUNTER_MASK = CountingBloomFilter.COUNTER_MASK;
+  // lowest bit of every 4-bit cell
+  private static final long LOW_BITS = 0x1111111111111111L;
+  private final long[] cells;
+  private final long m;
+  private final int k;
+  private final double fpp;
+  private final long n;
+  private final int maxCount;
+  private final int totalBlockCount;
+  // decrements per add, the fraction is applied with probability
+  private final double p;
+  private final int pInt;
+  private final int pFraction;
+  private long randomSeed = 0x2545F4914F6CDD1DL;
+
+  public StableBloomFilter(long numEntries) {
+    this(numEntries, DEFAULT_FPP);
+  }
+
+  public StableBloomFilter(long numEntries, double fpp) {
+    this(numEntries, fpp, DEFAULT_MAX_COUNT);
+  }
+
+  /**
+   * Creates a stable bloom filter with as many cells as a bloom filter for numEntries elements has
+   * bits. The filter never saturates, numEntries only determines the memory and hence how long
+   * elements are remembered.
+   *
+   * @param numEntries - number of elements to size the filter for
+   * @param fpp        - stable false positive probability
+   * @param maxCount   - value a cell is set to on add, between 1 and 15
+   */
+  public StableBloomFilter(long numEntries, double fpp, int maxCount) {
+    assert numEntries > 0 : "numEntries should be > 0";
+    assert fpp > 0.0 && fpp < 1.0 : "False positive percentage should be > 0.0 & < 1.0";
+    assert maxCount > 0 && maxCount <= CountingBloomFilter.MAX_COUNT : "maxCount should be > 0 & <= 15";
+    this.fpp = fpp;
+    this.n = numEntries;
+    this.maxCount = maxCount;
+    long numCells = BloomKFilter.optimalNumOfBits(numEntries, fpp);
+    this.k = Math.min(CELLS_PER_BLOCK / 2, BloomKFilter.optimalNumOfHashFunctions(numEntries, numCells));
+    int nLongs = (int) Math.ceil((double) numCells / CountingBloomFilter.COUNTERS_PER_LONG);
+    // additional cells to pad long array to block size
+    int padLongs = DEFAULT_BLOCK_SIZE - nLongs % DEFAULT_BLOCK_SIZE;
+    this.m = (long) (nLongs + padLongs) * CountingBloomFilter.COUNTERS_PER_LONG;
+    this.cells = new long[nLongs + padLongs];
+    this.totalBlockCount = cells.length / DEFAULT_BLOCK_SIZE;
+
+    this.p = Math.min(CELLS_PER_BLOCK, optimalNumOfDecrements(fpp, k, maxCount, CELLS_PER_BLOCK));
+    this.pInt = (int) p;
+    this.pFraction = (int) ((p - pInt) * (1 << 16));
+  }
+
+  // deserialize stable bloomfilter. see serialize() for the format.
+  public StableBloomFilter(List<Long> serializedBloom) {
+    this(serializedBloom.get(0), Double.longBitsToDouble(serializedBloom.get(1)),
+        serializedBloom.get(2).intValue());
+    this.randomSeed = serializedBloom.get(3);
+    List<Long> cells = serializedBloom.subList(4, serializedBloom.size());
+    assert cells.size() == this.cells.length : "Number of cells does not match";
+    for (int i = 0; i < cells.size(); i++) {
+      this.cells[i] = cells.get(i);
+    }
+  }
+
+  /**
+   * Number of cells to decrement per add for the stable false positive probability fpp. The
+   * stable probability of a cell being zero is (1 / (1 + 1 / (P * (1 / k - 1 / m))))^maxCount, a
+   * false positive needs k non-zero cells.
+   */
+  static double optimalNumOfDecrements(double fpp, int k, int maxCount, long m) {
+    final double zeroProbability = 1.0 - Math.pow(fpp, 1.0 / k);
+    final double base = Math.pow(zeroProbability, 1.0 / maxCount);
+    return 1.0 / ((1.0 / base - 1.0) * (1.0 / k - 1.0 / m));
+  }
+
+  public long sizeInBytes() {
+    return (long) cells.length * 8;
+  }
+
+  public void add(byte[] val) {
+    addBytes(val);
+  }
+
+  public void addBytes(byte[] val) {
+    addHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Adds an already hashed value. The hash is expected to be Murmur3.hash64() of the value bytes
+   * so that addHash() and addBytes() are interchangeable.
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   */
+  public void addHash(long hash64) {
+    int hash1 = (int) hash64;
+    int hash2 = (int) (hash64 >>> 32);
+
+    int firstHash = hash1 + hash2;
+    // hashcode should be positive, flip all the bits if it's negative
+    if (firstHash < 0) {
+      firstHash = ~firstHash;
+    }
+
+    final int blockBaseOffset = (firstHash % totalBlockCount) << DEFAULT_BLOCK_SIZE_BITS;
+    decrement(blockBaseOffset);
+    final long max = maxCount;
+    for (int i = 1; i <= k; i++) {
+      int combinedHash = hash1 + ((i + 1) * hash2);
+      // hashcode should be positive, flip all the bits if it's negative
+      if (combinedHash < 0) {
+        combinedHash = ~combinedHash;
+      }
+      // LSB 3 bits is used to locate offset within the block
+      final int absOffset = blockBaseOffset + (combinedHash & DEFAULT_BLOCK_OFFSET_MASK);
+      // Next 4 bits are used to locate cell within a long/word
+      final int shift = ((combinedHash >>> DEFAULT_BLOCK_SIZE_BITS) & DEFAULT_COUNTER_OFFSET_MASK) << 2;
+      cells[absOffset] = (cells[absOffset] & ~(COUNTER_MASK << shift)) | (max << shift);
+    }
+  }
+
+  // decrements P consecutive non-zero cells of the block, starting at a random cell and wrapping
+  // around at the end of the block. Cells of a word are decremented together.
+  private void decrement(int blockBaseOffset) {
+    final long random = nextRandom();
+    int remaining = pInt + (((int) random & 0xFFFF) < pFraction ? 1 : 0);
+    int cell = (int) (random >>> 32) & (CELLS_PER_BLOCK - 1);
+    while (remaining > 0) {
+      final int offset = cell & DEFAULT_COUNTER_OFFSET_MASK;
+      final int count = Math.min(CountingBloomFilter.COUNTERS_PER_LONG - offset, remaining);
+      final long range = count == CountingBloomFilter.COUNTERS_PER_LONG ? LOW_BITS
+          : (LOW_BITS & ((1L << (count << 2)) - 1)) << (offset << 2);
+      final int index = blockBaseOffset + (cell >>> 4);
+      final long word = cells[index];
+      // lowest bit of every non-zero cell
+      final long nonZero = (word | (word >>> 1) | (word >>> 2) | (word >>> 3)) & LOW_BITS;
+      cells[index] = word - (nonZero & range);
+      remaining -= count;
+      cell = (cell + count) & (CELLS_PER_BLOCK - 1);
+    }
+  }
+
+  private long nextRandom() {
+    randomSeed ^= randomSeed << 13;
+    randomSeed ^= randomSeed >>> 7;
+    randomSeed ^= randomSeed << 17;
+    return randomSeed;
+  }
+
+  public void addString(String val) {
+    addBytes(val.getBytes());
+  }
+
+  public void addByte(byte val) {
+    addBytes(new byte[]{val});
+  }
+
+  public void addInt(int val) {
+    // puts int in little endian order
+    addBytes(intToByteArrayLE(val));
+  }
+
+  public void addLong(long val) {
+    // puts long in little endian order
+    addBytes(longToByteArrayLE(val));
+  }
+
+  public void addFloat(float val) {
+    addInt(Float.floatToIntBits(val));
+  }
+
+  public void addDouble(double val) {
+    addLong(Double.doubleToLongBits(val));
+  }
+
+  public boolean test(byte[] val) {
+    return testBytes(val);
+  }
+
+  public boolean testBytes(byte[] val) {
+    return testHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Tests an already hashed value. See addHash().
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return true if the value may be present, false otherwise
+   */
+  public boolean testHash(long hash64) {
+    int hash1 = (int) hash64;
+    int hash2 = (int) (hash64 >>> 32);
+
+    int firstHash = hash1 + hash2;
+    // hashcode should be positive, flip all the bits if it's negative
+    if (firstHash < 0) {
+      firstHash = ~firstHash;
+    }
+
+    final int blockBaseOffset = (firstHash % totalBlockCount) << DEFAULT_BLOCK_SIZE_BITS;
+    for (int i = 1; i <= k; i++) {
+      int combinedHash = hash1 + ((i + 1) * hash2);
+      // hashcode should be positive, flip all the bits if it's negative
+      if (combinedHash < 0) {
+        combinedHash = ~combinedHash;
+      }
+      final int absOffset = blockBaseOffset + (combinedHash & DEFAULT_BLOCK_OFFSET_MASK);
+      final int shift = ((combinedHash >>> DEFAULT_BLOCK_SIZE_BITS) & DEFAULT_COUNTER_OFFSET_MASK) << 2;
+      if (((cells[absOffset] >>> shift) & COUNTER_MASK) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public boolean testString(String val) {
+    return testBytes(val.getBytes());
+  }
+
+  public boolean testByte(byte val) {
+    return testBytes(new byte[]{val});
+  }
+
+  public boolean testInt(int val) {
+    return testBytes(intToByteArrayLE(val));
+  }
+
+  public boolean testLong(long val) {
+    return testBytes(longToByteArrayLE(val));
+  }
+
+  public boolean testFloat(float val) {
+    return testInt(Float.floatToIntBits(val));
+  }
+
+  public boolean testDouble(double val) {
+    return testLong(Double.doubleToLongBits(val));
+  }
+
+  /**
+   * Tests and adds an already hashed value, the duplicate check of stream deduplication.
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return true if the value may have been seen before, false otherwise
+   */
+  public boolean testAndAddHash(long hash64) {
+    final boolean present = testHash(hash64);
+    addHash(hash64);
+    return present;
+  }
+
+  public boolean testAndAdd(byte[] val) {
+    return testAndAddHash(Murmur3.hash64(val));
+  }
+
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+
+  /**
+   * Number of cells
+   */
+  public long getNumCells() {
+    return m;
+  }
+
+  public int getNumHashFunctions() {
+    return k;
+  }
+
+  public int getMaxCount() {
+    return maxCount;
+  }
+
+  /**
+   * Average number of cells decremented per add
+   */
+  public double getNumDecrements() {
+    return p;
+  }
+
+  /**
+   * Stable false positive probability the filter converges to
+   */
+  public double getFalsePositivePercent() {
+    return fpp;
+  }
+
+  public long getExpectedNumEntries() {
+    return n;
+  }
+
+  /**
+   * Fraction of cells that are zero.
+   *
+   * @return zero ratio between 0.0 and 1.0
+   */
+  public double zeroRatio() {
+    long zeros = 0;
+    for (long word : cells) {
+      final long nonZero = (word | (word >>> 1) | (word >>> 2) | (word >>> 3)) & LOW_BITS;
+      zeros += CountingBloomFilter.COUNTERS_PER_LONG - Long.bitCount(nonZero);
+    }
+    return (double) zeros / m;
+  }
+
+  /**
+   * Estimates the actual false positive probability from the number of zero cells of every block,
+   * an element that is not present tests true if its k cells in its block are non-zero. Starts at
+   * 0 for an empty filter and converges close to getFalsePositivePercent() as elements are added.
+   *
+   * @return estimated false positive probability
+   */
+  public double currentFpp() {
+    double fpp = 0;
+    for (int block = 0; block < totalBlockCount; block++) {
+      int nonZeros = 0;
+      for (int i = block << DEFAULT_BLOCK_SIZE_BITS; i < (block + 1) << DEFAULT_BLOCK_SIZE_BITS; i++) {
+        final long word = cells[i];
+        nonZeros += Long.bitCount((word | (word >>> 1) | (word >>> 2) | (word >>> 3)) & LOW_BITS);
+      }
+      fpp += Math.pow((double) nonZeros / CELLS_PER_BLOCK, k);
+    }
+    return fpp / totalBlockCount;
+  }
+
+  /**
+   * First 4 entries are number of entries (n), false positive percentage (fpp) as long bits, max
+   * count and the state of the random generator. The entries following first 4 entries are the
+   * cells, 16 per long.
+   *
+   * @return stable bloom filter as list of long
+   */
+  public List<Long> serialize() {
+    List<Long> serialized = new ArrayList<Long>();
+    serialized.add(n);
+    serialized.add(Double.doubleToLongBits(fpp));
+    serialized.add((long) maxCount);
+    serialized.add(randomSeed);
+    for (long l : cells) {
+      serialized.add(l);
+    }
+    return serialized;
+  }
+}
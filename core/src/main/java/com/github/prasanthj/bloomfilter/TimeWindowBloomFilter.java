@@ -0,0 +1,265 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window bloom filter for "seen in the last N milliseconds" membership tests.
+ * <p/>
+ * The filter is a ring of G generations of BloomKFilter. Elements are added to the newest
+ * generation. Each generation covers windowMillis / (G - 1) milliseconds, rounded up; when it has
+ * passed, the oldest generation is cleared and becomes the newest one. Rotation is lazy, it happens
+ * on the first add() or test() after a generation has passed, and the expired generation is cleared
+ * in place instead of being reallocated. The G - 1 full generations plus the partially filled
+ * newest generation always cover the last windowMillis, so an element added at time t tests true
+ * at least until t + windowMillis and at most until t + G * getGenerationMillis(). More
+ * generations make expiry more precise at the cost of probing more generations.
+ * <p/>
+ * All generations have the same size and K, so a probe hashes the element once, computes the
+ * block and bit masks once and checks them against every generation, newest first. The false
+ * positive probability of the whole window is the configured fpp, every generation is sized for
+ * 1 - (1 - fpp)^(1 / G).
+ * <p/>
+ * Time comes from a Clock, SYSTEM_CLOCK by default, which can be replaced to test deterministically.
+ */
+public class TimeWindowBloomFilter {
+  private byte[] BYTE_ARRAY_4 = new byte[4];
+  private byte[] BYTE_ARRAY_8 = new byte[8];
+  private static final double DEFAULT_FPP = 0.05;
+
+  /**
+   * Source of the current time in milliseconds.
+   */
+  public interface Clock {
+    long currentTimeMillis();
+  }
+
+  public static final Clock SYSTEM_CLOCK = new Clock() {
+    @Override
+    public long currentTimeMillis() {
+      return System.currentTimeMillis();
+    }
+  };
+
+  private final BloomKFilter[] generations;
+  private final long windowMillis;
+  private final long generationMillis;
+  private final double fpp;
+  private final Clock clock;
+  private final long[] masks = new long[BloomKFilter.DEFAULT_BLOCK_SIZE];
+  // index of the newest generation and the time it started
+  private int newest;
+  private long newestStartMillis;
+
+  public TimeWindowBloomFilter(long maxNumEntriesPerGeneration, long windowMillis, int numGenerations) {
+    this(maxNumEntriesPerGeneration, DEFAULT_FPP, windowMillis, numGenerations, SYSTEM_CLOCK);
+  }
+
+  /**
+   * Creates a sliding window bloom filter.
+   *
+   * @param maxNumEntriesPerGeneration - distinct elements expected in windowMillis / (G - 1)
+   * @param fpp                        - false positive probability of the whole window
+   * @param windowMillis               - length of the window in milliseconds
+   * @param numGenerations             - number of generations (G), >= 2
+   * @param clock                      - source of the current time
+   */
+  public TimeWindowBloomFilter(long maxNumEntriesPerGeneration, double fpp, long windowMillis,
+      int numGenerations, Clock clock) {
+    assert fpp > 0.0 && fpp < 1.0 : "False positive percentage should be > 0.0 & < 1.0";
+    assert numGenerations >= 2 : "numGenerations should be >= 2";
+    assert windowMillis >= numGenerations - 1 : "windowMillis should be >= numGenerations - 1";
+    this.fpp = fpp;
+    this.windowMillis = windowMillis;
+    // ceiling, with floor division G - 1 generations are shorter than the window
+    this.generationMillis = (windowMillis + numGenerations - 2) / (numGenerations - 1);
+    this.clock = clock;
+    double generationFpp = -Math.expm1(Math.log1p(-fpp) / numGenerations);
+    this.generations = new BloomKFilter[numGenerations];
+    for (int i = 0; i < numGenerations; i++) {
+      generations[i] = new BloomKFilter(maxNumEntriesPerGeneration, generationFpp);
+    }
+    this.newest = 0;
+    this.newestStartMillis = clock.currentTimeMillis();
+  }
+
+  // clears the generations that expired since the newest generation started
+  private void rotate() {
+    final long elapsed = clock.currentTimeMillis() - newestStartMillis;
+    if (elapsed < generationMillis) {
+      return;
+    }
+    final long passed = elapsed / generationMillis;
+    for (long i = 0; i < Math.min(passed, generations.length); i++) {
+      newest = newest == generations.length - 1 ? 0 : newest + 1;
+      generations[newest].clear();
+    }
+    newestStartMillis += passed * generationMillis;
+  }
+
+  public void add(byte[] val) {
+    addBytes(val);
+  }
+
+  public void addBytes(byte[] val) {
+    addHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Adds an already hashed value to the newest generation. The hash is expected to be
+   * Murmur3.hash64() of the value bytes so that addHash() and addBytes() are interchangeable.
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   */
+  public void addHash(long hash64) {
+    rotate();
+    generations[newest].addHash(hash64);
+  }
+
+  public void addString(String val) {
+    addBytes(val.getBytes());
+  }
+
+  public void addByte(byte val) {
+    addBytes(new byte[]{val});
+  }
+
+  public void addInt(int val) {
+    // puts int in little endian order
+    addBytes(intToByteArrayLE(val));
+  }
+
+  public void addLong(long val) {
+    // puts long in little endian order
+    addBytes(longToByteArrayLE(val));
+  }
+
+  public void addFloat(float val) {
+    addInt(Float.floatToIntBits(val));
+  }
+
+  public void addDouble(double val) {
+    addLong(Double.doubleToLongBits(val));
+  }
+
+  public boolean test(byte[] val) {
+    return testBytes(val);
+  }
+
+  public boolean testBytes(byte[] val) {
+    return testHash(Murmur3.hash64(val));
+  }
+
+  /**
+   * Tests if an already hashed value was added in the window. See addHash().
+   *
+   * @param hash64 - 64-bit hashcode of the value
+   * @return true if the value may have been added in the window, false otherwise
+   */
+  public boolean testHash(long hash64) {
+    rotate();
+    // all generations have the same layout, block and masks are computed once
+    final int blockBaseOffset = generations[newest].blockBaseOffset(hash64);
+    generations[newest].setMasks(hash64, masks);
+    boolean result = false;
+    for (int i = 0, g = newest; i < generations.length && !result; i++) {
+      result = generations[g].testMasks(blockBaseOffset, masks);
+      g = g == 0 ? generations.length - 1 : g - 1;
+    }
+    Arrays.fill(masks, 0);
+    return result;
+  }
+
+  public boolean testString(String val) {
+    return testBytes(val.getBytes());
+  }
+
+  public boolean testByte(byte val) {
+    return testBytes(new byte[]{val});
+  }
+
+  public boolean testInt(int val) {
+    return testBytes(intToByteArrayLE(val));
+  }
+
+  public boolean testLong(long val) {
+    return testBytes(longToByteArrayLE(val));
+  }
+
+  public boolean testFloat(float val) {
+    return testInt(Float.floatToIntBits(val));
+  }
+
+  public boolean testDouble(double val) {
+    return testLong(Double.doubleToLongBits(val));
+  }
+
+  private byte[] intToByteArrayLE(int val) {
+    BYTE_ARRAY_4[0] = (byte) (val >> 0);
+    BYTE_ARRAY_4[1] = (byte) (val >> 8);
+    BYTE_ARRAY_4[2] = (byte) (val >> 16);
+    BYTE_ARRAY_4[3] = (byte) (val >> 24);
+    return BYTE_ARRAY_4;
+  }
+
+  private byte[] longToByteArrayLE(long val) {
+    BYTE_ARRAY_8[0] = (byte) (val >> 0);
+    BYTE_ARRAY_8[1] = (byte) (val >> 8);
+    BYTE_ARRAY_8[2] = (byte) (val >> 16);
+    BYTE_ARRAY_8[3] = (byte) (val >> 24);
+    BYTE_ARRAY_8[4] = (byte) (val >> 32);
+    BYTE_ARRAY_8[5] = (byte) (val >> 40);
+    BYTE_ARRAY_8[6] = (byte) (val >> 48);
+    BYTE_ARRAY_8[7] = (byte) (val >> 56);
+    return BYTE_ARRAY_8;
+  }
+
+  public long sizeInBytes() {
+    return generations.length * generations[0].sizeInBytes();
+  }
+
+  public int getNumGenerations() {
+    return generations.length;
+  }
+
+  public long getWindowMillis() {
+    return windowMillis;
+  }
+
+  public long getGenerationMillis() {
+    return generationMillis;
+  }
+
+  public double getFalsePositivePercent() {
+    return fpp;
+  }
+
+  /**
+   * Estimates the false positive probability of the window from the fill of the generations, the
+   * probability that at least one generation tests true for an element that is not present.
+   *
+   * @return estimated false positive probability
+   */
+  public double currentFpp() {
+    rotate();
+    double none = 1.0;
+    for (BloomKFilter generation : generations) {
+      none *= 1.0 - generation.currentFpp();
+    }
+    return 1.0 - none;
+  }
+}
@@ -0,0 +1,161 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestAdaptiveBloomFilter {
+  Random rand = new Random(123);
+
+  @Test(expected = AssertionError.class)
+  public void testAdaptiveBloomIllegalArg1() {
+    AdaptiveBloomFilter abf = new AdaptiveBloomFilter(0);
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testAdaptiveBloomIllegalArg2() {
+    AdaptiveBloomFilter abf = new AdaptiveBloomFilter(100, 0.01, -1);
+  }
+
+  @Test
+  public void testExact() {
+    AdaptiveBloomFilter abf = new AdaptiveBloomFilter(1_000_000, 0.05);
+    assertTrue(abf.isExact());
+    assertEquals(0, abf.getFalsePositivePercent(), 0);
+    assertFalse(abf.testHash(0));
+    int size = 1000;
+    for (int i = 0; i < size; i++) {
+      abf.addLong(i);
+      abf.addLong(i);
+    }
+    abf.addHash(0);
+    assertTrue(abf.isExact());
+    assertEquals(size + 1, abf.getNumExactEntries());
+    for (int i = 0; i < size; i++) {
+      assertTrue(abf.testLong(i));
+    }
+    assertTrue(abf.testHash(0));
+    // no false positives
+    for (int i = size; i < 1_000_000; i++) {
+      assertFalse(abf.testLong(i));
+    }
+    // table takes less memory than the bloom filter
+    assertTrue(abf.sizeInBytes() <= 64 * 1024);
+    assertTrue(abf.sizeInBytes() < new BloomKFilter(1_000_000, 0.05).sizeInBytes());
+  }
+
+  @Test
+  public void testUpgrade() {
+    int size = 100_000;
+    AdaptiveBloomFilter abf = new AdaptiveBloomFilter(size, 0.01);
+    BloomKFilter bf = new BloomKFilter(size, 0.01);
+    int maxExactEntries = abf.getMaxExactEntries();
+    assertTrue(maxExactEntries > 1000);
+    for (int i = 0; i < size; i++) {
+      String val = "value " + i;
+      abf.addString(val);
+      bf.addString(val);
+      assertEquals(i < maxExactEntries, abf.isExact());
+      assertTrue(abf.sizeInBytes() <= bf.sizeInBytes());
+    }
+    assertFalse(abf.isExact());
+    assertEquals(0.01, abf.getFalsePositivePercent(), 0);
+    // same answers as a bloom filter with the same values
+    assertEquals(bf.serialize(), abf.toBloomKFilter().serialize());
+    for (int i = 0; i < 100_000; i++) {
+      String val = "value " + rand.nextInt();
+      assertEquals(bf.testString(val), abf.testString(val));
+    }
+
+    AdaptiveBloomFilter bloomOnly = new AdaptiveBloomFilter(size, 0.01, 0);
+    assertFalse(bloomOnly.isExact());
+    bloomOnly.addDouble(1.5);
+    assertTrue(bloomOnly.testDouble(1.5));
+  }
+
+  @Test
+  public void testMerge() {
+    AdaptiveBloomFilter abf1 = new AdaptiveBloomFilter(1000, 0.01, 100);
+    AdaptiveBloomFilter abf2 = new AdaptiveBloomFilter(1000, 0.01, 100);
+    AdaptiveBloomFilter abf3 = new AdaptiveBloomFilter(1000, 0.01, 100);
+    for (int i = 0; i < 40; i++) {
+      abf1.addInt(i);
+      abf2.addInt(i + 20);
+    }
+    for (int i = 0; i < 500; i++) {
+      abf3.addInt(-i);
+    }
+    assertTrue(abf1.isCompatible(abf2));
+    assertFalse(abf1.isCompatible(new AdaptiveBloomFilter(1000, 0.05, 100)));
+    abf1.merge(abf2);
+    assertTrue(abf1.isExact());
+    assertEquals(60, abf1.getNumExactEntries());
+    abf2.merge(abf1);
+    abf2.merge(abf1);
+    assertEquals(60, abf2.getNumExactEntries());
+
+    // exact merged into upgraded and upgraded merged into exact
+    assertFalse(abf3.isExact());
+    abf1.merge(abf3);
+    abf3.merge(abf2);
+    assertFalse(abf1.isExact());
+    for (int i = 0; i < 60; i++) {
+      assertTrue(abf1.testInt(i));
+      assertTrue(abf3.testInt(i));
+    }
+    for (int i = 0; i < 500; i++) {
+      assertTrue(abf1.testInt(-i));
+      assertTrue(abf3.testInt(-i));
+    }
+  }
+
+  @Test
+  public void testSerialize() {
+    AdaptiveBloomFilter abf = new AdaptiveBloomFilter(10_000, 0.01, 1000);
+    abf.addHash(0);
+    for (int i = 0; i < 999; i++) {
+      abf.addLong(i);
+    }
+    AdaptiveBloomFilter copy = new AdaptiveBloomFilter(abf.serialize());
+    assertTrue(copy.isExact());
+    assertEquals(1000, copy.getNumExactEntries());
+    assertEquals(1000, copy.getMaxExactEntries());
+    assertTrue(copy.testHash(0));
+    for (int i = 0; i < 999; i++) {
+      assertTrue(copy.testLong(i));
+    }
+    assertFalse(copy.testLong(999));
+
+    abf.addLong(999);
+    assertFalse(abf.isExact());
+    copy = new AdaptiveBloomFilter(abf.serialize());
+    assertFalse(copy.isExact());
+    assertEquals(abf.serialize(), copy.serialize());
+    assertTrue(copy.testHash(0));
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(copy.testLong(i));
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestAgePartitionedBloomFilter {
+  Random rand = new Random(123);
+  private final double deltaError = 0.01;
+
+  @Test(expected = AssertionError.class)
+  public void testAgePartitionedBloomIllegalArg1() {
+    AgePartitionedBloomFilter apbf = new AgePartitionedBloomFilter(0, 0);
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testAgePartitionedBloomIllegalArg2() {
+    AgePartitionedBloomFilter apbf = new AgePartitionedBloomFilter(0, 4, 100);
+  }
+
+  @Test
+  public void testOptimalParameters() {
+    // k = 1: any of the two half full slices
+    assertEquals(0.75, AgePartitionedBloomFilter.falsePositiveProbability(1, 1), 1e-9);
+    double fpp = 0.001;
+    int[] kl = AgePartitionedBloomFilter.optimalParameters(1_000_000, fpp);
+    assertTrue(AgePartitionedBloomFilter.falsePositiveProbability(kl[0], kl[1]) <= fpp);
+    // fpp grows with l and shrinks with k
+    assertTrue(AgePartitionedBloomFilter.falsePositiveProbability(kl[0], kl[1] + 1) > fpp);
+    assertTrue(AgePartitionedBloomFilter.falsePositiveProbability(kl[0] + 1, kl[1]) < fpp);
+
+    AgePartitionedBloomFilter apbf = new AgePartitionedBloomFilter(1_000_000, fpp);
+    assertEquals(kl[0], apbf.getNumHashFunctions());
+    assertEquals(kl[1], apbf.getNumGenerations());
+    assertTrue(apbf.getWindowSize() >= 1_000_000);
+    assertTrue(apbf.getSliceBits() >= apbf.getNumHashFunctions() * apbf.getGenerationSize() / Math.log(2));
+  }
+
+  @Test
+  public void testSlidingWindow() {
+    AgePartitionedBloomFilter apbf = new AgePartitionedBloomFilter(10_000, 0.01);
+    long window = apbf.getWindowSize();
+    long generation = apbf.getGenerationSize();
+    int stream = 100_000;
+    for (int i = 0; i < stream; i++) {
+      apbf.addInt(i);
+    }
+    // everything in the window is present, no false negatives
+    for (int i = (int) (stream - window); i < stream; i++) {
+      assertTrue(apbf.testInt(i));
+    }
+    // elements older than l full generations and the current one are gone, except false positives
+    int present = 0;
+    int old = (int) (stream - window - 2 * generation);
+    for (int i = 0; i < old; i++) {
+      if (apbf.testInt(i)) {
+        present++;
+      }
+    }
+    assertEquals(apbf.getFalsePositivePercent(), (double) present / old, deltaError);
+  }
+
+  @Test
+  public void testFpp() {
+    AgePartitionedBloomFilter apbf = new AgePartitionedBloomFilter(100_000, 0.01);
+    for (int i = 0; i < 1_000_000; i++) {
+      apbf.addInt(i);
+    }
+    int fp = 0;
+    int probes = 200_000;
+    for (int i = 0; i < probes; i++) {
+      // out of range probes
+      if (apbf.testLong(rand.nextLong())) {
+        fp++;
+      }
+    }
+    double actualFpp = (double) fp / probes;
+    assertTrue(apbf.getFalsePositivePercent() <= 0.01);
+    assertEquals(apbf.getFalsePositivePercent(), actualFpp, 0.005);
+  }
+
+  @Test
+  public void testShift() {
+    AgePartitionedBloomFilter apbf = new AgePartitionedBloomFilter(3, 4, 1000);
+    apbf.addString("fraud");
+    apbf.addLong(12L);
+    apbf.addDouble(1.5);
+    apbf.addByte((byte) 3);
+    apbf.addFloat(2.5f);
+    // remembered for l shifts
+    for (int i = 0; i < apbf.getNumGenerations(); i++) {
+      apbf.shift();
+      assertTrue(apbf.testString("fraud"));
+      assertTrue(apbf.testLong(12L));
+      assertTrue(apbf.testDouble(1.5));
+      assertTrue(apbf.testByte((byte) 3));
+      assertTrue(apbf.testFloat(2.5f));
+    }
+    apbf.shift();
+    assertFalse(apbf.testString("fraud"));
+    assertFalse(apbf.testLong(12L));
+    assertFalse(apbf.testDouble(1.5));
+    assertFalse(apbf.testByte((byte) 3));
+    assertFalse(apbf.testFloat(2.5f));
+    // a full ring of shifts clears the filter
+    for (int i = 0; i < 8; i++) {
+      apbf.addInt(i);
+    }
+    for (int i = 0; i < 7; i++) {
+      apbf.shift();
+    }
+    for (long word : apbf.serialize().subList(5, apbf.serialize().size())) {
+      assertEquals(0L, word);
+    }
+  }
+
+  @Test
+  public void testSerialize() {
+    AgePartitionedBloomFilter apbf = new AgePartitionedBloomFilter(10_000, 0.01);
+    for (int i = 0; i < 25_000; i++) {
+      apbf.addInt(i);
+    }
+    AgePartitionedBloomFilter copy = new AgePartitionedBloomFilter(apbf.serialize());
+    assertEquals(apbf.serialize(), copy.serialize());
+    assertEquals(apbf.getWindowSize(), copy.getWindowSize());
+    // generation position is restored too, both shift at the same time
+    for (int i = 25_000; i < 40_000; i++) {
+      apbf.addInt(i);
+      copy.addInt(i);
+    }
+    assertEquals(apbf.serialize(), copy.serialize());
+    for (int i = 0; i < 40_000; i++) {
+      assertEquals(apbf.testInt(i), copy.testInt(i));
+    }
+  }
+}
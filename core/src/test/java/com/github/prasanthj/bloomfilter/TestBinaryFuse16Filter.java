@@ -0,0 +1,139 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestBinaryFuse16Filter {
+  Random rand = new Random(123);
+
+  @Test
+  public void testSmallSets() {
+    for (int size = 0; size < 100; size++) {
+      long[] hashes = new long[size];
+      for (int i = 0; i < size; i++) {
+        hashes[i] = Murmur3.hash64(("key " + i).getBytes());
+      }
+      BinaryFuse16Filter filter = new BinaryFuse16Filter(hashes);
+      assertEquals(size, filter.getNumEntries());
+      for (int i = 0; i < size; i++) {
+        assertTrue(filter.testString("key " + i));
+      }
+    }
+  }
+
+  @Test
+  public void testFpp() {
+    int size = 1_000_000;
+    long[] hashes = new long[size];
+    for (int i = 0; i < size; i++) {
+      hashes[i] = Murmur3.hash64(longToByteArrayLE(i));
+    }
+    BinaryFuse16Filter filter = new BinaryFuse16Filter(hashes);
+    for (int i = 0; i < size; i++) {
+      assertTrue(filter.testLong(i));
+    }
+    assertEquals(18, filter.getBitsPerEntry(), 0.1);
+    assertEquals((long) (filter.getBitsPerEntry() * size / 8), filter.sizeInBytes(), 8);
+
+    int fp = 0;
+    int probes = 1_000_000;
+    for (int i = 0; i < probes; i++) {
+      // out of range probes
+      if (filter.testLong(size + rand.nextInt(Integer.MAX_VALUE - size))) {
+        fp++;
+      }
+    }
+    assertEquals(1.0 / 65536, (double) fp / probes, 0.0001);
+  }
+
+  @Test
+  public void testDuplicates() {
+    int size = 10_000;
+    long[] hashes = new long[size * 2];
+    for (int i = 0; i < size; i++) {
+      hashes[i] = Murmur3.hash64(longToByteArrayLE(i));
+      hashes[size + i] = hashes[i];
+    }
+    BinaryFuse16Filter filter = new BinaryFuse16Filter(hashes);
+    assertEquals(size, filter.getNumEntries());
+    for (int i = 0; i < size; i++) {
+      assertTrue(filter.testLong(i));
+    }
+  }
+
+  @Test
+  public void testIterator() {
+    List<byte[]> keys = new ArrayList<byte[]>();
+    for (int i = 0; i < 1000; i++) {
+      keys.add(("binary fuse " + i).getBytes());
+    }
+    keys.add(new byte[]{1, 2, 3});
+    BinaryFuse16Filter filter = new BinaryFuse16Filter(keys.iterator());
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(filter.testString("binary fuse " + i));
+    }
+    assertTrue(filter.testBytes(new byte[]{1, 2, 3}));
+    assertTrue(filter.test(new byte[]{1, 2, 3}));
+    int fp = 0;
+    for (int i = 1000; i < 2000; i++) {
+      if (filter.testString("binary fuse " + i)) {
+        fp++;
+      }
+    }
+    assertTrue(fp < 20);
+  }
+
+  @Test
+  public void testSerialize() {
+    int size = 10_001;
+    long[] hashes = new long[size];
+    for (int i = 0; i < size; i++) {
+      hashes[i] = Murmur3.hash64(longToByteArrayLE(i));
+    }
+    BinaryFuse16Filter filter = new BinaryFuse16Filter(hashes);
+    BinaryFuse16Filter copy = new BinaryFuse16Filter(filter.serialize());
+    assertEquals(filter.serialize(), copy.serialize());
+    assertEquals(filter.getNumEntries(), copy.getNumEntries());
+    assertEquals(filter.sizeInBytes(), copy.sizeInBytes());
+    for (int i = 0; i < size; i++) {
+      assertTrue(copy.testLong(i));
+    }
+    assertFalse(copy.testString("not present") && copy.testString("not present either"));
+  }
+
+  private static byte[] longToByteArrayLE(long val) {
+    return new byte[]{(byte) (val >> 0),
+        (byte) (val >> 8),
+        (byte) (val >> 16),
+        (byte) (val >> 24),
+        (byte) (val >> 32),
+        (byte) (val >> 40),
+        (byte) (val >> 48),
+        (byte) (val >> 56),};
+  }
+}
@@ -17,7 +17,10 @@ import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  *
@@ -460,6 +463,127 @@ public class TestBloomFilter {
     assertEquals(true, bf.testString(v3));
   }
 
+  @Test
+  public void testMergeAll() {
+    int size = 100_000;
+    List<BloomFilter> filters = new ArrayList<BloomFilter>();
+    for (int f = 0; f < 8; f++) {
+      BloomFilter filter = new BloomFilter(size);
+      for (int i = 0; i < size / 8; i++) {
+        filter.addLong(f * size + i);
+      }
+      filters.add(filter);
+    }
+
+    BloomFilter expected = new BloomFilter(size);
+    BloomFilter bf = new BloomFilter(size);
+    for (BloomFilter filter : filters) {
+      expected.merge(filter);
+    }
+    bf.mergeAll(filters);
+
+    assertEquals(expected.serialize(), bf.serialize());
+    for (int f = 0; f < 8; f++) {
+      for (int i = 0; i < size / 8; i++) {
+        assertTrue(bf.testLong(f * size + i));
+      }
+    }
+  }
+
+  @Test
+  public void testParallelMerge() {
+    // large enough for the bitset to be split across multiple tasks
+    int size = 2_000_000;
+    ForkJoinPool pool = new ForkJoinPool(4);
+    List<BloomFilter> filters = new ArrayList<BloomFilter>();
+    for (int f = 0; f < 4; f++) {
+      BloomFilter filter = new BloomFilter(size);
+      for (int i = 0; i < size / 4; i++) {
+        filter.addLong(f * size + i);
+      }
+      filters.add(filter);
+    }
+
+    BloomFilter expected = new BloomFilter(size);
+    expected.mergeAll(filters);
+    BloomFilter bf = new BloomFilter(size);
+    bf.mergeAll(filters, pool);
+    assertEquals(expected.serialize(), bf.serialize());
+
+    BloomFilter bf2 = new BloomFilter(size);
+    for (BloomFilter filter : filters) {
+      bf2.merge(filter, pool);
+    }
+    assertEquals(expected.serialize(), bf2.serialize());
+    for (int f = 0; f < 4; f++) {
+      for (int i = 0; i < size / 4; i++) {
+        assertTrue(bf2.testLong(f * size + i));
+      }
+    }
+    pool.shutdown();
+  }
+
+  @Test
+  public void testIntersect() {
+    int size = 100_000;
+    BloomFilter bf = new BloomFilter(size);
+    BloomFilter bf2 = new BloomFilter(size);
+    // [0, 60000) in first filter and [40000, 100000) in second, 20000 common elements
+    for (int i = 0; i < 60_000; i++) {
+      bf.addLong(i);
+      bf2.addLong(i + 40_000);
+    }
+
+    long estimate = bf.estimateIntersectionCardinality(bf2);
+    assertEquals(20_000, estimate, 20_000 * 0.05);
+    assertEquals(estimate, bf2.estimateIntersectionCardinality(bf));
+    double fpp = bf.estimateIntersectionFpp(bf2);
+    assertTrue(fpp > 0.0);
+    assertTrue(fpp < bf.getFalsePositivePercent());
+
+    bf.intersect(bf2);
+    for (int i = 40_000; i < 60_000; i++) {
+      assertTrue(bf.testLong(i));
+    }
+    int fp = 0;
+    for (int i = 0; i < size; i++) {
+      // elements not present in either filter
+      if (bf.testLong(size + i)) {
+        fp++;
+      }
+    }
+    assertEquals(fpp, (double) fp / size, deltaError);
+  }
+
+  @Test
+  public void testEstimateCardinality() {
+    int size = 1_000_000;
+    BloomFilter bf = new BloomFilter(size);
+    assertEquals(0, bf.estimateCardinality());
+    assertEquals(0.0, bf.fillRatio(), 0.0);
+    assertEquals(0.0, bf.currentFpp(), 0.0);
+
+    for (int i = 0; i < size / 2; i++) {
+      bf.addLong(i);
+    }
+    assertEquals(size / 2, bf.estimateCardinality(), size / 2 * 0.02);
+    assertEquals(size / 2, bf.estimateCardinality(0.1), size / 2 * 0.05);
+    assertEquals(bf.fillRatio(), bf.fillRatio(0.1), 0.01);
+    assertEquals(bf.fillRatio(), bf.fillRatio(1.0), 0.0001);
+    // tiny ratios read only the first block
+    assertEquals(bf.fillRatio(), bf.fillRatio(1e-12), 0.1);
+    assertTrue(bf.currentFpp() < bf.getFalsePositivePercent());
+
+    // saturate with twice the expected entries
+    for (int i = size / 2; i < 2 * size; i++) {
+      bf.addLong(i);
+    }
+    assertEquals(2 * size, bf.estimateCardinality(), 2 * size * 0.02);
+    assertEquals(2 * size, bf.estimateCardinality(0.1), 2 * size * 0.05);
+    assertTrue(bf.currentFpp() > bf.getFalsePositivePercent());
+    assertEquals(bf.currentFpp(), bf.currentFpp(0.1), 0.01);
+  }
+
   @Test
   public void testFpp1K() {
     int size = 1000;
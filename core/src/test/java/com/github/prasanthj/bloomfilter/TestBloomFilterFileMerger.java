@@ -0,0 +1,156 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class TestBloomFilterFileMerger {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testWriteRead() throws Exception {
+    BloomKFilter bf = new BloomKFilter(10_000);
+    for (int i = 0; i < 10_000; i++) {
+      bf.addLong(i);
+    }
+    Path file = folder.newFile().toPath();
+    BloomFilterFileMerger.write(bf.serialize(), file);
+    assertEquals(bf.sizeInBytes() + 16, Files.size(file));
+    assertEquals(bf.serialize(), BloomFilterFileMerger.read(file));
+  }
+
+  @Test
+  public void testMerge() throws Exception {
+    int size = 100_000;
+    List<Path> inputs = new ArrayList<Path>();
+    List<BloomKFilter> filters = new ArrayList<BloomKFilter>();
+    for (int f = 0; f < 10; f++) {
+      // different expected entries but same bit size and number of hash functions
+      BloomKFilter filter = new BloomKFilter(size + (f % 2), 0.01);
+      for (int i = 0; i < size / 10; i++) {
+        filter.addLong(f * size + i);
+      }
+      filters.add(filter);
+      Path input = folder.newFile().toPath();
+      BloomFilterFileMerger.write(filter.serialize(), input);
+      inputs.add(input);
+    }
+
+    BloomKFilter expected = new BloomKFilter(size, 0.01);
+    expected.mergeAll(filters);
+
+    // chunk size smaller than the filter and not a divisor of the bitset size
+    Path output = folder.newFile().toPath();
+    BloomFilterFileMerger.merge(inputs, output, 4000);
+    BloomKFilter merged = new BloomKFilter(BloomFilterFileMerger.read(output));
+    assertEquals(expected.serialize(), merged.serialize());
+    for (int f = 0; f < 10; f++) {
+      for (int i = 0; i < size / 10; i++) {
+        assertTrue(merged.testLong(f * size + i));
+      }
+    }
+
+    Path output2 = folder.newFile().toPath();
+    BloomFilterFileMerger.merge(inputs, output2);
+    assertEquals(expected.serialize(), BloomFilterFileMerger.read(output2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeIncompatibleSize() throws Exception {
+    Path input1 = folder.newFile().toPath();
+    Path input2 = folder.newFile().toPath();
+    BloomFilterFileMerger.write(new BloomKFilter(10_000).serialize(), input1);
+    BloomFilterFileMerger.write(new BloomKFilter(20_000).serialize(), input2);
+    List<Path> inputs = new ArrayList<Path>();
+    inputs.add(input1);
+    inputs.add(input2);
+    BloomFilterFileMerger.merge(inputs, folder.newFile().toPath());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeIncompatibleHashFunctions() throws Exception {
+    Path input1 = folder.newFile().toPath();
+    Path input2 = folder.newFile().toPath();
+    List<Long> serialized = new BloomKFilter(10_000, 0.05).serialize();
+    BloomFilterFileMerger.write(serialized, input1);
+    // same bitset size, but header claims different fpp
+    serialized.set(1, Double.doubleToLongBits(0.001));
+    BloomFilterFileMerger.write(serialized, input2);
+    List<Path> inputs = new ArrayList<Path>();
+    inputs.add(input1);
+    inputs.add(input2);
+    BloomFilterFileMerger.merge(inputs, folder.newFile().toPath());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeOutputIsInput() throws Exception {
+    Path input1 = folder.newFile().toPath();
+    Path input2 = folder.newFile().toPath();
+    BloomFilterFileMerger.write(new BloomKFilter(10_000).serialize(), input1);
+    BloomFilterFileMerger.write(new BloomKFilter(10_000).serialize(), input2);
+    List<Path> inputs = new ArrayList<Path>();
+    inputs.add(input1);
+    inputs.add(input2);
+    // different path to the same file
+    Path output = input2.getParent().resolve(".").resolve(input2.getFileName());
+    BloomFilterFileMerger.merge(inputs, output);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeTruncated() throws Exception {
+    Path input1 = folder.newFile().toPath();
+    Path input2 = folder.newFile().toPath();
+    BloomFilterFileMerger.write(new BloomKFilter(10_000).serialize(), input1);
+    BloomFilterFileMerger.write(new BloomKFilter(10_000).serialize(), input2);
+    // both files are truncated to the same size, which is not a multiple of 8
+    truncate(input1, Files.size(input1) - 3);
+    truncate(input2, Files.size(input2) - 3);
+    List<Path> inputs = new ArrayList<Path>();
+    inputs.add(input1);
+    inputs.add(input2);
+    BloomFilterFileMerger.merge(inputs, folder.newFile().toPath());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeShorterThanHeader() throws Exception {
+    Path input = folder.newFile().toPath();
+    BloomFilterFileMerger.write(new BloomKFilter(10_000).serialize().subList(0, 1), input);
+    BloomFilterFileMerger.merge(Collections.singletonList(input), folder.newFile().toPath());
+  }
+
+  private static void truncate(Path file, long size) throws Exception {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(size);
+    }
+  }
+}
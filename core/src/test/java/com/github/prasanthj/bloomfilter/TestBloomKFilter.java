@@ -15,10 +15,16 @@
  */
 package com.github.prasanthj.bloomfilter;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 
@@ -467,6 +473,258 @@ public class TestBloomKFilter {
     assertEquals(true, bf.testString(v3));
   }
 
+  @Test
+  public void testMergeAll() {
+    int size = 100_000;
+    List<BloomKFilter> filters = new ArrayList<BloomKFilter>();
+    for (int f = 0; f < 8; f++) {
+      BloomKFilter filter = new BloomKFilter(size);
+      for (int i = 0; i < size / 8; i++) {
+        filter.addLong(f * size + i);
+      }
+      filters.add(filter);
+    }
+
+    BloomKFilter expected = new BloomKFilter(size);
+    BloomKFilter bf = new BloomKFilter(size);
+    for (BloomKFilter filter : filters) {
+      expected.merge(filter);
+    }
+    bf.mergeAll(filters);
+
+    assertEquals(expected.serialize(), bf.serialize());
+    for (int f = 0; f < 8; f++) {
+      for (int i = 0; i < size / 8; i++) {
+        assertTrue(bf.testLong(f * size + i));
+      }
+    }
+  }
+
+  @Test
+  public void testParallelMerge() {
+    // large enough for the bitset to be split across multiple tasks
+    int size = 2_000_000;
+    ForkJoinPool pool = new ForkJoinPool(4);
+    List<BloomKFilter> filters = new ArrayList<BloomKFilter>();
+    for (int f = 0; f < 4; f++) {
+      BloomKFilter filter = new BloomKFilter(size);
+      for (int i = 0; i < size / 4; i++) {
+        filter.addLong(f * size + i);
+      }
+      filters.add(filter);
+    }
+
+    BloomKFilter expected = new BloomKFilter(size);
+    expected.mergeAll(filters);
+    BloomKFilter bf = new BloomKFilter(size);
+    bf.mergeAll(filters, pool);
+    assertEquals(expected.serialize(), bf.serialize());
+
+    BloomKFilter bf2 = new BloomKFilter(size);
+    for (BloomKFilter filter : filters) {
+      bf2.merge(filter, pool);
+    }
+    assertEquals(expected.serialize(), bf2.serialize());
+    for (int f = 0; f < 4; f++) {
+      for (int i = 0; i < size / 4; i++) {
+        assertTrue(bf2.testLong(f * size + i));
+      }
+    }
+    pool.shutdown();
+  }
+
+  @Test
+  public void testIntersect() {
+    int size = 100_000;
+    BloomKFilter bf = new BloomKFilter(size);
+    BloomKFilter bf2 = new BloomKFilter(size);
+    // [0, 60000) in first filter and [40000, 100000) in second, 20000 common elements
+    for (int i = 0; i < 60_000; i++) {
+      bf.addLong(i);
+      bf2.addLong(i + 40_000);
+    }
+
+    long estimate = bf.estimateIntersectionCardinality(bf2);
+    assertEquals(20_000, estimate, 20_000 * 0.05);
+    assertEquals(estimate, bf2.estimateIntersectionCardinality(bf));
+    double fpp = bf.estimateIntersectionFpp(bf2);
+    assertTrue(fpp > 0.0);
+    assertTrue(fpp < bf.getFalsePositivePercent());
+
+    bf.intersect(bf2);
+    for (int i = 40_000; i < 60_000; i++) {
+      assertTrue(bf.testLong(i));
+    }
+    int fp = 0;
+    for (int i = 0; i < size; i++) {
+      // elements not present in either filter
+      if (bf.testLong(size + i)) {
+        fp++;
+      }
+    }
+    assertEquals(fpp, (double) fp / size, deltaError);
+  }
+
+  @Test
+  public void testEstimateCardinality() {
+    int size = 1_000_000;
+    BloomKFilter bf = new BloomKFilter(size);
+    assertEquals(0, bf.estimateCardinality());
+    assertEquals(0.0, bf.fillRatio(), 0.0);
+    assertEquals(0.0, bf.currentFpp(), 0.0);
+
+    for (int i = 0; i < size / 2; i++) {
+      bf.addLong(i);
+    }
+    assertEquals(size / 2, bf.estimateCardinality(), size / 2 * 0.02);
+    assertEquals(size / 2, bf.estimateCardinality(0.1), size / 2 * 0.05);
+    assertEquals(bf.fillRatio(), bf.fillRatio(0.1), 0.01);
+    assertEquals(bf.fillRatio(), bf.fillRatio(1.0), 0.0001);
+    // tiny ratios read only the first block
+    assertEquals(bf.fillRatio(), bf.fillRatio(1e-12), 0.1);
+    assertTrue(bf.currentFpp() < bf.getFalsePositivePercent());
+
+    // saturate with twice the expected entries
+    for (int i = size / 2; i < 2 * size; i++) {
+      bf.addLong(i);
+    }
+    assertEquals(2 * size, bf.estimateCardinality(), 2 * size * 0.02);
+    assertEquals(2 * size, bf.estimateCardinality(0.1), 2 * size * 0.05);
+    assertTrue(bf.currentFpp() > bf.getFalsePositivePercent());
+    assertEquals(bf.currentFpp(), bf.currentFpp(0.1), 0.01);
+  }
+
+  @Test
+  public void testFold() {
+    int size = 1_000_000;
+    BloomKFilter bf = new BloomKFilter(size, 0.01, true);
+    assertEquals(1, Long.bitCount(bf.getBitSize()));
+    assertTrue(bf.getBitSize() >= new BloomKFilter(size, 0.01).getBitSize());
+    // underfilled, 1/8th of the expected entries
+    for (int i = 0; i < size / 8; i++) {
+      bf.addLong(i);
+    }
+    BloomKFilter copy = new BloomKFilter(bf.serialize());
+    double estimate = bf.estimateFoldedFpp(8);
+    assertEquals(8, bf.maxFoldFactor(0.01));
+    assertTrue(estimate <= 0.01);
+    assertTrue(bf.estimateFoldedFpp(16) > 0.01);
+    assertTrue(bf.estimateFoldedFpp(2) < estimate);
+
+    long bits = bf.getBitSize();
+    bf.fold(8);
+    assertEquals(bits / 8, bf.getBitSize());
+    assertEquals(bits / 64, bf.sizeInBytes());
+    assertEquals(estimate, bf.currentFpp(), 0.0);
+    for (int i = 0; i < size / 8; i++) {
+      assertTrue(bf.testLong(i));
+    }
+    int fp = 0;
+    for (int i = size; i < 2 * size; i++) {
+      fp += bf.testLong(i) ? 1 : 0;
+    }
+    assertEquals(estimate, (double) fp / size, 0.01);
+
+    // folding is the same as merging into a smaller filter
+    BloomKFilter small = new BloomKFilter(size / 8, 0.01, true);
+    assertEquals(bf.getBitSize(), small.getBitSize());
+    for (int i = 0; i < size / 8; i++) {
+      small.addLong(i);
+    }
+    assertArrayEquals(small.getBitSet(), bf.getBitSet());
+    copy.merge(small);
+    assertArrayEquals(small.getBitSet(), copy.getBitSet());
+
+    // folded filter is deserialized with the folded size
+    BloomKFilter folded = new BloomKFilter(bf.serialize());
+    assertEquals(bf.getBitSize(), folded.getBitSize());
+    assertEquals(size, folded.getExpectedNumEntries());
+    assertArrayEquals(bf.getBitSet(), folded.getBitSet());
+    for (int i = 0; i < size / 8; i++) {
+      assertTrue(folded.testLong(i));
+    }
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testFoldIllegalArg() {
+    BloomKFilter bf = new BloomKFilter(1000, 0.01, true);
+    bf.fold(3);
+  }
+
+  @Test
+  public void testMergeDifferentSizes() {
+    BloomKFilter large = new BloomKFilter(1_000_000, 0.05, true);
+    BloomKFilter small = new BloomKFilter(100_000, 0.05, true);
+    BloomKFilter other = new BloomKFilter(100_000, 0.05);
+    assertEquals(8, large.getBitSize() / small.getBitSize());
+    assertTrue(large.isCompatible(small));
+    assertTrue(small.isCompatible(large));
+    assertFalse(large.isCompatible(other));
+    assertFalse(large.isCompatible(new BloomKFilter(100_000, 0.01, true)));
+    for (int i = 0; i < 50_000; i++) {
+      large.addLong(i);
+      small.addLong(-i);
+    }
+
+    // larger filter is folded into the smaller one and is not modified
+    long largeBits = large.getBitSize();
+    BloomKFilter merged = new BloomKFilter(small.serialize());
+    merged.merge(large);
+    assertEquals(largeBits, large.getBitSize());
+    assertEquals(small.getBitSize(), merged.getBitSize());
+
+    // current filter is folded when it is the larger one
+    BloomKFilter foldedMerge = new BloomKFilter(large.serialize());
+    foldedMerge.merge(small);
+    assertArrayEquals(merged.getBitSet(), foldedMerge.getBitSet());
+
+    BloomKFilter mergedAll = new BloomKFilter(1_000_000, 0.05, true);
+    mergedAll.mergeAll(Arrays.asList(large, small, new BloomKFilter(200_000, 0.05, true)));
+    assertArrayEquals(merged.getBitSet(), mergedAll.getBitSet());
+    for (int i = 0; i < 50_000; i++) {
+      assertTrue(merged.testLong(i));
+      assertTrue(merged.testLong(-i));
+    }
+
+    // intersection of different sizes keeps the common elements
+    BloomKFilter common = new BloomKFilter(100_000, 0.05, true);
+    for (int i = 0; i < 1000; i++) {
+      common.addLong(i);
+    }
+    BloomKFilter intersected = new BloomKFilter(large.serialize());
+    intersected.intersect(common);
+    assertEquals(common.getBitSize(), intersected.getBitSize());
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(intersected.testLong(i));
+    }
+  }
+
+  @Test
+  public void testIntersectionEstimateDifferentSizes() {
+    BloomKFilter large = new BloomKFilter(200_000, 0.05, true);
+    BloomKFilter small = new BloomKFilter(100_000, 0.05, true);
+    assertEquals(2, large.getBitSize() / small.getBitSize());
+    assertTrue(large.isCompatible(small));
+    // [0, 30000) in large filter and [20000, 50000) in small, 10000 common elements
+    for (int i = 0; i < 30_000; i++) {
+      large.addLong(i);
+      small.addLong(i + 20_000);
+    }
+
+    long estimate = large.estimateIntersectionCardinality(small);
+    assertEquals(10_000, estimate, 10_000 * 0.1);
+    assertEquals(estimate, small.estimateIntersectionCardinality(large));
+    double fpp = large.estimateIntersectionFpp(small);
+    assertEquals(fpp, small.estimateIntersectionFpp(large), 0.0);
+
+    // same as folding the larger filter first
+    BloomKFilter folded = new BloomKFilter(large.serialize());
+    folded.fold(2);
+    assertEquals(estimate, folded.estimateIntersectionCardinality(small));
+    folded.intersect(small);
+    assertEquals(folded.currentFpp(), fpp, 0.0);
+  }
+
   @Test
   public void testFpp1K() {
     int size = 1000;
@@ -0,0 +1,135 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestBloomierFilter {
+  Random rand = new Random(123);
+
+  @Test(expected = AssertionError.class)
+  public void testBloomierIllegalArg1() {
+    BloomierFilter bf = new BloomierFilter(new long[]{1, 2}, new byte[]{1}, 2);
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testBloomierIllegalArg2() {
+    BloomierFilter bf = new BloomierFilter(new long[]{1, 2}, new byte[]{1, 4}, 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConflictingValues() {
+    BloomierFilter bf = new BloomierFilter(new long[]{1, 2, 3, 2}, new byte[]{1, 2, 3, 1}, 2);
+  }
+
+  @Test
+  public void testEmpty() {
+    BloomierFilter bf = new BloomierFilter(new long[0], new byte[0], 4);
+    assertEquals(0, bf.getNumEntries());
+    bf.getLong(12L);
+  }
+
+  @Test
+  public void testValueBits() {
+    for (int valueBits = 1; valueBits <= BloomierFilter.MAX_VALUE_BITS; valueBits++) {
+      int size = 100_000;
+      long[] hashes = new long[size];
+      byte[] values = new byte[size];
+      for (int i = 0; i < size; i++) {
+        hashes[i] = rand.nextLong();
+        values[i] = (byte) rand.nextInt(1 << valueBits);
+      }
+      BloomierFilter bf = new BloomierFilter(hashes, values, valueBits);
+      assertEquals(size, bf.getNumEntries());
+      for (int i = 0; i < size; i++) {
+        assertEquals(values[i] & 0xFF, bf.getHash(hashes[i]));
+      }
+      assertTrue(bf.getBitsPerEntry() < 1.2 * valueBits + 0.1);
+    }
+  }
+
+  @Test
+  public void testDuplicates() {
+    // every key 3 times, out of order
+    int size = 30_000;
+    long[] hashes = new long[size];
+    byte[] values = new byte[size];
+    for (int i = 0; i < size; i++) {
+      int key = (i * 7) % (size / 3);
+      hashes[i] = Murmur3.hash64(("key " + key).getBytes());
+      values[i] = (byte) (key % 16);
+    }
+    BloomierFilter bf = new BloomierFilter(hashes, values, 4);
+    assertEquals(size / 3, bf.getNumEntries());
+    for (int key = 0; key < size / 3; key++) {
+      assertEquals(key % 16, bf.getString("key " + key));
+    }
+  }
+
+  @Test
+  public void testTypedKeys() {
+    long[] hashes = new long[]{
+        Murmur3.hash64("category".getBytes()),
+        Murmur3.hash64(longToByteArrayLE(12L)),
+        Murmur3.hash64(new byte[]{3}),
+        Murmur3.hash64(longToByteArrayLE(Double.doubleToLongBits(1.5)))};
+    byte[] values = new byte[]{1, 2, 4, 6};
+    BloomierFilter bf = new BloomierFilter(hashes, values, 3);
+    assertEquals(1, bf.getString("category"));
+    assertEquals(1, bf.get("category".getBytes()));
+    assertEquals(2, bf.getLong(12L));
+    assertEquals(4, bf.getByte((byte) 3));
+    assertEquals(6, bf.getDouble(1.5));
+  }
+
+  @Test
+  public void testSerialize() {
+    int size = 10_000;
+    long[] hashes = new long[size];
+    byte[] values = new byte[size];
+    for (int i = 0; i < size; i++) {
+      hashes[i] = rand.nextLong();
+      values[i] = (byte) rand.nextInt(8);
+    }
+    BloomierFilter bf = new BloomierFilter(hashes, values, 3);
+    BloomierFilter copy = new BloomierFilter(bf.serialize());
+    assertEquals(bf.serialize(), copy.serialize());
+    assertEquals(3, copy.getValueBits());
+    assertEquals(bf.sizeInBytes(), copy.sizeInBytes());
+    for (int i = 0; i < size; i++) {
+      assertEquals(values[i], copy.getHash(hashes[i]));
+    }
+  }
+
+  private static byte[] longToByteArrayLE(long val) {
+    return new byte[]{(byte) (val >> 0),
+        (byte) (val >> 8),
+        (byte) (val >> 16),
+        (byte) (val >> 24),
+        (byte) (val >> 32),
+        (byte) (val >> 40),
+        (byte) (val >> 48),
+        (byte) (val >> 56),};
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestCascadingBloomFilter {
+  Random rand = new Random(123);
+
+  @Test(expected = AssertionError.class)
+  public void testCascadingBloomIllegalArg1() {
+    CascadingBloomFilter cbf = new CascadingBloomFilter(0);
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testCascadingBloomIllegalArg2() {
+    CascadingBloomFilter cbf = new CascadingBloomFilter(100, 0.01, 4);
+  }
+
+  @Test
+  public void testCascading() {
+    int size = 100_000;
+    CascadingBloomFilter cbf = new CascadingBloomFilter(size, 0.01, 10_000);
+    BloomKFilter bf = new BloomKFilter(size, 0.01);
+    // rounded down to a power of 2, ~0.65 bits per entry
+    assertEquals(8192, cbf.getFrontSizeInBytes());
+    assertEquals(1, cbf.getFrontNumHashFunctions());
+    long[] hashes = new long[size];
+    for (int i = 0; i < size; i++) {
+      hashes[i] = rand.nextLong();
+      cbf.addHash(hashes[i]);
+      bf.addHash(hashes[i]);
+    }
+    for (long hash : hashes) {
+      assertTrue(cbf.testHash(hash));
+    }
+    double fillRatio = cbf.getFrontFillRatio();
+    assertEquals(1 - Math.exp(-(double) size / (8192 * 8)), fillRatio, 0.01);
+
+    // front filter only screens, positives are the positives of the back filter that pass it
+    int falsePositives = 0;
+    int backFalsePositives = 0;
+    for (int i = 0; i < 100_000; i++) {
+      long hash = rand.nextLong();
+      boolean result = cbf.testHash(hash);
+      assertTrue(!result || bf.testHash(hash));
+      falsePositives += result ? 1 : 0;
+      backFalsePositives += bf.testHash(hash) ? 1 : 0;
+    }
+    assertEquals(fillRatio * backFalsePositives, falsePositives, 0.2 * backFalsePositives);
+  }
+
+  @Test
+  public void testDefaultFrontSize() {
+    // at least 1 bit per entry, rounded up to a power of 2
+    assertEquals(8, CascadingBloomFilter.defaultFrontSizeInBytes(1));
+    assertEquals(8, CascadingBloomFilter.defaultFrontSizeInBytes(64));
+    assertEquals(16, CascadingBloomFilter.defaultFrontSizeInBytes(65));
+    assertEquals(2 * 1024 * 1024, CascadingBloomFilter.defaultFrontSizeInBytes(10_000_000));
+    assertEquals(CascadingBloomFilter.MAX_FRONT_SIZE_IN_BYTES,
+        CascadingBloomFilter.defaultFrontSizeInBytes(1L << 40));
+
+    int size = 100_000;
+    CascadingBloomFilter cbf = new CascadingBloomFilter(size, 0.01);
+    assertEquals(16384, cbf.getFrontSizeInBytes());
+    for (int i = 0; i < size; i++) {
+      cbf.addHash(rand.nextLong());
+    }
+    // K = 1 at 1.3 bits per entry, more than a third of the negative probes are screened
+    assertEquals(1, cbf.getFrontNumHashFunctions());
+    assertTrue(cbf.getFrontFillRatio() < 0.6);
+  }
+
+  @Test
+  public void testFrontHashFunctions() {
+    // ~52 bits per entry in the front filter
+    CascadingBloomFilter cbf = new CascadingBloomFilter(10_000, 0.01, 65536);
+    assertEquals(7, cbf.getFrontNumHashFunctions());
+    for (int i = 0; i < 10_000; i++) {
+      cbf.addString("value " + i);
+    }
+    assertEquals(1 - Math.exp(-7 * 10_000.0 / (65536 * 8)), cbf.getFrontFillRatio(), 0.01);
+    int falsePositives = 0;
+    for (int i = 10_000; i < 110_000; i++) {
+      falsePositives += cbf.testString("value " + i) ? 1 : 0;
+    }
+    // both filters have to pass
+    assertTrue(falsePositives < 100);
+  }
+
+  @Test
+  public void testTypedValues() {
+    CascadingBloomFilter cbf = new CascadingBloomFilter(1000, 0.01, 1024);
+    cbf.addString("string");
+    cbf.add("bytes".getBytes());
+    cbf.addByte((byte) 1);
+    cbf.addInt(2);
+    cbf.addLong(3L);
+    cbf.addFloat(4.5f);
+    cbf.addDouble(5.5);
+    assertTrue(cbf.testString("string"));
+    assertTrue(cbf.test("bytes".getBytes()));
+    assertTrue(cbf.testByte((byte) 1));
+    assertTrue(cbf.testInt(2));
+    assertTrue(cbf.testLong(3L));
+    assertTrue(cbf.testFloat(4.5f));
+    assertTrue(cbf.testDouble(5.5));
+    assertFalse(cbf.testString("other"));
+    assertFalse(cbf.testLong(4L));
+  }
+
+  @Test
+  public void testMergeSerialize() {
+    CascadingBloomFilter cbf1 = new CascadingBloomFilter(10_000, 0.01, 4096);
+    CascadingBloomFilter cbf2 = new CascadingBloomFilter(10_000, 0.01, 4096);
+    for (int i = 0; i < 5000; i++) {
+      cbf1.addLong(i);
+      cbf2.addLong(-i);
+    }
+    assertTrue(cbf1.isCompatible(cbf2));
+    assertFalse(cbf1.isCompatible(new CascadingBloomFilter(10_000, 0.01, 8192)));
+    cbf1.merge(cbf2);
+    CascadingBloomFilter copy = new CascadingBloomFilter(cbf1.serialize());
+    assertEquals(cbf1.serialize(), copy.serialize());
+    assertEquals(cbf1.getFrontNumHashFunctions(), copy.getFrontNumHashFunctions());
+    assertEquals(4096, copy.getFrontSizeInBytes());
+    for (int i = 0; i < 5000; i++) {
+      assertTrue(copy.testLong(i));
+      assertTrue(copy.testLong(-i));
+    }
+  }
+}
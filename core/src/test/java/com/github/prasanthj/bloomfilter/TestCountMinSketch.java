@@ -0,0 +1,180 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestCountMinSketch {
+  Random rand = new Random(123);
+
+  @Test(expected = AssertionError.class)
+  public void testCountMinSketchIllegalArg1() {
+    CountMinSketch cms = new CountMinSketch(0, 0.01);
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testCountMinSketchIllegalArg2() {
+    CountMinSketch cms = new CountMinSketch(0.01, 1.0);
+  }
+
+  @Test
+  public void testDimensions() {
+    assertEquals(1, CountMinSketch.optimalDepth(0.5));
+    assertEquals(4, CountMinSketch.optimalDepth(0.05));
+    assertEquals(8, CountMinSketch.optimalDepth(0.01));
+    assertEquals(8, CountMinSketch.optimalDepth(0.0000001));
+    CountMinSketch cms = new CountMinSketch(0.001, 0.05);
+    assertEquals(4, cms.getDepth());
+    assertTrue(cms.getWidth() >= Math.E / 0.001);
+    assertEquals((long) cms.getWidth() * cms.getDepth() * 4, cms.sizeInBytes());
+  }
+
+  // gaussian skewed counts of keys 0 to numKeys - 1
+  private int[] stream(CountMinSketch[] sketches, int numKeys, int length) {
+    int[] counts = new int[numKeys];
+    for (int i = 0; i < length; i++) {
+      int key = (int) Math.min(numKeys - 1, Math.abs(rand.nextGaussian()) * numKeys / 3);
+      counts[key]++;
+      for (CountMinSketch cms : sketches) {
+        cms.addInt(key);
+      }
+    }
+    return counts;
+  }
+
+  @Test
+  public void testErrorBound() {
+    double epsilon = 0.001;
+    double delta = 0.05;
+    CountMinSketch cms = new CountMinSketch(epsilon, delta);
+    CountMinSketch conservative = new CountMinSketch(epsilon, delta, true);
+    int numKeys = 100_000;
+    int length = 1_000_000;
+    int[] counts = stream(new CountMinSketch[]{cms, conservative}, numKeys, length);
+    assertEquals(length, cms.getTotalCount());
+    assertEquals(length, conservative.getTotalCount());
+    int bad = 0;
+    int badConservative = 0;
+    long error = 0;
+    long errorConservative = 0;
+    for (int i = 0; i < numKeys; i++) {
+      int estimate = cms.estimateInt(i);
+      int estimateConservative = conservative.estimateInt(i);
+      // never underestimates, conservative update is never worse
+      assertTrue(estimate >= counts[i]);
+      assertTrue(estimateConservative >= counts[i]);
+      assertTrue(estimateConservative <= estimate);
+      bad += estimate - counts[i] > epsilon * length ? 1 : 0;
+      badConservative += estimateConservative - counts[i] > epsilon * length ? 1 : 0;
+      error += estimate - counts[i];
+      errorConservative += estimateConservative - counts[i];
+    }
+    assertTrue(bad <= delta * numKeys);
+    assertTrue(badConservative <= bad);
+    assertTrue(errorConservative < error * 0.75);
+  }
+
+  @Test
+  public void testHeavyHitters() {
+    CountMinSketch cms = new CountMinSketch(0.0001, 0.01, true);
+    for (int i = 0; i < 500_000; i++) {
+      cms.addLong(rand.nextInt(1_000_000));
+      if (i % 10 == 0) {
+        cms.addString("hot key");
+      }
+    }
+    cms.addBytes("hot key".getBytes(), 1000);
+    int estimate = cms.estimateString("hot key");
+    assertTrue(estimate >= 51_000);
+    assertTrue(estimate <= 51_000 + 0.0001 * cms.getTotalCount());
+    assertTrue(cms.estimateString("cold key") <= 0.0001 * cms.getTotalCount());
+  }
+
+  @Test
+  public void testAddHashes() {
+    CountMinSketch batch = new CountMinSketch(0.001, 0.01);
+    CountMinSketch single = new CountMinSketch(0.001, 0.01);
+    long[] hashes = new long[1000];
+    for (int round = 0; round < 100; round++) {
+      for (int i = 0; i < hashes.length; i++) {
+        hashes[i] = Murmur3.hash64(("key " + rand.nextInt(5000)).getBytes());
+        single.addHash(hashes[i]);
+      }
+      batch.addHashes(hashes);
+    }
+    assertEquals(single.serialize(), batch.serialize());
+  }
+
+  @Test
+  public void testMerge() {
+    CountMinSketch cms1 = new CountMinSketch(0.001, 0.01);
+    CountMinSketch cms2 = new CountMinSketch(0.001, 0.01);
+    CountMinSketch all = new CountMinSketch(0.001, 0.01);
+    for (int i = 0; i < 100_000; i++) {
+      int key = rand.nextInt(10_000);
+      (i % 2 == 0 ? cms1 : cms2).addInt(key);
+      all.addInt(key);
+    }
+    assertTrue(cms1.isCompatible(cms2));
+    assertFalse(cms1.isCompatible(cms1));
+    assertFalse(cms1.isCompatible(new CountMinSketch(0.01, 0.01)));
+    cms1.merge(cms2);
+    // counters are added, the merged sketch is the sketch of the whole stream
+    assertEquals(all.serialize(), cms1.serialize());
+  }
+
+  @Test
+  public void testSaturation() {
+    CountMinSketch cms = new CountMinSketch(0.1, 0.1);
+    cms.addLong(12L);
+    cms.addHash(Murmur3.hash64(new byte[]{1}), Integer.MAX_VALUE);
+    cms.addByte((byte) 1);
+    assertEquals(Integer.MAX_VALUE, cms.estimateByte((byte) 1));
+    CountMinSketch copy = new CountMinSketch(cms.serialize());
+    cms.merge(copy);
+    assertEquals(Integer.MAX_VALUE, cms.estimateByte((byte) 1));
+  }
+
+  @Test
+  public void testSerialize() {
+    CountMinSketch cms = new CountMinSketch(0.001, 0.05, true);
+    cms.addDouble(1.5);
+    cms.addFloat(2.5f);
+    for (int i = 0; i < 10_000; i++) {
+      cms.addInt(rand.nextInt(100));
+    }
+    CountMinSketch copy = new CountMinSketch(cms.serialize());
+    assertEquals(cms.serialize(), copy.serialize());
+    assertTrue(copy.isConservative());
+    assertEquals(0.001, copy.getEpsilon(), 0.0);
+    assertEquals(0.05, copy.getDelta(), 0.0);
+    assertEquals(cms.getTotalCount(), copy.getTotalCount());
+    assertEquals(cms.estimateDouble(1.5), copy.estimateDouble(1.5));
+    assertTrue(copy.estimateFloat(2.5f) >= 1);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(cms.estimateInt(i), copy.estimateInt(i));
+    }
+  }
+}
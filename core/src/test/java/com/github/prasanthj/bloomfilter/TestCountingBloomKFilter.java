@@ -0,0 +1,145 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestCountingBloomKFilter {
+  Random rand = new Random(123);
+  private final double deltaError = 0.02;
+
+  @Test(expected = AssertionError.class)
+  public void testBloomIllegalArg1() {
+    CountingBloomKFilter bf = new CountingBloomKFilter(0, 0.1);
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testBloomIllegalArg2() {
+    CountingBloomKFilter bf = new CountingBloomKFilter(1, 1.0);
+  }
+
+  @Test
+  public void testAddRemove() {
+    int size = 10_000;
+    CountingBloomKFilter bf = new CountingBloomKFilter(size, 0.01);
+    for (int i = 0; i < size; i++) {
+      bf.addLong(i);
+    }
+    for (int i = 0; i < size; i++) {
+      assertTrue(bf.testLong(i));
+    }
+    // remove even numbers
+    for (int i = 0; i < size; i += 2) {
+      bf.removeLong(i);
+    }
+    int fp = 0;
+    for (int i = 0; i < size; i++) {
+      if (i % 2 == 1) {
+        // no false negatives for the remaining elements
+        assertTrue(bf.testLong(i));
+      } else if (bf.testLong(i)) {
+        fp++;
+      }
+    }
+    // removed elements test true only as false positives
+    assertTrue((double) fp / (size / 2) < 0.01 + deltaError);
+
+    // remove rest, all counters go back to zero
+    for (int i = 1; i < size; i += 2) {
+      bf.removeLong(i);
+    }
+    for (long counters : bf.getCounters()) {
+      assertEquals(0, counters);
+    }
+  }
+
+  @Test
+  public void testCounts() {
+    CountingBloomKFilter bf = new CountingBloomKFilter(100, 0.01);
+    bf.addString("bloom");
+    bf.addString("bloom");
+    bf.removeString("bloom");
+    assertTrue(bf.testString("bloom"));
+    bf.removeString("bloom");
+    assertFalse(bf.testString("bloom"));
+
+    // saturated counters are never decremented
+    for (int i = 0; i < 20; i++) {
+      bf.addInt(1234);
+    }
+    for (int i = 0; i < 20; i++) {
+      bf.removeInt(1234);
+    }
+    assertTrue(bf.testInt(1234));
+
+    // decrementing zero counters has no effect
+    bf.removeDouble(12.34);
+    bf.addDouble(12.34);
+    assertTrue(bf.testDouble(12.34));
+    bf.addBytes(new byte[]{1, 2, 3});
+    bf.addFloat(1.5f);
+    bf.addByte((byte) 7);
+    assertTrue(bf.testBytes(new byte[]{1, 2, 3}));
+    assertTrue(bf.testFloat(1.5f));
+    assertTrue(bf.testByte((byte) 7));
+  }
+
+  @Test
+  public void testFpp() {
+    int size = 100_000;
+    double fpp = 0.03;
+    CountingBloomKFilter bf = new CountingBloomKFilter(size, fpp);
+    for (int i = 0; i < size; i++) {
+      bf.addLong(i);
+    }
+    int fp = 0;
+    int probes = 100_000;
+    for (int i = 0; i < probes; i++) {
+      // out of range probes
+      if (bf.testLong(size + rand.nextInt(Integer.MAX_VALUE - size))) {
+        fp++;
+      }
+    }
+    double actualFpp = (double) fp / probes;
+    assertTrue(actualFpp < fpp + deltaError);
+  }
+
+  @Test
+  public void testSerialize() {
+    CountingBloomKFilter bf = new CountingBloomKFilter(1000, 0.01);
+    for (int i = 0; i < 1000; i++) {
+      bf.addLong(i);
+    }
+    CountingBloomKFilter copy = new CountingBloomKFilter(bf.serialize());
+    assertEquals(bf.serialize(), copy.serialize());
+    assertEquals(bf.getNumCounters(), copy.getNumCounters());
+    assertEquals(bf.getNumHashFunctions(), copy.getNumHashFunctions());
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(copy.testLong(i));
+    }
+    copy.removeLong(0);
+    assertEquals(bf.sizeInBytes(), copy.sizeInBytes());
+  }
+}
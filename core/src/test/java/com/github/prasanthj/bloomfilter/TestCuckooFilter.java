@@ -0,0 +1,182 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestCuckooFilter {
+  Random rand = new Random(123);
+
+  @Test(expected = AssertionError.class)
+  public void testCuckooIllegalArg1() {
+    CuckooFilter cf = new CuckooFilter(0);
+  }
+
+  @Test
+  public void testNumBuckets() {
+    assertEquals(1, new CuckooFilter(1).getNumBuckets());
+    assertEquals(1, new CuckooFilter(3).getNumBuckets());
+    assertEquals(2, new CuckooFilter(4).getNumBuckets());
+    // 10000 / (4 * 0.95) = 2632 buckets
+    assertEquals(4096, new CuckooFilter(10_000).getNumBuckets());
+    assertEquals(4096 * 8, new CuckooFilter(10_000).sizeInBytes());
+  }
+
+  @Test
+  public void testAddTest() {
+    int size = 100_000;
+    CuckooFilter cf = new CuckooFilter(size);
+    for (int i = 0; i < size; i++) {
+      assertTrue(cf.addLong(i));
+    }
+    assertEquals(size, cf.getNumItems());
+    for (int i = 0; i < size; i++) {
+      assertTrue(cf.testLong(i));
+    }
+
+    cf.addString("cuckoo filter");
+    cf.addBytes(new byte[]{1, 2, 3});
+    cf.addInt(1234);
+    cf.addDouble(12.34);
+    cf.addFloat(1.5f);
+    cf.addByte((byte) 7);
+    assertTrue(cf.testString("cuckoo filter"));
+    assertTrue(cf.testBytes(new byte[]{1, 2, 3}));
+    assertTrue(cf.testInt(1234));
+    assertTrue(cf.testDouble(12.34));
+    assertTrue(cf.testFloat(1.5f));
+    assertTrue(cf.testByte((byte) 7));
+  }
+
+  @Test
+  public void testFpp() {
+    int size = 1_000_000;
+    CuckooFilter cf = new CuckooFilter(size);
+    for (int i = 0; i < size; i++) {
+      cf.addLong(i);
+    }
+    int fp = 0;
+    int probes = 1_000_000;
+    for (int i = 0; i < probes; i++) {
+      // out of range probes
+      if (cf.testLong(size + rand.nextInt(Integer.MAX_VALUE - size))) {
+        fp++;
+      }
+    }
+    double actualFpp = (double) fp / probes;
+    assertTrue(actualFpp < cf.getFalsePositivePercent());
+    assertEquals(cf.currentFpp(), actualFpp, 0.0001);
+  }
+
+  @Test
+  public void testRemove() {
+    int size = 10_000;
+    CuckooFilter cf = new CuckooFilter(size);
+    for (int i = 0; i < size; i++) {
+      cf.addLong(i);
+    }
+    for (int i = 0; i < size; i += 2) {
+      assertTrue(cf.removeLong(i));
+    }
+    assertEquals(size / 2, cf.getNumItems());
+    int fp = 0;
+    for (int i = 0; i < size; i++) {
+      if (i % 2 == 1) {
+        assertTrue(cf.testLong(i));
+      } else if (cf.testLong(i)) {
+        fp++;
+      }
+    }
+    assertTrue(fp < 10);
+
+    for (int i = 1; i < size; i += 2) {
+      assertTrue(cf.removeLong(i));
+    }
+    assertEquals(0, cf.getNumItems());
+    for (long bucket : cf.getBuckets()) {
+      assertEquals(0, bucket);
+    }
+    assertFalse(cf.removeString("not present"));
+  }
+
+  @Test
+  public void testFull() {
+    int size = 1000;
+    CuckooFilter cf = new CuckooFilter(size);
+    int capacity = cf.getNumBuckets() * CuckooFilter.BUCKET_SIZE;
+    int added = 0;
+    while (cf.addLong(added)) {
+      added++;
+    }
+    // table fills up to high load factor before giving up
+    assertTrue(cf.loadFactor() > 0.9);
+    assertTrue(added <= capacity + 1);
+    // no false negatives including the victim
+    for (int i = 0; i < added; i++) {
+      assertTrue(cf.testLong(i));
+    }
+
+    // removal makes room for the victim and new elements
+    for (int i = 0; i < 10; i++) {
+      assertTrue(cf.removeLong(i));
+    }
+    assertTrue(cf.addLong(added));
+    for (int i = 10; i <= added; i++) {
+      assertTrue(cf.testLong(i));
+    }
+  }
+
+  @Test
+  public void testDuplicates() {
+    CuckooFilter cf = new CuckooFilter(1000);
+    for (int i = 0; i < 8; i++) {
+      assertTrue(cf.addString("cuckoo"));
+    }
+    for (int i = 0; i < 7; i++) {
+      assertTrue(cf.removeString("cuckoo"));
+      assertTrue(cf.testString("cuckoo"));
+    }
+    assertTrue(cf.removeString("cuckoo"));
+    assertFalse(cf.testString("cuckoo"));
+  }
+
+  @Test
+  public void testSerialize() {
+    int size = 1000;
+    CuckooFilter cf = new CuckooFilter(size);
+    int added = 0;
+    // fill to get a victim
+    while (cf.addLong(added)) {
+      added++;
+    }
+    CuckooFilter copy = new CuckooFilter(cf.serialize());
+    assertEquals(cf.serialize(), copy.serialize());
+    assertEquals(cf.getNumItems(), copy.getNumItems());
+    for (int i = 0; i < added; i++) {
+      assertTrue(copy.testLong(i));
+    }
+    assertFalse(copy.addLong(added));
+  }
+}
@@ -15,6 +15,7 @@ package com.github.prasanthj.bloomfilter;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.List;
 import java.util.Random;
 
 import org.junit.Test;
@@ -143,6 +144,33 @@ public class TestDynamicBloomFilter {
     }
   }
 
+  @Test
+  public void testEstimateCardinality() {
+    int size = 100_000;
+    DynamicBloomFilter bf = new DynamicBloomFilter(size);
+    assertEquals(0, bf.estimateCardinality());
+    assertEquals(0.0, bf.currentFpp(), 0.0);
+    for (int i = 0; i < size; i++) {
+      bf.addLong(i);
+    }
+    assertEquals(1, bf.getMatrix().length);
+    assertEquals(size, bf.estimateCardinality(), size * 0.02);
+    assertEquals(bf.getFalsePositivePercent(), bf.currentFpp(), 0.01);
+
+    for (int i = size; i < 3 * size; i++) {
+      bf.addLong(i);
+    }
+    assertEquals(3, bf.getMatrix().length);
+    assertEquals(3 * size, bf.estimateCardinality(), 3 * size * 0.02);
+    assertEquals(3 * size, bf.estimateCardinality(0.1), 3 * size * 0.05);
+    assertEquals(bf.fillRatio(), bf.fillRatio(0.1), 0.01);
+    // compound fpp of 3 full rows
+    double expectedFpp = 1 - Math.pow(1 - bf.getMatrix()[0].currentFpp(), 3);
+    assertEquals(expectedFpp, bf.currentFpp(), 0.01);
+    assertEquals(bf.currentFpp(), bf.currentFpp(0.1), 0.01);
+    assertTrue(bf.currentFpp() > bf.getFalsePositivePercent());
+  }
+
   @Test
   public void testBitsetSize() {
     int size = 10_000;
@@ -160,4 +188,163 @@ public class TestDynamicBloomFilter {
     }
     assertEquals(3, bf.getMatrix().length);
   }
+
+  @Test
+  public void testBloomKRows() {
+    // blocked rows have slightly higher fpp than configured
+    testRowType(DynamicBloomFilter.RowType.BLOOM_K, BloomKFilter.class, 0.02);
+  }
+
+  @Test
+  public void testBloom1Rows() {
+    // Bloom1Filter rows have higher fpp than configured
+    testRowType(DynamicBloomFilter.RowType.BLOOM_1, Bloom1Filter.class, 0.06);
+  }
+
+  @Test
+  public void testStandardRows() {
+    testRowType(DynamicBloomFilter.RowType.STANDARD, BloomFilter.class, 0.01);
+  }
+
+  @Test(expected = ClassCastException.class)
+  public void testMatrixRowClass() {
+    DynamicBloomFilter bf = new DynamicBloomFilter(1000, 0.01, DynamicBloomFilter.RowType.BLOOM_K);
+    BloomFilter[] rows = bf.getMatrix();
+  }
+
+  private void testRowType(DynamicBloomFilter.RowType rowType, Class<?> rowClass, double delta) {
+    int size = 10_000;
+    double fpp = 0.01;
+    DynamicBloomFilter bf = new DynamicBloomFilter(size, fpp, rowType);
+    assertEquals(rowType, bf.getRowType());
+    for (int i = 0; i < size; i++) {
+      bf.addLong(i);
+    }
+    assertEquals(1, bf.getMatrix(rowClass).length);
+    bf.addLong(size);
+    assertEquals(2, bf.getMatrix(rowClass).length);
+    for (int i = size + 1; i < 3 * size; i++) {
+      bf.addLong(i);
+    }
+    assertEquals(3, bf.getMatrix(rowClass).length);
+    for (Object row : bf.getMatrix(rowClass)) {
+      assertEquals(rowClass, row.getClass());
+    }
+    for (int i = 0; i < 3 * size; i++) {
+      assertTrue(bf.testLong(i));
+    }
+    bf.addString("bloom filter");
+    assertTrue(bf.testString("bloom filter"));
+
+    Random random = new Random(123);
+    int fp = 0;
+    int probes = 100_000;
+    for (int i = 0; i < probes; i++) {
+      // out of range probes
+      if (bf.testLong(3 * size + 1 + random.nextInt(Integer.MAX_VALUE - 3 * size - 1))) {
+        fp++;
+      }
+    }
+    // compound fpp of 3 rows, each configured with fpp
+    double expectedFpp = 1 - Math.pow(1 - fpp, 3);
+    double actualFpp = (double) fp / probes;
+    assertTrue(actualFpp < expectedFpp + delta);
+  }
+
+  @Test
+  public void testSerialize() {
+    for (DynamicBloomFilter.RowType rowType : DynamicBloomFilter.RowType.values()) {
+      int size = 1000;
+      DynamicBloomFilter bf = new DynamicBloomFilter(size, 0.01, rowType);
+      for (int i = 0; i < 2 * size + 10; i++) {
+        bf.addLong(i);
+      }
+      DynamicBloomFilter copy = new DynamicBloomFilter(bf.serialize());
+      assertEquals(bf.serialize(), copy.serialize());
+      assertEquals(rowType, copy.getRowType());
+      assertEquals(3, copy.getMatrix(Object.class).length);
+      assertEquals(0.01, copy.getFalsePositivePercent(), 0.0);
+      for (int i = 0; i < 2 * size + 10; i++) {
+        assertTrue(copy.testLong(i));
+      }
+      // active row continues to fill up after deserialization
+      for (int i = 2 * size + 10; i < 3 * size; i++) {
+        copy.addLong(i);
+      }
+      assertEquals(3, copy.getMatrix(Object.class).length);
+      copy.addLong(3 * size);
+      assertEquals(4, copy.getMatrix(Object.class).length);
+    }
+  }
+
+  @Test
+  public void testMergeAndCompact() {
+    for (DynamicBloomFilter.RowType rowType : DynamicBloomFilter.RowType.values()) {
+      int size = 10_000;
+      DynamicBloomFilter bf1 = new DynamicBloomFilter(size, 0.01, rowType);
+      DynamicBloomFilter bf2 = new DynamicBloomFilter(size, 0.01, rowType);
+      DynamicBloomFilter bf3 = new DynamicBloomFilter(size, 0.02, rowType);
+      assertTrue(bf1.isCompatible(bf2));
+      assertTrue(!bf1.isCompatible(bf3));
+      assertTrue(!bf1.isCompatible(bf1));
+
+      // 1 full row and a sparse active row in both
+      for (int i = 0; i < size + size / 10; i++) {
+        bf1.addLong(i);
+        bf2.addLong(-i - 1);
+      }
+      assertEquals(2, bf1.getMatrix(Object.class).length);
+      List<Long> serialized2 = bf2.serialize();
+      bf1.merge(bf2);
+      assertEquals(4, bf1.getMatrix(Object.class).length);
+      for (int i = 0; i < size + size / 10; i++) {
+        assertTrue(bf1.testLong(i));
+        assertTrue(bf1.testLong(-i - 1));
+      }
+
+      // the 2 sparse rows get combined, the full rows stay as they are
+      bf1.compact();
+      assertEquals(3, bf1.getMatrix(Object.class).length);
+      // merged rows are copies
+      assertEquals(serialized2, bf2.serialize());
+      assertTrue(bf1.currentFpp() <= 1 - Math.pow(1 - 0.01, 3) + 0.01);
+      for (int i = 0; i < size + size / 10; i++) {
+        assertTrue(bf1.testLong(i));
+        assertTrue(bf1.testLong(-i - 1));
+      }
+      // nothing left to combine
+      bf1.compact();
+      assertEquals(3, bf1.getMatrix(Object.class).length);
+
+      // combined active row has room for the rest of the keys
+      for (int i = 0; i < size / 2; i++) {
+        bf1.addLong(size * 10 + i);
+      }
+      assertEquals(3, bf1.getMatrix(Object.class).length);
+      bf1.addLong(size * 20);
+      assertTrue(bf1.testLong(size * 20));
+    }
+  }
+
+  @Test
+  public void testCompactSparseRows() {
+    int size = 10_000;
+    DynamicBloomFilter bf = new DynamicBloomFilter(size, 0.01, DynamicBloomFilter.RowType.BLOOM_K);
+    for (int f = 0; f < 5; f++) {
+      DynamicBloomFilter other = new DynamicBloomFilter(size, 0.01, DynamicBloomFilter.RowType.BLOOM_K);
+      for (int i = 0; i < size / 10; i++) {
+        other.addLong(f * size + i);
+      }
+      bf.merge(other);
+    }
+    assertEquals(6, bf.getMatrix(BloomKFilter.class).length);
+    bf.compact();
+    assertEquals(1, bf.getMatrix(BloomKFilter.class).length);
+    for (int f = 0; f < 5; f++) {
+      for (int i = 0; i < size / 10; i++) {
+        assertTrue(bf.testLong(f * size + i));
+      }
+    }
+    assertEquals(size / 2, bf.estimateCardinality(), size * 0.02);
+  }
 }
@@ -0,0 +1,184 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestInvertibleBloomFilter {
+  Random rand = new Random(123);
+
+  @Test(expected = AssertionError.class)
+  public void testInvertibleBloomIllegalArg1() {
+    InvertibleBloomFilter ibf = new InvertibleBloomFilter(0);
+  }
+
+  @Test
+  public void testReconcile() {
+    int common = 100_000;
+    int onlyA = 600;
+    int onlyB = 400;
+    InvertibleBloomFilter a = new InvertibleBloomFilter(onlyA + onlyB);
+    InvertibleBloomFilter b = new InvertibleBloomFilter(onlyA + onlyB);
+    for (int i = 0; i < common; i++) {
+      long key = rand.nextLong();
+      a.addHash(key);
+      b.addHash(key);
+    }
+    Set<Long> expectedA = new HashSet<Long>();
+    for (int i = 0; i < onlyA; i++) {
+      long key = rand.nextLong();
+      expectedA.add(key);
+      a.addHash(key);
+    }
+    Set<Long> expectedB = new HashSet<Long>();
+    for (int i = 0; i < onlyB; i++) {
+      long key = rand.nextLong();
+      expectedB.add(key);
+      b.addHash(key);
+    }
+    // b is shipped to a
+    InvertibleBloomFilter received = new InvertibleBloomFilter(b.serialize());
+    assertTrue(a.isCompatible(received));
+    a.subtract(received);
+    List<Long> added = new ArrayList<Long>();
+    List<Long> removed = new ArrayList<Long>();
+    assertTrue(a.decode(added, removed));
+    assertEquals(onlyA, added.size());
+    assertEquals(onlyB, removed.size());
+    assertEquals(expectedA, new HashSet<Long>(added));
+    assertEquals(expectedB, new HashSet<Long>(removed));
+    // decode does not modify the filter
+    added.clear();
+    removed.clear();
+    assertTrue(a.decode(added, removed));
+    assertEquals(onlyA + onlyB, added.size() + removed.size());
+  }
+
+  @Test
+  public void testDecodeSuccessRate() {
+    for (int difference : new int[]{1, 10, 100, 1000, 5000}) {
+      int success = 0;
+      int trials = 20;
+      for (int trial = 0; trial < trials; trial++) {
+        InvertibleBloomFilter ibf = new InvertibleBloomFilter(difference);
+        for (int i = 0; i < difference; i++) {
+          if (rand.nextBoolean()) {
+            ibf.addHash(rand.nextLong());
+          } else {
+            ibf.removeHash(rand.nextLong());
+          }
+        }
+        List<Long> added = new ArrayList<Long>();
+        List<Long> removed = new ArrayList<Long>();
+        if (ibf.decode(added, removed)) {
+          assertEquals(difference, added.size() + removed.size());
+          success++;
+        }
+      }
+      assertTrue("difference " + difference, success >= trials - 1);
+    }
+  }
+
+  @Test
+  public void testTooLarge() {
+    InvertibleBloomFilter ibf = new InvertibleBloomFilter(100);
+    for (int i = 0; i < 1000; i++) {
+      ibf.addHash(rand.nextLong());
+    }
+    List<Long> added = new ArrayList<Long>();
+    List<Long> removed = new ArrayList<Long>();
+    assertFalse(ibf.decode(added, removed));
+    assertTrue(added.size() < 1000);
+    assertEquals(0, removed.size());
+  }
+
+  @Test
+  public void testIdenticalSets() {
+    InvertibleBloomFilter a = new InvertibleBloomFilter(100);
+    InvertibleBloomFilter b = new InvertibleBloomFilter(100);
+    assertTrue(a.isEmpty());
+    for (int i = 0; i < 10_000; i++) {
+      a.addString("key " + i);
+      b.addString("key " + (9_999 - i));
+    }
+    assertFalse(a.isEmpty());
+    a.subtract(b);
+    assertTrue(a.isEmpty());
+    List<Long> added = new ArrayList<Long>();
+    List<Long> removed = new ArrayList<Long>();
+    assertTrue(a.decode(added, removed));
+    assertTrue(added.isEmpty());
+    assertTrue(removed.isEmpty());
+  }
+
+  @Test
+  public void testTypedKeys() {
+    InvertibleBloomFilter ibf = new InvertibleBloomFilter(10);
+    ibf.addString("replica");
+    ibf.addLong(12L);
+    ibf.addDouble(1.5);
+    ibf.addInt(7);
+    ibf.removeString("replica");
+    ibf.removeLong(12L);
+    ibf.removeDouble(1.5);
+    ibf.removeFloat(2.5f);
+    List<Long> added = new ArrayList<Long>();
+    List<Long> removed = new ArrayList<Long>();
+    assertTrue(ibf.decode(added, removed));
+    // typed values are decoded as their Murmur3 64-bit hashcode
+    InvertibleBloomFilter hashes = new InvertibleBloomFilter(10);
+    hashes.addInt(7);
+    hashes.removeFloat(2.5f);
+    assertEquals(ibf.serialize(), hashes.serialize());
+    assertEquals(1, added.size());
+    assertEquals(1, removed.size());
+    // numeric ids are decoded as is
+    InvertibleBloomFilter ids = new InvertibleBloomFilter(10);
+    ids.addHash(7L);
+    ids.removeHash(-7L);
+    added.clear();
+    removed.clear();
+    assertTrue(ids.decode(added, removed));
+    assertEquals(7L, (long) added.get(0));
+    assertEquals(-7L, (long) removed.get(0));
+  }
+
+  @Test
+  public void testSerialize() {
+    InvertibleBloomFilter ibf = new InvertibleBloomFilter(1000);
+    for (int i = 0; i < 5000; i++) {
+      ibf.addInt(i);
+    }
+    InvertibleBloomFilter copy = new InvertibleBloomFilter(ibf.serialize());
+    assertEquals(ibf.serialize(), copy.serialize());
+    assertEquals(ibf.getNumCells(), copy.getNumCells());
+    assertEquals(1000, copy.getMaxDifference());
+    assertEquals(ibf.getNumCells() * 3 * 8, ibf.sizeInBytes());
+  }
+}
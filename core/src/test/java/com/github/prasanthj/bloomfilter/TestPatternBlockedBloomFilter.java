@@ -0,0 +1,151 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestPatternBlockedBloomFilter {
+  Random rand = new Random(123);
+  private final double deltaError = 0.002;
+
+  @Test(expected = AssertionError.class)
+  public void testPatternBloomIllegalArg1() {
+    PatternBlockedBloomFilter bf = new PatternBlockedBloomFilter(0, 0);
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testPatternBloomIllegalArg2() {
+    PatternBlockedBloomFilter bf = new PatternBlockedBloomFilter(100, 1.0);
+  }
+
+  @Test
+  public void testPatterns() {
+    for (int k = 1; k <= PatternBlockedBloomFilter.MAX_K; k++) {
+      long[] patterns = PatternBlockedBloomFilter.patterns(k);
+      assertSame(patterns, PatternBlockedBloomFilter.patterns(k));
+      assertEquals(PatternBlockedBloomFilter.PATTERN_COUNT, patterns.length);
+      Set<Long> distinct = new HashSet<Long>();
+      for (long pattern : patterns) {
+        assertEquals(k, Long.bitCount(pattern));
+        distinct.add(pattern);
+      }
+      // patterns with few bits repeat, more bits are all distinct
+      assertTrue(distinct.size() >= (k < 4 ? 64 : PatternBlockedBloomFilter.PATTERN_COUNT - 8));
+    }
+  }
+
+  @Test
+  public void testBlockedFpp() {
+    // one word blocks are worse than standard bloom filters with the same bits
+    for (int bits = 4; bits <= 20; bits += 4) {
+      int k = (int) Math.round(bits * Math.log(2));
+      double standardFpp = Math.pow(1 - Math.exp(-(double) k / bits), k);
+      assertTrue(PatternBlockedBloomFilter.blockedFpp(bits, k) > standardFpp);
+    }
+    assertEquals(1.0, PatternBlockedBloomFilter.blockedFpp(0.1, 16), 0.001);
+  }
+
+  @Test
+  public void testFpp() {
+    int size = 1_000_000;
+    for (double fpp : new double[]{0.05, 0.01, 0.003}) {
+      PatternBlockedBloomFilter bf = new PatternBlockedBloomFilter(size, fpp);
+      for (int i = 0; i < size; i++) {
+        bf.addLong(i);
+      }
+      for (int i = 0; i < size; i++) {
+        assertTrue(bf.testLong(i));
+      }
+
+      int fp = 0;
+      int probes = 1_000_000;
+      for (int i = 0; i < probes; i++) {
+        // out of range probes
+        if (bf.testLong(size + rand.nextInt(Integer.MAX_VALUE - size))) {
+          fp++;
+        }
+      }
+      double actualFpp = (double) fp / probes;
+      assertTrue(actualFpp < fpp + deltaError);
+      assertEquals(bf.currentFpp(), actualFpp, fpp / 10);
+    }
+  }
+
+  @Test
+  public void testTypes() {
+    PatternBlockedBloomFilter bf = new PatternBlockedBloomFilter(10000, 0.01);
+    bf.add(new byte[]{1, 2, 3});
+    bf.addString("pattern");
+    bf.addByte((byte) 7);
+    bf.addInt(123);
+    bf.addLong(456L);
+    bf.addFloat(1.5f);
+    bf.addDouble(2.5);
+    assertTrue(bf.test(new byte[]{1, 2, 3}));
+    assertTrue(bf.testString("pattern"));
+    assertTrue(bf.testByte((byte) 7));
+    assertTrue(bf.testInt(123));
+    assertTrue(bf.testLong(456L));
+    assertTrue(bf.testFloat(1.5f));
+    assertTrue(bf.testDouble(2.5));
+    assertFalse(bf.testString("not present"));
+    assertTrue(bf.testHash(Murmur3.hash64("pattern".getBytes())));
+  }
+
+  @Test
+  public void testMerge() {
+    PatternBlockedBloomFilter bf1 = new PatternBlockedBloomFilter(10000, 0.01);
+    PatternBlockedBloomFilter bf2 = new PatternBlockedBloomFilter(10000, 0.01);
+    assertTrue(bf1.isCompatible(bf2));
+    assertFalse(bf1.isCompatible(bf1));
+    assertFalse(bf1.isCompatible(new PatternBlockedBloomFilter(20000, 0.01)));
+    for (int i = 0; i < 5000; i++) {
+      bf1.addLong(i);
+      bf2.addLong(i + 5000);
+    }
+    bf1.merge(bf2);
+    for (int i = 0; i < 10000; i++) {
+      assertTrue(bf1.testLong(i));
+    }
+  }
+
+  @Test
+  public void testSerialize() {
+    PatternBlockedBloomFilter bf = new PatternBlockedBloomFilter(10000, 0.01);
+    for (int i = 0; i < 10000; i++) {
+      bf.addLong(i);
+    }
+    PatternBlockedBloomFilter copy = new PatternBlockedBloomFilter(bf.serialize());
+    assertEquals(bf.serialize(), copy.serialize());
+    assertEquals(bf.getNumHashFunctions(), copy.getNumHashFunctions());
+    assertEquals(bf.getBitSize(), copy.getBitSize());
+    for (int i = 0; i < 10000; i++) {
+      assertTrue(copy.testLong(i));
+    }
+  }
+}
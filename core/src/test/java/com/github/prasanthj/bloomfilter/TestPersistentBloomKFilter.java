@@ -0,0 +1,150 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class TestPersistentBloomKFilter {
+  private static final int COUNT = 100_000;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRecoverFromLog() throws Exception {
+    Path dir = folder.getRoot().toPath();
+    PersistentBloomKFilter bf = new PersistentBloomKFilter(dir, COUNT, 0.01, 128);
+    for (int i = 0; i < COUNT; i++) {
+      bf.addLong(i);
+    }
+    bf.addString("bloom filter");
+    bf.close();
+    assertFalse(Files.exists(dir.resolve("snapshot")));
+
+    PersistentBloomKFilter recovered = new PersistentBloomKFilter(dir, COUNT, 0.01, 128);
+    for (int i = 0; i < COUNT; i++) {
+      assertTrue(recovered.testLong(i));
+    }
+    assertTrue(recovered.testString("bloom filter"));
+    assertArrayEquals(bf.getBloomKFilter().getBitSet(), recovered.getBloomKFilter().getBitSet());
+    recovered.close();
+  }
+
+  @Test
+  public void testRecoverFromSnapshotAndLogTail() throws Exception {
+    Path dir = folder.getRoot().toPath();
+    PersistentBloomKFilter bf = new PersistentBloomKFilter(dir, COUNT, 0.01);
+    for (int i = 0; i < COUNT / 2; i++) {
+      bf.addLong(i);
+    }
+    bf.snapshot();
+    assertTrue(Files.exists(dir.resolve("snapshot")));
+    assertFalse(Files.exists(dir.resolve("wal.0")));
+    assertTrue(Files.exists(dir.resolve("wal.1")));
+
+    for (int i = COUNT / 2; i < COUNT; i++) {
+      bf.addLong(i);
+    }
+    bf.sync();
+
+    // reopen without close to simulate a crash after sync
+    PersistentBloomKFilter recovered = new PersistentBloomKFilter(dir, 1, 0.5);
+    assertEquals(COUNT, recovered.getBloomKFilter().getExpectedNumEntries());
+    assertEquals(0.01, recovered.getBloomKFilter().getFalsePositivePercent(), 0.0);
+    for (int i = 0; i < COUNT; i++) {
+      assertTrue(recovered.testLong(i));
+    }
+    assertArrayEquals(bf.getBloomKFilter().getBitSet(), recovered.getBloomKFilter().getBitSet());
+    assertEquals(2, recovered.getLogGeneration());
+    recovered.close();
+    bf.close();
+  }
+
+  @Test
+  public void testRecoverFoldedSnapshot() throws Exception {
+    Path dir = folder.getRoot().toPath();
+    PersistentBloomKFilter bf = new PersistentBloomKFilter(dir, COUNT, 0.01,
+        PersistentBloomKFilter.DEFAULT_GROUP_COMMIT_SIZE, true);
+    for (int i = 0; i < COUNT / 8; i++) {
+      bf.addLong(i);
+    }
+    long bits = bf.getBloomKFilter().getBitSize();
+    bf.getBloomKFilter().fold(2);
+    bf.snapshot();
+    for (int i = COUNT / 8; i < COUNT / 4; i++) {
+      bf.addLong(i);
+    }
+    bf.sync();
+
+    PersistentBloomKFilter recovered = new PersistentBloomKFilter(dir, COUNT, 0.01);
+    assertEquals(bits / 2, recovered.getBloomKFilter().getBitSize());
+    for (int i = 0; i < COUNT / 4; i++) {
+      assertTrue(recovered.testLong(i));
+    }
+    assertArrayEquals(bf.getBloomKFilter().getBitSet(), recovered.getBloomKFilter().getBitSet());
+    recovered.close();
+    bf.close();
+  }
+
+  @Test
+  public void testUnsyncedInsertsAreNotDurable() throws Exception {
+    Path dir = folder.getRoot().toPath();
+    PersistentBloomKFilter bf = new PersistentBloomKFilter(dir, COUNT, 0.01, 1024);
+    bf.addString("synced");
+    bf.sync();
+    bf.addString("buffered");
+    assertTrue(bf.testString("buffered"));
+
+    PersistentBloomKFilter recovered = new PersistentBloomKFilter(dir, COUNT, 0.01, 1024);
+    assertTrue(recovered.testString("synced"));
+    assertFalse(recovered.testString("buffered"));
+    recovered.close();
+    bf.close();
+  }
+
+  @Test
+  public void testBackgroundSnapshots() throws Exception {
+    Path dir = folder.getRoot().toPath();
+    PersistentBloomKFilter bf = new PersistentBloomKFilter(dir, COUNT, 0.01, 64);
+    bf.scheduleSnapshots(1, TimeUnit.MILLISECONDS);
+    for (int i = 0; i < COUNT; i++) {
+      bf.addLong(i);
+    }
+    bf.close();
+    assertTrue(Files.exists(dir.resolve("snapshot")));
+
+    PersistentBloomKFilter recovered = new PersistentBloomKFilter(dir, COUNT, 0.01, 64);
+    for (int i = 0; i < COUNT; i++) {
+      assertTrue(recovered.testLong(i));
+    }
+    assertArrayEquals(bf.getBloomKFilter().getBitSet(), recovered.getBloomKFilter().getBitSet());
+    recovered.close();
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestPrefixBloomFilter {
+  Random rand = new Random(123);
+
+  @Test(expected = AssertionError.class)
+  public void testPrefixBloomIllegalArg1() {
+    PrefixBloomFilter pbf = new PrefixBloomFilter(100, new int[]{8, 4});
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testPrefixBloomIllegalArg2() {
+    PrefixBloomFilter pbf = new PrefixBloomFilter(100, 0.01, 8, 4);
+  }
+
+  @Test
+  public void testHashPrefixes() {
+    byte[] data = new byte[64];
+    rand.nextBytes(data);
+    int[] lengths = new int[]{0, 1, 7, 8, 9, 16, 23, 40, 41};
+    long[] hashes = new long[lengths.length];
+    Murmur3.hash64Prefixes(data, 5, lengths, lengths.length, 0, hashes);
+    for (int i = 0; i < lengths.length; i++) {
+      byte[] prefix = new byte[lengths[i]];
+      System.arraycopy(data, 5, prefix, 0, lengths[i]);
+      assertEquals(Murmur3.hash64(prefix), hashes[i]);
+      assertEquals(Murmur3.hash64(prefix), Murmur3.hash64(data, 5, lengths[i], 0));
+    }
+  }
+
+  @Test
+  public void testPrefixes() {
+    int size = 10_000;
+    PrefixBloomFilter pbf = new PrefixBloomFilter(size, 0.01, new int[]{4, 12});
+    Set<String> prefixes = new HashSet<String>();
+    for (int i = 0; i < size; i++) {
+      // tenant/path
+      String key = String.format("t%03d/%07d/%d", rand.nextInt(500), rand.nextInt(10_000_000), i);
+      pbf.addString(key);
+      prefixes.add(key.substring(0, 4));
+      prefixes.add(key.substring(0, 12));
+      assertTrue(pbf.testString(key));
+      assertTrue(pbf.testPrefixString(key.substring(0, 4)));
+      assertTrue(pbf.testPrefixString(key.substring(0, 12)));
+      // not configured lengths test the longest configured prefix
+      assertTrue(pbf.testPrefixString(key.substring(0, 2)));
+      assertTrue(pbf.testPrefixString(key.substring(0, 7)));
+      assertTrue(pbf.testPrefixString(key.substring(0, 13)));
+    }
+
+    int falsePositives = 0;
+    int empty = 0;
+    for (int i = 0; i < 10_000; i++) {
+      String prefix = String.format("t%03d/%07d", 500 + rand.nextInt(500), rand.nextInt(10_000_000));
+      for (String p : new String[]{prefix.substring(0, 4), prefix}) {
+        if (!prefixes.contains(p)) {
+          empty++;
+          falsePositives += pbf.testPrefixString(p) ? 1 : 0;
+        }
+      }
+    }
+    assertTrue(empty > 10_000);
+    assertTrue((double) falsePositives / empty < 2 * pbf.getFalsePositivePercent());
+  }
+
+  @Test
+  public void testBoundaries() {
+    PrefixBloomFilter pbf = new PrefixBloomFilter(100, 0.001, 3, 10);
+    assertArrayEquals(new int[]{3, 6, 9}, pbf.getPrefixLengths());
+    byte[] buffer = "xxabcdefghijklxx".getBytes();
+    pbf.addBytes(buffer, 2, 12);
+    for (int length = 0; length <= 12; length++) {
+      assertTrue(pbf.testPrefix(buffer, 2, length));
+    }
+    assertTrue(pbf.test("abcdefghijkl".getBytes()));
+    assertFalse(pbf.test("abcdefghijk".getBytes()));
+    assertFalse(pbf.testPrefixString("abd"));
+    assertFalse(pbf.testPrefixString("abcdefghX"));
+    // shorter than the smallest prefix length
+    assertTrue(pbf.testPrefixString("zz"));
+
+    // key shorter than the prefix lengths
+    pbf.addString("uvwxy");
+    assertTrue(pbf.testPrefixString("uvw"));
+    assertTrue(pbf.testString("uvwxy"));
+    assertFalse(pbf.testPrefixString("uvwxyz"));
+  }
+
+  @Test
+  public void testMergeSerialize() {
+    PrefixBloomFilter pbf1 = new PrefixBloomFilter(1000, new int[]{2, 5});
+    PrefixBloomFilter pbf2 = new PrefixBloomFilter(1000, new int[]{2, 5});
+    for (int i = 0; i < 1000; i++) {
+      pbf1.addString("a" + i);
+      pbf2.addString("b" + i);
+    }
+    assertTrue(pbf1.isCompatible(pbf2));
+    assertFalse(pbf1.isCompatible(new PrefixBloomFilter(1000, new int[]{2, 6})));
+    pbf1.merge(pbf2);
+    PrefixBloomFilter copy = new PrefixBloomFilter(pbf1.serialize());
+    assertEquals(pbf1.serialize(), copy.serialize());
+    assertArrayEquals(new int[]{2, 5}, copy.getPrefixLengths());
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(copy.testString("a" + i));
+      assertTrue(copy.testString("b" + i));
+      assertTrue(copy.testPrefixString(("b" + i).substring(0, 2)));
+    }
+  }
+}
@@ -0,0 +1,258 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestQuotientFilter {
+  Random rand = new Random(123);
+  private final double deltaError = 0.01;
+
+  @Test(expected = AssertionError.class)
+  public void testQuotientIllegalArg1() {
+    QuotientFilter qf = new QuotientFilter(0);
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testQuotientIllegalArg2() {
+    QuotientFilter qf = new QuotientFilter(100, 1.0);
+  }
+
+  @Test
+  public void testSize() {
+    QuotientFilter qf = new QuotientFilter(1000, 0.01);
+    // 1000 / 0.75 -> 2^11 slots, 2^-7 < 0.01
+    assertEquals(11, qf.getQuotientBits());
+    assertEquals(7, qf.getRemainderBits());
+    assertEquals(2048, qf.getNumSlots());
+    assertEquals((2048 * 10 / 64 + 1) * 8, qf.sizeInBytes());
+  }
+
+  @Test
+  public void testAgainstFingerprintSet() {
+    // 10-bit fingerprints to force long clusters and collisions
+    QuotientFilter qf = new QuotientFilter(100, 0.25);
+    assertEquals(8, qf.getQuotientBits());
+    assertEquals(2, qf.getRemainderBits());
+    long[] pool = new long[400];
+    for (int i = 0; i < pool.length; i++) {
+      pool[i] = rand.nextLong();
+    }
+
+    // fingerprint -> number of copies
+    TreeMap<Long, Integer> expected = new TreeMap<Long, Integer>();
+    int numEntries = 0;
+    for (int op = 0; op < 100_000; op++) {
+      long hash = pool[rand.nextInt(pool.length)];
+      long fingerprint = hash & 1023;
+      Integer count = expected.get(fingerprint);
+      // keep the number of entries bounded
+      if (numEntries < 450 && rand.nextInt(10) < 5) {
+        qf.addHash(hash);
+        expected.put(fingerprint, count == null ? 1 : count + 1);
+        numEntries++;
+      } else {
+        assertEquals(count != null, qf.removeHash(hash));
+        if (count != null) {
+          numEntries--;
+          if (count == 1) {
+            expected.remove(fingerprint);
+          } else {
+            expected.put(fingerprint, count - 1);
+          }
+        }
+      }
+      assertEquals(numEntries, qf.getNumEntries());
+      if (op % 1000 == 0) {
+        for (long probe = 0; probe < 1024; probe++) {
+          assertEquals(expected.containsKey(probe), qf.testHash(probe));
+        }
+        assertArrayEquals(toArray(expected, numEntries), qf.getFingerprints());
+      }
+    }
+    // grown once, fingerprints are still 10 bits
+    assertEquals(9, qf.getQuotientBits());
+    assertEquals(1, qf.getRemainderBits());
+  }
+
+  @Test
+  public void testFppAndResize() {
+    int size = 100_000;
+    QuotientFilter qf = new QuotientFilter(size / 16, 0.0001);
+    int initialBits = qf.getQuotientBits() + qf.getRemainderBits();
+    for (int i = 0; i < size; i++) {
+      qf.addLong(i);
+    }
+    // resized 4 times, fingerprint length unchanged
+    assertEquals(initialBits, qf.getQuotientBits() + qf.getRemainderBits());
+    assertTrue(qf.loadFactor() <= QuotientFilter.MAX_LOAD_FACTOR);
+    for (int i = 0; i < size; i++) {
+      assertTrue(qf.testLong(i));
+    }
+
+    int fp = 0;
+    int probes = 1_000_000;
+    for (int i = 0; i < probes; i++) {
+      // out of range probes
+      if (qf.testLong(size + rand.nextInt(Integer.MAX_VALUE - size))) {
+        fp++;
+      }
+    }
+    assertEquals(qf.currentFpp(), (double) fp / probes, deltaError);
+  }
+
+  @Test
+  public void testDuplicates() {
+    QuotientFilter qf = new QuotientFilter(100, 0.01);
+    for (int i = 0; i < 3; i++) {
+      qf.addString("quotient");
+    }
+    assertEquals(3, qf.getNumEntries());
+    for (int i = 0; i < 2; i++) {
+      assertTrue(qf.removeString("quotient"));
+      assertTrue(qf.testString("quotient"));
+    }
+    assertTrue(qf.removeString("quotient"));
+    assertFalse(qf.testString("quotient"));
+    assertFalse(qf.removeString("quotient"));
+  }
+
+  @Test
+  public void testRemove() {
+    int size = 10_000;
+    QuotientFilter qf = new QuotientFilter(size, 0.001);
+    for (int i = 0; i < size; i++) {
+      qf.addLong(i);
+    }
+    for (int i = 0; i < size; i += 2) {
+      assertTrue(qf.removeLong(i));
+    }
+    // no false negatives even for elements sharing a fingerprint with removed elements
+    for (int i = 1; i < size; i += 2) {
+      assertTrue(qf.testLong(i));
+    }
+    for (int i = 1; i < size; i += 2) {
+      assertTrue(qf.removeLong(i));
+    }
+    assertEquals(0, qf.getNumEntries());
+    assertFalse(qf.testLong(1));
+    assertFalse(qf.removeString("not present"));
+  }
+
+  @Test
+  public void testMerge() {
+    int size = 10_000;
+    // 2^14 slots with 7 bit remainders and 2^12 slots with 9 bit remainders
+    QuotientFilter qf1 = new QuotientFilter(size, 0.01);
+    QuotientFilter qf2 = new QuotientFilter(size / 4, 0.002);
+    assertTrue(qf1.isCompatible(qf2));
+    assertFalse(qf1.isCompatible(new QuotientFilter(size, 0.001)));
+    for (int i = 0; i < size; i++) {
+      qf1.addLong(i);
+    }
+    // overlaps with first filter
+    for (int i = size / 2; i < size * 2; i++) {
+      qf2.addLong(i);
+    }
+    long numEntries = qf1.getNumEntries() + qf2.getNumEntries();
+    qf1.merge(qf2);
+    assertEquals(numEntries, qf1.getNumEntries());
+    assertEquals(21, qf1.getQuotientBits() + qf1.getRemainderBits());
+    assertTrue(qf1.loadFactor() <= QuotientFilter.MAX_LOAD_FACTOR);
+    for (int i = 0; i < size * 2; i++) {
+      assertTrue(qf1.testLong(i));
+    }
+    long[] fingerprints = qf1.getFingerprints();
+    for (int i = 1; i < fingerprints.length; i++) {
+      assertTrue(fingerprints[i - 1] <= fingerprints[i]);
+    }
+    // elements present in both filters were added twice
+    for (int i = size / 2; i < size; i++) {
+      assertTrue(qf1.removeLong(i));
+      assertTrue(qf1.testLong(i));
+    }
+  }
+
+  @Test
+  public void testMergeFull() {
+    // 2^4 slots with 2 bit remainders, resized up to 2^5 slots with 1 bit remainders
+    QuotientFilter qf1 = new QuotientFilter(12, 0.25);
+    QuotientFilter qf2 = new QuotientFilter(12, 0.25);
+    assertEquals(4, qf1.getQuotientBits());
+    assertEquals(2, qf1.getRemainderBits());
+    for (int i = 0; i < 30; i++) {
+      qf1.addLong(i);
+      qf2.addLong(-i - 1);
+    }
+    assertEquals(1, qf1.getRemainderBits());
+    List<Long> serialized = qf1.serialize();
+    try {
+      qf1.merge(qf2);
+      fail("merged 60 entries into 32 slots");
+    } catch (IllegalStateException e) {
+      // current filter is left as it was
+      assertEquals(serialized, qf1.serialize());
+      for (int i = 0; i < 30; i++) {
+        assertTrue(qf1.testLong(i));
+      }
+    }
+  }
+
+  @Test
+  public void testSerialize() {
+    QuotientFilter qf = new QuotientFilter(1000, 0.01);
+    for (int i = 0; i < 1000; i++) {
+      qf.addLong(i);
+    }
+    qf.addString("quotient");
+    qf.addBytes(new byte[]{1, 2, 3});
+    qf.addDouble(12.34);
+    QuotientFilter copy = new QuotientFilter(qf.serialize());
+    assertEquals(qf.serialize(), copy.serialize());
+    assertEquals(qf.getNumEntries(), copy.getNumEntries());
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(copy.testLong(i));
+    }
+    assertTrue(copy.testString("quotient"));
+    assertTrue(copy.testBytes(new byte[]{1, 2, 3}));
+    assertTrue(copy.testDouble(12.34));
+  }
+
+  private static long[] toArray(TreeMap<Long, Integer> counts, int size) {
+    long[] result = new long[size];
+    int i = 0;
+    for (Map.Entry<Long, Integer> entry : counts.entrySet()) {
+      for (int c = 0; c < entry.getValue(); c++) {
+        result[i++] = entry.getKey();
+      }
+    }
+    return result;
+  }
+}
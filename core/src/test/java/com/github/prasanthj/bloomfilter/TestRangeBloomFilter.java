@@ -0,0 +1,131 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestRangeBloomFilter {
+  Random rand = new Random(123);
+
+  @Test(expected = AssertionError.class)
+  public void testRangeBloomIllegalArg1() {
+    RangeBloomFilter rbf = new RangeBloomFilter(0);
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testRangeBloomIllegalArg2() {
+    RangeBloomFilter rbf = new RangeBloomFilter(100, 0.01, 64);
+  }
+
+  @Test
+  public void testRanges() {
+    int size = 10_000;
+    RangeBloomFilter rbf = new RangeBloomFilter(size);
+    TreeSet<Long> keys = new TreeSet<Long>();
+    for (int i = 0; i < size; i++) {
+      // keys around 0 with gaps of ~2^21 on average
+      long key = rand.nextLong() >> 30;
+      keys.add(key);
+      rbf.addLong(key);
+    }
+    int falsePositives = 0;
+    int empty = 0;
+    for (int width : new int[]{1, 2, 3, 100, 1000, 65_536, 1_000_000}) {
+      for (int i = 0; i < 2000; i++) {
+        long low = rand.nextLong() >> 30;
+        long high = low + width - 1;
+        Long ceiling = keys.ceiling(low);
+        boolean present = ceiling != null && ceiling <= high;
+        boolean result = rbf.testRange(low, high);
+        if (present) {
+          // no false negatives
+          assertTrue(result);
+        } else {
+          empty++;
+          falsePositives += result ? 1 : 0;
+        }
+      }
+    }
+    assertTrue(empty > 10_000);
+    assertTrue((double) falsePositives / empty < 3 * rbf.getFalsePositivePercent());
+
+    // ranges starting or ending at a key
+    for (long key : keys) {
+      assertTrue(rbf.testLong(key));
+      assertTrue(rbf.testRange(key, key));
+      assertTrue(rbf.testRange(key - 12345, key));
+      assertTrue(rbf.testRange(key, key + 54321));
+    }
+  }
+
+  @Test
+  public void testBoundaries() {
+    RangeBloomFilter rbf = new RangeBloomFilter(100, 0.001, 8);
+    assertFalse(rbf.testRange(Long.MIN_VALUE, Long.MIN_VALUE + 1000));
+    assertFalse(rbf.testRange(Long.MAX_VALUE - 1000, Long.MAX_VALUE));
+    assertFalse(rbf.testRange(-100, 100));
+    rbf.addLong(Long.MIN_VALUE);
+    rbf.addLong(Long.MAX_VALUE);
+    rbf.addInt(-1);
+    assertTrue(rbf.testRange(Long.MIN_VALUE, Long.MIN_VALUE + 1000));
+    assertTrue(rbf.testRange(Long.MAX_VALUE - 1000, Long.MAX_VALUE));
+    assertTrue(rbf.testRange(-100, 100));
+    assertTrue(rbf.testRange(-1, 0));
+    assertTrue(rbf.testInt(-1));
+    assertFalse(rbf.testRange(0, 1000));
+    assertFalse(rbf.testRange(-1000, -2));
+    // wider than 64 intervals of 2^8 is not probed
+    assertTrue(rbf.testRange(1000, 1000 + (64 << 8)));
+    assertFalse(rbf.testRange(1000, 1000 + (60 << 8)));
+    assertTrue(rbf.testRange(Long.MIN_VALUE, Long.MAX_VALUE));
+
+    RangeBloomFilter wide = new RangeBloomFilter(100, 0.001, 63);
+    wide.addLong(42);
+    assertTrue(wide.testRange(Long.MIN_VALUE, Long.MAX_VALUE));
+    assertFalse(wide.testRange(Long.MIN_VALUE, 41));
+    assertFalse(wide.testRange(43, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testMergeSerialize() {
+    RangeBloomFilter rbf1 = new RangeBloomFilter(1000);
+    RangeBloomFilter rbf2 = new RangeBloomFilter(1000);
+    for (int i = 0; i < 1000; i++) {
+      rbf1.addLong(i * 1000L);
+      rbf2.addLong(-i * 1000L - 500);
+    }
+    assertTrue(rbf1.isCompatible(rbf2));
+    assertFalse(rbf1.isCompatible(new RangeBloomFilter(1000, 0.01, 8)));
+    rbf1.merge(rbf2);
+    RangeBloomFilter copy = new RangeBloomFilter(rbf1.serialize());
+    assertEquals(rbf1.serialize(), copy.serialize());
+    assertEquals(RangeBloomFilter.DEFAULT_MAX_RANGE_BITS, copy.getMaxRangeBits());
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(copy.testRange(i * 1000L - 10, i * 1000L + 10));
+      assertTrue(copy.testRange(-i * 1000L - 510, -i * 1000L - 490));
+    }
+  }
+}
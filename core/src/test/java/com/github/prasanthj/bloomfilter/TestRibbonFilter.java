@@ -0,0 +1,193 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestRibbonFilter {
+  Random rand = new Random(123);
+
+  @Test(expected = AssertionError.class)
+  public void testRibbonIllegalArg1() {
+    RibbonFilter rf = new RibbonFilter(new long[10], 0);
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testRibbonIllegalArg2() {
+    RibbonFilter rf = new RibbonFilter(new long[10], 33);
+  }
+
+  @Test
+  public void testSmallSets() {
+    for (int size = 0; size < 100; size++) {
+      long[] hashes = new long[size];
+      for (int i = 0; i < size; i++) {
+        hashes[i] = Murmur3.hash64(("key " + i).getBytes());
+      }
+      RibbonFilter filter = new RibbonFilter(hashes, 1 + size % 32);
+      assertEquals(size, filter.getNumEntries());
+      for (int i = 0; i < size; i++) {
+        assertTrue(filter.testString("key " + i));
+      }
+    }
+  }
+
+  @Test
+  public void testFpp() {
+    int size = 1_000_000;
+    long[] hashes = hashes(size);
+    RibbonFilter filter = new RibbonFilter(hashes);
+    assertEquals(16, filter.getNumShards());
+    for (int i = 0; i < size; i++) {
+      assertTrue(filter.testLong(i));
+    }
+    // ~8% space overhead
+    assertEquals(8.64, filter.getBitsPerEntry(), 0.1);
+    assertEquals((long) (filter.getBitsPerEntry() * size / 8), filter.sizeInBytes(), 8);
+
+    int fp = 0;
+    int probes = 1_000_000;
+    for (int i = 0; i < probes; i++) {
+      // out of range probes
+      if (filter.testLong(size + rand.nextInt(Integer.MAX_VALUE - size))) {
+        fp++;
+      }
+    }
+    assertEquals(filter.getFalsePositivePercent(), (double) fp / probes, 0.001);
+  }
+
+  @Test
+  public void testFingerprintBits() {
+    int size = 100_000;
+    long[] hashes = hashes(size);
+    int probes = 100_000;
+    for (int bits : new int[]{1, 3, 7, 13, 32}) {
+      RibbonFilter filter = new RibbonFilter(hashes, bits);
+      assertEquals(bits, filter.getFingerprintBits());
+      assertEquals(bits * 1.08, filter.getBitsPerEntry(), bits * 0.03);
+      for (int i = 0; i < size; i++) {
+        assertTrue(filter.testHash(hashes[i]));
+      }
+      int fp = 0;
+      for (int i = 0; i < probes; i++) {
+        if (filter.testHash(rand.nextLong())) {
+          fp++;
+        }
+      }
+      assertEquals(filter.getFalsePositivePercent(), (double) fp / probes, 0.005);
+    }
+  }
+
+  @Test
+  public void testParallelBuild() {
+    int size = 500_000;
+    long[] hashes = hashes(size);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      RibbonFilter parallel = new RibbonFilter(hashes, 10, pool);
+      RibbonFilter sequential = new RibbonFilter(hashes, 10);
+      assertEquals(sequential.serialize(), parallel.serialize());
+      for (int i = 0; i < size; i++) {
+        assertTrue(parallel.testLong(i));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testDuplicates() {
+    int size = 10_000;
+    long[] hashes = new long[size * 2];
+    for (int i = 0; i < size; i++) {
+      hashes[i] = Murmur3.hash64(longToByteArrayLE(i));
+      hashes[size + i] = hashes[i];
+    }
+    RibbonFilter filter = new RibbonFilter(hashes);
+    for (int i = 0; i < size; i++) {
+      assertTrue(filter.testLong(i));
+    }
+  }
+
+  @Test
+  public void testIterator() {
+    List<byte[]> keys = new ArrayList<byte[]>();
+    for (int i = 0; i < 1000; i++) {
+      keys.add(("ribbon " + i).getBytes());
+    }
+    keys.add(new byte[]{1, 2, 3});
+    RibbonFilter filter = new RibbonFilter(keys.iterator(), 8);
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(filter.testString("ribbon " + i));
+    }
+    assertTrue(filter.testBytes(new byte[]{1, 2, 3}));
+    assertTrue(filter.test(new byte[]{1, 2, 3}));
+    int fp = 0;
+    for (int i = 1000; i < 2000; i++) {
+      if (filter.testString("ribbon " + i)) {
+        fp++;
+      }
+    }
+    assertTrue(fp < 20);
+  }
+
+  @Test
+  public void testSerialize() {
+    int size = 100_001;
+    long[] hashes = hashes(size);
+    RibbonFilter filter = new RibbonFilter(hashes, 12);
+    RibbonFilter copy = new RibbonFilter(filter.serialize());
+    assertEquals(filter.serialize(), copy.serialize());
+    assertEquals(filter.getNumEntries(), copy.getNumEntries());
+    assertEquals(filter.getFingerprintBits(), copy.getFingerprintBits());
+    assertEquals(filter.sizeInBytes(), copy.sizeInBytes());
+    for (int i = 0; i < size; i++) {
+      assertTrue(copy.testLong(i));
+    }
+    assertFalse(copy.testString("not present") && copy.testString("not present either"));
+  }
+
+  private static long[] hashes(int size) {
+    long[] hashes = new long[size];
+    for (int i = 0; i < size; i++) {
+      hashes[i] = Murmur3.hash64(longToByteArrayLE(i));
+    }
+    return hashes;
+  }
+
+  private static byte[] longToByteArrayLE(long val) {
+    return new byte[]{(byte) (val >> 0),
+        (byte) (val >> 8),
+        (byte) (val >> 16),
+        (byte) (val >> 24),
+        (byte) (val >> 32),
+        (byte) (val >> 40),
+        (byte) (val >> 48),
+        (byte) (val >> 56),};
+  }
+}
@@ -0,0 +1,118 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestScalableBloomFilter {
+  // blocked slices have slightly higher fpp than configured, give room for another 1%
+  private final double deltaError = 0.01;
+
+  @Test(expected = AssertionError.class)
+  public void testBloomIllegalArg1() {
+    ScalableBloomFilter bf = new ScalableBloomFilter(0);
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testBloomIllegalArg2() {
+    ScalableBloomFilter bf = new ScalableBloomFilter(1000, 0.05, 2, 1.0);
+  }
+
+  @Test
+  public void testSliceGrowth() {
+    int size = 1000;
+    ScalableBloomFilter bf = new ScalableBloomFilter(size, 0.01);
+    for (int i = 0; i < size; i++) {
+      bf.addLong(i);
+    }
+    assertEquals(1, bf.getSlices().length);
+    bf.addLong(size);
+    assertEquals(2, bf.getSlices().length);
+    // capacity 1000 + 2000 + 4000 + 8000
+    for (int i = size + 1; i < 15 * size; i++) {
+      bf.addLong(i);
+    }
+    assertEquals(4, bf.getSlices().length);
+    bf.addLong(15 * size);
+    assertEquals(5, bf.getSlices().length);
+
+    BloomKFilter[] slices = bf.getSlices();
+    for (int i = 1; i < slices.length; i++) {
+      assertEquals(2 * slices[i - 1].getExpectedNumEntries(), slices[i].getExpectedNumEntries());
+      assertEquals(0.85 * slices[i - 1].getFalsePositivePercent(),
+          slices[i].getFalsePositivePercent(), 0.0000001);
+    }
+    assertEquals(0.01 * 0.15, slices[0].getFalsePositivePercent(), 0.0000001);
+    for (int i = 0; i <= 15 * size; i++) {
+      assertTrue(bf.testLong(i));
+    }
+  }
+
+  @Test
+  public void testFppBounded() {
+    int size = 10_000;
+    double fpp = 0.01;
+    ScalableBloomFilter bf = new ScalableBloomFilter(size, fpp);
+    // 100 times the initial capacity
+    for (int i = 0; i < size * 100; i++) {
+      bf.addLong(i);
+    }
+    assertEquals(7, bf.getSlices().length);
+    for (int i = 0; i < size * 100; i++) {
+      assertTrue(bf.testLong(i));
+    }
+
+    Random random = new Random(123);
+    int fp = 0;
+    int probes = 1_000_000;
+    for (int i = 0; i < probes; i++) {
+      // out of range probes
+      if (bf.testLong(size * 100 + random.nextInt(Integer.MAX_VALUE - size * 100))) {
+        fp++;
+      }
+    }
+    double actualFpp = (double) fp / probes;
+    assertTrue(actualFpp < fpp + deltaError);
+    assertTrue(bf.currentFpp() < fpp);
+    assertEquals(bf.currentFpp(), actualFpp, deltaError);
+    assertEquals(size * 100, bf.estimateCardinality(), size * 100 * 0.02);
+  }
+
+  @Test
+  public void testScalableBloomFilterString() {
+    ScalableBloomFilter bf = new ScalableBloomFilter(10);
+    for (int i = 0; i < 100; i++) {
+      bf.addString("bloom filter " + i);
+    }
+    for (int i = 0; i < 100; i++) {
+      assertTrue(bf.testString("bloom filter " + i));
+    }
+    bf.addBytes(new byte[]{1, 2, 3});
+    bf.addInt(1234);
+    bf.addDouble(12.34);
+    assertTrue(bf.testBytes(new byte[]{1, 2, 3}));
+    assertTrue(bf.testInt(1234));
+    assertTrue(bf.testDouble(12.34));
+  }
+}
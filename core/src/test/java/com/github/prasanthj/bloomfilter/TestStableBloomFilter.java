@@ -0,0 +1,181 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestStableBloomFilter {
+  Random rand = new Random(123);
+  private final double deltaError = 0.015;
+
+  @Test(expected = AssertionError.class)
+  public void testStableBloomIllegalArg1() {
+    StableBloomFilter sbf = new StableBloomFilter(0, 0);
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testStableBloomIllegalArg2() {
+    StableBloomFilter sbf = new StableBloomFilter(100, 0.05, 16);
+  }
+
+  @Test
+  public void testNumDecrements() {
+    // zero probability of a cell (1 / (1 + 1 / (P * (1 / k - 1 / m))))^max gives fpp back
+    int k = 4;
+    int max = 3;
+    double p = StableBloomFilter.optimalNumOfDecrements(0.05, k, max, 128);
+    double zeroProbability = Math.pow(1.0 / (1.0 + 1.0 / (p * (1.0 / k - 1.0 / 128))), max);
+    assertEquals(0.05, Math.pow(1.0 - zeroProbability, k), 1e-9);
+    // larger max count needs more decrements
+    assertTrue(StableBloomFilter.optimalNumOfDecrements(0.05, k, 1, 128) < p);
+    assertTrue(StableBloomFilter.optimalNumOfDecrements(0.05, k, 15, 128) > p);
+
+    StableBloomFilter sbf = new StableBloomFilter(10000, 0.05);
+    assertEquals(StableBloomFilter.DEFAULT_MAX_COUNT, sbf.getMaxCount());
+    assertEquals(p, sbf.getNumDecrements(), 1e-9);
+  }
+
+  @Test
+  public void testStableFpp() {
+    int size = 100_000;
+    StableBloomFilter sbf = new StableBloomFilter(size, 0.05);
+    assertEquals(0.0, sbf.currentFpp(), 0.0);
+    double[] fpps = new double[4];
+    int element = 0;
+    for (int round = 0; round < fpps.length; round++) {
+      // 5 times the number of entries the filter is sized for
+      for (int i = 0; i < size * 5; i++) {
+        sbf.addInt(element++);
+      }
+      int fp = 0;
+      int probes = 200_000;
+      for (int i = 0; i < probes; i++) {
+        // out of range probes
+        if (sbf.testLong(rand.nextLong())) {
+          fp++;
+        }
+      }
+      fpps[round] = (double) fp / probes;
+      assertEquals(sbf.getFalsePositivePercent(), fpps[round], deltaError);
+      assertEquals(sbf.currentFpp(), fpps[round], deltaError);
+    }
+    // converged, does not grow with the length of the stream
+    for (int round = 1; round < fpps.length; round++) {
+      assertEquals(fpps[0], fpps[round], 0.005);
+    }
+    assertEquals(1.0 - Math.pow(fpps[3], 1.0 / sbf.getNumHashFunctions()), sbf.zeroRatio(), 0.05);
+  }
+
+  @Test
+  public void testRecentElements() {
+    int size = 100_000;
+    StableBloomFilter sbf = new StableBloomFilter(size, 0.05);
+    int stream = 1_000_000;
+    for (int i = 0; i < stream; i++) {
+      sbf.addInt(i);
+    }
+    // most recent elements are rarely evicted
+    int recent = 0;
+    for (int i = stream - size / 10; i < stream; i++) {
+      if (sbf.testInt(i)) {
+        recent++;
+      }
+    }
+    assertTrue(recent > size / 10 * 0.99);
+    // oldest elements are mostly evicted
+    int present = 0;
+    for (int i = 0; i < size; i++) {
+      if (sbf.testInt(i)) {
+        present++;
+      }
+    }
+    assertTrue(present < size * 0.1);
+  }
+
+  @Test
+  public void testMaxCount() {
+    int size = 10_000;
+    StableBloomFilter sbf1 = new StableBloomFilter(size, 0.05, 1);
+    StableBloomFilter sbf15 = new StableBloomFilter(size, 0.05, 15);
+    int stream = 100_000;
+    for (int i = 0; i < stream; i++) {
+      sbf1.addInt(i);
+      sbf15.addInt(i);
+    }
+    // larger max count remembers elements for longer at the same stable fpp
+    int present1 = 0;
+    int present15 = 0;
+    for (int i = stream - size; i < stream; i++) {
+      present1 += sbf1.testInt(i) ? 1 : 0;
+      present15 += sbf15.testInt(i) ? 1 : 0;
+    }
+    assertTrue(present1 < present15);
+    assertEquals(sbf1.currentFpp(), sbf15.currentFpp(), deltaError);
+  }
+
+  @Test
+  public void testAndAdd() {
+    StableBloomFilter sbf = new StableBloomFilter(10000, 0.01);
+    int duplicates = 0;
+    for (int i = 0; i < 5000; i++) {
+      if (sbf.testAndAdd(("click " + i).getBytes())) {
+        duplicates++;
+      }
+    }
+    assertTrue(duplicates < 50);
+    int present = 0;
+    for (int i = 4000; i < 5000; i++) {
+      if (sbf.test(("click " + i).getBytes())) {
+        present++;
+      }
+    }
+    assertTrue(present > 990);
+    sbf.addString("stable");
+    sbf.addLong(12L);
+    sbf.addDouble(1.5);
+    assertTrue(sbf.testString("stable"));
+    assertTrue(sbf.testLong(12L));
+    assertTrue(sbf.testDouble(1.5));
+    assertFalse(sbf.testString("not present"));
+  }
+
+  @Test
+  public void testSerialize() {
+    StableBloomFilter sbf = new StableBloomFilter(10000, 0.01, 5);
+    for (int i = 0; i < 50000; i++) {
+      sbf.addInt(i);
+    }
+    StableBloomFilter copy = new StableBloomFilter(sbf.serialize());
+    assertEquals(sbf.serialize(), copy.serialize());
+    assertEquals(5, copy.getMaxCount());
+    assertEquals(sbf.getNumCells(), copy.getNumCells());
+    // random generator state is restored too, both evolve identically
+    for (int i = 50000; i < 60000; i++) {
+      sbf.addInt(i);
+      copy.addInt(i);
+    }
+    assertEquals(sbf.serialize(), copy.serialize());
+  }
+}
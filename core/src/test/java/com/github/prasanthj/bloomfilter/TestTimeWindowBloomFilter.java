@@ -0,0 +1,191 @@
+/**
+ *   Copyright 2014 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ */
+public class TestTimeWindowBloomFilter {
+  Random rand = new Random(123);
+  private final double deltaError = 0.01;
+
+  private static class ManualClock implements TimeWindowBloomFilter.Clock {
+    long now = 1_000_000;
+
+    @Override
+    public long currentTimeMillis() {
+      return now;
+    }
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testTimeWindowIllegalArg1() {
+    TimeWindowBloomFilter twbf = new TimeWindowBloomFilter(100, 60_000, 1);
+  }
+
+  @Test(expected = AssertionError.class)
+  public void testTimeWindowIllegalArg2() {
+    TimeWindowBloomFilter twbf = new TimeWindowBloomFilter(100, 1.0, 60_000, 4, new ManualClock());
+  }
+
+  @Test
+  public void testExpiry() {
+    ManualClock clock = new ManualClock();
+    // 10 minute window, 5 generations of 2.5 minutes
+    long window = 10 * 60_000;
+    TimeWindowBloomFilter twbf = new TimeWindowBloomFilter(1000, 0.01, window, 5, clock);
+    assertEquals(window / 4, twbf.getGenerationMillis());
+    twbf.addString("click");
+    clock.now += window / 2;
+    twbf.addString("later click");
+    // visible for the whole window
+    for (; clock.now <= 1_000_000 + window; clock.now += 1000) {
+      assertTrue(twbf.testString("click"));
+    }
+    // expired at most one generation after the window
+    clock.now = 1_000_000 + window + twbf.getGenerationMillis();
+    assertFalse(twbf.testString("click"));
+    assertTrue(twbf.testString("later click"));
+    clock.now += window;
+    assertFalse(twbf.testString("later click"));
+  }
+
+  @Test
+  public void testWindowNotMultipleOfGenerations() {
+    // 10ms window over 3 full generations, generations are rounded up to 4ms
+    long window = 10;
+    int generations = 4;
+    assertEquals(4, new TimeWindowBloomFilter(1000, 0.01, window, generations, new ManualClock())
+        .getGenerationMillis());
+    // added at every offset of the generations, including just before a rotation
+    for (long offset = 0; offset < 2 * generations * 4; offset++) {
+      ManualClock clock = new ManualClock();
+      TimeWindowBloomFilter twbf = new TimeWindowBloomFilter(1000, 0.01, window, generations, clock);
+      long added = clock.now + offset;
+      clock.now = added;
+      twbf.addLong(offset);
+      for (; clock.now <= added + window; clock.now++) {
+        assertTrue(twbf.testLong(offset));
+      }
+      clock.now = added + generations * twbf.getGenerationMillis();
+      assertFalse(twbf.testLong(offset));
+    }
+  }
+
+  @Test
+  public void testWindowBoundary() {
+    ManualClock clock = new ManualClock();
+    long window = 1000;
+    TimeWindowBloomFilter twbf = new TimeWindowBloomFilter(10_000, 0.01, window, 3, clock);
+    // add an element every millisecond, the last window of elements is always present
+    for (int t = 0; t < 10_000; t++) {
+      twbf.addInt(t);
+      if (t % 100 == 0 && t >= window) {
+        for (int i = (int) (t - window); i <= t; i++) {
+          assertTrue(twbf.testInt(i));
+        }
+        // elements older than window + generation have expired
+        int present = 0;
+        for (int i = Math.max(0, (int) (t - 3 * window)); i < t - window - twbf.getGenerationMillis(); i++) {
+          if (twbf.testInt(i)) {
+            present++;
+          }
+        }
+        assertTrue(present < 0.05 * window);
+      }
+      clock.now++;
+    }
+  }
+
+  @Test
+  public void testLongPause() {
+    ManualClock clock = new ManualClock();
+    TimeWindowBloomFilter twbf = new TimeWindowBloomFilter(1000, 0.01, 60_000, 4, clock);
+    for (int i = 0; i < 1000; i++) {
+      twbf.addInt(i);
+    }
+    // all generations expire at once
+    clock.now += 1_000_000;
+    for (int i = 0; i < 1000; i++) {
+      assertFalse(twbf.testInt(i));
+    }
+    assertEquals(0.0, twbf.currentFpp(), 0.0);
+    twbf.addInt(1);
+    assertTrue(twbf.testInt(1));
+    // clock going backwards does not rotate
+    clock.now -= 100_000;
+    assertTrue(twbf.testInt(1));
+  }
+
+  @Test
+  public void testFpp() {
+    ManualClock clock = new ManualClock();
+    int entriesPerGeneration = 100_000;
+    int generations = 4;
+    TimeWindowBloomFilter twbf = new TimeWindowBloomFilter(entriesPerGeneration, 0.05, 3000,
+        generations, clock);
+    // fill every generation with the expected number of entries
+    for (int g = 0; g < generations; g++) {
+      for (int i = 0; i < entriesPerGeneration; i++) {
+        twbf.addInt(g * entriesPerGeneration + i);
+      }
+      clock.now += twbf.getGenerationMillis();
+    }
+    clock.now -= twbf.getGenerationMillis();
+    for (int i = 0; i < generations * entriesPerGeneration; i++) {
+      assertTrue(twbf.testInt(i));
+    }
+
+    int fp = 0;
+    int probes = 200_000;
+    for (int i = 0; i < probes; i++) {
+      // out of range probes
+      if (twbf.testLong(rand.nextLong())) {
+        fp++;
+      }
+    }
+    double actualFpp = (double) fp / probes;
+    assertEquals(twbf.getFalsePositivePercent(), actualFpp, deltaError);
+    assertEquals(twbf.currentFpp(), actualFpp, deltaError);
+  }
+
+  @Test
+  public void testTypes() {
+    TimeWindowBloomFilter twbf = new TimeWindowBloomFilter(1000, 60_000, 2);
+    twbf.add(new byte[]{1, 2, 3});
+    twbf.addByte((byte) 1);
+    twbf.addLong(12L);
+    twbf.addFloat(1.5f);
+    twbf.addDouble(2.5);
+    assertTrue(twbf.test(new byte[]{1, 2, 3}));
+    assertTrue(twbf.testByte((byte) 1));
+    assertTrue(twbf.testLong(12L));
+    assertTrue(twbf.testFloat(1.5f));
+    assertTrue(twbf.testDouble(2.5));
+    assertTrue(twbf.testHash(Murmur3.hash64(new byte[]{1, 2, 3})));
+    assertFalse(twbf.testString("not present"));
+    assertEquals(2, twbf.getNumGenerations());
+    assertEquals(2 * new BloomKFilter(1000, 0.05 / 2).sizeInBytes(), twbf.sizeInBytes(), 1024);
+  }
+}